@@ -0,0 +1,127 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.dao.ColumnarStateStore;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one command as the universe grows from the 3 default asset classes to 20 and 50 instruments. Divide by
+ * <code>assets</code> for the cost per asset, which should stay flat: after parsing, every command is a loop over
+ * dense asset ids.
+ * <p>
+ * <code>change</code> and <code>changeLine</code> register the next month of a timeline that starts over, on a new
+ * portfolio, every {@link #MONTHS} months; <code>balance</code> reads a recent month and <code>reBalance</code>
+ * re-balances that year.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AssetUniverseBenchmark {
+    // A year, as in the sample input: every month adds to the scale of the amounts, longer timelines end up measuring
+    // BigDecimal arithmetic on wide numbers whatever the number of assets.
+    private static final int MONTHS = 12;
+    private static final YearMonth START = YearMonth.of(2024, Month.JANUARY);
+
+    @Param({"3", "20", "50"})
+    private int assets;
+
+    @Param({"FIXED_POINT"})
+    private NumericEngine numericEngine;
+
+    private AssetUniverse universe;
+    private double[][] rates;
+    private String[] changeLines;
+    private PortfolioService timeline;
+    private Driver timelineDriver;
+    private int month;
+    private PortfolioService year;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] names = new String[assets];
+        for (int asset = 0; asset < assets; asset++) {
+            names[asset] = "FUND_" + asset;
+        }
+        universe = AssetUniverse.of(names);
+        Random random = new Random(42);
+        rates = new double[MONTHS][assets];
+        changeLines = new String[MONTHS];
+        for (int m = 0; m < MONTHS; m++) {
+            StringBuilder line = new StringBuilder("CHANGE");
+            for (int asset = 0; asset < assets; asset++) {
+                // Half percents, like the sample input.
+                rates[m][asset] = (random.nextInt(81) - 30) / 2d;
+                line.append(' ').append(String.format(Locale.ROOT, "%.2f%%", rates[m][asset]));
+            }
+            YearMonth yearMonth = START.plusMonths(m);
+            changeLines[m] = line.append(' ').append(yearMonth.getMonth()).append(' ').append(yearMonth.getYear()).toString();
+        }
+        startTimeline();
+        year = newAllocatedService();
+        for (int m = 0; m < MONTHS; m++) {
+            year.change(rates[m], START.plusMonths(m));
+        }
+    }
+
+    @Benchmark
+    public PortfolioService change() {
+        if (month == MONTHS) {
+            startTimeline();
+        }
+        timeline.change(rates[month], START.plusMonths(month));
+        month++;
+        return timeline;
+    }
+
+    @Benchmark
+    public String changeLine() {
+        if (month == MONTHS) {
+            startTimeline();
+        }
+        return timelineDriver.processCommand(changeLines[month++]);
+    }
+
+    @Benchmark
+    public String balance() {
+        return year.balance(START.plusMonths(MONTHS - 1));
+    }
+
+    @Benchmark
+    public String reBalance() {
+        return year.reBalance();
+    }
+
+    private void startTimeline() {
+        timeline = newAllocatedService();
+        timelineDriver = new Driver(timeline);
+        month = 0;
+    }
+
+    private PortfolioService newAllocatedService() {
+        ColumnarStateStore store = ColumnarStateStore.single(universe);
+        PortfolioService service = new PortfolioServiceImpl(store.newDataStub(0), store.newPortfolio(0), numericEngine);
+        BigDecimal[] allocations = new BigDecimal[assets];
+        BigDecimal[] sips = new BigDecimal[assets];
+        for (int asset = 0; asset < assets; asset++) {
+            allocations[asset] = BigDecimal.valueOf(1000L * (asset % 7 + 1));
+            sips[asset] = BigDecimal.valueOf(100L * (asset % 5 + 1));
+        }
+        service.allocate(allocations);
+        service.initSip(sips);
+        return service;
+    }
+}
@@ -0,0 +1,113 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.parser.BinaryCommandConverter;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+final class BenchmarkFixtures {
+    static final List<String> SETUP = Collections.unmodifiableList(Arrays.asList(
+            "ALLOCATE 6000 3000 1000",
+            "SIP 2000 1000 500"));
+
+    static final List<String> CHANGES = Collections.unmodifiableList(Arrays.asList(
+            "CHANGE 4.00% 10.00% 2.00% JANUARY",
+            "CHANGE -10.00% 40.00% 0.00% FEBRUARY",
+            "CHANGE 12.50% 12.50% 12.50% MARCH",
+            "CHANGE 8.00% -3.00% 7.00% APRIL",
+            "CHANGE 13.00% 21.00% 10.50% MAY",
+            "CHANGE 10.00% 8.00% -5.00% JUNE",
+            "CHANGE 4.00% 10.00% 2.00% JULY",
+            "CHANGE -10.00% 40.00% 0.00% AUGUST",
+            "CHANGE 12.50% 12.50% 12.50% SEPTEMBER",
+            "CHANGE 8.00% -3.00% 7.00% OCTOBER",
+            "CHANGE 13.00% 21.00% 10.50% NOVEMBER",
+            "CHANGE 10.00% 8.00% -5.00% DECEMBER"));
+
+    /**
+     * Same commands as the sample <code>input.txt</code>.
+     */
+    static final List<String> SAMPLE_INPUT = sampleInput();
+
+    static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private BenchmarkFixtures() {
+    }
+
+    static Driver newDriver(NumericEngine numericEngine) {
+        return new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), numericEngine));
+    }
+
+    /**
+     * Runs the set-up commands and the first <code>months</code> changes.
+     */
+    static Driver newDriver(NumericEngine numericEngine, int months) {
+        Driver driver = newDriver(numericEngine);
+        initialize(driver, months);
+        return driver;
+    }
+
+    static void initialize(Driver driver, int months) {
+        SETUP.forEach(driver::processCommand);
+        CHANGES.subList(0, months).forEach(driver::processCommand);
+    }
+
+    private static List<String> sampleInput() {
+        List<String> lines = new ArrayList<>(SETUP);
+        lines.addAll(CHANGES.subList(0, 6));
+        lines.addAll(Arrays.asList("BALANCE MARCH", "BALANCE MAY", "REBALANCE"));
+        return Collections.unmodifiableList(lines);
+    }
+
+    static Path writeTempFile(List<String> lines) throws IOException {
+        Path file = Files.createTempFile("my-money-bench", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    static Path toBinary(Path textInput) throws IOException {
+        Path file = Files.createTempFile("my-money-bench", ".bin");
+        file.toFile().deleteOnExit();
+        BinaryCommandConverter.convert(textInput, file);
+        return file;
+    }
+
+    static Writer nullWriter() {
+        return new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
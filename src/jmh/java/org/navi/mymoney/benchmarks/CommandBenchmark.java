@@ -0,0 +1,63 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>Driver.processCommand</code> for every {@link Command}.
+ * <p>
+ * ALLOCATE, SIP and CHANGE can only be applied once per portfolio, so every invocation gets a fresh portfolio with
+ * just the commands preceding the measured one already applied. The set-up is not measured, but per-invocation
+ * set-up adds some timing noise to what are sub-microsecond operations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandBenchmark {
+    @Param({"ALLOCATE", "SIP", "CHANGE", "BALANCE", "REBALANCE"})
+    public Command command;
+
+    @Param({"BIG_DECIMAL", "FIXED_POINT"})
+    public NumericEngine numericEngine;
+
+    private Driver driver;
+    private String line;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        switch (command) {
+            case ALLOCATE:
+                driver = BenchmarkFixtures.newDriver(numericEngine);
+                line = BenchmarkFixtures.SETUP.get(0);
+                break;
+            case SIP:
+                driver = BenchmarkFixtures.newDriver(numericEngine);
+                driver.processCommand(BenchmarkFixtures.SETUP.get(0));
+                line = BenchmarkFixtures.SETUP.get(1);
+                break;
+            case CHANGE:
+                driver = BenchmarkFixtures.newDriver(numericEngine, 5);
+                line = BenchmarkFixtures.CHANGES.get(5);
+                break;
+            case BALANCE:
+                driver = BenchmarkFixtures.newDriver(numericEngine, 6);
+                line = "BALANCE MAY";
+                break;
+            default:
+                driver = BenchmarkFixtures.newDriver(numericEngine, 6);
+                line = "REBALANCE";
+        }
+    }
+
+    @Benchmark
+    public String processCommand() {
+        return driver.processCommand(line);
+    }
+}
@@ -0,0 +1,126 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.parser.BinaryCommandReader;
+import org.navi.mymoney.parser.MappedCommandReader;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.services.PortfolioService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Reading a whole archive of dated commands back, without the portfolio arithmetic: the text parser of
+ * {@link Driver}, the memory-mapped text decoder and the binary format. Scores are archives per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandDecodingBenchmark {
+    public enum Format {
+        TEXT,
+        MAPPED,
+        BINARY
+    }
+
+    @Param({"TEXT", "MAPPED", "BINARY"})
+    public Format format;
+
+    @Param({"100000"})
+    public int commands;
+
+    private Path textInput;
+    private Path binaryInput;
+    private final ParsedCommand command = new ParsedCommand();
+    private final Driver textParser = new Driver(new DecodeOnlyService());
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(12);
+        List<String> lines = new ArrayList<>(BenchmarkFixtures.SETUP);
+        YearMonth month = YearMonth.of(2000, Month.JANUARY);
+        while (lines.size() < commands) {
+            lines.add(String.format(Locale.ROOT, "CHANGE %.2f%% %.2f%% %.2f%% %s %d", random.nextInt(3000) / 100d - 10,
+                    random.nextInt(2000) / 100d - 5, random.nextInt(1000) / 100d - 2, month.getMonth(), month.getYear()));
+            lines.add("BALANCE " + month.getMonth() + " " + month.getYear());
+            month = month.plusMonths(1);
+        }
+        textInput = BenchmarkFixtures.writeTempFile(lines);
+        binaryInput = BenchmarkFixtures.toBinary(textInput);
+    }
+
+    @Benchmark
+    public long decode() throws IOException {
+        long decoded = 0;
+        switch (format) {
+            case TEXT:
+                try (Stream<String> lines = Files.lines(textInput)) {
+                    return lines.filter(line -> !line.isEmpty()).map(textParser::processCommand).count();
+                }
+            case MAPPED:
+                try (MappedCommandReader reader = new MappedCommandReader(textInput)) {
+                    while (reader.next(command)) {
+                        decoded += command.getUnscaled(0);
+                    }
+                }
+                return decoded;
+            default:
+                try (BinaryCommandReader reader = new BinaryCommandReader(binaryInput)) {
+                    while (reader.next(command)) {
+                        decoded += command.getUnscaled(0);
+                    }
+                }
+                return decoded;
+        }
+    }
+
+    /**
+     * Takes every command and does nothing with it, so only the text parsing is measured.
+     */
+    private static final class DecodeOnlyService implements PortfolioService {
+        @Override
+        public void allocate(BigDecimal[] allocations) {
+        }
+
+        @Override
+        public void initSip(BigDecimal[] sips) {
+        }
+
+        @Override
+        public void change(double[] rates, Month month) {
+        }
+
+        @Override
+        public void change(double[] rates, YearMonth yearMonth) {
+        }
+
+        @Override
+        public String balance(Month month) {
+            return null;
+        }
+
+        @Override
+        public String balance(YearMonth yearMonth) {
+            return null;
+        }
+
+        @Override
+        public String reBalance() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.services.ConcurrentPortfolioService;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>BALANCE</code> of random months from threads sharing one portfolio, through {@link ConcurrentPortfolioService}
+ * or through a plain service with every command behind one lock. <code>balance</code> only reads, run it with
+ * <code>-t 1</code>, <code>-t 2</code>, ... to see how reads scale with threads; <code>mixed</code> has three readers
+ * next to a thread re-balancing the portfolio over and over.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentReadBenchmark {
+    private static final int FIRST_YEAR = 2024;
+    private static final int YEARS = 10;
+
+    public enum Guard {SNAPSHOT, LOCK}
+
+    @Param({"SNAPSHOT", "LOCK"})
+    private Guard guard;
+
+    private PortfolioService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = guard == Guard.SNAPSHOT
+                ? new ConcurrentPortfolioService(NumericEngine.FIXED_POINT)
+                : new LockedPortfolioService(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()),
+                NumericEngine.FIXED_POINT));
+        Driver driver = new Driver(service);
+        BenchmarkFixtures.initialize(driver, 0);
+        for (int year = 0; year < YEARS; year++) {
+            for (String change : BenchmarkFixtures.CHANGES) {
+                driver.processCommand(change + " " + (FIRST_YEAR + year));
+            }
+        }
+    }
+
+    @Benchmark
+    public String balance() {
+        return readRandomMonth();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public String read() {
+        return readRandomMonth();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public String reBalance() {
+        return service.reBalance();
+    }
+
+    private String readRandomMonth() {
+        int month = ThreadLocalRandom.current().nextInt(YEARS * 12);
+        return service.balance(YearMonth.of(FIRST_YEAR + month / 12, month % 12 + 1));
+    }
+
+    // Plain service shared the simple way: even BALANCE writes to its state, so every command takes the lock.
+    private static final class LockedPortfolioService implements PortfolioService {
+        private final PortfolioService delegate;
+
+        LockedPortfolioService(PortfolioService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void allocate(BigDecimal[] allocations) {
+            delegate.allocate(allocations);
+        }
+
+        @Override
+        public synchronized void initSip(BigDecimal[] sips) {
+            delegate.initSip(sips);
+        }
+
+        @Override
+        public synchronized void change(double[] rates, Month month) {
+            delegate.change(rates, month);
+        }
+
+        @Override
+        public synchronized void change(double[] rates, YearMonth yearMonth) {
+            delegate.change(rates, yearMonth);
+        }
+
+        @Override
+        public synchronized String balance(Month month) {
+            return delegate.balance(month);
+        }
+
+        @Override
+        public synchronized String balance(YearMonth yearMonth) {
+            return delegate.balance(yearMonth);
+        }
+
+        @Override
+        public synchronized String reBalance() {
+            return delegate.reBalance();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.constants.BatchMode;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end execution of an input file in every {@link BatchMode}.
+ * <p>
+ * The single portfolio modes run the sample input, {@link BatchMode#BINARY} once converted; {@link BatchMode#ENGINE}
+ * and {@link BatchMode#PARALLEL} run the sample input for <code>portfolios</code> portfolios. Outputs go to a null sink, so this measures reading, parsing and computing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FileExecutionBenchmark {
+    @Param({"SEQUENTIAL", "STREAMING", "MAPPED", "BINARY", "ENGINE", "PARALLEL"})
+    public BatchMode batchMode;
+
+    @Param({"1000"})
+    public int portfolios;
+
+    private Path sampleInput;
+    private Path binarySampleInput;
+    private Path multiPortfolioInput;
+    private PrintStream stdout;
+    private PortfolioEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sampleInput = BenchmarkFixtures.writeTempFile(BenchmarkFixtures.SAMPLE_INPUT);
+        binarySampleInput = BenchmarkFixtures.toBinary(sampleInput);
+        List<String> lines = new ArrayList<>();
+        for (String line : BenchmarkFixtures.SAMPLE_INPUT) {
+            for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+                lines.add("P" + portfolio + " " + line);
+            }
+        }
+        multiPortfolioInput = BenchmarkFixtures.writeTempFile(lines);
+        // SEQUENTIAL and ENGINE print their outputs.
+        stdout = System.out;
+        System.setOut(new PrintStream(BenchmarkFixtures.NULL_OUTPUT));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Setup(Level.Invocation)
+    public void newEngine() {
+        if (batchMode == BatchMode.ENGINE || batchMode == BatchMode.PARALLEL) {
+            engine = new PortfolioEngine(0, NumericEngine.BIG_DECIMAL);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeEngine() {
+        if (engine != null) {
+            engine.close();
+            engine = null;
+        }
+    }
+
+    @Benchmark
+    public Object executeFile() throws IOException {
+        String input = sampleInput.toString();
+        switch (batchMode) {
+            case STREAMING:
+                return BenchmarkFixtures.newDriver(NumericEngine.BIG_DECIMAL)
+                        .streamCommandsFromFile(input, BenchmarkFixtures.nullWriter());
+            case MAPPED:
+                return BenchmarkFixtures.newDriver(NumericEngine.BIG_DECIMAL)
+                        .executeCommandsFromMappedFile(input, BenchmarkFixtures.nullWriter());
+            case BINARY:
+                return BenchmarkFixtures.newDriver(NumericEngine.BIG_DECIMAL)
+                        .executeCommandsFromBinaryFile(binarySampleInput.toString(), BenchmarkFixtures.nullWriter());
+            case ENGINE:
+                return engine.executeCommandsFromFile(multiPortfolioInput.toString(), BenchmarkFixtures.nullWriter());
+            case PARALLEL:
+                return engine.executeCommandsFromFileInParallel(multiPortfolioInput.toString(), BenchmarkFixtures.nullWriter());
+            default:
+                return BenchmarkFixtures.newDriver(NumericEngine.BIG_DECIMAL).executeCommandsFromFile(input);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.dao.ColumnarStateStore;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap retained per portfolio once its allocation, SIP and <code>months</code> changes are registered, reported as the
+ * <code>bytesPerPortfolio</code> counter. <code>STANDALONE</code> gives every portfolio its own store, like a single
+ * batch file; <code>SHARED</code> puts them all in one {@link ColumnarStateStore}, like a shard of the engine.
+ * <p>
+ * The numbers come from the used heap after a full GC, so run it with a single fork and nothing else in the JVM. The
+ * counter adds up over iterations, keep the single measurement iteration.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class FootprintBenchmark {
+    private static final int PORTFOLIOS = 20_000;
+
+    public enum Layout {STANDALONE, SHARED}
+
+    @Param({"STANDALONE", "SHARED"})
+    private Layout layout;
+
+    @Param({"BIG_DECIMAL", "FIXED_POINT"})
+    private NumericEngine numericEngine;
+
+    @Param({"6", "12"})
+    private int months;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytesPerPortfolio;
+    }
+
+    @Benchmark
+    public List<Driver> portfolios(Footprint footprint) {
+        List<Driver> drivers = new ArrayList<>(PORTFOLIOS);
+        long before = usedHeap();
+        ColumnarStateStore store = new ColumnarStateStore();
+        for (int i = 0; i < PORTFOLIOS; i++) {
+            Driver driver;
+            if (layout == Layout.SHARED) {
+                int slot = store.addPortfolio();
+                driver = new Driver(new PortfolioServiceImpl(store.newDataStub(slot), store.newPortfolio(slot), numericEngine));
+            } else {
+                driver = BenchmarkFixtures.newDriver(numericEngine);
+            }
+            BenchmarkFixtures.initialize(driver, months);
+            drivers.add(driver);
+        }
+        footprint.bytesPerPortfolio = (usedHeap() - before) / PORTFOLIOS;
+        return drivers;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,123 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.persistence.FsyncPolicy;
+import org.navi.mymoney.persistence.Journal;
+import org.navi.mymoney.persistence.JournaledPortfolioService;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of journaling a never-ending stream of dated <code>CHANGE</code>s under each {@link FsyncPolicy}, against the
+ * same stream without a journal. <code>change</code> goes through the whole service, <code>append</code> isolates the
+ * journal with a payload the size of a dated <code>CHANGE</code> record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+    private static final int SNAPSHOT_INTERVAL = 100_000;
+    private static final long FSYNC_INTERVAL_MILLIS = 10;
+
+    @State(Scope.Thread)
+    public static class ChangeState {
+        @Param({"NONE", "NEVER", "INTERVAL", "ALWAYS"})
+        public String journal;
+
+        Path directory;
+        PortfolioService service;
+        YearMonth next;
+        final Map<AssetClass, Double> rates = new EnumMap<>(AssetClass.class);
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            if ("NONE".equals(journal)) {
+                service = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), NumericEngine.FIXED_POINT);
+            } else {
+                directory = Files.createTempDirectory("journal-benchmark");
+                service = JournaledPortfolioService.open(directory, NumericEngine.FIXED_POINT,
+                        FsyncPolicy.valueOf(journal), FSYNC_INTERVAL_MILLIS, SNAPSHOT_INTERVAL);
+            }
+            Map<AssetClass, BigDecimal> amounts = new EnumMap<>(AssetClass.class);
+            for (AssetClass assetClass : AssetClass.values()) {
+                amounts.put(assetClass, BigDecimal.valueOf(1000));
+                rates.put(assetClass, 0.5);
+            }
+            service.allocate(amounts);
+            service.initSip(amounts);
+            next = YearMonth.of(2000, Month.JANUARY);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            if (directory != null) {
+                ((JournaledPortfolioService) service).close();
+                deleteDirectory(directory);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AppendState {
+        @Param({"NEVER", "INTERVAL", "ALWAYS"})
+        public FsyncPolicy fsyncPolicy;
+
+        Path directory;
+        Journal journal;
+        // Year, month and three (asset class, rate) pairs.
+        final ByteBuffer payload = ByteBuffer.allocate(Integer.BYTES + 2 + 3 * (1 + Double.BYTES));
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("journal-benchmark");
+            journal = Journal.open(directory, fsyncPolicy, FSYNC_INTERVAL_MILLIS);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            journal.close();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Benchmark
+    public YearMonth change(ChangeState state) {
+        state.service.change(state.rates, state.next);
+        state.next = state.next.plusMonths(1);
+        return state.next;
+    }
+
+    @Benchmark
+    public long append(AppendState state) throws IOException {
+        state.payload.clear();
+        return state.journal.append((byte) 4, state.payload);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,112 @@
+package org.navi.mymoney.benchmarks;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.metrics.SampledErrorLog;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per command of {@link #COMMANDS} <code>BALANCE</code>s, one of them failing, with the logging of
+ * <code>org.navi.mymoney</code>:
+ * <ul>
+ *     <li><code>OFF</code>: nothing logged, the baseline.</li>
+ *     <li><code>SAMPLED_ASYNC</code>: the shipped set-up, failures go through {@link SampledErrorLog} to an async
+ *     appender.</li>
+ *     <li><code>EVERY_ERROR_SYNC</code>: every failure logged with its stack trace by the calling thread, as before.</li>
+ * </ul>
+ * The appenders write to a null stream, so only the cost of logging is measured, not the terminal's.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoggingOverheadBenchmark {
+    private static final int COMMANDS = 100;
+
+    public enum Logging {OFF, SAMPLED_ASYNC, EVERY_ERROR_SYNC}
+
+    @Param({"OFF", "SAMPLED_ASYNC", "EVERY_ERROR_SYNC"})
+    private Logging logging;
+
+    private final List<String> lines = new ArrayList<>();
+    private Driver driver;
+    private Logger logger;
+    private Appender<ILoggingEvent> appender;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        driver = BenchmarkFixtures.newDriver(NumericEngine.FIXED_POINT, 6);
+        for (int i = 0; i < COMMANDS - 1; i++) {
+            lines.add("BALANCE " + BenchmarkFixtures.CHANGES.get(i % 6).split(" ")[4]);
+        }
+        lines.add("BALANCE DECEMBER");
+
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        logger = context.getLogger("org.navi.mymoney");
+        if (logging == Logging.OFF) {
+            return;
+        }
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} %5level --- [%15.15thread] %-40.40logger{39} : %msg%n");
+        encoder.start();
+        OutputStreamAppender<ILoggingEvent> output = new OutputStreamAppender<>();
+        output.setContext(context);
+        output.setEncoder(encoder);
+        output.setOutputStream(BenchmarkFixtures.NULL_OUTPUT);
+        output.start();
+        if (logging == Logging.SAMPLED_ASYNC) {
+            AsyncAppender async = new AsyncAppender();
+            async.setContext(context);
+            async.setQueueSize(8192);
+            async.addAppender(output);
+            async.start();
+            appender = async;
+            SampledErrorLog.shared().configure(SampledErrorLog.DEFAULT_PER_SECOND, SampledErrorLog.DEFAULT_TRACE_SAMPLING);
+        } else {
+            appender = output;
+            SampledErrorLog.shared().configure(Integer.MAX_VALUE, 1);
+        }
+        logger.addAppender(appender);
+        logger.setAdditive(false);
+        logger.setLevel(ch.qos.logback.classic.Level.INFO);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (appender != null) {
+            logger.detachAppender(appender);
+            appender.stop();
+        }
+        logger.setAdditive(true);
+        logger.setLevel(ch.qos.logback.classic.Level.OFF);
+        SampledErrorLog.shared().configure(SampledErrorLog.DEFAULT_PER_SECOND, SampledErrorLog.DEFAULT_TRACE_SAMPLING);
+        SampledErrorLog.shared().reset();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS)
+    public int commands() {
+        int outputs = 0;
+        for (String line : lines) {
+            if (driver.processCommand(line) != null) {
+                outputs++;
+            }
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,37 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one command in {@link CommandMetrics}: the timestamp and the histogram update, from one thread
+ * and from four threads recording the same command. <code>nanoTime</code> is the cost of reading the clock alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private final CommandMetrics metrics = new CommandMetrics();
+
+    @Benchmark
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public void recordCommand() {
+        metrics.recordCommand(Command.BALANCE, System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordCommandContended() {
+        metrics.recordCommand(Command.BALANCE, System.nanoTime());
+    }
+}
@@ -0,0 +1,86 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.output.ChannelOutput;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of printing balances to a byte sink, as a <code>String</code> through an <code>OutputStreamWriter</code>, the
+ * way the batch modes used to print, or encoded straight into a {@link ChannelOutput}.
+ * <p>
+ * <code>balance</code> prints one recent <code>BALANCE</code>; <code>outputHeavyFile</code> runs a MAPPED file of
+ * {@link #BALANCES} <code>BALANCE</code> commands after the sample set-up and six months.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputEncodingBenchmark {
+    private static final int BALANCES = 10_000;
+
+    public enum Sink {WRITER, CHANNEL}
+
+    @Param({"WRITER", "CHANNEL"})
+    private Sink sink;
+
+    private PortfolioService service;
+    private Writer writer;
+    private ChannelOutput output;
+    private Path outputHeavyInput;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        service = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), NumericEngine.FIXED_POINT);
+        BenchmarkFixtures.initialize(new Driver(service), 6);
+        writer = new BufferedWriter(new OutputStreamWriter(BenchmarkFixtures.NULL_OUTPUT, StandardCharsets.UTF_8));
+        output = new ChannelOutput(Channels.newChannel(BenchmarkFixtures.NULL_OUTPUT));
+
+        List<String> lines = new ArrayList<>(BenchmarkFixtures.SETUP);
+        lines.addAll(BenchmarkFixtures.CHANGES.subList(0, 6));
+        for (int i = 0; i < BALANCES; i++) {
+            lines.add("BALANCE " + Month.of(i % 6 + 1));
+        }
+        outputHeavyInput = BenchmarkFixtures.writeTempFile(lines);
+    }
+
+    @Benchmark
+    public void balance() throws IOException {
+        if (sink == Sink.WRITER) {
+            writer.write(service.balance(Month.MAY));
+            writer.write(System.lineSeparator());
+        } else {
+            service.balance(Month.MAY, output);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BALANCES)
+    public long outputHeavyFile() throws IOException {
+        Driver driver = BenchmarkFixtures.newDriver(NumericEngine.FIXED_POINT);
+        return sink == Sink.WRITER
+                ? driver.executeCommandsFromMappedFile(outputHeavyInput.toString(),
+                new OutputStreamWriter(BenchmarkFixtures.NULL_OUTPUT, StandardCharsets.UTF_8))
+                : driver.executeCommandsFromMappedFile(outputHeavyInput.toString(),
+                new ChannelOutput(Channels.newChannel(BenchmarkFixtures.NULL_OUTPUT)));
+    }
+}
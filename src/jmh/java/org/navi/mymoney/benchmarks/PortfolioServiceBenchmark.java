@@ -0,0 +1,74 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Month;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>balance</code> for an early and a late month, and <code>reBalance</code> through the JUNE (6 to 11 months of
+ * changes) and the DECEMBER (12 months) paths.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortfolioServiceBenchmark {
+
+    @State(Scope.Thread)
+    public static class BalanceState {
+        @Param({"JANUARY", "DECEMBER"})
+        public Month month;
+
+        @Param({"BIG_DECIMAL", "FIXED_POINT"})
+        public NumericEngine numericEngine;
+
+        PortfolioService service;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            service = newService(numericEngine, 12);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ReBalanceState {
+        @Param({"JUNE", "DECEMBER"})
+        public Month reBalanceMonth;
+
+        @Param({"BIG_DECIMAL", "FIXED_POINT"})
+        public NumericEngine numericEngine;
+
+        PortfolioService service;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            service = newService(numericEngine, reBalanceMonth == Month.JUNE ? 6 : 12);
+        }
+    }
+
+    @Benchmark
+    public String balance(BalanceState state) {
+        return state.service.balance(state.month);
+    }
+
+    @Benchmark
+    public String reBalance(ReBalanceState state) {
+        return state.service.reBalance();
+    }
+
+    private static PortfolioService newService(NumericEngine numericEngine, int months) {
+        PortfolioServiceImpl service =
+                new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), numericEngine);
+        BenchmarkFixtures.initialize(new Driver(service), months);
+        return service;
+    }
+}
@@ -0,0 +1,90 @@
+package org.navi.mymoney.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Time from starting a JVM on the sample input to its first balance on stdout, for the Spring Boot jar and for the
+ * {@link org.navi.mymoney.FastLauncher} jar with and without its class data sharing archive.
+ * <p>
+ * Needs the jars and the archive of <code>mvn -Pappcds package</code> under <code>target/</code>, e.g.
+ * <code>mvn -Pappcds package -DskipTests && mvn -Pjmh compile exec:exec -Djmh.args=StartupBenchmark</code>.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    private static final Path TARGET = Paths.get("target");
+    private static final Pattern BALANCE = Pattern.compile("\\d+ \\d+ \\d+");
+
+    @Param({"SPRING", "FAST", "FAST_CDS"})
+    public String launcher;
+
+    private List<String> command;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path input = BenchmarkFixtures.writeTempFile(BenchmarkFixtures.SAMPLE_INPUT);
+        String version = "0.0.1-SNAPSHOT";
+        Path springJar = TARGET.resolve("my-money-" + version + ".jar");
+        Path fastJar = TARGET.resolve("my-money-" + version + "-fast.jar");
+        Path archive = TARGET.resolve("my-money-fast.jsa");
+
+        command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        switch (launcher) {
+            case "SPRING":
+                command.add("-jar");
+                command.add(requireFile(springJar).toString());
+                break;
+            case "FAST_CDS":
+                command.add("-XX:SharedArchiveFile=" + requireFile(archive));
+                // fall through
+            case "FAST":
+                command.add("-jar");
+                command.add(requireFile(fastJar).toString());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown launcher " + launcher);
+        }
+        command.add(input.toString());
+    }
+
+    @Benchmark
+    public String timeToFirstOutput() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (BufferedReader reader =
+                     new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (BALANCE.matcher(line).matches()) {
+                    return line;
+                }
+            }
+            throw new IllegalStateException("No output from " + command);
+        } finally {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    private static Path requireFile(Path path) {
+        if (!Files.isRegularFile(path)) {
+            throw new IllegalStateException(path + " is missing, build it with mvn -Pappcds package");
+        }
+        return path.toAbsolutePath();
+    }
+}
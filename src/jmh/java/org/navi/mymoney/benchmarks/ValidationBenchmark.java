@@ -0,0 +1,77 @@
+package org.navi.mymoney.benchmarks;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per command of a feed of {@link #COMMANDS} lines, <code>badPercent</code> of them invalid (unknown command,
+ * wrong arity, unknown month, duplicate <code>ALLOCATE</code>, balance that can't be computed), the others recent
+ * <code>BALANCE</code>s:
+ * <ul>
+ *     <li><code>VALIDATED</code>: {@link Driver#processCommand(String)}, invalid lines rejected with a result code.</li>
+ *     <li><code>EXCEPTIONS</code>: the string parser and the service throwing for invalid lines, caught per line, as
+ *     before.</li>
+ * </ul>
+ * Logging is off, so only the cost of telling a line is invalid is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidationBenchmark {
+    private static final int COMMANDS = 1000;
+    private static final String[] INVALID = {"HELLO 6000 3000 1000", "CHANGE 4.00% 10.00% JULY", "BALANCE MARCHH",
+            "ALLOCATE 6000 3000 1000", "BALANCE DECEMBER"};
+
+    public enum Path {VALIDATED, EXCEPTIONS}
+
+    @Param({"VALIDATED", "EXCEPTIONS"})
+    private Path path;
+
+    @Param({"0", "10", "30"})
+    private int badPercent;
+
+    private final List<String> lines = new ArrayList<>();
+    private Driver driver;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        driver = BenchmarkFixtures.newDriver(NumericEngine.FIXED_POINT, 6);
+        Random random = new Random(20221204L);
+        for (int i = 0; i < COMMANDS; i++) {
+            lines.add(random.nextInt(100) < badPercent
+                    ? INVALID[random.nextInt(INVALID.length)]
+                    : "BALANCE " + BenchmarkFixtures.CHANGES.get(random.nextInt(6)).split(" ")[4]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COMMANDS)
+    public int commands() {
+        int outputs = 0;
+        for (String line : lines) {
+            String output;
+            if (path == Path.VALIDATED) {
+                output = driver.processCommand(line);
+            } else {
+                try {
+                    output = driver.processCommandOrThrow(line);
+                } catch (RuntimeException e) {
+                    output = null;
+                }
+            }
+            if (output != null) {
+                outputs++;
+            }
+        }
+        return outputs;
+    }
+}
@@ -1,31 +1,101 @@
 package org.navi.mymoney;
 
-import org.apache.commons.lang3.StringUtils;
-import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.batch.StreamingCommandPipeline;
 import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.navi.mymoney.metrics.SampledErrorLog;
+import org.navi.mymoney.output.ChannelOutput;
+import org.navi.mymoney.parser.BinaryCommandReader;
+import org.navi.mymoney.parser.BinaryCommandWriter;
+import org.navi.mymoney.parser.CommandReader;
+import org.navi.mymoney.parser.CommandValidator;
+import org.navi.mymoney.parser.LineCommandReader;
+import org.navi.mymoney.parser.MappedCommandReader;
+import org.navi.mymoney.parser.ParsedCommand;
 import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.validation.ErrorPolicy;
+import org.navi.mymoney.validation.ErrorReport;
+import org.navi.mymoney.validation.InvalidInputException;
+import org.navi.mymoney.validation.ResultCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.Month;
+import java.time.YearMonth;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
+/**
+ * Runs command lines against a {@link PortfolioService}.
+ * <p>
+ * Every line goes through a validation stage first: {@link CommandValidator} checks the syntax and
+ * {@link PortfolioService#validate(ParsedCommand)} the state, both answering with a {@link ResultCode}, so an invalid
+ * line is counted and logged without an exception being thrown. The file runs keep an {@link ErrorReport} of their
+ * invalid lines and, depending on the {@link ErrorPolicy}, skip them or stop at the first one.
+ */
 @Component
 public class Driver {
     private final PortfolioService portfolioService;
+    private final CommandMetrics metrics;
+    private final ErrorPolicy errorPolicy;
+    private final SampledErrorLog errorLog = SampledErrorLog.shared();
+    // Amounts and rates each command carries, one per asset of the universe of the service.
+    private final int totalAssetClasses;
+    private final CommandValidator validator;
+    // Reused for every line processed as a string.
+    private final ParsedCommand validated = new ParsedCommand();
+    // Report of the file being run, null outside of a file run.
+    private ErrorReport report;
+    private ErrorReport lastReport;
+    private ResultCode lastResult = ResultCode.OK;
 
     private final Logger logger = LoggerFactory.getLogger(Driver.class);
 
     public Driver(PortfolioService portfolioService) {
+        this(portfolioService, ErrorPolicy.SKIP);
+    }
+
+    @Autowired
+    public Driver(PortfolioService portfolioService,
+                  @Value("${mymoney.validation.policy:SKIP}") ErrorPolicy errorPolicy) {
+        this(portfolioService, CommandMetrics.shared(), errorPolicy);
+    }
+
+    public Driver(PortfolioService portfolioService, CommandMetrics metrics) {
+        this(portfolioService, metrics, ErrorPolicy.SKIP);
+    }
+
+    public Driver(PortfolioService portfolioService, CommandMetrics metrics, ErrorPolicy errorPolicy) {
         this.portfolioService = portfolioService;
+        this.metrics = metrics;
+        this.errorPolicy = errorPolicy;
+        this.totalAssetClasses = portfolioService.getAssetUniverse().size();
+        this.validator = new CommandValidator(totalAssetClasses);
+    }
+
+    /**
+     * @return the report of the last file run by this driver, <code>null</code> if none was run yet.
+     */
+    public ErrorReport getErrorReport() {
+        return lastReport;
+    }
+
+    /**
+     * @return {@link ResultCode#OK} if the last command run was valid and applied, else why it wasn't.
+     */
+    public ResultCode getLastResult() {
+        return lastResult;
+    }
+
+    public PortfolioService getPortfolioService() {
+        return portfolioService;
     }
 
     /**
@@ -34,62 +104,291 @@ public class Driver {
      * @param fileName Absolute path to the input file.
      * @return <code>List<String></String></code> having the output of each command.
      * @throws IOException if command can't be parsed.
+     * @throws InvalidInputException at the first invalid line, once the outputs so far are printed, if the policy is
+     *                               {@link ErrorPolicy#FAIL_FAST}.
      */
     public List<String> executeCommandsFromFile(String fileName) throws IOException {
-        try (Stream<String> inputLines = Files.lines(Paths.get(fileName))) {
-            List<String> outputs = inputLines.filter(StringUtils::isNotEmpty)
-                    .map(this::processCommand)
-                    .collect(Collectors.toList());
-            log(outputs);
-            return outputs;
+        List<String> outputs = new ArrayList<>();
+        run(fileName, () -> LineCommandReader.open(Paths.get(fileName)), new CommandSink() {
+            @Override
+            public boolean execute(ParsedCommand command) {
+                String result = executeCommand(command);
+                outputs.add(result);
+                return result != null;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                log(outputs);
+            }
+        });
+        return outputs;
+    }
+
+    /**
+     * Processes the command line-by-line through a bounded reader/processor/writer pipeline, writing every output
+     * as soon as it is available instead of collecting them.
+     *
+     * @param fileName Absolute path to the input file.
+     * @param output   where the outputs are written, one per line. It is flushed but not closed.
+     * @return number of outputs written.
+     * @throws IOException if the file can't be read or the output can't be written.
+     * @throws InvalidInputException same as {@link #executeCommandsFromMappedFile(String, Writer)}.
+     */
+    public long streamCommandsFromFile(String fileName, Writer output) throws IOException {
+        long[] written = new long[1];
+        try {
+            new StreamingCommandPipeline().run(Paths.get(fileName), (lines, outputs) ->
+                    written[0] = run(fileName, () -> new LineCommandReader(lines), new CommandSink() {
+                        @Override
+                        public boolean execute(ParsedCommand command) throws IOException {
+                            String result = executeCommand(command);
+                            if (result == null) {
+                                return false;
+                            }
+                            outputs.write(result);
+                            return true;
+                        }
+
+                        @Override
+                        public void flush() {
+                            // The pipeline's writer flushes.
+                        }
+                    }), output);
+        } catch (InvalidInputException e) {
+            throw e;
         } catch (IOException e) {
             logger.error("Invalid input file.", e);
             throw new IOException("Invalid input file");
         }
+        return written[0];
     }
 
-    public String processCommand(String line) {
+    /**
+     * Processes the command line-by-line, reading the file through a memory mapping and decoding every line into a
+     * single reused {@link ParsedCommand}.
+     *
+     * @param fileName Absolute path to the input file.
+     * @param output   where the outputs are written, one per line. It is flushed but not closed.
+     * @return number of outputs written.
+     * @throws IOException if the file can't be read or the output can't be written.
+     * @throws InvalidInputException at the first invalid line, once the outputs so far are written, if the policy is
+     *                               {@link ErrorPolicy#FAIL_FAST}.
+     */
+    public long executeCommandsFromMappedFile(String fileName, Writer output) throws IOException {
+        return run(fileName, () -> new MappedCommandReader(Paths.get(fileName)), toWriter(output));
+    }
+
+    /**
+     * Same as {@link #executeCommandsFromMappedFile(String, Writer)}, the balances encoded straight into
+     * <code>output</code> without going through a <code>String</code>.
+     *
+     * @param output where the outputs are written, one per line. It is flushed.
+     */
+    public long executeCommandsFromMappedFile(String fileName, ChannelOutput output) throws IOException {
+        return run(fileName, () -> new MappedCommandReader(Paths.get(fileName)), toChannel(output));
+    }
+
+    /**
+     * Processes a file written by {@link BinaryCommandWriter}, record by record, decoding every record into a single
+     * reused {@link ParsedCommand}.
+     *
+     * @param fileName Absolute path to the binary input file.
+     * @param output   where the outputs are written, one per line. It is flushed but not closed.
+     * @return number of outputs written.
+     * @throws IOException if the file can't be read or the output can't be written.
+     * @throws InvalidInputException same as {@link #executeCommandsFromMappedFile(String, Writer)}.
+     */
+    public long executeCommandsFromBinaryFile(String fileName, Writer output) throws IOException {
+        return run(fileName, () -> new BinaryCommandReader(Paths.get(fileName)), toWriter(output));
+    }
+
+    /**
+     * Same as {@link #executeCommandsFromBinaryFile(String, Writer)}, the balances encoded straight into
+     * <code>output</code> without going through a <code>String</code>.
+     *
+     * @param output where the outputs are written, one per line. It is flushed.
+     */
+    public long executeCommandsFromBinaryFile(String fileName, ChannelOutput output) throws IOException {
+        return run(fileName, () -> new BinaryCommandReader(Paths.get(fileName)), toChannel(output));
+    }
+
+    /**
+     * The loop of every file run: validates and runs the commands of <code>input</code> into <code>sink</code>,
+     * keeping the {@link ErrorReport} of the file and stopping where the {@link ErrorPolicy} says so.
+     *
+     * @return number of outputs.
+     */
+    private long run(String fileName, Input input, CommandSink sink) throws IOException {
+        ParsedCommand command = new ParsedCommand();
+        long written = 0;
+        ErrorReport fileReport = startReport(fileName);
+        try (CommandReader reader = input.open()) {
+            while (!errorPolicy.stops(fileReport) && reader.next(command)) {
+                fileReport.countLine();
+                if (command.getCommand() == null && command.getFallbackLine() == null) {
+                    rejectRecord(command);
+                } else if (sink.execute(command)) {
+                    written++;
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Invalid input file.", e);
+            throw new IOException("Invalid input file");
+        } finally {
+            report = null;
+        }
+        sink.flush();
+        lastReport = fileReport;
+        errorPolicy.complete(fileReport, logger);
+        return written;
+    }
+
+    @FunctionalInterface
+    private interface Input {
+        CommandReader open() throws IOException;
+    }
+
+    /**
+     * Where a file run sends its commands.
+     */
+    private interface CommandSink {
+        /**
+         * @return whether the command had an output.
+         */
+        boolean execute(ParsedCommand command) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    private CommandSink toWriter(Writer output) {
+        BufferedWriter writer = output instanceof BufferedWriter ? (BufferedWriter) output : new BufferedWriter(output);
+        return new CommandSink() {
+            @Override
+            public boolean execute(ParsedCommand command) throws IOException {
+                String result = executeCommand(command);
+                if (result == null) {
+                    return false;
+                }
+                writer.write(result);
+                writer.newLine();
+                return true;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+        };
+    }
+
+    private CommandSink toChannel(ChannelOutput output) {
+        return new CommandSink() {
+            @Override
+            public boolean execute(ParsedCommand command) throws IOException {
+                return executeCommand(command, output);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                output.flush();
+            }
+        };
+    }
+
+    /**
+     * Same as {@link #executeCommand(ParsedCommand)}, the output of <code>BALANCE</code> and <code>REBALANCE</code>
+     * written to <code>output</code> rather than returned.
+     *
+     * @return whether the command had an output.
+     * @throws IOException only if <code>output</code> has to be flushed and can't be.
+     */
+    public boolean executeCommand(ParsedCommand parsedCommand, ChannelOutput output) throws IOException {
+        lastResult = ResultCode.OK;
+        Command command = parsedCommand.getCommand();
+        if (command != Command.BALANCE && command != Command.REBALANCE) {
+            String result = executeCommand(parsedCommand);
+            if (result == null) {
+                return false;
+            }
+            output.writeLine(result);
+            return true;
+        }
+        long start = System.nanoTime();
+        ResultCode result = portfolioService.validate(parsedCommand);
+        if (result.isError()) {
+            reject(command, parsedCommand, parsedCommand.getLineNumber(), result);
+            metrics.recordCommand(command, start);
+            return false;
+        }
+        try {
+            if (command == Command.REBALANCE) {
+                portfolioService.reBalance(output);
+            } else if (parsedCommand.hasYear()) {
+                portfolioService.balance(YearMonth.of(parsedCommand.getYear(), parsedCommand.getMonth()), output);
+            } else {
+                portfolioService.balance(parsedCommand.getMonth(), output);
+            }
+            return true;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            fail(command, parsedCommand, parsedCommand.getLineNumber(), e);
+            return false;
+        } finally {
+            metrics.recordCommand(command, start);
+        }
+    }
+
+    /**
+     * Same as {@link #processCommand(String)} for a command decoded by {@link MappedCommandReader}.
+     */
+    public String executeCommand(ParsedCommand parsedCommand) {
+        lastResult = ResultCode.OK;
+        Command command = parsedCommand.getCommand();
+        if (command == null) {
+            return processLine(parsedCommand.getFallbackLine(), parsedCommand.getLineNumber());
+        }
+        long start = System.nanoTime();
+        ResultCode result = parsedCommand.getValueCount() != totalAssetClasses
+                && (command == Command.ALLOCATE || command == Command.SIP || command == Command.CHANGE)
+                ? ResultCode.WRONG_ARITY
+                : portfolioService.validate(parsedCommand);
+        if (result.isError()) {
+            reject(command, parsedCommand, parsedCommand.getLineNumber(), result);
+            metrics.recordCommand(command, start);
+            return null;
+        }
         String output = null;
-        String[] commandAndInputs = line.split(" ");
-        AssetClass[] assetClasses = AssetClass.values();
-        int totalAssetClasses = assetClasses.length;
         try {
-            Command command = Command.valueOf(commandAndInputs[0]);
             switch (command) {
                 case ALLOCATE:
-                    validateInput(commandAndInputs, totalAssetClasses);
-                    List<BigDecimal> allocationAmounts = inputsToBigDecimals(1, totalAssetClasses, commandAndInputs);
-                    Map<AssetClass, BigDecimal> allocations = new HashMap<>();
-                    IntStream.range(0, totalAssetClasses).forEach(i ->
-                            allocations.put(assetClasses[i], allocationAmounts.get(i)));
-                    portfolioService.allocate(allocations);
-                    break;
                 case SIP:
-                    validateInput(commandAndInputs, totalAssetClasses);
-                    List<BigDecimal> sipAmounts = inputsToBigDecimals(1, totalAssetClasses, commandAndInputs);
-                    Map<AssetClass, BigDecimal> sips = new HashMap<>();
-                    IntStream.range(0, totalAssetClasses).forEach(i -> sips.put(assetClasses[i], sipAmounts.get(i)));
-                    portfolioService.initSip(sips);
+                    BigDecimal[] amounts = new BigDecimal[totalAssetClasses];
+                    for (int i = 0; i < totalAssetClasses; i++) {
+                        amounts[i] = parsedCommand.getAmount(i);
+                    }
+                    if (command == Command.ALLOCATE) {
+                        portfolioService.allocate(amounts);
+                    } else {
+                        portfolioService.initSip(amounts);
+                    }
                     break;
                 case CHANGE:
-                    validateInput(commandAndInputs, totalAssetClasses + 1);
-                    List<Double> rates =
-                            Arrays.stream(commandAndInputs)
-                                    .skip(1)
-                                    .limit(totalAssetClasses)
-                                    .map(str -> Double.parseDouble(str.replace("%", "")))
-                                    .collect(Collectors.toList());
-
-                    Map<AssetClass, Double> assetClassRates = new HashMap<>();
-                    IntStream.range(0, totalAssetClasses).forEach(i ->
-                            assetClassRates.put(assetClasses[i], rates.get(i)));
-                    Month month = Month.valueOf(commandAndInputs[totalAssetClasses + 1]);
-                    portfolioService.change(assetClassRates, month);
+                    double[] assetClassRates = new double[totalAssetClasses];
+                    for (int i = 0; i < totalAssetClasses; i++) {
+                        assetClassRates[i] = parsedCommand.getRate(i);
+                    }
+                    if (parsedCommand.hasYear()) {
+                        portfolioService.change(assetClassRates, YearMonth.of(parsedCommand.getYear(), parsedCommand.getMonth()));
+                    } else {
+                        portfolioService.change(assetClassRates, parsedCommand.getMonth());
+                    }
                     break;
                 case BALANCE:
-                    validateInput(commandAndInputs, 1);
-                    month = Month.valueOf(commandAndInputs[1]);
-                    output = portfolioService.balance(month);
+                    output = parsedCommand.hasYear()
+                            ? portfolioService.balance(YearMonth.of(parsedCommand.getYear(), parsedCommand.getMonth()))
+                            : portfolioService.balance(parsedCommand.getMonth());
                     break;
                 case REBALANCE:
                     output = portfolioService.reBalance();
@@ -98,7 +397,140 @@ public class Driver {
                     throw new IllegalArgumentException("Invalid Command " + command + " supplied");
             }
         } catch (Exception e) {
-            logger.error("Error Occurred while processing " + String.join(" ", commandAndInputs) + e.getMessage(), e);
+            fail(command, parsedCommand, parsedCommand.getLineNumber(), e);
+        } finally {
+            metrics.recordCommand(command, start);
+        }
+        return output;
+    }
+
+    /**
+     * Validates and runs one line. An invalid line is counted and logged, no exception is thrown for it.
+     *
+     * @return the output of the command, <code>null</code> if it has none or is invalid.
+     */
+    public String processCommand(String line) {
+        return processLine(line, 0);
+    }
+
+    private String processLine(String line, long lineNumber) {
+        lastResult = ResultCode.OK;
+        long start = System.nanoTime();
+        ResultCode result = validator.validate(line, lineNumber, validated);
+        if (result.isError()) {
+            Command command = validated.getCommand();
+            reject(command, line, lineNumber, result);
+            if (command != null) {
+                metrics.recordCommand(command, start);
+            }
+            return null;
+        }
+        if (validated.getCommand() != null) {
+            return executeCommand(validated);
+        }
+        // Valid, but with numbers only the string based parser decodes.
+        try {
+            return processCommandOrThrow(line);
+        } catch (RuntimeException e) {
+            errorLog.error(logger, line, e);
+            lastResult = ResultCode.FAILED;
+            if (report != null) {
+                report.record(lineNumber, ResultCode.FAILED);
+            }
+            return null;
+        }
+    }
+
+    private void reject(Command command, Object input, long lineNumber, ResultCode result) {
+        metrics.recordError(command, result);
+        errorLog.error(logger, input, result);
+        lastResult = result;
+        if (report != null) {
+            report.record(lineNumber, result);
+        }
+    }
+
+    private void fail(Command command, Object input, long lineNumber, Exception e) {
+        metrics.recordError(command, e);
+        errorLog.error(logger, input, e);
+        lastResult = ResultCode.FAILED;
+        if (report != null) {
+            report.record(lineNumber, ResultCode.FAILED);
+        }
+    }
+
+    private void rejectRecord(ParsedCommand record) {
+        reject(null, "line " + record.getLineNumber(), record.getLineNumber(), ResultCode.REJECTED_RECORD);
+    }
+
+    private ErrorReport startReport(String fileName) {
+        report = new ErrorReport(fileName);
+        return report;
+    }
+
+    /**
+     * Same as {@link #processCommand(String)}, but a command that can't be applied fails instead of being logged.
+     *
+     * @return the output of the command, <code>null</code> if the command has no output.
+     */
+    public String processCommandOrThrow(String line) {
+        long start = System.nanoTime();
+        Command command = null;
+        try {
+            String[] commandAndInputs = line.split(" ");
+            command = Command.valueOf(commandAndInputs[0]);
+            return execute(command, commandAndInputs);
+        } catch (RuntimeException e) {
+            metrics.recordError(command, e);
+            throw e;
+        } finally {
+            if (command != null) {
+                metrics.recordCommand(command, start);
+            }
+        }
+    }
+
+    private String execute(Command command, String[] commandAndInputs) {
+        String output = null;
+        switch (command) {
+            case ALLOCATE:
+                validateInput(commandAndInputs, totalAssetClasses);
+                portfolioService.allocate(inputsToBigDecimals(1, totalAssetClasses, commandAndInputs));
+                break;
+            case SIP:
+                validateInput(commandAndInputs, totalAssetClasses);
+                portfolioService.initSip(inputsToBigDecimals(1, totalAssetClasses, commandAndInputs));
+                break;
+            case CHANGE:
+                // The month may be followed by a year: CHANGE 4.00% 10.00% 2.00% JANUARY 2031
+                boolean changeWithYear = commandAndInputs.length == totalAssetClasses + 3;
+                validateInput(commandAndInputs, totalAssetClasses + (changeWithYear ? 2 : 1));
+                double[] assetClassRates =
+                        Arrays.stream(commandAndInputs)
+                                .skip(1)
+                                .limit(totalAssetClasses)
+                                .mapToDouble(str -> Double.parseDouble(str.replace("%", "")))
+                                .toArray();
+                Month month = Month.valueOf(commandAndInputs[totalAssetClasses + 1]);
+                if (changeWithYear) {
+                    portfolioService.change(assetClassRates, yearMonth(commandAndInputs[totalAssetClasses + 2], month));
+                } else {
+                    portfolioService.change(assetClassRates, month);
+                }
+                break;
+            case BALANCE:
+                boolean balanceWithYear = commandAndInputs.length == 3;
+                validateInput(commandAndInputs, balanceWithYear ? 2 : 1);
+                month = Month.valueOf(commandAndInputs[1]);
+                output = balanceWithYear
+                        ? portfolioService.balance(yearMonth(commandAndInputs[2], month))
+                        : portfolioService.balance(month);
+                break;
+            case REBALANCE:
+                output = portfolioService.reBalance();
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid Command " + command + " supplied");
         }
         return output;
     }
@@ -109,16 +541,26 @@ public class Driver {
         }
     }
 
-    private List<BigDecimal> inputsToBigDecimals(int skip, int limit, String[] commandAndInputs) {
+    private static YearMonth yearMonth(String year, Month month) {
+        return YearMonth.of(Integer.parseInt(year), month);
+    }
+
+    private BigDecimal[] inputsToBigDecimals(int skip, int limit, String[] commandAndInputs) {
         return Arrays.stream(commandAndInputs)
                 .skip(skip)
                 .limit(limit)
                 .map(BigDecimal::new)
-                .collect(Collectors.toList());
+                .toArray(BigDecimal[]::new);
     }
 
-    private static void log(List<String> outputs) {
-        outputs.stream().filter(Objects::nonNull).forEach(System.out::println);
+    private static void log(List<String> outputs) throws IOException {
+        ChannelOutput output = ChannelOutput.stdout();
+        for (String line : outputs) {
+            if (line != null) {
+                output.writeLine(line);
+            }
+        }
+        output.flush();
     }
 
 }
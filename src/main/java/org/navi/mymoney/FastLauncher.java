@@ -0,0 +1,125 @@
+package org.navi.mymoney;
+
+import ch.qos.logback.classic.Level;
+import org.navi.mymoney.cluster.ShardCoordinator;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.constants.BatchMode;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.dao.OffHeapStateStore;
+import org.navi.mymoney.dao.StateStorage;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.navi.mymoney.metrics.SampledErrorLog;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.server.CommandServer;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.navi.mymoney.validation.ErrorPolicy;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Properties;
+
+/**
+ * Same as {@link GeekTrust}, without the Spring context: the components are wired by hand, from
+ * <code>application.properties</code> overridden by system properties, so a small input file doesn't pay for
+ * classpath scanning and auto-configuration.
+ * <p>
+ * Built as <code>my-money-*-fast.jar</code> together with a class data sharing archive by the <code>appcds</code>
+ * profile, see the profile in the pom for how to run it.
+ */
+public final class FastLauncher {
+    private static final String LOGGING_LEVEL_PREFIX = "logging.level.";
+
+    private FastLauncher() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // Must be set before the first logger is created.
+        System.setProperty("logback.configurationFile", "logback-fast.xml");
+        Properties properties = loadProperties();
+        configureLogging(properties);
+        AssetUniverse.configure(AssetUniverse.parse(properties.getProperty(AssetUniverse.PROPERTY)));
+        SampledErrorLog.shared().configure(
+                Integer.parseInt(properties.getProperty("mymoney.logging.errors.per-second",
+                        String.valueOf(SampledErrorLog.DEFAULT_PER_SECOND))),
+                Integer.parseInt(properties.getProperty("mymoney.logging.errors.trace-sampling",
+                        String.valueOf(SampledErrorLog.DEFAULT_TRACE_SAMPLING))));
+        if (args.length != 1) {
+            System.out.println("Please specify only the input file, or to run in CLI mode provide SHELL as argument");
+            System.exit(1);
+        }
+
+        if (Boolean.parseBoolean(properties.getProperty("mymoney.metrics.jmx", "true"))) {
+            CommandMetrics.registerMBean();
+        }
+        NumericEngine numericEngine = NumericEngine.valueOf(properties.getProperty("mymoney.numeric.engine", "BIG_DECIMAL"));
+        ReBalancePolicy reBalancePolicy = ReBalancePolicy.parse(properties.getProperty("mymoney.rebalance.policy"));
+        if ("shell".equalsIgnoreCase(args[0])) {
+            System.out.println("Switching to SHELL Mode");
+            CommandServer commandServer = new CommandServer(
+                    properties.getProperty("mymoney.server.host", "127.0.0.1"),
+                    Integer.parseInt(properties.getProperty("mymoney.server.port", "7070")),
+                    Integer.parseInt(properties.getProperty("mymoney.server.workers", "0")),
+                    numericEngine, properties.getProperty("mymoney.rebalance.policy", "NONE"));
+            Runtime.getRuntime().addShutdownHook(new Thread(commandServer::close));
+            commandServer.start();
+            System.out.println("Serving commands on port " + commandServer.getPort());
+            commandServer.awaitTermination();
+            return;
+        }
+
+        BatchMode batchMode = BatchMode.valueOf(properties.getProperty("mymoney.batch.mode", "SEQUENTIAL"));
+        int workers = Integer.parseInt(properties.getProperty("mymoney.engine.workers", "0"));
+        ErrorPolicy errorPolicy = ErrorPolicy.valueOf(properties.getProperty("mymoney.validation.policy", "SKIP"));
+        StateStorage stateStorage = StateStorage.valueOf(properties.getProperty("mymoney.state.storage", "HEAP"));
+        String stateFileName = properties.getProperty("mymoney.state.file", "").trim();
+        Path stateFile = stateFileName.isEmpty() ? null : Paths.get(stateFileName);
+        int timelineMonths = Integer.parseInt(properties.getProperty("mymoney.state.timeline-months",
+                String.valueOf(OffHeapStateStore.DEFAULT_TIMELINE_MONTHS)));
+        Driver driver = new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), numericEngine,
+                reBalancePolicy), errorPolicy);
+        GeekTrust.executeBatch(batchMode, args[0], driver, properties::getProperty,
+                () -> new PortfolioEngine(workers, numericEngine, reBalancePolicy, stateStorage, stateFile, timelineMonths,
+                        errorPolicy),
+                () -> new ShardCoordinator(
+                        Integer.parseInt(properties.getProperty("mymoney.cluster.workers", "2")),
+                        Integer.parseInt(properties.getProperty("mymoney.cluster.batch-lines", "4096")),
+                        Integer.parseInt(properties.getProperty("mymoney.cluster.timeout-ms", "60000")),
+                        properties.getProperty("mymoney.cluster.jvm-args", ""),
+                        numericEngine.name(), properties.getProperty("mymoney.rebalance.policy", "NONE"), errorPolicy));
+        System.exit(0);
+    }
+
+    private static Properties loadProperties() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = FastLauncher.class.getResourceAsStream("/application.properties")) {
+            if (input != null) {
+                properties.load(input);
+            }
+        }
+        properties.putAll(System.getProperties());
+        return properties;
+    }
+
+    /**
+     * Applies the <code>logging.level.*</code> properties, as Spring Boot would.
+     */
+    private static void configureLogging(Properties properties) {
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.startsWith(LOGGING_LEVEL_PREFIX)) {
+                continue;
+            }
+            String loggerName = name.substring(LOGGING_LEVEL_PREFIX.length());
+            ch.qos.logback.classic.Logger logger = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(
+                    "root".equals(loggerName) ? org.slf4j.Logger.ROOT_LOGGER_NAME : loggerName);
+            logger.setLevel(Level.toLevel(properties.getProperty(name)));
+        }
+    }
+}
@@ -1,46 +1,168 @@
 package org.navi.mymoney;
 
+import org.navi.mymoney.cluster.ShardCoordinator;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.constants.BatchMode;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.navi.mymoney.metrics.SampledErrorLog;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.output.ChannelOutput;
+import org.navi.mymoney.persistence.FsyncPolicy;
+import org.navi.mymoney.persistence.JournaledPortfolioService;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.server.CommandServer;
+import org.navi.mymoney.validation.ErrorPolicy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.Banner;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.Environment;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.InputMismatchException;
-import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @SpringBootApplication
 public class GeekTrust implements CommandLineRunner {
 
     final Driver driver;
+    final PortfolioEngine portfolioEngine;
+    final CommandServer commandServer;
+    final ShardCoordinator shardCoordinator;
+    final BatchMode batchMode;
+    final boolean metricsJmx;
+    final Environment environment;
 
-    public GeekTrust(Driver driver) {
+    public GeekTrust(Driver driver, PortfolioEngine portfolioEngine, CommandServer commandServer,
+                     ShardCoordinator shardCoordinator,
+                     @Value("${mymoney.batch.mode:SEQUENTIAL}") BatchMode batchMode,
+                     @Value("${mymoney.metrics.jmx:true}") boolean metricsJmx,
+                     Environment environment) {
         this.driver = driver;
+        this.portfolioEngine = portfolioEngine;
+        this.commandServer = commandServer;
+        this.shardCoordinator = shardCoordinator;
+        this.batchMode = batchMode;
+        this.metricsJmx = metricsJmx;
+        this.environment = environment;
     }
 
     public static void main(String[] args) {
         SpringApplication app = new SpringApplication(GeekTrust.class);
         app.setBannerMode(Banner.Mode.OFF);
+        // The universe has to be known before the first portfolio bean is created.
+        app.addListeners((ApplicationListener<ApplicationEnvironmentPreparedEvent>) event -> {
+            Environment environment = event.getEnvironment();
+            AssetUniverse.configure(AssetUniverse.parse(environment.getProperty(AssetUniverse.PROPERTY)));
+            SampledErrorLog.shared().configure(
+                    environment.getProperty("mymoney.logging.errors.per-second", Integer.class, SampledErrorLog.DEFAULT_PER_SECOND),
+                    environment.getProperty("mymoney.logging.errors.trace-sampling", Integer.class, SampledErrorLog.DEFAULT_TRACE_SAMPLING));
+        });
         app.run(args);
     }
 
     @Override
     public void run(String... args) throws Exception {
         if (args.length < 1) {
-            System.out.println("No input arguments were supplied");
-            throw new InputMismatchException(
-                    "Please specify input file, or to run in CLI mode provide SHELL as argument");
+            // Nothing to run, e.g. when the context is only being loaded.
+            System.out.println("No input arguments were supplied. "
+                    + "Please specify input file, or to run in CLI mode provide SHELL as argument");
+            return;
         } else if (args.length != 1) {
             System.out.println("No input arguments were supplied");
             throw new InputMismatchException(
                     "Please specify only the input file, or to run in CLI mode provide SHELL as argument");
         }
         String input = args[0];
+        if (metricsJmx) {
+            CommandMetrics.registerMBean();
+        }
         if ("shell".equalsIgnoreCase(input)) {
             System.out.println("Switching to SHELL Mode");
+            commandServer.start();
+            System.out.println("Serving commands on port " + commandServer.getPort());
+            commandServer.awaitTermination();
             return;
         }
-        System.out.println("Switching to BATCH-PROCESSING Mode");
-        List<String> results = driver.executeCommandsFromFile(input);
+        executeBatch(batchMode, input, driver, environment::getProperty, () -> portfolioEngine, () -> shardCoordinator);
         System.exit(0);
     }
+
+    /**
+     * Runs an input file in the given batch mode, shared with {@link FastLauncher}. The single portfolio modes run
+     * against the {@link JournaledPortfolioService} of <code>mymoney.journal.dir</code> when it is set.
+     *
+     * @param properties the value of a property, <code>null</code> if it isn't set.
+     */
+    static void executeBatch(BatchMode batchMode, String input, Driver driver, Function<String, String> properties,
+                             Supplier<PortfolioEngine> portfolioEngine,
+                             Supplier<ShardCoordinator> shardCoordinator) throws IOException {
+        System.out.println("Switching to BATCH-PROCESSING Mode");
+        try (JournaledPortfolioService journal = isSinglePortfolio(batchMode) ? openJournal(properties) : null) {
+            if (journal != null) {
+                driver = new Driver(journal,
+                        ErrorPolicy.valueOf(property(properties, "mymoney.validation.policy", "SKIP")));
+            }
+            switch (batchMode) {
+                case STREAMING:
+                    driver.streamCommandsFromFile(input, new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                    break;
+                case MAPPED:
+                    driver.executeCommandsFromMappedFile(input, ChannelOutput.stdout());
+                    break;
+                case BINARY:
+                    driver.executeCommandsFromBinaryFile(input, ChannelOutput.stdout());
+                    break;
+                case ENGINE:
+                    portfolioEngine.get().executeCommandsFromFile(input,
+                            new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                    break;
+                case PARALLEL:
+                    portfolioEngine.get().executeCommandsFromFileInParallel(input,
+                            new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                    break;
+                case CLUSTER:
+                    try (ShardCoordinator coordinator = shardCoordinator.get()) {
+                        coordinator.executeCommandsFromFile(input, new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                    }
+                    break;
+                default:
+                    driver.executeCommandsFromFile(input);
+            }
+        }
+        CommandMetrics.shared().logSummary();
+    }
+
+    private static boolean isSinglePortfolio(BatchMode batchMode) {
+        return batchMode != BatchMode.ENGINE && batchMode != BatchMode.PARALLEL && batchMode != BatchMode.CLUSTER;
+    }
+
+    /**
+     * @return the journaled portfolio of <code>mymoney.journal.dir</code>, <code>null</code> if it isn't set.
+     */
+    static JournaledPortfolioService openJournal(Function<String, String> properties) throws IOException {
+        String directory = property(properties, "mymoney.journal.dir", "").trim();
+        if (directory.isEmpty()) {
+            return null;
+        }
+        return JournaledPortfolioService.open(Paths.get(directory),
+                NumericEngine.valueOf(property(properties, "mymoney.numeric.engine", "BIG_DECIMAL")),
+                ReBalancePolicy.parse(properties.apply("mymoney.rebalance.policy")),
+                FsyncPolicy.valueOf(property(properties, "mymoney.journal.fsync", "INTERVAL")),
+                Long.parseLong(property(properties, "mymoney.journal.fsync-interval-ms", "100")),
+                Integer.parseInt(property(properties, "mymoney.journal.snapshot-interval", "10000")));
+    }
+
+    private static String property(Function<String, String> properties, String name, String defaultValue) {
+        String value = properties.apply(name);
+        return value == null ? defaultValue : value;
+    }
 }
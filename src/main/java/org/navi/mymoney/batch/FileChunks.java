@@ -0,0 +1,142 @@
+package org.navi.mymoney.batch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cuts a file into byte ranges of about <code>chunkBytes</code> that start and end on line boundaries, so every range
+ * can be read and split into lines on a thread of its own.
+ * <p>
+ * {@link #next()} has to be called from one thread; {@link #readLines(long, long)} only does positional reads and can
+ * be called from any number of threads at once.
+ */
+public final class FileChunks implements Closeable {
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+    private static final int SCAN_BYTES = 8192;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkBytes;
+    private final ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_BYTES);
+    private long position;
+
+    public FileChunks(Path file, int chunkBytes) throws IOException {
+        if (chunkBytes < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive, got " + chunkBytes);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.chunkBytes = chunkBytes;
+    }
+
+    public boolean hasNext() {
+        return position < size;
+    }
+
+    /**
+     * @return <code>{from, to}</code> of the next range: it ends right after the first <code>'\n'</code> found
+     * <code>chunkBytes</code> or more after its start, or at the end of the file.
+     */
+    public long[] next() throws IOException {
+        long from = position;
+        long to = from + chunkBytes;
+        while (to < size) {
+            scanBuffer.clear();
+            int read = channel.read(scanBuffer, to);
+            if (read <= 0) {
+                break;
+            }
+            int newLine = indexOf(scanBuffer.array(), read, (byte) '\n');
+            if (newLine >= 0) {
+                to += newLine + 1;
+                break;
+            }
+            to += read;
+        }
+        position = Math.min(to, size);
+        return new long[]{from, position};
+    }
+
+    /**
+     * Decodes the non-empty lines of a range, split like {@link java.io.BufferedReader#readLine()} does.
+     *
+     * @throws IOException if the range can't be read or isn't valid UTF-8.
+     */
+    public Lines readLines(long from, long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IOException("A line of the input is longer than " + Integer.MAX_VALUE + " bytes");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) (to - from));
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, from + bytes.position()) < 0) {
+                throw new IOException("The input ended at " + (from + bytes.position()) + ", before " + to);
+            }
+        }
+        byte[] array = bytes.array();
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        List<String> lines = new ArrayList<>();
+        int[] lineNumbers = new int[16];
+        int lineBreaks = 0;
+        int lineStart = 0;
+        for (int i = 0; i <= array.length; i++) {
+            // A "\r\n" ends a line and then an empty one, which is dropped like every empty line.
+            if (i == array.length || array[i] == '\n' || array[i] == '\r') {
+                if (i > lineStart) {
+                    CharBuffer line = decoder.decode(ByteBuffer.wrap(array, lineStart, i - lineStart));
+                    if (lines.size() == lineNumbers.length) {
+                        lineNumbers = Arrays.copyOf(lineNumbers, 2 * lineNumbers.length);
+                    }
+                    lineNumbers[lines.size()] = lineBreaks + 1;
+                    lines.add(line.toString());
+                }
+                // Ranges end after a '\n', so the '\r' of a "\r\n" is always in the same range.
+                if (i < array.length && (array[i] == '\r' || i == 0 || array[i - 1] != '\r')) {
+                    lineBreaks++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        return new Lines(lines, Arrays.copyOf(lineNumbers, lines.size()), lineBreaks);
+    }
+
+    /**
+     * The non-empty lines of a range, numbered from the first line of the range on.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class Lines {
+        private final List<String> lines;
+        // 1-based, in the range.
+        private final int[] lineNumbers;
+        // Lines ended in the range, empty ones included: how much the numbers of the next range are shifted by.
+        private final int lineBreaks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte value) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,219 @@
+package org.navi.mymoney.batch;
+
+import org.navi.mymoney.parser.LineCommandReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Three stage pipeline: <code>reader -> processor -> writer</code>.
+ * <p>
+ * The stages are joined by bounded queues, so a slow stage blocks the one feeding it and the number of lines held in
+ * memory never exceeds the capacity of the two queues, whatever the size of the input. The writer flushes as soon as
+ * it runs out of pending outputs, so results show up while the file is still being read.
+ * <p>
+ * The processor runs on the calling thread, which keeps the (non thread-safe) command state confined to one thread.
+ * Whether it reaches the end of the input or stops before, the outputs it handed over are written before
+ * {@link #run} returns or fails.
+ */
+public class StreamingCommandPipeline {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    // Compared by identity, so it can never clash with a real line.
+    private static final String END_OF_STREAM = new String("<end-of-stream>");
+    private static final int WRITER_BATCH_SIZE = 256;
+
+    private final int queueCapacity;
+
+    private final Logger logger = LoggerFactory.getLogger(StreamingCommandPipeline.class);
+
+    public StreamingCommandPipeline() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public StreamingCommandPipeline(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive, got " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * The processor stage.
+     */
+    @FunctionalInterface
+    public interface Processor {
+        /**
+         * Runs the lines of the input, empty ones included, up to the end of the input or until it stops.
+         *
+         * @param outputs takes every output, in order.
+         */
+        void process(LineCommandReader.LineSource lines, Outputs outputs) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Outputs {
+        void write(String output) throws IOException;
+    }
+
+    /**
+     * Streams the lines of <code>input</code> through <code>processor</code> and writes every output it hands over to
+     * <code>output</code>, one per line. The output is flushed but not closed.
+     *
+     * @return number of outputs written.
+     * @throws IOException if the input can't be read, the output can't be written or the processor failed.
+     */
+    public long run(Path input, Processor processor, Writer output) throws IOException {
+        BlockingQueue<String> lines = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<String> outputs = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+
+        BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+        Thread readerThread = new Thread(() -> read(reader, lines, failure), "pipeline-reader");
+        WriterStage writerStage = new WriterStage(output, outputs, failure);
+        Thread writerThread = new Thread(writerStage, "pipeline-writer");
+        readerThread.setDaemon(true);
+        writerThread.setDaemon(true);
+        readerThread.start();
+        writerThread.start();
+
+        boolean completed = false;
+        try {
+            try {
+                processor.process(() -> {
+                    String line = take(lines);
+                    return line == END_OF_STREAM ? null : line;
+                }, result -> put(outputs, result));
+            } finally {
+                outputs.put(END_OF_STREAM);
+                writerThread.join();
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Streaming interrupted");
+        } finally {
+            // Blocked on a full queue if the processor stopped before the end of the input.
+            readerThread.interrupt();
+            if (!completed) {
+                writerThread.interrupt();
+            }
+            reader.close();
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return writerStage.written;
+    }
+
+    private static String take(BlockingQueue<String> queue) throws InterruptedIOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Streaming interrupted");
+        }
+    }
+
+    private static void put(BlockingQueue<String> queue, String value) throws InterruptedIOException {
+        try {
+            queue.put(value);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Streaming interrupted");
+        }
+    }
+
+    private void read(BufferedReader reader, BlockingQueue<String> lines, AtomicReference<IOException> failure) {
+        try {
+            String line;
+            // Empty lines too, they count in the line numbers.
+            while ((line = reader.readLine()) != null) {
+                lines.put(line);
+            }
+        } catch (IOException e) {
+            logger.error("Failed reading the input.", e);
+            failure.compareAndSet(null, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            lines.put(END_OF_STREAM);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class WriterStage implements Runnable {
+        private final BufferedWriter writer;
+        private final BlockingQueue<String> outputs;
+        private final AtomicReference<IOException> failure;
+        private final List<String> batch = new ArrayList<>(WRITER_BATCH_SIZE);
+        private long written;
+        private boolean endSeen;
+
+        private WriterStage(Writer output, BlockingQueue<String> outputs, AtomicReference<IOException> failure) {
+            this.writer = output instanceof BufferedWriter ? (BufferedWriter) output : new BufferedWriter(output);
+            this.outputs = outputs;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    batch.clear();
+                    batch.add(outputs.take());
+                    outputs.drainTo(batch, WRITER_BATCH_SIZE - 1);
+                    for (String result : batch) {
+                        if (result == END_OF_STREAM) {
+                            endSeen = true;
+                            writer.flush();
+                            return;
+                        }
+                        writer.write(result);
+                        writer.newLine();
+                        written++;
+                    }
+                    // Nothing else is pending, push what we have so the consumer sees it right away.
+                    if (outputs.isEmpty()) {
+                        writer.flush();
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Failed writing the output.", e);
+                failure.compareAndSet(null, e);
+                // Keep draining so the processor never blocks on a full queue.
+                for (String result : batch) {
+                    endSeen |= result == END_OF_STREAM;
+                }
+                if (!endSeen) {
+                    drainUntilEnd();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void drainUntilEnd() {
+            try {
+                while (outputs.take() != END_OF_STREAM) {
+                    // discard
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
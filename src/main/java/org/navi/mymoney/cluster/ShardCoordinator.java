@@ -0,0 +1,675 @@
+package org.navi.mymoney.cluster;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.metrics.SampledErrorLog;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.server.CommandServer;
+import org.navi.mymoney.validation.ErrorPolicy;
+import org.navi.mymoney.validation.ErrorReport;
+import org.navi.mymoney.validation.InvalidInputException;
+import org.navi.mymoney.validation.ResultCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs portfolio-prefixed command files on several JVMs of this machine.
+ * <p>
+ * The portfolios are hashed to {@link #SHARDS_PER_WORKER} shards per worker, and every shard is a session of its own
+ * on one of the {@link WorkerProcess worker JVMs}, which run the {@link CommandServer} of the SHELL mode. The file is
+ * read in batches of <code>batchLines</code> lines: the lines of every shard are sent to its session, all the shards
+ * at once, and the responses merged back, so the outputs are the same, and in the same order, as with
+ * {@link PortfolioEngine#executeCommandsFromFile(String, Writer)}.
+ * <p>
+ * The state of a shard lives in its worker, and the coordinator keeps what it takes to rebuild it elsewhere: the
+ * <code>CHECKPOINT</code> of its portfolios taken every {@link #CHECKPOINT_BATCHES} batches, and the lines the shard
+ * acknowledged since. A worker that exits, drops a connection or doesn't answer within <code>timeoutMillis</code> is
+ * killed, and only its shards are reassigned to the worker with the fewest shards (a new worker if none is left):
+ * they are <code>RESTORE</code>d from their checkpoint and replayed the lines acknowledged since, their responses
+ * discarded, before the batch is sent again. If no worker can be started, the shards are run by a
+ * {@link CommandServer} in the coordinator's JVM rather than giving up on the file.
+ * <p>
+ * Workers are started by the first file and stopped by {@link #close()}. Every file gets new sessions, so it starts
+ * from no portfolio at all. Not thread-safe, one file at a time.
+ * <p>
+ * The workers validate the lines like {@link Driver} does and answer an invalid one with its {@link ResultCode}, so a
+ * file run keeps the same {@link ErrorReport} and follows the same {@link ErrorPolicy}, the outputs stopping before
+ * the first invalid line with {@link ErrorPolicy#FAIL_FAST}.
+ */
+@Component
+public class ShardCoordinator implements AutoCloseable {
+    public static final int SHARDS_PER_WORKER = 4;
+
+    // Batches between two checkpoints of a shard.
+    public static final int CHECKPOINT_BATCHES = 4;
+    // Rounds of reassignments to workers, the next round runs the shards in this JVM.
+    private static final int MAX_RECOVERIES_PER_BATCH = 3;
+
+    private final int workerCount;
+    private final int batchLines;
+    private final int timeoutMillis;
+    private final List<String> jvmArgs;
+    private final Map<String, String> workerProperties;
+    private final ErrorPolicy errorPolicy;
+
+    private final List<WorkerProcess> workers = new ArrayList<>();
+    // A null owner is the local server.
+    private final WorkerProcess[] owners;
+    private final Connection[] connections;
+    // Per shard, the RESTORE lines of its last checkpoint and the lines it acknowledged since.
+    private final List<List<String>> checkpoints = new ArrayList<>();
+    private final List<List<String>> acknowledged = new ArrayList<>();
+    private CommandServer localServer;
+    private long reassignments;
+    private long replayedLines;
+    private ErrorReport lastReport;
+
+    private final Logger logger = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    @Autowired
+    public ShardCoordinator(@Value("${mymoney.cluster.workers:2}") int workers,
+                            @Value("${mymoney.cluster.batch-lines:4096}") int batchLines,
+                            @Value("${mymoney.cluster.timeout-ms:60000}") int timeoutMillis,
+                            @Value("${mymoney.cluster.jvm-args:}") String jvmArgs,
+                            @Value("${mymoney.numeric.engine:BIG_DECIMAL}") String numericEngine,
+                            @Value("${mymoney.rebalance.policy:NONE}") String reBalancePolicy,
+                            @Value("${mymoney.validation.policy:SKIP}") ErrorPolicy errorPolicy) {
+        this(workers, batchLines, timeoutMillis, splitJvmArgs(jvmArgs), workerProperties(numericEngine, reBalancePolicy),
+                errorPolicy);
+    }
+
+    public ShardCoordinator(int workers, int batchLines, int timeoutMillis, List<String> jvmArgs,
+                            Map<String, String> workerProperties) {
+        this(workers, batchLines, timeoutMillis, jvmArgs, workerProperties, ErrorPolicy.SKIP);
+    }
+
+    /**
+     * @param workerProperties system properties of the workers: the numeric engine, re-balance policy, asset
+     *                         universe, ... they have to run with.
+     */
+    public ShardCoordinator(int workers, int batchLines, int timeoutMillis, List<String> jvmArgs,
+                            Map<String, String> workerProperties, ErrorPolicy errorPolicy) {
+        if (workers < 1 || batchLines < 1 || timeoutMillis < 1) {
+            throw new IllegalArgumentException("Invalid coordinator settings: " + workers + " workers, batches of "
+                    + batchLines + " lines, " + timeoutMillis + " ms timeout");
+        }
+        this.workerCount = workers;
+        this.batchLines = batchLines;
+        this.timeoutMillis = timeoutMillis;
+        this.jvmArgs = new ArrayList<>(jvmArgs);
+        this.workerProperties = new LinkedHashMap<>(workerProperties);
+        this.errorPolicy = errorPolicy;
+        this.owners = new WorkerProcess[workers * SHARDS_PER_WORKER];
+        this.connections = new Connection[owners.length];
+        for (int shard = 0; shard < owners.length; shard++) {
+            checkpoints.add(new ArrayList<>());
+            acknowledged.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @return the settings a worker needs to compute like this JVM would.
+     */
+    public static Map<String, String> workerProperties(String numericEngine, String reBalancePolicy) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("mymoney.numeric.engine", numericEngine);
+        properties.put("mymoney.rebalance.policy", reBalancePolicy);
+        properties.put(AssetUniverse.PROPERTY, AssetUniverse.current().toString());
+        properties.put("mymoney.metrics.jmx", "false");
+        return properties;
+    }
+
+    /**
+     * Starts the workers, if not done yet.
+     *
+     * @throws IOException if a worker doesn't start.
+     */
+    public void start() throws IOException {
+        if (!workers.isEmpty()) {
+            return;
+        }
+        // All of them boot at the same time.
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(WorkerProcess.start(i, jvmArgs, workerProperties));
+        }
+        for (int shard = 0; shard < owners.length; shard++) {
+            owners[shard] = workers.get(shard % workerCount);
+        }
+        logger.info("Started {} workers for {} shards", workerCount, owners.length);
+    }
+
+    /**
+     * Processes the file on the workers, writing the outputs as soon as their batch is done.
+     *
+     * @param output where the outputs are written, one per line. It is flushed but not closed.
+     * @return number of outputs written.
+     * @throws IOException if the file can't be read, the output can't be written, or the shards of a batch can't be
+     *                     run even in this JVM.
+     * @throws InvalidInputException at the first invalid line, once the outputs so far are written, if the policy is
+     *                               {@link ErrorPolicy#FAIL_FAST}.
+     */
+    public long executeCommandsFromFile(String fileName, Writer output) throws IOException {
+        start();
+        boolean[] lost = new boolean[owners.length];
+        for (int shard = 0; shard < owners.length; shard++) {
+            checkpoints.get(shard).clear();
+            acknowledged.get(shard).clear();
+            if (connections[shard] != null) {
+                connections[shard].close();
+            }
+            connections[shard] = null;
+            try {
+                connections[shard] = connect(owners[shard]);
+            } catch (IOException e) {
+                logger.warn("Can't connect shard {} to {}", shard, nameOf(owners[shard]), e);
+                lost[shard] = true;
+                kill(owners[shard]);
+            }
+        }
+        // The shards of the workers that died since the last file.
+        recover(lost);
+        Path input = Paths.get(fileName);
+        BufferedWriter writer = output instanceof BufferedWriter ? (BufferedWriter) output : new BufferedWriter(output);
+        long written = 0;
+        long batchStart = 0;
+        long batches = 0;
+        ErrorReport fileReport = new ErrorReport(fileName);
+        long[] lineNumbers = new long[batchLines];
+        long[] linesRead = new long[1];
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            List<String> batch;
+            while (!errorPolicy.stops(fileReport) && !(batch = readBatch(reader, lineNumbers, linesRead)).isEmpty()) {
+                String[] outputs = new String[batch.size()];
+                ResultCode[] codes = new ResultCode[batch.size()];
+                runBatch(batch, batchStart, outputs, codes);
+                for (int line = 0; line < batch.size() && !errorPolicy.stops(fileReport); line++) {
+                    fileReport.countLine();
+                    if (codes[line].isError()) {
+                        fileReport.record(lineNumbers[line], codes[line]);
+                    } else if (outputs[line] != null) {
+                        writer.write(outputs[line]);
+                        writer.newLine();
+                        written++;
+                    }
+                }
+                batchStart += batch.size();
+                if (++batches % CHECKPOINT_BATCHES == 0) {
+                    checkpoint();
+                }
+            }
+        }
+        writer.flush();
+        lastReport = fileReport;
+        errorPolicy.complete(fileReport, logger);
+        return written;
+    }
+
+    public List<WorkerProcess> getWorkers() {
+        return Collections.unmodifiableList(workers);
+    }
+
+    public int getShardCount() {
+        return owners.length;
+    }
+
+    /**
+     * @return the report of the last file run, <code>null</code> if none was run yet.
+     */
+    public ErrorReport getErrorReport() {
+        return lastReport;
+    }
+
+    /**
+     * @return shards moved to another worker so far.
+     */
+    public long getReassignments() {
+        return reassignments;
+    }
+
+    /**
+     * @return lines sent again to rebuild reassigned shards so far, their <code>RESTORE</code> lines included.
+     */
+    public long getReplayedLines() {
+        return replayedLines;
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        for (int shard = 0; shard < connections.length; shard++) {
+            if (connections[shard] != null) {
+                connections[shard].close();
+                connections[shard] = null;
+            }
+        }
+        workers.forEach(WorkerProcess::stop);
+        workers.clear();
+        if (localServer != null) {
+            localServer.close();
+            localServer = null;
+        }
+    }
+
+    /**
+     * @param lineNumbers gets the number of every line of the batch.
+     * @param linesRead   lines read so far, empty ones included.
+     * @return the next non-empty lines, as many as a batch takes.
+     */
+    private List<String> readBatch(BufferedReader reader, long[] lineNumbers, long[] linesRead) throws IOException {
+        List<String> batch = new ArrayList<>(batchLines);
+        String line;
+        while (batch.size() < batchLines && (line = reader.readLine()) != null) {
+            linesRead[0]++;
+            if (!line.isEmpty()) {
+                lineNumbers[batch.size()] = linesRead[0];
+                batch.add(line);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Runs a batch, filling the output and the result of each of its lines.
+     */
+    private void runBatch(List<String> batch, long batchStart, String[] outputs, ResultCode[] codes)
+            throws IOException {
+        List<List<Integer>> linesPerShard = new ArrayList<>(owners.length);
+        for (int shard = 0; shard < owners.length; shard++) {
+            linesPerShard.add(new ArrayList<>());
+        }
+        for (int line = 0; line < batch.size(); line++) {
+            ResultCode check = checkSendable(batch.get(line));
+            codes[line] = check;
+            if (check == ResultCode.OK) {
+                linesPerShard.get(shardFor(batch.get(line))).add(line);
+            } else {
+                SampledErrorLog.shared().error(logger, batch.get(line), check);
+            }
+        }
+        boolean[] done = new boolean[owners.length];
+        for (int recovery = 0; ; recovery++) {
+            List<CompletableFuture<Void>> sent = new ArrayList<>(owners.length);
+            List<List<String>> sentLines = new ArrayList<>(owners.length);
+            for (int shard = 0; shard < owners.length; shard++) {
+                List<String> lines = done[shard] || linesPerShard.get(shard).isEmpty() ? null
+                        : select(batch, linesPerShard.get(shard));
+                sentLines.add(lines);
+                sent.add(lines == null ? null : connections[shard].send(lines));
+            }
+            boolean[] lost = new boolean[owners.length];
+            boolean failed = false;
+            for (int shard = 0; shard < owners.length; shard++) {
+                if (sent.get(shard) == null) {
+                    done[shard] = true;
+                    continue;
+                }
+                try {
+                    List<String> responses = connections[shard].receive(linesPerShard.get(shard).size());
+                    sent.get(shard).join();
+                    for (int i = 0; i < responses.size(); i++) {
+                        int line = linesPerShard.get(shard).get(i);
+                        codes[line] = toResult(batch.get(line), responses.get(i));
+                        outputs[line] = codes[line].isError() || responses.get(i).isEmpty() ? null : responses.get(i);
+                    }
+                    acknowledged.get(shard).addAll(sentLines.get(shard));
+                    done[shard] = true;
+                } catch (IOException | CompletionException e) {
+                    logger.warn("Shard {} failed on {}, starting from line {}", shard, nameOf(owners[shard]),
+                            batchStart + 1, e);
+                    lost[shard] = true;
+                    failed = true;
+                }
+            }
+            if (!failed) {
+                return;
+            }
+            if (recovery > MAX_RECOVERIES_PER_BATCH) {
+                throw new IOException("Giving up on the batch starting from line " + (batchStart + 1));
+            }
+            for (int shard = 0; shard < owners.length; shard++) {
+                if (lost[shard]) {
+                    kill(owners[shard]);
+                }
+            }
+            // The shards done with this batch on a killed worker are rebuilt with it, it was acknowledged.
+            recover(lost);
+        }
+    }
+
+    /**
+     * Replaces the lines kept for a shard with a checkpoint of its portfolios, if it acknowledged at least as many
+     * lines since the last one as it has portfolios: the checkpoint then costs no more than the lines it saves from
+     * being replayed.
+     */
+    private void checkpoint() throws IOException {
+        List<CompletableFuture<Void>> sent = new ArrayList<>(owners.length);
+        for (int shard = 0; shard < owners.length; shard++) {
+            int lines = acknowledged.get(shard).size();
+            sent.add(lines == 0 || lines < checkpoints.get(shard).size() ? null
+                    : connections[shard].send(Collections.singletonList(CommandServer.CHECKPOINT)));
+        }
+        boolean[] lost = new boolean[owners.length];
+        for (int shard = 0; shard < owners.length; shard++) {
+            if (sent.get(shard) == null) {
+                continue;
+            }
+            try {
+                String response = connections[shard].receive(1).get(0);
+                sent.get(shard).join();
+                List<String> restores = toRestores(response);
+                if (restores == null) {
+                    logger.debug("Shard {} can't be checkpointed, keeping its lines: {}", shard, response);
+                    continue;
+                }
+                checkpoints.set(shard, restores);
+                acknowledged.get(shard).clear();
+            } catch (IOException | CompletionException e) {
+                logger.warn("Shard {} failed to checkpoint on {}", shard, nameOf(owners[shard]), e);
+                lost[shard] = true;
+                kill(owners[shard]);
+            }
+        }
+        recover(lost);
+    }
+
+    /**
+     * @return the <code>RESTORE</code> lines of a <code>CHECKPOINT</code> response, <code>null</code> if one of them
+     * can't be sent.
+     */
+    private static List<String> toRestores(String response) {
+        if (response.startsWith(CommandServer.ERROR + " ")) {
+            return null;
+        }
+        List<String> restores = new ArrayList<>();
+        if (response.isEmpty()) {
+            return restores;
+        }
+        String[] idsAndStates = response.split(" ");
+        if (idsAndStates.length % 2 != 0) {
+            return null;
+        }
+        for (int i = 0; i < idsAndStates.length; i += 2) {
+            String restore = CommandServer.RESTORE + " " + idsAndStates[i] + " " + idsAndStates[i + 1];
+            if (checkSendable(restore) != ResultCode.OK) {
+                return null;
+            }
+            restores.add(restore);
+        }
+        return restores;
+    }
+
+    /**
+     * Moves the lost shards, and those of dead workers, to a live worker and rebuilds them there, until none is left.
+     * The last round runs them in this JVM.
+     */
+    private void recover(boolean[] lost) throws IOException {
+        for (int round = 0; ; round++) {
+            List<Integer> orphans = new ArrayList<>();
+            for (int shard = 0; shard < owners.length; shard++) {
+                if (lost[shard] || !isAlive(owners[shard])) {
+                    orphans.add(shard);
+                }
+            }
+            if (orphans.isEmpty()) {
+                return;
+            }
+            if (round > MAX_RECOVERIES_PER_BATCH) {
+                throw new IOException("Can't rebuild shards " + orphans);
+            }
+            for (int shard : orphans) {
+                WorkerProcess target = round < MAX_RECOVERIES_PER_BATCH ? leastLoadedWorker() : null;
+                logger.warn("Reassigning shard {} from {} to {}", shard, nameOf(owners[shard]), nameOf(target));
+                if (connections[shard] != null) {
+                    connections[shard].close();
+                    connections[shard] = null;
+                }
+                owners[shard] = target;
+                reassignments++;
+                try {
+                    connections[shard] = connect(target);
+                    replay(shard);
+                    lost[shard] = false;
+                } catch (IOException | CompletionException e) {
+                    logger.warn("Shard {} failed again on {}", shard, nameOf(target), e);
+                    lost[shard] = true;
+                    kill(target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the shard from its last checkpoint and sends the lines it acknowledged since again, discarding their
+     * responses.
+     */
+    private void replay(int shard) throws IOException {
+        List<String> restores = checkpoints.get(shard);
+        for (int start = 0; start < restores.size(); start += batchLines) {
+            List<String> chunk = restores.subList(start, Math.min(restores.size(), start + batchLines));
+            for (String response : exchange(shard, chunk)) {
+                if (!response.isEmpty()) {
+                    throw new IOException("Shard " + shard + " can't be restored: " + response);
+                }
+            }
+        }
+        List<String> lines = acknowledged.get(shard);
+        for (int start = 0; start < lines.size(); start += batchLines) {
+            exchange(shard, lines.subList(start, Math.min(lines.size(), start + batchLines)));
+        }
+        replayedLines += restores.size() + lines.size();
+    }
+
+    private List<String> exchange(int shard, List<String> lines) throws IOException {
+        CompletableFuture<Void> sent = connections[shard].send(lines);
+        List<String> responses = connections[shard].receive(lines.size());
+        sent.join();
+        return responses;
+    }
+
+    /**
+     * @return the live worker with the fewest shards, a new one if none is left, <code>null</code> for this JVM if
+     * none can be started.
+     */
+    private WorkerProcess leastLoadedWorker() {
+        Map<WorkerProcess, Integer> shards = new LinkedHashMap<>();
+        for (WorkerProcess worker : workers) {
+            if (worker.isAlive()) {
+                shards.put(worker, 0);
+            }
+        }
+        if (shards.isEmpty()) {
+            try {
+                WorkerProcess worker = WorkerProcess.start(workers.size(), jvmArgs, workerProperties);
+                workers.add(worker);
+                logger.warn("No worker left, started {}", worker);
+                return worker;
+            } catch (IOException e) {
+                logger.warn("Can't start a worker", e);
+                return null;
+            }
+        }
+        for (WorkerProcess owner : owners) {
+            if (owner != null) {
+                shards.computeIfPresent(owner, (worker, count) -> count + 1);
+            }
+        }
+        return Collections.min(shards.entrySet(), Map.Entry.comparingByValue()).getKey();
+    }
+
+    private Connection connect(WorkerProcess worker) throws IOException {
+        return new Connection(worker == null ? localAddress() : worker.awaitAddress(timeoutMillis), timeoutMillis);
+    }
+
+    /**
+     * Starts the server of the shards run in this JVM, with the settings of the workers, if not done yet.
+     */
+    private InetSocketAddress localAddress() throws IOException {
+        if (localServer == null) {
+            CommandServer server = new CommandServer(new InetSocketAddress("127.0.0.1", 0), 0,
+                    NumericEngine.valueOf(workerProperties.getOrDefault("mymoney.numeric.engine", "BIG_DECIMAL")),
+                    ReBalancePolicy.parse(workerProperties.getOrDefault("mymoney.rebalance.policy", "NONE")));
+            server.start();
+            localServer = server;
+            logger.warn("Running shards in this JVM, on port {}", server.getPort());
+        }
+        return new InetSocketAddress("127.0.0.1", localServer.getPort());
+    }
+
+    private static boolean isAlive(WorkerProcess owner) {
+        return owner == null || owner.isAlive();
+    }
+
+    private static void kill(WorkerProcess owner) {
+        if (owner != null) {
+            owner.kill();
+        }
+    }
+
+    private static String nameOf(WorkerProcess owner) {
+        return owner == null ? "this JVM" : owner.toString();
+    }
+
+    private int shardFor(String line) {
+        return Math.floorMod(PortfolioEngine.splitPortfolioId(line)[0].hashCode(), owners.length);
+    }
+
+    /**
+     * @return the result of a line, from its response: <code>ERROR &lt;code&gt; ...</code> for an invalid one.
+     */
+    private ResultCode toResult(String line, String response) {
+        if (!response.startsWith(CommandServer.ERROR + " ")) {
+            return ResultCode.OK;
+        }
+        int codeStart = CommandServer.ERROR.length() + 1;
+        int codeEnd = response.indexOf(' ', codeStart);
+        ResultCode result;
+        try {
+            result = ResultCode.valueOf(response.substring(codeStart, codeEnd < 0 ? response.length() : codeEnd));
+        } catch (IllegalArgumentException e) {
+            result = ResultCode.FAILED;
+        }
+        if (!result.isError()) {
+            result = ResultCode.FAILED;
+        }
+        SampledErrorLog.shared().error(logger, line, result);
+        return result;
+    }
+
+    /**
+     * @return {@link ResultCode#OK} if the server takes the line as a command. The others aren't sent and have no
+     * output, like any invalid line.
+     */
+    private static ResultCode checkSendable(String line) {
+        if (CommandServer.QUIT.equals(line)) {
+            return ResultCode.UNKNOWN_COMMAND;
+        }
+        // At most 3 bytes a char.
+        if (line.length() * 3 >= CommandServer.MAX_LINE_LENGTH
+                && line.getBytes(StandardCharsets.UTF_8).length >= CommandServer.MAX_LINE_LENGTH) {
+            return ResultCode.FAILED;
+        }
+        return ResultCode.OK;
+    }
+
+    private static List<String> select(List<String> batch, List<Integer> lines) {
+        List<String> selected = new ArrayList<>(lines.size());
+        for (int line : lines) {
+            selected.add(batch.get(line));
+        }
+        return selected;
+    }
+
+    private static List<String> splitJvmArgs(String jvmArgs) {
+        List<String> args = new ArrayList<>();
+        for (String arg : jvmArgs.trim().split("\\s+")) {
+            if (!arg.isEmpty()) {
+                args.add(arg);
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Session of one shard. Lines are written by a thread of their own while the responses are read, so neither
+     * side blocks the other whatever the size of a batch.
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final BufferedWriter writer;
+        private final ExecutorService sender = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private Connection(InetSocketAddress address, int timeoutMillis) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8),
+                        64 * 1024);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private CompletableFuture<Void> send(List<String> lines) {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    for (String line : lines) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, sender);
+        }
+
+        private List<String> receive(int count) throws IOException {
+            List<String> responses = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String response = reader.readLine();
+                if (response == null) {
+                    throw new EOFException("Connection closed after " + i + " of " + count + " responses");
+                }
+                responses.add(response);
+            }
+            return responses;
+        }
+
+        private void close() {
+            sender.shutdownNow();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+}
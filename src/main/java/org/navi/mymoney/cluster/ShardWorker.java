@@ -0,0 +1,33 @@
+package org.navi.mymoney.cluster;
+
+import org.navi.mymoney.FastLauncher;
+
+import java.io.IOException;
+
+/**
+ * Main class of a worker JVM of the {@link ShardCoordinator}: the SHELL mode of {@link FastLauncher}, serving the
+ * sessions of its shards on the port given by <code>mymoney.server.port</code> (<code>0</code> for any free one, the
+ * coordinator reads it from the launcher's output).
+ * <p>
+ * The worker exits once its standard input is closed, so it doesn't outlive a coordinator that was killed.
+ */
+public final class ShardWorker {
+    private ShardWorker() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0) {
+                    // Nothing is ever sent, only the end of the stream matters.
+                }
+            } catch (IOException e) {
+                // Same as the end of the stream.
+            }
+            System.exit(0);
+        }, "coordinator-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        FastLauncher.main(new String[]{"shell"});
+    }
+}
@@ -0,0 +1,167 @@
+package org.navi.mymoney.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.jar.JarFile;
+
+/**
+ * A {@link ShardWorker} JVM started by the {@link ShardCoordinator} on this machine, with the classpath of the
+ * coordinator. Its output is logged at DEBUG by this class, once the port it listens on has been read from it.
+ * <p>
+ * A coordinator run from the Spring Boot jar has the jar as its only classpath entry, the classes being nested under
+ * <code>BOOT-INF</code>: its workers are started from the same jar through the {@link #BOOT_LAUNCHER}, which loads
+ * the nested classes and libraries before running {@link ShardWorker}.
+ */
+public final class WorkerProcess {
+    static final String BOOT_LAUNCHER = "org.springframework.boot.loader.PropertiesLauncher";
+
+    private static final String PORT_LINE = "Serving commands on port ";
+    private static final String BOOT_CLASSES = "BOOT-INF/classes/";
+    private static final long STOP_TIMEOUT_SECONDS = 5;
+
+    private final int index;
+    private final Process process;
+    private final CompletableFuture<Integer> port = new CompletableFuture<>();
+
+    private final Logger logger = LoggerFactory.getLogger(WorkerProcess.class);
+
+    private WorkerProcess(int index, Process process) {
+        this.index = index;
+        this.process = process;
+        Thread pump = new Thread(this::pumpOutput, "worker-" + index + "-output");
+        pump.setDaemon(true);
+        pump.start();
+    }
+
+    /**
+     * Starts a worker, without waiting for it to listen.
+     *
+     * @param properties system properties of the worker.
+     */
+    static WorkerProcess start(int index, List<String> jvmArgs, Map<String, String> properties) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        String classPath = System.getProperty("java.class.path");
+        boolean bootJar = isBootJar(classPath);
+        command.add("-cp");
+        command.add(classPath);
+        properties.forEach((name, value) -> command.add("-D" + name + "=" + value));
+        command.add("-Dmymoney.server.host=127.0.0.1");
+        command.add("-Dmymoney.server.port=0");
+        if (bootJar) {
+            command.add("-Dloader.main=" + ShardWorker.class.getName());
+            command.add(BOOT_LAUNCHER);
+        } else {
+            command.add(ShardWorker.class.getName());
+        }
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        return new WorkerProcess(index, process);
+    }
+
+    /**
+     * @return whether the classpath is a single Spring Boot jar, whose classes can't be loaded from the classpath.
+     */
+    static boolean isBootJar(String classPath) throws IOException {
+        if (classPath.isEmpty() || classPath.contains(File.pathSeparator) || !classPath.endsWith(".jar")
+                || !Files.isRegularFile(Paths.get(classPath))) {
+            return false;
+        }
+        try (JarFile jar = new JarFile(classPath)) {
+            return jar.getEntry(BOOT_CLASSES) != null;
+        }
+    }
+
+    /**
+     * @return the address the worker listens on, once it does.
+     * @throws IOException if it exited or didn't listen in time.
+     */
+    InetSocketAddress awaitAddress(long timeoutMillis) throws IOException {
+        try {
+            return new InetSocketAddress("127.0.0.1", port.get(timeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException | TimeoutException e) {
+            kill();
+            throw new IOException("Worker " + index + " didn't start", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            kill();
+            throw new IOException("Interrupted while starting worker " + index, e);
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Kills the worker at once, like a crash would.
+     */
+    public void kill() {
+        process.destroyForcibly();
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the standard input of the worker, which makes it exit, and kills it if it doesn't.
+     */
+    void stop() {
+        try {
+            process.getOutputStream().close();
+            if (!process.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                kill();
+            }
+        } catch (IOException e) {
+            kill();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            kill();
+        }
+    }
+
+    private void pumpOutput() {
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (!port.isDone() && line.startsWith(PORT_LINE)) {
+                    port.complete(Integer.parseInt(line.substring(PORT_LINE.length()).trim()));
+                }
+                logger.debug("worker-{}: {}", index, line);
+            }
+        } catch (IOException | NumberFormatException e) {
+            port.completeExceptionally(e);
+        }
+        port.completeExceptionally(new IOException("Worker " + index + " exited"));
+    }
+
+    @Override
+    public String toString() {
+        return "worker-" + index;
+    }
+}
@@ -0,0 +1,130 @@
+package org.navi.mymoney.constants;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * The instruments a portfolio can hold, each with a dense id from <code>0</code> to <code>size() - 1</code> in the
+ * order they are configured. Commands list their amounts and rates in that order, and the state of a portfolio is
+ * indexed by these ids, so no map is needed once a command is parsed.
+ * <p>
+ * The universe is configured once at startup, from <code>mymoney.assets</code>, before any portfolio is created;
+ * every store keeps the universe that was current when it was created. The default one is {@link AssetClass}.
+ */
+public final class AssetUniverse {
+    // Ids have to fit the byte of the journal and snapshot formats, and the values of a ParsedCommand.
+    public static final int MAX_SIZE = 64;
+    public static final String PROPERTY = "mymoney.assets";
+
+    public static final AssetUniverse DEFAULT = of(Arrays.stream(AssetClass.values()).map(Enum::name).toArray(String[]::new));
+
+    private static volatile AssetUniverse current = DEFAULT;
+
+    private final String[] names;
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Id of every AssetClass, -1 if the universe doesn't have it.
+    private final int[] assetClassIds = new int[AssetClass.values().length];
+
+    private AssetUniverse(String[] names) {
+        this.names = names;
+        for (int id = 0; id < names.length; id++) {
+            ids.put(names[id], id);
+        }
+        for (AssetClass assetClass : AssetClass.values()) {
+            assetClassIds[assetClass.ordinal()] = id(assetClass.name());
+        }
+    }
+
+    public static AssetUniverse of(String... names) {
+        if (names.length == 0 || names.length > MAX_SIZE) {
+            throw new IllegalArgumentException("The universe must have 1 to " + MAX_SIZE + " assets, got " + names.length);
+        }
+        Set<String> unique = new HashSet<>();
+        for (String name : names) {
+            if (name.isEmpty() || !name.equals(name.trim()) || name.contains(" ") || !unique.add(name)) {
+                throw new IllegalArgumentException("Invalid or duplicated asset name '" + name + "'");
+            }
+        }
+        return new AssetUniverse(names.clone());
+    }
+
+    /**
+     * @param names comma separated names, blank for {@link #DEFAULT}.
+     */
+    public static AssetUniverse parse(String names) {
+        if (names == null || names.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        return of(Arrays.stream(names.split(",")).map(String::trim).toArray(String[]::new));
+    }
+
+    public static AssetUniverse current() {
+        return current;
+    }
+
+    /**
+     * Makes <code>universe</code> the one of the stores created from now on.
+     */
+    public static void configure(AssetUniverse universe) {
+        current = Objects.requireNonNull(universe);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the id of the asset, <code>-1</code> if it isn't part of the universe.
+     */
+    public int id(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the amounts of a map keyed by {@link AssetClass}, by id; <code>null</code> for the ids it has no amount
+     * for, and a shorter array if some of its keys aren't part of the universe.
+     */
+    public BigDecimal[] toArray(Map<AssetClass, BigDecimal> amounts) {
+        BigDecimal[] values = new BigDecimal[names.length];
+        for (Map.Entry<AssetClass, BigDecimal> amount : amounts.entrySet()) {
+            int id = assetClassIds[amount.getKey().ordinal()];
+            if (id < 0) {
+                return new BigDecimal[0];
+            }
+            values[id] = amount.getValue();
+        }
+        return values;
+    }
+
+    /**
+     * @return the rates of a map keyed by {@link AssetClass}, by id; <code>null</code> for a <code>null</code> map,
+     * and an empty array if it doesn't have a rate for every asset of the universe.
+     */
+    public double[] toRates(Map<AssetClass, Double> rates) {
+        if (rates == null) {
+            return null;
+        }
+        double[] values = new double[names.length];
+        if (rates.size() != names.length) {
+            return new double[0];
+        }
+        for (Map.Entry<AssetClass, Double> rate : rates.entrySet()) {
+            int id = assetClassIds[rate.getKey().ordinal()];
+            if (id < 0 || rate.getValue() == null) {
+                return new double[0];
+            }
+            values[id] = rate.getValue();
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", names);
+    }
+}
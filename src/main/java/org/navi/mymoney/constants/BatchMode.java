@@ -0,0 +1,14 @@
+package org.navi.mymoney.constants;
+
+public enum BatchMode {
+    SEQUENTIAL,
+    STREAMING,
+    MAPPED,
+    // The input file is in the binary format of BinaryCommandWriter.
+    BINARY,
+    ENGINE,
+    // Like ENGINE, with the file read and split in chunks on all cores.
+    PARALLEL,
+    // Like ENGINE, with the portfolios spread over worker JVMs of this machine.
+    CLUSTER
+}
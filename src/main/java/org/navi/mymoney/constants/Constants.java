@@ -2,4 +2,5 @@ package org.navi.mymoney.constants;
 
 public class Constants {
     public static final String CANNOT_REBALANCE = "CANNOT_REBALANCE";
+    public static final String DEFAULT_PORTFOLIO_ID = "DEFAULT";
 }
@@ -0,0 +1,182 @@
+package org.navi.mymoney.dao;
+
+import org.navi.mymoney.models.AssetHolding;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Exact decimal amounts stored column-wise: a cell is <code>unscaled / 10^scale</code> in two primitive arrays, so a
+ * row of amounts costs 12 bytes per cell instead of a <code>BigDecimal</code> and its <code>BigInteger</code>. Amounts
+ * that don't fit (a negative scale or an unscaled value beyond a <code>long</code>) go to a sparse overflow column that
+ * is only allocated the first time one shows up.
+ * <p>
+ * A cell keeps the exact value and scale it was given, so {@link #get(int)} is <code>equals</code> to the amount
+ * stored and the arithmetic done on it is the same either way.
+ * <p>
+ * The cells of a {@link StateRecord} are kept off the heap by a subclass, with the same encoding.
+ */
+public class AmountColumns {
+    // Encoding of the scale column: ABSENT, OVERFLOW, or the scale of a compact cell plus one.
+    static final int ABSENT = 0;
+    static final int OVERFLOW = -1;
+
+    private long[] unscaled;
+    private int[] scales;
+    private BigDecimal[] overflow;
+
+    public AmountColumns(int cells) {
+        this.unscaled = new long[cells];
+        this.scales = new int[cells];
+    }
+
+    /**
+     * For columns kept elsewhere than in the arrays of this class, which override every method.
+     */
+    AmountColumns() {
+    }
+
+    public int capacity() {
+        return scales.length;
+    }
+
+    public void ensureCapacity(int cells) {
+        if (cells <= scales.length) {
+            return;
+        }
+        int capacity = Math.max(cells, scales.length * 2);
+        unscaled = Arrays.copyOf(unscaled, capacity);
+        scales = Arrays.copyOf(scales, capacity);
+        if (overflow != null) {
+            overflow = Arrays.copyOf(overflow, capacity);
+        }
+    }
+
+    public boolean isPresent(int cell) {
+        return scales[cell] != ABSENT;
+    }
+
+    /**
+     * @return whether the cell is held as <code>{@link #getUnscaled(int)} / 10^{@link #getScale(int)}</code>, with a
+     * scale of zero or more.
+     */
+    public boolean isScaled(int cell) {
+        return scales[cell] > ABSENT;
+    }
+
+    public long getUnscaled(int cell) {
+        return unscaled[cell];
+    }
+
+    public int getScale(int cell) {
+        return scales[cell] - 1;
+    }
+
+    /**
+     * @return the amount of the cell, <code>null</code> if it was never set.
+     */
+    public BigDecimal get(int cell) {
+        int scale = scales[cell];
+        if (scale == ABSENT) {
+            return null;
+        }
+        return scale == OVERFLOW ? overflow[cell] : BigDecimal.valueOf(unscaled[cell], scale - 1);
+    }
+
+    public void set(int cell, BigDecimal amount) {
+        if (amount.scale() >= 0 && amount.unscaledValue().bitLength() < Long.SIZE) {
+            setScaled(cell, amount.unscaledValue().longValue(), amount.scale());
+            return;
+        }
+        if (overflow == null) {
+            overflow = new BigDecimal[scales.length];
+        }
+        overflow[cell] = amount;
+        scales[cell] = OVERFLOW;
+    }
+
+    public void setScaled(int cell, long unscaledAmount, int scale) {
+        if (scale < 0 || scale == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported scale " + scale);
+        }
+        unscaled[cell] = unscaledAmount;
+        scales[cell] = scale + 1;
+        if (overflow != null) {
+            overflow[cell] = null;
+        }
+    }
+
+    public void clear(int cell) {
+        scales[cell] = ABSENT;
+        if (overflow != null) {
+            overflow[cell] = null;
+        }
+    }
+
+    /**
+     * Copies <code>cells</code> consecutive cells, the ranges may belong to the same columns.
+     */
+    public void copy(AmountColumns source, int sourceCell, int targetCell, int cells) {
+        if (source.scales == null) {
+            copyEach(source, sourceCell, targetCell, cells);
+            return;
+        }
+        System.arraycopy(source.unscaled, sourceCell, unscaled, targetCell, cells);
+        System.arraycopy(source.scales, sourceCell, scales, targetCell, cells);
+        if (source.overflow != null || overflow != null) {
+            if (overflow == null) {
+                overflow = new BigDecimal[scales.length];
+            }
+            if (source.overflow == null) {
+                Arrays.fill(overflow, targetCell, targetCell + cells, null);
+            } else {
+                System.arraycopy(source.overflow, sourceCell, overflow, targetCell, cells);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #copy(AmountColumns, int, int, int)} through the accessors, for columns that aren't both arrays.
+     */
+    void copyEach(AmountColumns source, int sourceCell, int targetCell, int cells) {
+        // Backwards when the target range overlaps the end of the source range.
+        boolean backwards = source == this && targetCell > sourceCell;
+        for (int i = 0; i < cells; i++) {
+            int offset = backwards ? cells - 1 - i : i;
+            int from = sourceCell + offset;
+            int to = targetCell + offset;
+            if (!source.isPresent(from)) {
+                clear(to);
+            } else if (source.isScaled(from)) {
+                setScaled(to, source.getUnscaled(from), source.getScale(from));
+            } else {
+                set(to, source.get(from));
+            }
+        }
+    }
+
+    public void writeTo(DataOutput output, int cell) throws IOException {
+        output.writeByte(isPresent(cell) ? (isScaled(cell) ? 1 : 2) : 0);
+        if (isScaled(cell)) {
+            output.writeLong(getUnscaled(cell));
+            output.writeInt(getScale(cell));
+        } else if (isPresent(cell)) {
+            AssetHolding.writeAmount(output, get(cell));
+        }
+    }
+
+    public void readFrom(DataInput input, int cell) throws IOException {
+        int kind = input.readUnsignedByte();
+        if (kind == 0) {
+            clear(cell);
+        } else if (kind == 1) {
+            long unscaledAmount = input.readLong();
+            setScaled(cell, unscaledAmount, input.readInt());
+        } else {
+            set(cell, AssetHolding.readAmount(input));
+        }
+    }
+}
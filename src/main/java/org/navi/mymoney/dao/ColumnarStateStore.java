@@ -0,0 +1,97 @@
+package org.navi.mymoney.dao;
+
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.models.Portfolio;
+
+/**
+ * Holdings, SIP and desired weights of many portfolios, laid out struct-of-arrays: a single {@link AmountColumns}
+ * where every portfolio owns a row of <code>{holdings, SIP, weights} × asset</code> cells, the assets being those of
+ * the {@link AssetUniverse} of the store. A {@link DataStub} and
+ * {@link Portfolio} are views on one row.
+ * <p>
+ * Only the per-asset amounts are columns of the store. The rates and the month-end balances stay with the
+ * {@link DataStub}, in primitive <code>month × asset</code> tables of their own ({@link MarketRates},
+ * {@link MonthlyBalanceIndex}): every portfolio has a timeline of its own length, which grows with its
+ * <code>CHANGE</code>s, so a shared <code>portfolio × month × asset</code> layout would have to give every portfolio
+ * room for the longest one. {@link OffHeapStateStore} is that layout, for timelines bounded up front.
+ * <p>
+ * Not thread-safe: the portfolios of a store have to be confined to one thread, like the shards of the engine.
+ */
+public final class ColumnarStateStore {
+    public static final int HOLDINGS = 0;
+    public static final int SIP = 1;
+    public static final int DESIRED_WEIGHTS = 2;
+
+    private static final int GROUPS = 3;
+
+    private final AssetUniverse universe;
+    private final int rowSize;
+    private final AmountColumns amounts;
+    private int portfolios;
+
+    public ColumnarStateStore() {
+        this(16);
+    }
+
+    public ColumnarStateStore(int expectedPortfolios) {
+        this(AssetUniverse.current(), expectedPortfolios);
+    }
+
+    public ColumnarStateStore(AssetUniverse universe, int expectedPortfolios) {
+        this.universe = universe;
+        this.rowSize = GROUPS * universe.size();
+        this.amounts = new AmountColumns(Math.max(1, expectedPortfolios) * rowSize);
+    }
+
+    /**
+     * A store sized for the single portfolio in slot <code>0</code>.
+     */
+    public static ColumnarStateStore single() {
+        return single(AssetUniverse.current());
+    }
+
+    public static ColumnarStateStore single(AssetUniverse universe) {
+        ColumnarStateStore store = new ColumnarStateStore(universe, 1);
+        store.addPortfolio();
+        return store;
+    }
+
+    /**
+     * @return the slot of a new, empty portfolio.
+     */
+    public int addPortfolio() {
+        amounts.ensureCapacity((portfolios + 1) * rowSize);
+        return portfolios++;
+    }
+
+    public int size() {
+        return portfolios;
+    }
+
+    public AssetUniverse getAssetUniverse() {
+        return universe;
+    }
+
+    public AmountColumns getAmounts() {
+        return amounts;
+    }
+
+    /**
+     * @param group one of {@link #HOLDINGS}, {@link #SIP} or {@link #DESIRED_WEIGHTS}.
+     * @return the cell of an asset, the cells of a group are consecutive in the order of its ids.
+     */
+    public int cell(int slot, int group, int assetClass) {
+        if (slot < 0 || slot >= portfolios) {
+            throw new IndexOutOfBoundsException("No portfolio in slot " + slot);
+        }
+        return slot * rowSize + group * universe.size() + assetClass;
+    }
+
+    public DataStub newDataStub(int slot) {
+        return new DataStub(this, slot);
+    }
+
+    public Portfolio newPortfolio(int slot) {
+        return new Portfolio(this, slot);
+    }
+}
@@ -1,19 +1,133 @@
 package org.navi.mymoney.dao;
 
 import org.navi.mymoney.constants.AssetClass;
-import org.navi.mymoney.models.AssetHolding;
+import org.navi.mymoney.constants.AssetUniverse;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
-import java.time.Month;
 import java.util.*;
 
-@Scope("singleton")
+@Scope("prototype")
 @Component
 public class DataStub {
-    public Map<Month, Set<AssetHolding>> monthlyBalance = new TreeMap<>();
-    public Map<AssetClass, BigDecimal> initialSip = new HashMap<>();
-    public Map<AssetClass, BigDecimal> desiredWeights = new HashMap<>();
-    public Map<Month, Map<AssetClass, Double>> monthlyMarketChangeRate = new TreeMap<>();
+    private MonthlyBalanceIndex monthlyBalance;
+    // Keyed by month index, see MonthlyBalanceIndex.
+    private final MarketRates monthlyMarketChangeRate;
+    // Calendar year of month 0, set by the first CHANGE that carries a year.
+    private Integer firstYear;
+
+    // The SIP and desired weights live in the row of the portfolio in the store.
+    private final AssetUniverse universe;
+    private final AmountColumns amounts;
+    private final int firstSipCell;
+    private final int firstWeightCell;
+
+    public DataStub() {
+        this(ColumnarStateStore.single(), 0);
+    }
+
+    public DataStub(ColumnarStateStore store, int slot) {
+        this(store.getAssetUniverse(), store.getAmounts(), store.cell(slot, ColumnarStateStore.SIP, 0),
+                store.cell(slot, ColumnarStateStore.DESIRED_WEIGHTS, 0),
+                new MonthlyBalanceIndex(store.getAssetUniverse().size()),
+                new MarketRates(store.getAssetUniverse().size()));
+    }
+
+    DataStub(AssetUniverse universe, AmountColumns amounts, int firstSipCell, int firstWeightCell,
+             MonthlyBalanceIndex monthlyBalance, MarketRates monthlyMarketChangeRate) {
+        this.universe = universe;
+        this.monthlyBalance = monthlyBalance;
+        this.monthlyMarketChangeRate = monthlyMarketChangeRate;
+        this.amounts = amounts;
+        this.firstSipCell = firstSipCell;
+        this.firstWeightCell = firstWeightCell;
+    }
+
+    public AssetUniverse getAssetUniverse() {
+        return universe;
+    }
+
+    public MonthlyBalanceIndex getMonthlyBalance() {
+        return monthlyBalance;
+    }
+
+    public void setMonthlyBalance(MonthlyBalanceIndex monthlyBalance) {
+        this.monthlyBalance = monthlyBalance;
+    }
+
+    public MarketRates getMonthlyMarketChangeRate() {
+        return monthlyMarketChangeRate;
+    }
+
+    /**
+     * @return the calendar year of month 0, which a {@link StateRecord} keeps in its record instead.
+     */
+    public Integer getFirstYear() {
+        return firstYear;
+    }
+
+    public void setFirstYear(Integer firstYear) {
+        this.firstYear = firstYear;
+    }
+
+    public AmountColumns getAmounts() {
+        return amounts;
+    }
+
+    public int sipCell(int assetClass) {
+        return firstSipCell + assetClass;
+    }
+
+    public int desiredWeightCell(int assetClass) {
+        return firstWeightCell + assetClass;
+    }
+
+    public boolean hasSip() {
+        return amounts.isPresent(firstSipCell);
+    }
+
+    public Map<AssetClass, BigDecimal> getInitialSip() {
+        return toMap(firstSipCell);
+    }
+
+    public void setInitialSip(Map<AssetClass, BigDecimal> sips) {
+        setInitialSip(universe.toArray(sips));
+    }
+
+    /**
+     * @param sips by asset id, <code>null</code> for the assets left unchanged.
+     */
+    public void setInitialSip(BigDecimal[] sips) {
+        set(firstSipCell, sips);
+    }
+
+    public Map<AssetClass, BigDecimal> getDesiredWeights() {
+        return toMap(firstWeightCell);
+    }
+
+    public void setDesiredWeights(Map<AssetClass, BigDecimal> weights) {
+        set(firstWeightCell, universe.toArray(weights));
+    }
+
+    private void set(int firstCell, BigDecimal[] values) {
+        for (int asset = 0; asset < values.length; asset++) {
+            if (values[asset] != null) {
+                amounts.set(firstCell + asset, values[asset]);
+            }
+        }
+    }
+
+    // Only the assets of the universe that are also asset classes.
+    private Map<AssetClass, BigDecimal> toMap(int firstCell) {
+        Map<AssetClass, BigDecimal> values = new EnumMap<>(AssetClass.class);
+        for (AssetClass assetClass : AssetClass.values()) {
+            int asset = universe.id(assetClass.name());
+            BigDecimal value = asset < 0 ? null : amounts.get(firstCell + asset);
+            if (value != null) {
+                values.put(assetClass, value);
+            }
+        }
+        return values;
+    }
 }
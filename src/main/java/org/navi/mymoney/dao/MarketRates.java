@@ -0,0 +1,129 @@
+package org.navi.mymoney.dao;
+
+import java.util.*;
+
+/**
+ * Monthly rates of change of one portfolio, laid out as a dense <code>month × asset class</code> table of primitive
+ * doubles with a bitmap of the registered months.
+ * <p>
+ * The table grows with the timeline. A month far beyond it (a <code>CHANGE</code> years ahead of the others) is kept
+ * aside until the table reaches it, so a sparse timeline doesn't allocate every month in between.
+ * <p>
+ * The rates of a {@link StateRecord} are kept off the heap by a subclass, over a timeline of fixed length.
+ */
+public class MarketRates {
+    private static final int INITIAL_MONTHS = MonthlyBalanceIndex.MONTHS_PER_YEAR;
+    // How far past the end of the table a month may be and still grow it.
+    private static final int MAX_GAP_MONTHS = 10 * MonthlyBalanceIndex.MONTHS_PER_YEAR;
+
+    private final int totalAssetClasses;
+    private double[] rates = new double[0];
+    private long[] registered = new long[0];
+    private final NavigableMap<Integer, double[]> farMonths = new TreeMap<>();
+    private int size;
+
+    public MarketRates(int totalAssetClasses) {
+        this.totalAssetClasses = totalAssetClasses;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return whether the month is on the timeline the rates can be registered for, any month from <code>0</code>
+     * here.
+     */
+    public boolean canHold(int month) {
+        return month >= 0;
+    }
+
+    public boolean containsKey(int month) {
+        if (month < 0) {
+            return false;
+        }
+        return month < capacityMonths() ? (registered[month >>> 6] & 1L << month) != 0 : farMonths.containsKey(month);
+    }
+
+    /**
+     * @return the rate of an asset class in a registered month.
+     */
+    public double getRate(int month, int assetClass) {
+        return month < capacityMonths() ? rates[month * totalAssetClasses + assetClass] : farMonths.get(month)[assetClass];
+    }
+
+    /**
+     * @return a copy of the rates of the month by asset id, <code>null</code> if it is not registered.
+     */
+    public double[] get(int month) {
+        if (!containsKey(month)) {
+            return null;
+        }
+        double[] monthRates = new double[totalAssetClasses];
+        for (int asset = 0; asset < totalAssetClasses; asset++) {
+            monthRates[asset] = getRate(month, asset);
+        }
+        return monthRates;
+    }
+
+    /**
+     * @return the registered months, in order.
+     */
+    public int[] months() {
+        int[] months = new int[size];
+        int count = 0;
+        for (int word = 0; word < registered.length; word++) {
+            for (long bits = registered[word]; bits != 0; bits &= bits - 1) {
+                months[count++] = word << 6 | Long.numberOfTrailingZeros(bits);
+            }
+        }
+        for (int month : farMonths.keySet()) {
+            months[count++] = month;
+        }
+        return months;
+    }
+
+    /**
+     * Registers the rates of every asset class, by asset id, for a month that has none yet.
+     */
+    public void put(int month, double[] monthRates) {
+        if (month < 0 || containsKey(month)) {
+            throw new IllegalArgumentException("The rates of month " + month + " can't be registered");
+        }
+        if (monthRates.length != totalAssetClasses) {
+            throw new IllegalArgumentException("Expected " + totalAssetClasses + " rates, got " + monthRates.length);
+        }
+        if (month >= capacityMonths()) {
+            if (month - capacityMonths() >= MAX_GAP_MONTHS) {
+                farMonths.put(month, monthRates.clone());
+                size++;
+                return;
+            }
+            grow(month + 1);
+        }
+        System.arraycopy(monthRates, 0, rates, month * totalAssetClasses, totalAssetClasses);
+        registered[month >>> 6] |= 1L << month;
+        size++;
+    }
+
+    private int capacityMonths() {
+        return rates.length / totalAssetClasses;
+    }
+
+    private void grow(int months) {
+        int capacity = Math.max(INITIAL_MONTHS, capacityMonths());
+        while (capacity < months) {
+            capacity = capacity > Integer.MAX_VALUE / 2 / totalAssetClasses ? months : capacity * 2;
+        }
+        rates = Arrays.copyOf(rates, capacity * totalAssetClasses);
+        registered = Arrays.copyOf(registered, (capacity + 63) >>> 6);
+        // Take in the far months the table now reaches.
+        Iterator<Map.Entry<Integer, double[]>> reached = farMonths.headMap(capacity).entrySet().iterator();
+        while (reached.hasNext()) {
+            Map.Entry<Integer, double[]> month = reached.next();
+            System.arraycopy(month.getValue(), 0, rates, month.getKey() * totalAssetClasses, totalAssetClasses);
+            registered[month.getKey() >>> 6] |= 1L << month.getKey();
+            reached.remove();
+        }
+    }
+}
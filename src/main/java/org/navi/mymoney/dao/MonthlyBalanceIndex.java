@@ -0,0 +1,275 @@
+package org.navi.mymoney.dao;
+
+import org.navi.mymoney.constants.AssetUniverse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Month-end history of a portfolio over a timeline of any length. Months are numbered from <code>0</code>, the
+ * January of the first year.
+ * <p>
+ * Months are computed in order as soon as their inputs are known. The floored balances of the latest
+ * {@link #RECENT_MONTHS} months are kept dense, so querying them is a plain array read. Older months are served from
+ * exact checkpoints of the holdings: {@link #floorCheckpoint(int, AmountColumns, int)} finds the closest one in
+ * O(log n) and the caller replays the few months after it. Checkpoints are taken every <code>checkpointSpacing</code>
+ * months and the spacing doubles whenever there are too many of them, so both their number and the replay length grow
+ * as O(sqrt(n)). They are stored column-wise: a sorted array of months next to one {@link AmountColumns} row each.
+ */
+public class MonthlyBalanceIndex {
+    public static final int MONTHS_PER_YEAR = 12;
+    public static final int REBALANCE_PERIOD = 6;
+    public static final int RECENT_MONTHS = 12;
+    // The holdings right after the allocation, the checkpoint every replay can fall back to.
+    public static final int INITIAL_CHECKPOINT = -1;
+
+    private static final int CHECKPOINTS_PER_SPACING_YEAR = 4;
+    private static final int INITIAL_CHECKPOINTS = 4;
+
+    private final int totalAssetClasses;
+    private final int[] recentBalances;
+    private final int[] recentMonths = new int[RECENT_MONTHS];
+    private int[] checkpointMonths = new int[INITIAL_CHECKPOINTS];
+    private final AmountColumns checkpointAmounts;
+    private int checkpointCount;
+    // Bitmaps of the months re-balanced by a REBALANCE command, and of those picked by a ReBalancePolicy.
+    private long[] reBalancedMonths = new long[1];
+    private long[] policyReBalancedMonths = new long[1];
+    private int checkpointSpacing = MONTHS_PER_YEAR;
+    private int computedMonths;
+
+    public MonthlyBalanceIndex() {
+        this(AssetUniverse.current().size());
+    }
+
+    public MonthlyBalanceIndex(int totalAssetClasses) {
+        this.totalAssetClasses = totalAssetClasses;
+        this.recentBalances = new int[RECENT_MONTHS * totalAssetClasses];
+        this.checkpointAmounts = new AmountColumns(INITIAL_CHECKPOINTS * totalAssetClasses);
+        Arrays.fill(recentMonths, -1);
+    }
+
+    public int getTotalAssetClasses() {
+        return totalAssetClasses;
+    }
+
+    public int getComputedMonths() {
+        return computedMonths;
+    }
+
+    public boolean isComputed(int month) {
+        return month >= 0 && month < computedMonths;
+    }
+
+    public boolean isRecent(int month) {
+        return isComputed(month) && recentMonths[month % RECENT_MONTHS] == month;
+    }
+
+    public int getBalance(int month, int assetClass) {
+        if (!isRecent(month)) {
+            throw new IllegalStateException("Month " + month + " is not one of the recent months");
+        }
+        return recentBalances[month % RECENT_MONTHS * totalAssetClasses + assetClass];
+    }
+
+    /**
+     * Stores the balance of the next month to compute, or overwrites the last computed one.
+     */
+    public void setBalance(int month, int assetClass, int balance) {
+        if (month > computedMonths || month < computedMonths - 1) {
+            throw new IllegalStateException("The balance of month " + month + " can only be stored after the previous months");
+        }
+        int slot = month % RECENT_MONTHS;
+        recentMonths[slot] = month;
+        recentBalances[slot * totalAssetClasses + assetClass] = balance;
+    }
+
+    public void markComputed(int month) {
+        computedMonths = month + 1;
+    }
+
+    /**
+     * Drops the given month and everything after it, so only that tail gets recomputed. The months a policy
+     * re-balanced in that tail are dropped too, the policy decides again.
+     */
+    public void invalidateFrom(int month) {
+        computedMonths = Math.min(computedMonths, month);
+        checkpointCount = firstCheckpointFrom(month);
+        for (int word = month >>> 6; word < policyReBalancedMonths.length; word++) {
+            policyReBalancedMonths[word] &= word == month >>> 6 ? ~(-1L << month) : 0;
+        }
+    }
+
+    /**
+     * Keeps a copy of the holdings at the end of <code>month</code> if it falls on the checkpoint spacing.
+     *
+     * @param holdings columns holding the amounts of the asset classes in consecutive cells, in AssetClass order.
+     */
+    public void checkpoint(int month, AmountColumns holdings, int firstCell) {
+        if (month != INITIAL_CHECKPOINT && (month + 1) % checkpointSpacing != 0) {
+            return;
+        }
+        int position = checkpointCount;
+        if (position > 0 && checkpointMonths[position - 1] >= month) {
+            if (checkpointMonths[position - 1] != month) {
+                throw new IllegalStateException("Checkpoint of month " + month + " taken after a later one");
+            }
+            position--;
+        } else {
+            if (position == checkpointMonths.length) {
+                checkpointMonths = Arrays.copyOf(checkpointMonths, position * 2);
+                checkpointAmounts.ensureCapacity(position * 2 * totalAssetClasses);
+            }
+            checkpointCount++;
+        }
+        checkpointMonths[position] = month;
+        checkpointAmounts.copy(holdings, firstCell, position * totalAssetClasses, totalAssetClasses);
+        while (checkpointCount - 1 > CHECKPOINTS_PER_SPACING_YEAR * checkpointSpacing / MONTHS_PER_YEAR) {
+            checkpointSpacing *= 2;
+            int kept = 0;
+            for (int i = 0; i < checkpointCount; i++) {
+                int checkpointMonth = checkpointMonths[i];
+                if (checkpointMonth != INITIAL_CHECKPOINT && (checkpointMonth + 1) % checkpointSpacing != 0) {
+                    continue;
+                }
+                if (kept != i) {
+                    checkpointMonths[kept] = checkpointMonth;
+                    checkpointAmounts.copy(checkpointAmounts, i * totalAssetClasses, kept * totalAssetClasses, totalAssetClasses);
+                }
+                kept++;
+            }
+            checkpointCount = kept;
+        }
+    }
+
+    /**
+     * Copies the holdings of the latest checkpoint at or before <code>month</code> into <code>target</code>.
+     *
+     * @return the month of that checkpoint.
+     */
+    public int floorCheckpoint(int month, AmountColumns target, int firstCell) {
+        int position = firstCheckpointFrom(month + 1) - 1;
+        if (position < 0) {
+            throw new IllegalStateException("No checkpoint found before month " + month);
+        }
+        target.copy(checkpointAmounts, position * totalAssetClasses, firstCell, totalAssetClasses);
+        return checkpointMonths[position];
+    }
+
+    public int getCheckpointCount() {
+        return checkpointCount;
+    }
+
+    /**
+     * @return whether the holdings are re-balanced at the end of the month, by a command or a policy.
+     */
+    public boolean isReBalanced(int month) {
+        return isSet(reBalancedMonths, month) || isSet(policyReBalancedMonths, month);
+    }
+
+    public boolean isPolicyReBalanced(int month) {
+        return isSet(policyReBalancedMonths, month);
+    }
+
+    public void markReBalanced(int month) {
+        reBalancedMonths = set(reBalancedMonths, month);
+    }
+
+    public void markPolicyReBalanced(int month) {
+        policyReBalancedMonths = set(policyReBalancedMonths, month);
+    }
+
+    private static boolean isSet(long[] bitmap, int month) {
+        return month >= 0 && month >>> 6 < bitmap.length && (bitmap[month >>> 6] & 1L << month) != 0;
+    }
+
+    private static long[] set(long[] bitmap, int month) {
+        if (month >>> 6 >= bitmap.length) {
+            bitmap = Arrays.copyOf(bitmap, Math.max(bitmap.length * 2, (month >>> 6) + 1));
+        }
+        bitmap[month >>> 6] |= 1L << month;
+        return bitmap;
+    }
+
+    // Position of the first checkpoint of month or later, checkpointCount if there is none.
+    private int firstCheckpointFrom(int month) {
+        int low = 0;
+        int high = checkpointCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (checkpointMonths[middle] < month) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeInt(totalAssetClasses);
+        output.writeInt(computedMonths);
+        output.writeInt(checkpointSpacing);
+        for (int slot = 0; slot < RECENT_MONTHS; slot++) {
+            output.writeInt(recentMonths[slot]);
+        }
+        for (int balance : recentBalances) {
+            output.writeInt(balance);
+        }
+        output.writeInt(checkpointCount);
+        for (int i = 0; i < checkpointCount; i++) {
+            output.writeInt(checkpointMonths[i]);
+            for (int asset = 0; asset < totalAssetClasses; asset++) {
+                checkpointAmounts.writeTo(output, i * totalAssetClasses + asset);
+            }
+        }
+        writeMonths(output, reBalancedMonths);
+        writeMonths(output, policyReBalancedMonths);
+    }
+
+    private static void writeMonths(DataOutput output, long[] bitmap) throws IOException {
+        int total = 0;
+        for (long word : bitmap) {
+            total += Long.bitCount(word);
+        }
+        output.writeInt(total);
+        for (int word = 0; word < bitmap.length; word++) {
+            for (long bits = bitmap[word]; bits != 0; bits &= bits - 1) {
+                output.writeInt(word << 6 | Long.numberOfTrailingZeros(bits));
+            }
+        }
+    }
+
+    public static MonthlyBalanceIndex readFrom(DataInput input) throws IOException {
+        MonthlyBalanceIndex index = new MonthlyBalanceIndex(input.readInt());
+        index.computedMonths = input.readInt();
+        index.checkpointSpacing = input.readInt();
+        for (int slot = 0; slot < RECENT_MONTHS; slot++) {
+            index.recentMonths[slot] = input.readInt();
+        }
+        for (int i = 0; i < index.recentBalances.length; i++) {
+            index.recentBalances[i] = input.readInt();
+        }
+        int totalCheckpoints = input.readInt();
+        index.checkpointMonths = new int[Math.max(INITIAL_CHECKPOINTS, totalCheckpoints)];
+        index.checkpointAmounts.ensureCapacity(index.checkpointMonths.length * index.totalAssetClasses);
+        for (int i = 0; i < totalCheckpoints; i++) {
+            index.checkpointMonths[i] = input.readInt();
+            for (int asset = 0; asset < index.totalAssetClasses; asset++) {
+                index.checkpointAmounts.readFrom(input, i * index.totalAssetClasses + asset);
+            }
+        }
+        index.checkpointCount = totalCheckpoints;
+        int totalReBalanced = input.readInt();
+        for (int i = 0; i < totalReBalanced; i++) {
+            index.markReBalanced(input.readInt());
+        }
+        int totalPolicyReBalanced = input.readInt();
+        for (int i = 0; i < totalPolicyReBalanced; i++) {
+            index.markPolicyReBalanced(input.readInt());
+        }
+        return index;
+    }
+}
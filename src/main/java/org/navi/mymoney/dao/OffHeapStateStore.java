@@ -0,0 +1,461 @@
+package org.navi.mymoney.dao;
+
+import org.navi.mymoney.constants.AssetUniverse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of many portfolios outside the Java heap, so the heap stays the same size whatever their number: one
+ * fixed-size record per portfolio, read and written in place through a {@link StateRecord} flyweight, which describes
+ * the layout of a record. The records are kept in a memory-mapped file, or in direct buffers when the store doesn't
+ * have to outlive the JVM.
+ * <p>
+ * Amounts that don't fit a cell of a record, like those of the overflow column of {@link AmountColumns}, go to an
+ * overflow area where every cell owns an entry. An entry is rewritten in place while the amount fits, and replaced by
+ * one twice as large otherwise, so the area stays within about twice the amounts that overflow. Portfolios are found
+ * by id through an open-addressing hash index, in direct memory too, rebuilt from the records when a file is reopened.
+ * <p>
+ * Every write goes straight to the mapping, so a store in a file keeps its portfolios when the process exits without
+ * {@link #close()}, which only forces them to disk; {@link #open(Path, AssetUniverse, int)} takes them back.
+ * <p>
+ * Not thread-safe: the portfolios of a store have to be confined to one thread, like the shards of the engine.
+ */
+public final class OffHeapStateStore implements Closeable {
+    public static final int DEFAULT_TIMELINE_MONTHS = 2 * MonthlyBalanceIndex.MONTHS_PER_YEAR;
+
+    private static final int MAGIC = 0x4D4D5354;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4096;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_TIMELINE_MONTHS = 8;
+    private static final int HEADER_RECORD_BYTES = 12;
+    private static final int HEADER_PORTFOLIOS = 16;
+    private static final int HEADER_OVERFLOW_END = 24;
+    // Length of the names of the universe, then the names.
+    private static final int HEADER_UNIVERSE = 32;
+    // The names of the universe follow their length, to the end of the header.
+    private static final int MAX_UNIVERSE_BYTES = HEADER_BYTES - HEADER_UNIVERSE - 4;
+
+    private static final int SEGMENT_BYTES = 1 << 23;
+    // Overflow entries are addressed in units, the first one is never used so that 0 means no entry.
+    private static final int OVERFLOW_UNIT = 16;
+    // Capacity of the entry, scale of the amount and length of its unscaled bytes.
+    private static final int OVERFLOW_ENTRY_HEADER = 12;
+    private static final int MIN_OVERFLOW_ENTRY = 32;
+
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    private static final int MAX_INDEX_CAPACITY = 1 << 27;
+    private static final int INDEX_ENTRY_BYTES = 8;
+    private static final int NOT_FOUND = -1;
+
+    private final AssetUniverse universe;
+    private final int timelineMonths;
+    private final int recordBytes;
+    private final int recordsPerSegment;
+    // Both null in direct memory.
+    private final FileChannel recordChannel;
+    private final FileChannel overflowChannel;
+    private final ByteBuffer header;
+    private final List<ByteBuffer> recordSegments = new ArrayList<>();
+    private final List<ByteBuffer> overflowSegments = new ArrayList<>();
+    // Entries of the hash of an id and its slot plus one, 0 for a free entry.
+    private ByteBuffer index;
+    private int indexMask;
+    private int portfolios;
+    private long overflowEnd;
+    private boolean closed;
+
+    private OffHeapStateStore(AssetUniverse universe, int timelineMonths, FileChannel recordChannel,
+                              FileChannel overflowChannel) throws IOException {
+        if (timelineMonths < MonthlyBalanceIndex.MONTHS_PER_YEAR) {
+            throw new IllegalArgumentException("The timeline has to cover at least a year, not " + timelineMonths + " months");
+        }
+        if (universe.toString().getBytes(StandardCharsets.UTF_8).length > MAX_UNIVERSE_BYTES) {
+            throw new IllegalArgumentException("The asset names of " + universe.size()
+                    + " assets don't fit the " + MAX_UNIVERSE_BYTES + " bytes of the store header");
+        }
+        this.universe = universe;
+        this.timelineMonths = timelineMonths;
+        this.recordBytes = StateRecord.recordBytes(universe.size(), timelineMonths);
+        if (recordBytes > SEGMENT_BYTES) {
+            throw new IllegalArgumentException("A timeline of " + timelineMonths + " months makes records too large");
+        }
+        this.recordsPerSegment = SEGMENT_BYTES / recordBytes;
+        this.recordChannel = recordChannel;
+        this.overflowChannel = overflowChannel;
+        this.header = recordChannel == null
+                ? ByteBuffer.allocateDirect(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                : recordChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.index = newIndex(INITIAL_INDEX_CAPACITY);
+        this.indexMask = INITIAL_INDEX_CAPACITY - 1;
+    }
+
+    /**
+     * A store in direct memory, gone with the JVM.
+     */
+    public static OffHeapStateStore allocate(AssetUniverse universe, int timelineMonths) {
+        try {
+            OffHeapStateStore store = new OffHeapStateStore(universe, timelineMonths, null, null);
+            store.writeHeader();
+            return store;
+        } catch (IOException e) {
+            throw new IllegalStateException("Direct memory isn't mapped from a file", e);
+        }
+    }
+
+    /**
+     * Reopens the store kept in <code>file</code>, or creates it there if the file doesn't exist. The amounts that
+     * overflow are kept next to it, in <code>file.overflow</code>.
+     *
+     * @param timelineMonths number of months a record can hold, from the January of the first year.
+     * @throws IllegalStateException if the file was created for another universe or timeline.
+     * @throws IOException           if it can't be mapped, or isn't a store.
+     */
+    public static OffHeapStateStore open(Path file, AssetUniverse universe, int timelineMonths) throws IOException {
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        FileChannel recordChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        FileChannel overflowChannel = null;
+        try {
+            if (exists && recordChannel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is not a state store");
+            }
+            overflowChannel = FileChannel.open(overflowFile(file), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            OffHeapStateStore store = new OffHeapStateStore(universe, timelineMonths, recordChannel, overflowChannel);
+            if (exists) {
+                store.readHeader(file);
+            } else {
+                store.writeHeader();
+            }
+            return store;
+        } catch (IOException | RuntimeException e) {
+            recordChannel.close();
+            if (overflowChannel != null) {
+                overflowChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    public static Path overflowFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".overflow");
+    }
+
+    public AssetUniverse getAssetUniverse() {
+        return universe;
+    }
+
+    public int getTimelineMonths() {
+        return timelineMonths;
+    }
+
+    public int getRecordBytes() {
+        return recordBytes;
+    }
+
+    public int size() {
+        return portfolios;
+    }
+
+    /**
+     * @return the slot of the portfolio, <code>-1</code> if it isn't in the store.
+     */
+    public int slotOf(String portfolioId) {
+        byte[] id = encode(portfolioId);
+        return find(id, hash(id));
+    }
+
+    /**
+     * @return the slot of a new, empty portfolio.
+     * @throws IllegalArgumentException if the portfolio is already in the store, or its id is longer than
+     *                                  {@link StateRecord#MAX_ID_BYTES} bytes.
+     */
+    public int addPortfolio(String portfolioId) {
+        checkOpen();
+        byte[] id = encode(portfolioId);
+        if (id.length > StateRecord.MAX_ID_BYTES) {
+            throw new IllegalArgumentException("Portfolio ids are limited to " + StateRecord.MAX_ID_BYTES
+                    + " bytes, " + portfolioId + " has " + id.length);
+        }
+        int hash = hash(id);
+        if (find(id, hash) != NOT_FOUND) {
+            throw new IllegalArgumentException("Portfolio " + portfolioId + " is already in the store");
+        }
+        int slot = portfolios;
+        try {
+            while (slot / recordsPerSegment >= recordSegments.size()) {
+                recordSegments.add(newRecordSegment(recordSegments.size()));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't grow the state store", e);
+        }
+        StateRecord.initialize(recordSegment(slot), recordOffset(slot), recordBytes, id);
+        if ((slot + 1) * 2L > indexMask + 1) {
+            growIndex();
+        }
+        insert(hash, slot);
+        portfolios = slot + 1;
+        header.putInt(HEADER_PORTFOLIOS, portfolios);
+        return slot;
+    }
+
+    /**
+     * @return the segment holding the record of a slot, at {@link #recordOffset(int)}.
+     */
+    ByteBuffer recordSegment(int slot) {
+        return recordSegments.get(slot / recordsPerSegment);
+    }
+
+    int recordOffset(int slot) {
+        return slot % recordsPerSegment * recordBytes;
+    }
+
+    BigDecimal readOverflow(int unit) {
+        ByteBuffer segment = overflowSegment(unit);
+        int offset = overflowOffset(unit);
+        byte[] unscaled = new byte[segment.getInt(offset + 8)];
+        ByteBuffer entry = segment.duplicate();
+        entry.position(offset + OVERFLOW_ENTRY_HEADER);
+        entry.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), segment.getInt(offset + 4));
+    }
+
+    /**
+     * Writes an amount in the entry of a cell, or in a new entry if it doesn't fit.
+     *
+     * @param unit entry of the cell, <code>0</code> if it has none yet.
+     * @return the entry now holding the amount.
+     */
+    int writeOverflow(int unit, BigDecimal amount) {
+        checkOpen();
+        byte[] unscaled = amount.unscaledValue().toByteArray();
+        int length = OVERFLOW_ENTRY_HEADER + unscaled.length;
+        if (unit == 0 || overflowSegment(unit).getInt(overflowOffset(unit)) < length) {
+            unit = allocateOverflow(length);
+        }
+        ByteBuffer segment = overflowSegment(unit);
+        int offset = overflowOffset(unit);
+        segment.putInt(offset + 4, amount.scale());
+        segment.putInt(offset + 8, unscaled.length);
+        ByteBuffer entry = segment.duplicate();
+        entry.position(offset + OVERFLOW_ENTRY_HEADER);
+        entry.put(unscaled);
+        return unit;
+    }
+
+    /**
+     * Forces a store kept in a file to disk.
+     */
+    public void force() {
+        if (recordChannel == null) {
+            return;
+        }
+        ((MappedByteBuffer) header).force();
+        for (ByteBuffer segment : recordSegments) {
+            ((MappedByteBuffer) segment).force();
+        }
+        for (ByteBuffer segment : overflowSegments) {
+            ((MappedByteBuffer) segment).force();
+        }
+    }
+
+    /**
+     * Forces the store to disk and closes its files. The mappings are only released once they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (recordChannel != null) {
+            force();
+            recordChannel.close();
+            overflowChannel.close();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The state store is closed");
+        }
+    }
+
+    private void writeHeader() {
+        header.putInt(HEADER_MAGIC, MAGIC);
+        header.putInt(HEADER_VERSION, VERSION);
+        header.putInt(HEADER_TIMELINE_MONTHS, timelineMonths);
+        header.putInt(HEADER_RECORD_BYTES, recordBytes);
+        header.putInt(HEADER_PORTFOLIOS, 0);
+        overflowEnd = OVERFLOW_UNIT;
+        header.putLong(HEADER_OVERFLOW_END, overflowEnd);
+        byte[] names = universe.toString().getBytes(StandardCharsets.UTF_8);
+        header.putInt(HEADER_UNIVERSE, names.length);
+        ByteBuffer universeNames = header.duplicate();
+        universeNames.position(HEADER_UNIVERSE + 4);
+        universeNames.put(names);
+    }
+
+    private void readHeader(Path file) throws IOException {
+        if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION
+                || header.getInt(HEADER_UNIVERSE) > MAX_UNIVERSE_BYTES) {
+            throw new IOException(file + " is not a state store of version " + VERSION);
+        }
+        byte[] names = new byte[header.getInt(HEADER_UNIVERSE)];
+        ByteBuffer universeNames = header.duplicate();
+        universeNames.position(HEADER_UNIVERSE + 4);
+        universeNames.get(names);
+        String storedUniverse = new String(names, StandardCharsets.UTF_8);
+        if (!storedUniverse.equals(universe.toString())) {
+            throw new IllegalStateException(file + " holds portfolios of " + storedUniverse + ", not " + universe);
+        }
+        if (header.getInt(HEADER_TIMELINE_MONTHS) != timelineMonths) {
+            throw new IllegalStateException(file + " holds timelines of " + header.getInt(HEADER_TIMELINE_MONTHS)
+                    + " months, not " + timelineMonths);
+        }
+        if (header.getInt(HEADER_RECORD_BYTES) != recordBytes) {
+            throw new IOException(file + " has records of " + header.getInt(HEADER_RECORD_BYTES) + " bytes, expected "
+                    + recordBytes);
+        }
+        overflowEnd = header.getLong(HEADER_OVERFLOW_END);
+        int totalPortfolios = header.getInt(HEADER_PORTFOLIOS);
+        for (int segment = 0; segment * (long) recordsPerSegment < totalPortfolios; segment++) {
+            recordSegments.add(newRecordSegment(segment));
+        }
+        for (long offset = 0; offset < overflowEnd; offset += SEGMENT_BYTES) {
+            overflowSegments.add(newOverflowSegment(overflowSegments.size()));
+        }
+        while (totalPortfolios * 2L > indexMask + 1) {
+            growIndex();
+        }
+        for (int slot = 0; slot < totalPortfolios; slot++) {
+            insert(hash(StateRecord.readId(recordSegment(slot), recordOffset(slot))), slot);
+        }
+        portfolios = totalPortfolios;
+    }
+
+    private ByteBuffer newRecordSegment(int segment) throws IOException {
+        int bytes = recordsPerSegment * recordBytes;
+        if (recordChannel == null) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return recordChannel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + (long) segment * bytes, bytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer newOverflowSegment(int segment) throws IOException {
+        if (overflowChannel == null) {
+            return ByteBuffer.allocateDirect(SEGMENT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return overflowChannel.map(FileChannel.MapMode.READ_WRITE, (long) segment * SEGMENT_BYTES, SEGMENT_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer overflowSegment(int unit) {
+        return overflowSegments.get((int) ((long) unit * OVERFLOW_UNIT / SEGMENT_BYTES));
+    }
+
+    private static int overflowOffset(int unit) {
+        return (int) ((long) unit * OVERFLOW_UNIT % SEGMENT_BYTES);
+    }
+
+    /**
+     * @return a new entry of a power of two bytes, never across two segments.
+     */
+    private int allocateOverflow(int length) {
+        int capacity = Integer.highestOneBit(Math.max(length, MIN_OVERFLOW_ENTRY) - 1) << 1;
+        if (capacity > SEGMENT_BYTES || capacity <= 0) {
+            throw new IllegalArgumentException("An amount of " + length + " bytes doesn't fit the state store");
+        }
+        long start = overflowEnd;
+        if (start % SEGMENT_BYTES + capacity > SEGMENT_BYTES) {
+            start = (start / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+        }
+        if (start / OVERFLOW_UNIT > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The overflow area of the state store is full");
+        }
+        try {
+            while (start / SEGMENT_BYTES >= overflowSegments.size()) {
+                overflowSegments.add(newOverflowSegment(overflowSegments.size()));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't grow the overflow area of the state store", e);
+        }
+        int unit = (int) (start / OVERFLOW_UNIT);
+        overflowSegment(unit).putInt(overflowOffset(unit), capacity);
+        overflowEnd = start + capacity;
+        header.putLong(HEADER_OVERFLOW_END, overflowEnd);
+        return unit;
+    }
+
+    private int find(byte[] id, int hash) {
+        for (int entry = hash & indexMask; ; entry = (entry + 1) & indexMask) {
+            int slot = index.getInt(entry * INDEX_ENTRY_BYTES + 4) - 1;
+            if (slot < 0) {
+                return NOT_FOUND;
+            }
+            if (index.getInt(entry * INDEX_ENTRY_BYTES) == hash
+                    && StateRecord.hasId(recordSegment(slot), recordOffset(slot), id)) {
+                return slot;
+            }
+        }
+    }
+
+    private void insert(int hash, int slot) {
+        int entry = hash & indexMask;
+        while (index.getInt(entry * INDEX_ENTRY_BYTES + 4) != 0) {
+            entry = (entry + 1) & indexMask;
+        }
+        index.putInt(entry * INDEX_ENTRY_BYTES, hash);
+        index.putInt(entry * INDEX_ENTRY_BYTES + 4, slot + 1);
+    }
+
+    private void growIndex() {
+        int capacity = (indexMask + 1) * 2;
+        if (capacity > MAX_INDEX_CAPACITY) {
+            throw new IllegalStateException("The state store is limited to " + MAX_INDEX_CAPACITY / 2 + " portfolios");
+        }
+        ByteBuffer previous = index;
+        index = newIndex(capacity);
+        indexMask = capacity - 1;
+        for (int entry = 0; entry < previous.capacity() / INDEX_ENTRY_BYTES; entry++) {
+            int slotPlusOne = previous.getInt(entry * INDEX_ENTRY_BYTES + 4);
+            if (slotPlusOne != 0) {
+                insert(previous.getInt(entry * INDEX_ENTRY_BYTES), slotPlusOne - 1);
+            }
+        }
+    }
+
+    private static ByteBuffer newIndex(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] encode(String portfolioId) {
+        return portfolioId.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int hash(byte[] id) {
+        int hash = 1;
+        for (byte b : id) {
+            hash = 31 * hash + b;
+        }
+        // Spread the low bits the index is addressed with.
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,458 @@
+package org.navi.mymoney.dao;
+
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.models.Portfolio;
+
+import java.io.DataOutput;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Flyweight over the records of an {@link OffHeapStateStore}. {@link #moveTo(int)} points it at the record of a
+ * portfolio, and the {@link DataStub} and {@link Portfolio} it hands out read and write that record in place, so one
+ * {@link org.navi.mymoney.services.PortfolioServiceImpl} serves every portfolio of the store in turn.
+ * <p>
+ * A record has a fixed size, given by the number of assets and the months of the timeline of the store:
+ * <pre>
+ *  0  int      length of the portfolio id
+ *  4  byte[44] portfolio id, UTF-8
+ * 48  int      first year, {@link #NO_YEAR} until a CHANGE carries one
+ * 52  int      computed months
+ * 56  int      registered months
+ * 64  cells    holdings, SIP, desired weights, then the holdings after the allocation and at the end of every year:
+ *              an unscaled long, its scale encoded as in {@link AmountColumns} and the overflow entry of the cell
+ *     long[]   bitmaps of the months registered, re-balanced by a REBALANCE and re-balanced by a policy
+ *     double[] rates, by month and asset
+ *     int[]    month-end balances, by month and asset
+ * </pre>
+ * Unlike the {@link MonthlyBalanceIndex} of a heap portfolio, every month-end balance is kept, so a BALANCE never
+ * replays, and the yearly checkpoints keep a REBALANCE from replaying more than a year. A CHANGE past the timeline is
+ * rejected.
+ */
+public final class StateRecord {
+    public static final int MAX_ID_BYTES = 44;
+
+    static final int NO_YEAR = Integer.MIN_VALUE;
+
+    private static final int ID_LENGTH = 0;
+    private static final int ID = 4;
+    private static final int FIRST_YEAR = 48;
+    private static final int COMPUTED_MONTHS = 52;
+    private static final int REGISTERED_MONTHS = 56;
+    private static final int CELLS = 64;
+    private static final int CELL_BYTES = 16;
+    private static final int CELL_SCALE = 8;
+    private static final int CELL_OVERFLOW_UNIT = 12;
+    // Holdings, SIP and desired weights in the order of ColumnarStateStore, then the checkpoints.
+    private static final int SETTINGS_GROUPS = 3;
+    private static final int CHECKPOINT_SPACING = MonthlyBalanceIndex.MONTHS_PER_YEAR;
+
+    private final OffHeapStateStore store;
+    private final int assets;
+    private final int timelineMonths;
+    private final int cellCount;
+    private final int registeredBitmap;
+    private final int reBalancedBitmap;
+    private final int policyReBalancedBitmap;
+    private final int rates;
+    private final int balances;
+
+    private final RecordAmounts amounts = new RecordAmounts();
+    private final RecordDataStub dataStub;
+    private final Portfolio portfolio;
+
+    private ByteBuffer buffer;
+    private int base;
+    private int slot = -1;
+
+    public StateRecord(OffHeapStateStore store) {
+        this.store = store;
+        AssetUniverse universe = store.getAssetUniverse();
+        this.assets = universe.size();
+        this.timelineMonths = store.getTimelineMonths();
+        this.cellCount = cellGroups(timelineMonths) * assets;
+        this.registeredBitmap = CELLS + cellCount * CELL_BYTES;
+        this.reBalancedBitmap = registeredBitmap + bitmapBytes(timelineMonths);
+        this.policyReBalancedBitmap = reBalancedBitmap + bitmapBytes(timelineMonths);
+        this.rates = policyReBalancedBitmap + bitmapBytes(timelineMonths);
+        this.balances = rates + timelineMonths * assets * Double.BYTES;
+        this.dataStub = new RecordDataStub(universe);
+        this.portfolio = new Portfolio(universe, amounts, ColumnarStateStore.HOLDINGS * assets);
+    }
+
+    static int recordBytes(int assets, int timelineMonths) {
+        int bytes = CELLS + cellGroups(timelineMonths) * assets * CELL_BYTES + 3 * bitmapBytes(timelineMonths)
+                + timelineMonths * assets * (Double.BYTES + Integer.BYTES);
+        return (bytes + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+    }
+
+    private static int cellGroups(int timelineMonths) {
+        return SETTINGS_GROUPS + 1 + timelineMonths / CHECKPOINT_SPACING;
+    }
+
+    private static int bitmapBytes(int timelineMonths) {
+        return (timelineMonths + Long.SIZE - 1) / Long.SIZE * Long.BYTES;
+    }
+
+    /**
+     * Clears the record at <code>offset</code> for a new portfolio.
+     */
+    static void initialize(ByteBuffer segment, int offset, int recordBytes, byte[] id) {
+        for (int i = 0; i < recordBytes; i += Long.BYTES) {
+            segment.putLong(offset + i, 0);
+        }
+        segment.putInt(offset + ID_LENGTH, id.length);
+        for (int i = 0; i < id.length; i++) {
+            segment.put(offset + ID + i, id[i]);
+        }
+        segment.putInt(offset + FIRST_YEAR, NO_YEAR);
+    }
+
+    static byte[] readId(ByteBuffer segment, int offset) {
+        byte[] id = new byte[segment.getInt(offset + ID_LENGTH)];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = segment.get(offset + ID + i);
+        }
+        return id;
+    }
+
+    static boolean hasId(ByteBuffer segment, int offset, byte[] id) {
+        if (segment.getInt(offset + ID_LENGTH) != id.length) {
+            return false;
+        }
+        for (int i = 0; i < id.length; i++) {
+            if (segment.get(offset + ID + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Points the flyweight, and the views it hands out, at the record of a slot of the store.
+     */
+    public void moveTo(int slot) {
+        if (slot < 0 || slot >= store.size()) {
+            throw new IndexOutOfBoundsException("No portfolio in slot " + slot);
+        }
+        this.buffer = store.recordSegment(slot);
+        this.base = store.recordOffset(slot);
+        this.slot = slot;
+    }
+
+    /**
+     * @return the slot the flyweight is on, <code>-1</code> before the first move.
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    public String getPortfolioId() {
+        return new String(readId(buffer, base), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the SIP, desired weights, rates and balances of the record the flyweight is on, wherever it moves next.
+     */
+    public DataStub getDataStub() {
+        return dataStub;
+    }
+
+    /**
+     * @return the holdings of the record the flyweight is on, wherever it moves next.
+     */
+    public Portfolio getPortfolio() {
+        return portfolio;
+    }
+
+    private int checkpointCell(int position) {
+        return (SETTINGS_GROUPS + position) * assets;
+    }
+
+    private boolean isSet(int bitmap, int month) {
+        return month >= 0 && month < timelineMonths
+                && (buffer.getLong(base + bitmap + (month >>> 6) * Long.BYTES) & 1L << month) != 0;
+    }
+
+    private void set(int bitmap, int month) {
+        if (month < 0 || month >= timelineMonths) {
+            throw new IllegalArgumentException("Month " + month + " is past the timeline of " + timelineMonths + " months");
+        }
+        int word = base + bitmap + (month >>> 6) * Long.BYTES;
+        buffer.putLong(word, buffer.getLong(word) | 1L << month);
+    }
+
+    /**
+     * The cells of the record, numbered from its first holding. The overflow entry of a cell stays with it when the
+     * cell is cleared or scaled, for its next overflow.
+     */
+    private final class RecordAmounts extends AmountColumns {
+        @Override
+        public int capacity() {
+            return cellCount;
+        }
+
+        @Override
+        public void ensureCapacity(int cells) {
+            if (cells > cellCount) {
+                throw new IllegalStateException("A record has " + cellCount + " cells, not " + cells);
+            }
+        }
+
+        @Override
+        public boolean isPresent(int cell) {
+            return buffer.getInt(at(cell) + CELL_SCALE) != ABSENT;
+        }
+
+        @Override
+        public boolean isScaled(int cell) {
+            return buffer.getInt(at(cell) + CELL_SCALE) > ABSENT;
+        }
+
+        @Override
+        public long getUnscaled(int cell) {
+            return buffer.getLong(at(cell));
+        }
+
+        @Override
+        public int getScale(int cell) {
+            return buffer.getInt(at(cell) + CELL_SCALE) - 1;
+        }
+
+        @Override
+        public BigDecimal get(int cell) {
+            int at = at(cell);
+            int scale = buffer.getInt(at + CELL_SCALE);
+            if (scale == ABSENT) {
+                return null;
+            }
+            return scale == OVERFLOW ? store.readOverflow(buffer.getInt(at + CELL_OVERFLOW_UNIT))
+                    : BigDecimal.valueOf(buffer.getLong(at), scale - 1);
+        }
+
+        @Override
+        public void set(int cell, BigDecimal amount) {
+            if (amount.scale() >= 0 && amount.unscaledValue().bitLength() < Long.SIZE) {
+                setScaled(cell, amount.unscaledValue().longValue(), amount.scale());
+                return;
+            }
+            int at = at(cell);
+            buffer.putInt(at + CELL_OVERFLOW_UNIT, store.writeOverflow(buffer.getInt(at + CELL_OVERFLOW_UNIT), amount));
+            buffer.putInt(at + CELL_SCALE, OVERFLOW);
+        }
+
+        @Override
+        public void setScaled(int cell, long unscaledAmount, int scale) {
+            if (scale < 0 || scale == Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Unsupported scale " + scale);
+            }
+            int at = at(cell);
+            buffer.putLong(at, unscaledAmount);
+            buffer.putInt(at + CELL_SCALE, scale + 1);
+        }
+
+        @Override
+        public void clear(int cell) {
+            buffer.putInt(at(cell) + CELL_SCALE, ABSENT);
+        }
+
+        @Override
+        public void copy(AmountColumns source, int sourceCell, int targetCell, int cells) {
+            copyEach(source, sourceCell, targetCell, cells);
+        }
+
+        private int at(int cell) {
+            if (cell < 0 || cell >= cellCount) {
+                throw new IndexOutOfBoundsException("No cell " + cell + " in a record of " + cellCount);
+            }
+            return base + CELLS + cell * CELL_BYTES;
+        }
+    }
+
+    /**
+     * Every month-end balance of the timeline, and the holdings after the allocation and at the end of every year.
+     */
+    private final class RecordBalanceIndex extends MonthlyBalanceIndex {
+        private RecordBalanceIndex() {
+            super(assets);
+        }
+
+        @Override
+        public int getComputedMonths() {
+            return buffer.getInt(base + COMPUTED_MONTHS);
+        }
+
+        @Override
+        public boolean isComputed(int month) {
+            return month >= 0 && month < getComputedMonths();
+        }
+
+        @Override
+        public boolean isRecent(int month) {
+            return isComputed(month);
+        }
+
+        @Override
+        public int getBalance(int month, int assetClass) {
+            if (!isComputed(month)) {
+                throw new IllegalStateException("Month " + month + " is not computed");
+            }
+            return buffer.getInt(balance(month, assetClass));
+        }
+
+        @Override
+        public void setBalance(int month, int assetClass, int balance) {
+            int computedMonths = getComputedMonths();
+            if (month > computedMonths || month < computedMonths - 1) {
+                throw new IllegalStateException("The balance of month " + month + " can only be stored after the previous months");
+            }
+            buffer.putInt(balance(month, assetClass), balance);
+        }
+
+        @Override
+        public void markComputed(int month) {
+            buffer.putInt(base + COMPUTED_MONTHS, month + 1);
+        }
+
+        /**
+         * The checkpoints of the months dropped are dropped with them, only those before the computed months are
+         * read.
+         */
+        @Override
+        public void invalidateFrom(int month) {
+            buffer.putInt(base + COMPUTED_MONTHS, Math.min(getComputedMonths(), month));
+            for (int word = month >>> 6; word < bitmapBytes(timelineMonths) / Long.BYTES; word++) {
+                int at = base + policyReBalancedBitmap + word * Long.BYTES;
+                buffer.putLong(at, buffer.getLong(at) & (word == month >>> 6 ? ~(-1L << month) : 0));
+            }
+        }
+
+        @Override
+        public void checkpoint(int month, AmountColumns holdings, int firstCell) {
+            if (month != INITIAL_CHECKPOINT && (month + 1) % CHECKPOINT_SPACING != 0) {
+                return;
+            }
+            amounts.copy(holdings, firstCell, checkpointCell((month + 1) / CHECKPOINT_SPACING), assets);
+        }
+
+        @Override
+        public int floorCheckpoint(int month, AmountColumns target, int firstCell) {
+            int position = Math.min((month + 1) / CHECKPOINT_SPACING, getComputedMonths() / CHECKPOINT_SPACING);
+            if (position == 0 && !amounts.isPresent(checkpointCell(0))) {
+                throw new IllegalStateException("No checkpoint found before month " + month);
+            }
+            target.copy(amounts, checkpointCell(position), firstCell, assets);
+            return position * CHECKPOINT_SPACING - 1;
+        }
+
+        @Override
+        public int getCheckpointCount() {
+            return (amounts.isPresent(checkpointCell(0)) ? 1 : 0) + getComputedMonths() / CHECKPOINT_SPACING;
+        }
+
+        @Override
+        public boolean isReBalanced(int month) {
+            return isSet(reBalancedBitmap, month) || isSet(policyReBalancedBitmap, month);
+        }
+
+        @Override
+        public boolean isPolicyReBalanced(int month) {
+            return isSet(policyReBalancedBitmap, month);
+        }
+
+        @Override
+        public void markReBalanced(int month) {
+            set(reBalancedBitmap, month);
+        }
+
+        @Override
+        public void markPolicyReBalanced(int month) {
+            set(policyReBalancedBitmap, month);
+        }
+
+        @Override
+        public void writeTo(DataOutput output) {
+            throw new UnsupportedOperationException("The history of a record stays in its store");
+        }
+
+        private int balance(int month, int assetClass) {
+            return base + balances + (month * assets + assetClass) * Integer.BYTES;
+        }
+    }
+
+    private final class RecordMarketRates extends MarketRates {
+        private RecordMarketRates() {
+            super(assets);
+        }
+
+        @Override
+        public boolean canHold(int month) {
+            return month >= 0 && month < timelineMonths;
+        }
+
+        @Override
+        public int size() {
+            return buffer.getInt(base + REGISTERED_MONTHS);
+        }
+
+        @Override
+        public boolean containsKey(int month) {
+            return isSet(registeredBitmap, month);
+        }
+
+        @Override
+        public double getRate(int month, int assetClass) {
+            return buffer.getDouble(rate(month, assetClass));
+        }
+
+        @Override
+        public int[] months() {
+            int[] months = new int[size()];
+            int count = 0;
+            for (int word = 0; word < bitmapBytes(timelineMonths) / Long.BYTES; word++) {
+                for (long bits = buffer.getLong(base + registeredBitmap + word * Long.BYTES); bits != 0; bits &= bits - 1) {
+                    months[count++] = word << 6 | Long.numberOfTrailingZeros(bits);
+                }
+            }
+            return months;
+        }
+
+        @Override
+        public void put(int month, double[] monthRates) {
+            if (!canHold(month) || containsKey(month)) {
+                throw new IllegalArgumentException("The rates of month " + month + " can't be registered");
+            }
+            if (monthRates.length != assets) {
+                throw new IllegalArgumentException("Expected " + assets + " rates, got " + monthRates.length);
+            }
+            for (int asset = 0; asset < assets; asset++) {
+                buffer.putDouble(rate(month, asset), monthRates[asset]);
+            }
+            set(registeredBitmap, month);
+            buffer.putInt(base + REGISTERED_MONTHS, size() + 1);
+        }
+
+        private int rate(int month, int assetClass) {
+            return base + rates + (month * assets + assetClass) * Double.BYTES;
+        }
+    }
+
+    private final class RecordDataStub extends DataStub {
+        private RecordDataStub(AssetUniverse universe) {
+            super(universe, amounts, ColumnarStateStore.SIP * assets, ColumnarStateStore.DESIRED_WEIGHTS * assets,
+                    new RecordBalanceIndex(), new RecordMarketRates());
+        }
+
+        @Override
+        public Integer getFirstYear() {
+            int firstYear = buffer.getInt(base + FIRST_YEAR);
+            return firstYear == NO_YEAR ? null : firstYear;
+        }
+
+        @Override
+        public void setFirstYear(Integer firstYear) {
+            buffer.putInt(base + FIRST_YEAR, firstYear == null ? NO_YEAR : firstYear);
+        }
+    }
+}
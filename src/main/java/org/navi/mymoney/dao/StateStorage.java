@@ -0,0 +1,11 @@
+package org.navi.mymoney.dao;
+
+/**
+ * Where the engine keeps the state of its portfolios.
+ */
+public enum StateStorage {
+    // ColumnarStateStore, and objects per portfolio on the heap.
+    HEAP,
+    // OffHeapStateStore, a record per portfolio outside the heap.
+    OFF_HEAP
+}
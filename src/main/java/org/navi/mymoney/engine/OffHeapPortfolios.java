@@ -0,0 +1,106 @@
+package org.navi.mymoney.engine;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.dao.OffHeapStateStore;
+import org.navi.mymoney.dao.StateRecord;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The portfolios of a shard kept in an {@link OffHeapStateStore}: a single {@link Driver}, whose service is moved to
+ * the record of the portfolio of every command, so the shard holds no object per portfolio.
+ */
+final class OffHeapPortfolios {
+    private final OffHeapStateStore store;
+    private final StateRecord record;
+    private final PortfolioServiceImpl service;
+    private final Driver driver;
+
+    private OffHeapPortfolios(OffHeapStateStore store, NumericEngine numericEngine, ReBalancePolicy reBalancePolicy) {
+        this.store = store;
+        this.record = new StateRecord(store);
+        this.service = new PortfolioServiceImpl(record.getDataStub(), record.getPortfolio(), numericEngine,
+                reBalancePolicy);
+        this.driver = new Driver(service);
+    }
+
+    /**
+     * Opens the stores of all the shards, shard <code>i</code> in <code>stateFile.i</code>.
+     *
+     * @param stateFile <code>null</code> for stores in direct memory.
+     * @throws IllegalStateException if the files were written by an engine with another number of shards, whose
+     *                               portfolios would land on other shards.
+     */
+    static OffHeapPortfolios[] open(int shards, Path stateFile, int timelineMonths, NumericEngine numericEngine,
+                                    ReBalancePolicy reBalancePolicy) {
+        if (stateFile != null) {
+            int existing = 0;
+            for (int shard = 0; shard < shards; shard++) {
+                existing += Files.exists(shardFile(stateFile, shard)) ? 1 : 0;
+            }
+            if ((existing > 0 && existing < shards) || Files.exists(shardFile(stateFile, shards))) {
+                throw new IllegalStateException("The state in " + stateFile + ".* was written by an engine with "
+                        + "another number of workers than " + shards);
+            }
+        }
+        OffHeapPortfolios[] portfolios = new OffHeapPortfolios[shards];
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                OffHeapStateStore store = stateFile == null
+                        ? OffHeapStateStore.allocate(AssetUniverse.current(), timelineMonths)
+                        : OffHeapStateStore.open(shardFile(stateFile, shard), AssetUniverse.current(), timelineMonths);
+                portfolios[shard] = new OffHeapPortfolios(store, numericEngine, reBalancePolicy);
+            }
+        } catch (IOException e) {
+            for (OffHeapPortfolios opened : portfolios) {
+                if (opened != null) {
+                    opened.close();
+                }
+            }
+            throw new UncheckedIOException("Can't open the state in " + stateFile, e);
+        }
+        return portfolios;
+    }
+
+    static Path shardFile(Path stateFile, int shard) {
+        return stateFile.resolveSibling(stateFile.getFileName() + "." + shard);
+    }
+
+    /**
+     * @return the driver, on the record of the portfolio, which is added to the store if it is new.
+     * @throws IllegalArgumentException if the id doesn't fit in a record.
+     */
+    Driver driverFor(String portfolioId) {
+        int slot = store.slotOf(portfolioId);
+        boolean created = slot < 0;
+        if (created) {
+            slot = store.addPortfolio(portfolioId);
+        }
+        CommandMetrics.shared().recordPortfolioLookup(created);
+        if (slot != record.getSlot()) {
+            record.moveTo(slot);
+            service.stateMoved();
+        }
+        return driver;
+    }
+
+    int size() {
+        return store.size();
+    }
+
+    void close() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package org.navi.mymoney.engine;
+
+import org.apache.commons.lang3.StringUtils;
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.batch.FileChunks;
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.constants.Constants;
+import org.navi.mymoney.dao.ColumnarStateStore;
+import org.navi.mymoney.dao.OffHeapStateStore;
+import org.navi.mymoney.dao.StateStorage;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.navi.mymoney.metrics.SampledErrorLog;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.navi.mymoney.validation.ErrorPolicy;
+import org.navi.mymoney.validation.ErrorReport;
+import org.navi.mymoney.validation.InvalidInputException;
+import org.navi.mymoney.validation.ResultCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Runs commands for many portfolios in one JVM.
+ * <p>
+ * A command line may be prefixed with a portfolio id (<code>P42 BALANCE MARCH</code>); lines without a prefix belong
+ * to the {@link Constants#DEFAULT_PORTFOLIO_ID default} portfolio. Every portfolio is pinned to one shard, and each
+ * shard owns a single worker thread, so the state of a portfolio is only ever touched by one thread and commands of
+ * the same portfolio are applied in the order they were submitted. The portfolios of a shard share one
+ * {@link ColumnarStateStore}, which is confined to the shard's thread like the rest of their state.
+ * <p>
+ * With {@link StateStorage#OFF_HEAP}, a shard keeps its portfolios in an {@link OffHeapStateStore} instead, and runs
+ * them all through a single driver moved from record to record, so the heap doesn't grow with the portfolios. Kept in
+ * files, the portfolios are there again when an engine with the same number of workers is started on them.
+ * <p>
+ * The file runs keep an {@link ErrorReport} of their invalid lines like {@link Driver} does, and follow the same
+ * {@link ErrorPolicy}. With {@link ErrorPolicy#FAIL_FAST} the outputs stop before the first invalid line, the shards
+ * may already have run some of the lines after it.
+ */
+@Component
+public class PortfolioEngine implements AutoCloseable {
+    /**
+     * Lines read at a time by {@link #executeCommandsFromFile(String, Writer)}.
+     */
+    public static final int CHUNK_LINES = 4096;
+    // Drivers kept per shard, for the portfolios with the most recent commands.
+    private static final int DRIVERS_PER_SHARD = 1024;
+    private static final Set<String> COMMAND_NAMES =
+            Arrays.stream(Command.values()).map(Command::name).collect(Collectors.toSet());
+
+    private final Shard[] shards;
+    private final Function<ColumnarStateStore, PortfolioService> serviceFactory;
+    private final OffHeapPortfolios[] offHeapPortfolios;
+    private final ErrorPolicy errorPolicy;
+    private ErrorReport lastReport;
+
+    private final Logger logger = LoggerFactory.getLogger(PortfolioEngine.class);
+
+    @Autowired
+    public PortfolioEngine(@Value("${mymoney.engine.workers:0}") int workers,
+                           @Value("${mymoney.numeric.engine:BIG_DECIMAL}") NumericEngine numericEngine,
+                           @Value("${mymoney.rebalance.policy:NONE}") String reBalancePolicy,
+                           @Value("${mymoney.state.storage:HEAP}") StateStorage stateStorage,
+                           @Value("${mymoney.state.file:}") String stateFile,
+                           @Value("${mymoney.state.timeline-months:24}") int timelineMonths,
+                           @Value("${mymoney.validation.policy:SKIP}") ErrorPolicy errorPolicy) {
+        this(workers, numericEngine, ReBalancePolicy.parse(reBalancePolicy), stateStorage,
+                StringUtils.isBlank(stateFile) ? null : Paths.get(stateFile.trim()), timelineMonths, errorPolicy);
+    }
+
+    public PortfolioEngine(int workers, NumericEngine numericEngine, ReBalancePolicy reBalancePolicy,
+                           StateStorage stateStorage, Path stateFile, int timelineMonths) {
+        this(workers, numericEngine, reBalancePolicy, stateStorage, stateFile, timelineMonths, ErrorPolicy.SKIP);
+    }
+
+    /**
+     * @param stateFile      with {@link StateStorage#OFF_HEAP}, the store of shard <code>i</code> is kept in
+     *                       <code>stateFile.i</code> and reopened from there; <code>null</code> keeps them in direct
+     *                       memory.
+     * @param timelineMonths with {@link StateStorage#OFF_HEAP}, the months a portfolio can register changes for.
+     */
+    public PortfolioEngine(int workers, NumericEngine numericEngine, ReBalancePolicy reBalancePolicy,
+                           StateStorage stateStorage, Path stateFile, int timelineMonths, ErrorPolicy errorPolicy) {
+        this(totalShards(workers), heapServices(numericEngine, reBalancePolicy),
+                stateStorage == StateStorage.OFF_HEAP
+                        ? OffHeapPortfolios.open(totalShards(workers), stateFile, timelineMonths, numericEngine, reBalancePolicy)
+                        : null, errorPolicy);
+    }
+
+    public PortfolioEngine(int workers, NumericEngine numericEngine) {
+        this(workers, numericEngine, ReBalancePolicy.NONE);
+    }
+
+    public PortfolioEngine(int workers, NumericEngine numericEngine, ReBalancePolicy reBalancePolicy) {
+        this(workers, heapServices(numericEngine, reBalancePolicy));
+    }
+
+    public PortfolioEngine(int workers, Supplier<PortfolioService> serviceFactory) {
+        this(workers, (ColumnarStateStore store) -> serviceFactory.get());
+    }
+
+    /**
+     * @param serviceFactory creates the service of a new portfolio, given the store of the shard it lands on.
+     */
+    public PortfolioEngine(int workers, Function<ColumnarStateStore, PortfolioService> serviceFactory) {
+        this(totalShards(workers), serviceFactory, null, ErrorPolicy.SKIP);
+    }
+
+    private PortfolioEngine(int totalShards, Function<ColumnarStateStore, PortfolioService> serviceFactory,
+                            OffHeapPortfolios[] offHeapPortfolios, ErrorPolicy errorPolicy) {
+        this.serviceFactory = serviceFactory;
+        this.offHeapPortfolios = offHeapPortfolios;
+        this.errorPolicy = errorPolicy;
+        this.shards = new Shard[totalShards];
+        for (int i = 0; i < totalShards; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    private static int totalShards(int workers) {
+        return workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static Function<ColumnarStateStore, PortfolioService> heapServices(NumericEngine numericEngine,
+                                                                              ReBalancePolicy reBalancePolicy) {
+        return (ColumnarStateStore store) -> {
+            int slot = store.addPortfolio();
+            return new PortfolioServiceImpl(store.newDataStub(slot), store.newPortfolio(slot), numericEngine,
+                    reBalancePolicy);
+        };
+    }
+
+    /**
+     * Submits a single command line, optionally prefixed with a portfolio id.
+     *
+     * @param line command line.
+     * @return future completing with the output of the command, <code>null</code> if the command has no output.
+     */
+    public CompletableFuture<String> submit(String line) {
+        String[] idAndCommand = splitPortfolioId(line);
+        return submit(idAndCommand[0], idAndCommand[1]);
+    }
+
+    public CompletableFuture<String> submit(String portfolioId, String command) {
+        Shard shard = shardFor(portfolioId);
+        return CompletableFuture.supplyAsync(() -> shard.process(portfolioId, command), shard.executor);
+    }
+
+    /**
+     * Processes the file by spreading its portfolios across the shards, keeping the output in input order. The file is
+     * read on the calling thread, {@link #CHUNK_LINES} lines at a time, while the shards run the chunks read before,
+     * and the outputs of a chunk are written as soon as all the shards are done with it.
+     *
+     * @param fileName Absolute path to the input file.
+     * @param output   where the outputs are written, one per line. It is flushed but not closed.
+     * @return number of outputs written.
+     * @throws IOException if the file can't be read or the output can't be written.
+     * @throws InvalidInputException at the first invalid line, once the outputs so far are written, if the policy is
+     *                               {@link ErrorPolicy#FAIL_FAST}.
+     */
+    public long executeCommandsFromFile(String fileName, Writer output) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName))) {
+            return execute(fileName, () -> {
+                List<String> lines = new ArrayList<>(CHUNK_LINES);
+                int[] lineNumbers = new int[CHUNK_LINES];
+                int lineBreaks = 0;
+                String line;
+                while (lines.size() < CHUNK_LINES && (line = reader.readLine()) != null) {
+                    lineBreaks++;
+                    if (!line.isEmpty()) {
+                        lineNumbers[lines.size()] = lineBreaks;
+                        lines.add(line);
+                    }
+                }
+                return lines.isEmpty() ? null
+                        : CompletableFuture.completedFuture(new Chunk(lines, lineNumbers, lineBreaks));
+            }, output);
+        } catch (InvalidInputException e) {
+            throw e;
+        } catch (IOException | CompletionException e) {
+            logger.error("Invalid input file.", e);
+            throw new IOException("Invalid input file");
+        }
+    }
+
+    public List<String> executeCommands(List<String> lines) {
+        int[] lineNumbers = new int[lines.size()];
+        Arrays.setAll(lineNumbers, line -> line + 1);
+        Chunk chunk = new Chunk(lines, lineNumbers, lines.size());
+        List<CompletableFuture<Void>> tasks = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            if (chunk.hasLines(shard)) {
+                tasks.add(CompletableFuture.runAsync(() -> chunk.run(shard), shard.executor));
+            }
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+        return Arrays.asList(chunk.outputs);
+    }
+
+    /**
+     * Same as {@link #executeCommandsFromFileInParallel(String, Writer, int)} with chunks of
+     * {@link FileChunks#DEFAULT_CHUNK_BYTES}.
+     */
+    public long executeCommandsFromFileInParallel(String fileName, Writer output) throws IOException {
+        return executeCommandsFromFileInParallel(fileName, output, FileChunks.DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Processes a file without reading it on a single thread or holding it in memory. The file is cut into chunks of
+     * whole lines, which are read and split into lines by the common fork-join pool. Every shard runs its lines chunk
+     * after chunk, so the commands of a portfolio still run in input order, and the outputs of a chunk are written as
+     * soon as all the shards are done with it. The outputs are the same, and in the same order, as with
+     * {@link #executeCommandsFromFile(String, Writer)}.
+     *
+     * @param output     where the outputs are written, one per line. It is flushed but not closed.
+     * @param chunkBytes approximate size of a chunk.
+     * @return number of outputs written.
+     * @throws IOException if the file can't be read or the output can't be written.
+     * @throws InvalidInputException same as {@link #executeCommandsFromFile(String, Writer)}.
+     */
+    public long executeCommandsFromFileInParallel(String fileName, Writer output, int chunkBytes) throws IOException {
+        try (FileChunks chunks = new FileChunks(Paths.get(fileName), chunkBytes)) {
+            return execute(fileName, () -> {
+                if (!chunks.hasNext()) {
+                    return null;
+                }
+                long[] range = chunks.next();
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        FileChunks.Lines lines = chunks.readLines(range[0], range[1]);
+                        return new Chunk(lines.getLines(), lines.getLineNumbers(), lines.getLineBreaks());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }, output);
+        } catch (InvalidInputException e) {
+            throw e;
+        } catch (IOException | CompletionException e) {
+            logger.error("Invalid input file.", e);
+            throw new IOException("Invalid input file");
+        }
+    }
+
+    /**
+     * Runs the chunks on the shards, each shard chunk after chunk, and writes their outputs in order, keeping the
+     * report of the file as they are written.
+     */
+    private long execute(String fileName, ChunkSource chunks, Writer output) throws IOException {
+        BufferedWriter writer = output instanceof BufferedWriter ? (BufferedWriter) output : new BufferedWriter(output);
+        // Enough chunks in flight to keep every shard busy while the oldest one is written.
+        int maxChunksInFlight = 2 * shards.length + 1;
+        Deque<CompletableFuture<Chunk>> inFlight = new ArrayDeque<>();
+        CompletableFuture<?>[] shardTails = new CompletableFuture<?>[shards.length];
+        Arrays.fill(shardTails, CompletableFuture.completedFuture(null));
+        long written = 0;
+        ErrorReport fileReport = new ErrorReport(fileName);
+        // Number of the line before the oldest chunk in flight.
+        long lineBase = 0;
+        boolean more = true;
+        while (more || !inFlight.isEmpty()) {
+            more &= !errorPolicy.stops(fileReport);
+            if (more && inFlight.size() < maxChunksInFlight) {
+                CompletableFuture<Chunk> split = chunks.next();
+                if (split == null) {
+                    more = false;
+                    continue;
+                }
+                for (Shard shard : shards) {
+                    shardTails[shard.index] = CompletableFuture.allOf(shardTails[shard.index], split)
+                            .thenRunAsync(() -> split.join().run(shard), shard.executor);
+                }
+                inFlight.add(CompletableFuture.allOf(shardTails).thenCompose(done -> split));
+                continue;
+            }
+            Chunk chunk = inFlight.remove().join();
+            for (int line = 0; line < chunk.outputs.length && !errorPolicy.stops(fileReport); line++) {
+                fileReport.countLine();
+                if (chunk.codes[line].isError()) {
+                    fileReport.record(lineBase + chunk.lineNumbers[line], chunk.codes[line]);
+                } else if (chunk.outputs[line] != null) {
+                    writer.write(chunk.outputs[line]);
+                    writer.newLine();
+                    written++;
+                }
+            }
+            lineBase += chunk.lineBreaks;
+        }
+        writer.flush();
+        lastReport = fileReport;
+        errorPolicy.complete(fileReport, logger);
+        return written;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the report of the last file run, <code>null</code> if none was run yet.
+     */
+    public ErrorReport getErrorReport() {
+        return lastReport;
+    }
+
+    /**
+     * Splits a line into the portfolio id and the command, falling back to the default portfolio when the first
+     * token is already a command.
+     */
+    public static String[] splitPortfolioId(String line) {
+        int separator = line.indexOf(' ');
+        String firstToken = separator < 0 ? line : line.substring(0, separator);
+        if (separator < 0 || COMMAND_NAMES.contains(firstToken)) {
+            return new String[]{Constants.DEFAULT_PORTFOLIO_ID, line};
+        }
+        return new String[]{firstToken, line.substring(separator + 1)};
+    }
+
+    private Shard shardFor(String portfolioId) {
+        return shards[Math.floorMod(portfolioId.hashCode(), shards.length)];
+    }
+
+    /**
+     * Stops the shards once the commands already submitted are done, and closes their {@link OffHeapStateStore}s.
+     */
+    @PreDestroy
+    @Override
+    public void close() {
+        List<CompletableFuture<Void>> closing = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (shard.offHeap != null && !shard.executor.isShutdown()) {
+                closing.add(CompletableFuture.runAsync(shard.offHeap::close, shard.executor));
+            }
+            shard.executor.shutdown();
+        }
+        try {
+            CompletableFuture.allOf(closing.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            logger.error("Can't close the state of the portfolios", e.getCause());
+        }
+    }
+
+    private interface ChunkSource {
+        /**
+         * @return the next chunk, once its lines are read, <code>null</code> at the end of the input.
+         */
+        CompletableFuture<Chunk> next() throws IOException;
+    }
+
+    /**
+     * Lines of the input grouped per shard, with a slot for the output and the result of each line.
+     */
+    private final class Chunk {
+        private final String[][] parsed;
+        private final int[][] linesPerShard;
+        private final String[] outputs;
+        private final ResultCode[] codes;
+        // Numbers of the lines in the chunk, and the lines the chunk covers, empty ones included.
+        private final int[] lineNumbers;
+        private final int lineBreaks;
+
+        private Chunk(List<String> lines, int[] lineNumbers, int lineBreaks) {
+            this.lineNumbers = lineNumbers;
+            this.lineBreaks = lineBreaks;
+            parsed = new String[lines.size()][];
+            int[] shardOfLine = new int[lines.size()];
+            int[] lineCounts = new int[shards.length];
+            for (int i = 0; i < lines.size(); i++) {
+                parsed[i] = splitPortfolioId(lines.get(i));
+                shardOfLine[i] = shardFor(parsed[i][0]).index;
+                lineCounts[shardOfLine[i]]++;
+            }
+            linesPerShard = new int[shards.length][];
+            for (int shard = 0; shard < shards.length; shard++) {
+                linesPerShard[shard] = new int[lineCounts[shard]];
+                lineCounts[shard] = 0;
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                linesPerShard[shardOfLine[i]][lineCounts[shardOfLine[i]]++] = i;
+            }
+            outputs = new String[lines.size()];
+            codes = new ResultCode[lines.size()];
+        }
+
+        private boolean hasLines(Shard shard) {
+            return linesPerShard[shard.index].length > 0;
+        }
+
+        // Runs on the shard's worker thread.
+        private void run(Shard shard) {
+            for (int line : linesPerShard[shard.index]) {
+                outputs[line] = shard.process(parsed[line][0], parsed[line][1]);
+                codes[line] = shard.lastResult;
+            }
+        }
+    }
+
+    private final class Shard {
+        private final int index;
+        private final ExecutorService executor;
+        // Only accessed from the shard's own worker thread. The services hold the state of the portfolios, the drivers
+        // running commands on them are only kept for the most recently used ones.
+        private final Map<String, PortfolioService> services = new HashMap<>();
+        private final Map<String, Driver> drivers = new LinkedHashMap<String, Driver>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Driver> eldest) {
+                return size() > DRIVERS_PER_SHARD;
+            }
+        };
+        private final ColumnarStateStore store = new ColumnarStateStore();
+        // Instead of the drivers and the store with StateStorage.OFF_HEAP.
+        private final OffHeapPortfolios offHeap;
+        // Result of the last command processed.
+        private ResultCode lastResult = ResultCode.OK;
+
+        private Shard(int index) {
+            this.index = index;
+            this.offHeap = offHeapPortfolios == null ? null : offHeapPortfolios[index];
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "portfolio-shard-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private String process(String portfolioId, String command) {
+            Driver driver;
+            try {
+                driver = driverFor(portfolioId);
+            } catch (IllegalArgumentException e) {
+                // A portfolio id the off-heap store can't hold.
+                SampledErrorLog.shared().error(logger, portfolioId + " " + command, e);
+                lastResult = ResultCode.FAILED;
+                return null;
+            }
+            String output = driver.processCommand(command);
+            lastResult = driver.getLastResult();
+            return output;
+        }
+
+        private Driver driverFor(String portfolioId) {
+            if (offHeap != null) {
+                return offHeap.driverFor(portfolioId);
+            }
+            Driver driver = drivers.get(portfolioId);
+            if (driver != null) {
+                CommandMetrics.shared().recordPortfolioLookup(false);
+                return driver;
+            }
+            PortfolioService service = services.get(portfolioId);
+            CommandMetrics.shared().recordPortfolioLookup(service == null);
+            if (service == null) {
+                service = serviceFactory.apply(store);
+                services.put(portfolioId, service);
+            }
+            driver = new Driver(service);
+            drivers.put(portfolioId, driver);
+            return driver;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.navi.mymoney.metrics;
+
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.validation.ResultCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of the command pipeline.
+ * <p>
+ * Every command run by a {@link org.navi.mymoney.Driver Driver} is counted and timed per {@link Command}, failures are
+ * counted per command and per exception type or {@link ResultCode}. The portfolio lookups of the multi-portfolio paths and the month-end
+ * balances served from the recent months or replayed from a checkpoint are counted too. Recording only touches
+ * pre-allocated counters, so the metrics stay on in production; one {@link #shared() shared} instance covers the
+ * process and is what gets exposed over JMX and summarized at the end of a batch.
+ */
+public final class CommandMetrics implements CommandMetricsMXBean {
+    public static final String OBJECT_NAME = "org.navi.mymoney:type=CommandMetrics";
+
+    private static final Command[] COMMANDS = Command.values();
+    private static final ResultCode[] RESULT_CODES = ResultCode.values();
+    private static final CommandMetrics SHARED = new CommandMetrics();
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[COMMANDS.length];
+    private final LongAdder[] errors = new LongAdder[COMMANDS.length];
+    private final ConcurrentMap<Class<?>, LongAdder> errorsByCause = new ConcurrentHashMap<>();
+    private final LongAdder[] errorsByCode = new LongAdder[RESULT_CODES.length];
+    private final LongAdder portfolioLookups = new LongAdder();
+    private final LongAdder portfoliosCreated = new LongAdder();
+    private final LongAdder recentBalanceHits = new LongAdder();
+    private final LongAdder checkpointReplays = new LongAdder();
+    private final LongAdder replayedMonths = new LongAdder();
+
+    private final Logger logger = LoggerFactory.getLogger(CommandMetrics.class);
+
+    public CommandMetrics() {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+        for (int i = 0; i < RESULT_CODES.length; i++) {
+            errorsByCode[i] = new LongAdder();
+        }
+    }
+
+    public static CommandMetrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Registers the shared instance with the platform MBean server, once.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(SHARED, name);
+            }
+        } catch (JMException e) {
+            SHARED.logger.warn("Failed to expose the command metrics over JMX", e);
+        }
+    }
+
+    /**
+     * Records a command that ran, successfully or not, since <code>startNanos</code> (from {@link System#nanoTime()}).
+     */
+    public void recordCommand(Command command, long startNanos) {
+        latencies[command.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param command <code>null</code> if the command itself couldn't be recognised.
+     */
+    public void recordError(Command command, Throwable cause) {
+        if (command != null) {
+            errors[command.ordinal()].increment();
+        }
+        LongAdder counter = errorsByCause.get(cause.getClass());
+        if (counter == null) {
+            counter = errorsByCause.computeIfAbsent(cause.getClass(), type -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * Records a command rejected by validation, counted under the name of its code.
+     *
+     * @param command <code>null</code> if the command itself couldn't be recognised.
+     */
+    public void recordError(Command command, ResultCode code) {
+        if (command != null) {
+            errors[command.ordinal()].increment();
+        }
+        errorsByCode[code.ordinal()].increment();
+    }
+
+    public void recordPortfolioLookup(boolean created) {
+        portfolioLookups.increment();
+        if (created) {
+            portfoliosCreated.increment();
+        }
+    }
+
+    public void recordRecentBalance() {
+        recentBalanceHits.increment();
+    }
+
+    public void recordReplay(int months) {
+        checkpointReplays.increment();
+        replayedMonths.add(months);
+    }
+
+    public LatencyHistogram getLatency(Command command) {
+        return latencies[command.ordinal()];
+    }
+
+    public long getErrors(Command command) {
+        return errors[command.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Command command : COMMANDS) {
+            counts.put(command.name(), latencies[command.ordinal()].getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getCommandErrors() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Command command : COMMANDS) {
+            counts.put(command.name(), errors[command.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByCause() {
+        Map<String, Long> counts = new TreeMap<>();
+        errorsByCause.forEach((type, counter) -> counts.put(type.getSimpleName(), counter.sum()));
+        for (ResultCode code : RESULT_CODES) {
+            long count = errorsByCode[code.ordinal()].sum();
+            if (count > 0) {
+                counts.put(code.name(), count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyNanos() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Command command : COMMANDS) {
+            LatencyHistogram latency = latencies[command.ordinal()];
+            values.put(command.name() + ".p50", latency.getValueAtPercentile(50));
+            values.put(command.name() + ".p99", latency.getValueAtPercentile(99));
+            values.put(command.name() + ".p999", latency.getValueAtPercentile(99.9));
+            values.put(command.name() + ".max", latency.getMax());
+        }
+        return values;
+    }
+
+    @Override
+    public long getPortfolioLookups() {
+        return portfolioLookups.sum();
+    }
+
+    @Override
+    public long getPortfoliosCreated() {
+        return portfoliosCreated.sum();
+    }
+
+    @Override
+    public long getRecentBalanceHits() {
+        return recentBalanceHits.sum();
+    }
+
+    @Override
+    public long getCheckpointReplays() {
+        return checkpointReplays.sum();
+    }
+
+    @Override
+    public long getReplayedMonths() {
+        return replayedMonths.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            latencies[i].reset();
+            errors[i].reset();
+        }
+        errorsByCause.clear();
+        for (LongAdder counter : errorsByCode) {
+            counter.reset();
+        }
+        portfolioLookups.reset();
+        portfoliosCreated.reset();
+        recentBalanceHits.reset();
+        checkpointReplays.reset();
+        replayedMonths.reset();
+    }
+
+    /**
+     * @return one line per command that ran, then the errors and the cache statistics.
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        for (Command command : COMMANDS) {
+            LatencyHistogram latency = latencies[command.ordinal()];
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            lines.add(String.format(Locale.ROOT,
+                    "%-9s count=%d errors=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                    command, latency.getCount(), errors[command.ordinal()].sum(), latency.getMean() / 1000d,
+                    micros(latency.getValueAtPercentile(50)), micros(latency.getValueAtPercentile(99)),
+                    micros(latency.getValueAtPercentile(99.9)), micros(latency.getMax())));
+        }
+        Map<String, Long> errorsByCauseOrCode = getErrorsByCause();
+        if (!errorsByCauseOrCode.isEmpty()) {
+            lines.add("errors by cause " + errorsByCauseOrCode);
+        }
+        lines.add(String.format(Locale.ROOT, "portfolios lookups=%d created=%d; balances recent=%d replayed=%d (%d months)",
+                getPortfolioLookups(), getPortfoliosCreated(), getRecentBalanceHits(), getCheckpointReplays(),
+                getReplayedMonths()));
+        return lines;
+    }
+
+    public void logSummary() {
+        if (logger.isInfoEnabled()) {
+            summary().forEach(line -> logger.info("{}", line));
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000d;
+    }
+}
@@ -0,0 +1,35 @@
+package org.navi.mymoney.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link CommandMetrics}, registered as {@link CommandMetrics#OBJECT_NAME}.
+ */
+public interface CommandMetricsMXBean {
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getCommandErrors();
+
+    /**
+     * @return failures by the simple name of their exception, or the name of the result code of a command rejected by
+     * validation.
+     */
+    Map<String, Long> getErrorsByCause();
+
+    /**
+     * @return <code>&lt;COMMAND&gt;.p50</code>, <code>.p99</code>, <code>.p999</code> and <code>.max</code> per command.
+     */
+    Map<String, Long> getLatencyNanos();
+
+    long getPortfolioLookups();
+
+    long getPortfoliosCreated();
+
+    long getRecentBalanceHits();
+
+    long getCheckpointReplays();
+
+    long getReplayedMonths();
+
+    void reset();
+}
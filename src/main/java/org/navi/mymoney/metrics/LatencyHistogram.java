@@ -0,0 +1,108 @@
+package org.navi.mymoney.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of non-negative values, in the spirit of HdrHistogram.
+ * <p>
+ * Values below {@link #SUB_BUCKETS} get a bucket of their own; above that, every power of two is split into
+ * <code>SUB_BUCKETS / 2</code> buckets of equal width, so a bucket is never wider than 1/32 of the values it holds.
+ * The buckets for the whole <code>long</code> range are allocated up front: recording is an index computation and a
+ * few atomic increments, safe from any thread and free of allocation. The buckets are striped by thread, so threads
+ * recording the same values don't all contend on the same counter; reads add the stripes up.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_BITS = SUB_BUCKET_BITS - 1;
+
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+    private static final int STRIPES = 8;
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        long clamped = Math.max(0, value);
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        counts.incrementAndGet(stripe * BUCKETS + index(clamped));
+        total.increment();
+        sum.add(clamped);
+        if (clamped > max.get()) {
+            max.accumulateAndGet(clamped, Math::max);
+        }
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the highest value equivalent to the nearest-rank percentile, <code>0</code> if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100d * count));
+        long seen = 0;
+        for (int index = 0; index < BUCKETS; index++) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                seen += counts.get(stripe * BUCKETS + index);
+            }
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(index), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int index = 0; index < counts.length(); index++) {
+            counts.set(index, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - HALF_SUB_BUCKET_BITS;
+        return (exponent << HALF_SUB_BUCKET_BITS) + (int) (value >>> exponent);
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index >>> HALF_SUB_BUCKET_BITS) - 1;
+        long subBucket = (index & ((1 << HALF_SUB_BUCKET_BITS) - 1)) + (1 << HALF_SUB_BUCKET_BITS);
+        return subBucket << exponent;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index >>> HALF_SUB_BUCKET_BITS) - 1;
+        return lowestEquivalentValue(index) + (1L << exponent) - 1;
+    }
+}
@@ -0,0 +1,163 @@
+package org.navi.mymoney.metrics;
+
+import org.navi.mymoney.validation.ResultCode;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs the commands that failed, rate-limited and sampled per exception type or {@link ResultCode}, so a file full of
+ * bad lines costs a handful of log lines rather than a formatted message and a stack trace each.
+ * <p>
+ * Every cause is logged at most {@link #getPerSecond() perSecond} times a second, the next line logged for it tells how
+ * many were left out in between. The stack trace comes with the first occurrence of a cause and then with one
+ * occurrence in {@link #getTraceSampling() traceSampling}; the other lines only carry the message. Nothing is formatted
+ * for the errors left out, and the counts of {@link CommandMetrics} still see all of them.
+ */
+public final class SampledErrorLog {
+    public static final int DEFAULT_PER_SECOND = 10;
+    public static final int DEFAULT_TRACE_SAMPLING = 1000;
+
+    private static final long NOT_ADMITTED = -1;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final SampledErrorLog SHARED = new SampledErrorLog(DEFAULT_PER_SECOND, DEFAULT_TRACE_SAMPLING);
+
+    // Keyed by the exception class or the result code.
+    private final ConcurrentMap<Object, Cause> causes = new ConcurrentHashMap<>();
+    private volatile int perSecond;
+    private volatile int traceSampling;
+
+    public SampledErrorLog(int perSecond, int traceSampling) {
+        configure(perSecond, traceSampling);
+    }
+
+    public static SampledErrorLog shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param perSecond     lines a second per cause, at least 1.
+     * @param traceSampling one stack trace every that many occurrences of a cause after the first, <code>0</code> for
+     *                      the first one only.
+     */
+    public void configure(int perSecond, int traceSampling) {
+        if (perSecond < 1 || traceSampling < 0) {
+            throw new IllegalArgumentException("Invalid error log limits " + perSecond + "/s, 1 trace in " + traceSampling);
+        }
+        this.perSecond = perSecond;
+        this.traceSampling = traceSampling;
+    }
+
+    public int getPerSecond() {
+        return perSecond;
+    }
+
+    public int getTraceSampling() {
+        return traceSampling;
+    }
+
+    /**
+     * Logs at ERROR that <code>input</code> couldn't be processed, unless the limits of its cause are reached.
+     *
+     * @param input the command, only formatted if the line is logged.
+     * @return whether a line was logged.
+     */
+    public boolean error(Logger logger, Object input, Throwable error) {
+        if (!logger.isErrorEnabled()) {
+            return false;
+        }
+        Cause cause = causes.get(error.getClass());
+        if (cause == null) {
+            cause = causes.computeIfAbsent(error.getClass(), type -> new Cause(System.nanoTime()));
+        }
+        long admitted = cause.admit(perSecond, traceSampling);
+        if (admitted == NOT_ADMITTED) {
+            return false;
+        }
+        log(logger, input, error.getMessage(), admitted >>> 1, (admitted & 1) != 0 ? error : null);
+        return true;
+    }
+
+    /**
+     * Same as {@link #error(Logger, Object, Throwable)} for a command rejected by validation, which has no stack
+     * trace to log.
+     *
+     * @param code an error, not {@link ResultCode#OK}.
+     */
+    public boolean error(Logger logger, Object input, ResultCode code) {
+        if (!logger.isErrorEnabled()) {
+            return false;
+        }
+        Cause cause = causes.get(code);
+        if (cause == null) {
+            cause = causes.computeIfAbsent(code, type -> new Cause(System.nanoTime()));
+        }
+        long admitted = cause.admit(perSecond, traceSampling);
+        if (admitted == NOT_ADMITTED) {
+            return false;
+        }
+        log(logger, input, code, admitted >>> 1, null);
+        return true;
+    }
+
+    // Kept out of error(), which most errors leave early.
+    private static void log(Logger logger, Object input, Object message, long left, Throwable trace) {
+        if (left == 0) {
+            if (trace != null) {
+                logger.error("Error Occurred while processing {} {}", input, message, trace);
+            } else {
+                logger.error("Error Occurred while processing {} {}", input, message);
+            }
+        } else if (trace != null) {
+            logger.error("Error Occurred while processing {} {} ({} similar errors not logged)",
+                    input, message, left, trace);
+        } else {
+            logger.error("Error Occurred while processing {} {} ({} similar errors not logged)",
+                    input, message, left);
+        }
+    }
+
+    /**
+     * Forgets the occurrences seen so far.
+     */
+    public void reset() {
+        causes.clear();
+    }
+
+    private static final class Cause {
+        private long occurrences;
+        private long windowStart;
+        private int logged;
+        private long notLogged;
+
+        private Cause(long windowStart) {
+            this.windowStart = windowStart;
+        }
+
+        /**
+         * Counts an occurrence.
+         *
+         * @return {@link #NOT_ADMITTED} if it is over <code>perSecond</code>, otherwise the occurrences left out
+         * since the last one logged, shifted left by one, the low bit set if it comes with its stack trace.
+         */
+        private synchronized long admit(int perSecond, int traceSampling) {
+            occurrences++;
+            long now = System.nanoTime();
+            if (now - windowStart >= WINDOW_NANOS) {
+                windowStart = now;
+                logged = 0;
+            }
+            if (logged >= perSecond) {
+                notLogged++;
+                return NOT_ADMITTED;
+            }
+            logged++;
+            long left = notLogged;
+            notLogged = 0;
+            boolean withTrace = occurrences == 1 || (traceSampling > 0 && occurrences % traceSampling == 0);
+            return left << 1 | (withTrace ? 1 : 0);
+        }
+    }
+}
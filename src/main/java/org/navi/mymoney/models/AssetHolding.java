@@ -6,7 +6,11 @@ import lombok.Setter;
 import lombok.ToString;
 import org.navi.mymoney.constants.AssetClass;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.Objects;
 
 @AllArgsConstructor
@@ -18,6 +22,20 @@ public class AssetHolding implements Cloneable {
     @Setter
     private BigDecimal amountInvested;
 
+    public static void writeAmount(DataOutput output, BigDecimal amount) throws IOException {
+        byte[] unscaled = amount.unscaledValue().toByteArray();
+        output.writeInt(amount.scale());
+        output.writeInt(unscaled.length);
+        output.write(unscaled);
+    }
+
+    public static BigDecimal readAmount(DataInput input) throws IOException {
+        int scale = input.readInt();
+        byte[] unscaled = new byte[input.readInt()];
+        input.readFully(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
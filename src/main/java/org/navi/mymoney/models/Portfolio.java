@@ -1,7 +1,9 @@
 package org.navi.mymoney.models;
 
-import lombok.AllArgsConstructor;
-import lombok.Getter;
+import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.dao.AmountColumns;
+import org.navi.mymoney.dao.ColumnarStateStore;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
@@ -9,17 +11,92 @@ import org.springframework.stereotype.Component;
 import java.math.BigDecimal;
 import java.util.*;
 
-@AllArgsConstructor
-@Getter
-@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+/**
+ * The holdings of a portfolio, a view on its row of a {@link ColumnarStateStore} or its record of an
+ * {@link org.navi.mymoney.dao.OffHeapStateStore}.
+ */
+@Scope(value = ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 @Component
 public class Portfolio {
-    private Set<AssetHolding> holdings;
+    private final AssetUniverse universe;
+    private final AmountColumns amounts;
+    private final int firstHoldingCell;
+
+    public Portfolio() {
+        this(ColumnarStateStore.single(), 0);
+    }
+
+    public Portfolio(Set<AssetHolding> holdings) {
+        this();
+        holdings.forEach(this::addHolding);
+    }
+
+    public Portfolio(ColumnarStateStore store, int slot) {
+        this(store.getAssetUniverse(), store.getAmounts(), store.cell(slot, ColumnarStateStore.HOLDINGS, 0));
+    }
+
+    /**
+     * A view on the holdings in consecutive cells of any columns, such as those of a
+     * {@link org.navi.mymoney.dao.StateRecord}.
+     */
+    public Portfolio(AssetUniverse universe, AmountColumns amounts, int firstHoldingCell) {
+        this.universe = universe;
+        this.amounts = amounts;
+        this.firstHoldingCell = firstHoldingCell;
+    }
+
+    public AssetUniverse getAssetUniverse() {
+        return universe;
+    }
+
+    public AmountColumns getAmounts() {
+        return amounts;
+    }
+
+    public int holdingCell(int assetClass) {
+        return firstHoldingCell + assetClass;
+    }
+
+    public boolean isAllocated() {
+        for (int asset = 0; asset < universe.size(); asset++) {
+            if (amounts.isPresent(holdingCell(asset))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a copy of the current holdings of the assets that are also asset classes.
+     */
+    public Set<AssetHolding> getHoldings() {
+        Set<AssetHolding> holdings = new LinkedHashSet<>();
+        for (AssetClass assetClass : AssetClass.values()) {
+            int asset = universe.id(assetClass.name());
+            BigDecimal amount = asset < 0 ? null : amounts.get(holdingCell(asset));
+            if (amount != null) {
+                holdings.add(new AssetHolding(assetClass, amount));
+            }
+        }
+        return holdings;
+    }
+
     public BigDecimal getTotalInvestment() {
-        return holdings.stream().map(AssetHolding::getAmountInvested).reduce(BigDecimal::add).orElse(BigDecimal.ZERO);
+        BigDecimal total = BigDecimal.ZERO;
+        for (int asset = 0; asset < universe.size(); asset++) {
+            BigDecimal amount = amounts.get(holdingCell(asset));
+            if (amount != null) {
+                total = total.add(amount);
+            }
+        }
+        return total;
     }
 
     public void addHolding(AssetHolding holding) {
-        this.holdings.add(holding);
+        int asset = universe.id(holding.getAssetClass().name());
+        if (asset < 0) {
+            throw new IllegalArgumentException(holding.getAssetClass() + " is not part of " + universe);
+        }
+        amounts.set(holdingCell(asset), holding.getAmountInvested());
     }
 }
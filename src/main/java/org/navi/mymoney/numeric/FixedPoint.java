@@ -0,0 +1,115 @@
+package org.navi.mymoney.numeric;
+
+import java.math.BigDecimal;
+
+/**
+ * Allocation-free kernels for {@link NumericEngine#FIXED_POINT}.
+ * <p>
+ * An amount is an unscaled <code>long</code> and a scale, <code>amount = unscaled / 10^scale</code>. The kernels keep
+ * the scale the equivalent <code>BigDecimal</code> operation would give, which is what makes the results identical:
+ * <code>a.multiply(rate).divide(100, FLOOR)</code> floors at <code>a.scale() + rate.scale()</code>, and
+ * <code>BigDecimal.valueOf(double)</code> gives a rate of <code>4.0</code> a scale of 1 but <code>4.25</code> a scale
+ * of 2. Rates are therefore taken as basis points and turned into the matching unscaled value and scale with
+ * {@link #rateUnscaled(long)} and {@link #rateScale(long)}.
+ * <p>
+ * Every kernel throws {@link ArithmeticException} when the result no longer fits in a <code>long</code>, callers are
+ * expected to carry on with <code>BigDecimal</code> from there.
+ */
+public final class FixedPoint {
+    public static final long NOT_REPRESENTABLE = Long.MIN_VALUE;
+
+    // 1,000,000%: beyond this Double.toString switches to the exponent notation and the scale no longer follows.
+    private static final long MAX_BASIS_POINTS = 100_000_000L;
+    private static final long HUNDRED = 100L;
+    private static final long[] POWERS_OF_TEN = new long[19];
+    private static final double[] DOUBLE_POWERS_OF_TEN = new double[23];
+    private static final long MAX_EXACT_DOUBLE = 1L << 52;
+
+    static {
+        long power = 1L;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10L;
+        }
+        double doublePower = 1d;
+        for (int i = 0; i < DOUBLE_POWERS_OF_TEN.length; i++) {
+            DOUBLE_POWERS_OF_TEN[i] = doublePower;
+            doublePower *= 10d;
+        }
+    }
+
+    private FixedPoint() {
+    }
+
+    /**
+     * @param rate percentage, as passed to <code>CHANGE</code>.
+     * @return the rate in basis points, {@link #NOT_REPRESENTABLE} if it is not a whole number of them.
+     */
+    public static long basisPoints(double rate) {
+        if (Double.isNaN(rate) || Math.abs(rate) > MAX_BASIS_POINTS / HUNDRED) {
+            return NOT_REPRESENTABLE;
+        }
+        long basisPoints = Math.round(rate * HUNDRED);
+        return basisPoints / (double) HUNDRED == rate ? basisPoints : NOT_REPRESENTABLE;
+    }
+
+    /**
+     * @return scale of <code>BigDecimal.valueOf(basisPoints / 100d)</code>.
+     */
+    public static int rateScale(long basisPoints) {
+        return basisPoints % 10 == 0 ? 1 : 2;
+    }
+
+    /**
+     * @return unscaled value of <code>BigDecimal.valueOf(basisPoints / 100d)</code>.
+     */
+    public static long rateUnscaled(long basisPoints) {
+        return basisPoints % 10 == 0 ? basisPoints / 10 : basisPoints;
+    }
+
+    /**
+     * Re-expresses <code>unscaled</code> at the larger <code>newScale</code>.
+     */
+    public static long rescale(long unscaled, int scale, int newScale) {
+        int shift = newScale - scale;
+        if (shift == 0) {
+            return unscaled;
+        }
+        if (shift < 0 || shift >= POWERS_OF_TEN.length) {
+            throw new ArithmeticException("Can't rescale from " + scale + " to " + newScale);
+        }
+        return Math.multiplyExact(unscaled, POWERS_OF_TEN[shift]);
+    }
+
+    /**
+     * Same as <code>a.add(b)</code>, the result has the scale <code>max(aScale, bScale)</code>.
+     */
+    public static long add(long a, int aScale, long b, int bScale) {
+        int scale = Math.max(aScale, bScale);
+        return Math.addExact(rescale(a, aScale, scale), rescale(b, bScale, scale));
+    }
+
+    /**
+     * Same as <code>a.multiply(b).divide(BigDecimal.valueOf(100), RoundingMode.FLOOR)</code>, the result has the scale
+     * <code>aScale + bScale</code>.
+     */
+    public static long percentOf(long a, long b) {
+        return Math.floorDiv(Math.multiplyExact(a, b), HUNDRED);
+    }
+
+    /**
+     * Same as <code>Double.valueOf(Math.floor(amount.doubleValue())).intValue()</code>, including the rounding done by
+     * <code>doubleValue()</code>.
+     */
+    public static int floorToInt(long unscaled, int scale) {
+        double value;
+        if (scale == 0) {
+            value = unscaled;
+        } else if (Math.abs(unscaled) < MAX_EXACT_DOUBLE && scale > 0 && scale < DOUBLE_POWERS_OF_TEN.length) {
+            value = unscaled / DOUBLE_POWERS_OF_TEN[scale];
+        } else {
+            value = BigDecimal.valueOf(unscaled, scale).doubleValue();
+        }
+        return (int) Math.floor(value);
+    }
+}
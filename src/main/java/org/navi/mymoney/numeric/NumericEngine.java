@@ -0,0 +1,14 @@
+package org.navi.mymoney.numeric;
+
+/**
+ * Arithmetic used for the monthly market change and re-balance.
+ * <ul>
+ *     <li>{@link #BIG_DECIMAL} - amounts are {@link java.math.BigDecimal}s.</li>
+ *     <li>{@link #FIXED_POINT} - amounts are unscaled <code>long</code>s plus a scale and rates are basis points, see
+ *     {@link FixedPoint}. Results are identical to {@link #BIG_DECIMAL}.</li>
+ * </ul>
+ */
+public enum NumericEngine {
+    BIG_DECIMAL,
+    FIXED_POINT
+}
@@ -0,0 +1,157 @@
+package org.navi.mymoney.output;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Command outputs encoded as ASCII straight into one reused byte buffer, written to a channel only when the buffer is
+ * full or flushed. Balances are written digit by digit with {@link #writeInt(int)}, so printing them neither
+ * formats a <code>String</code> nor makes a system call per line.
+ * <p>
+ * A full buffer only writes its complete lines and carries the line being written over, so anything else writing to
+ * the same stream, a log appender on stdout, can't end up in the middle of a line. A line longer than the buffer grows
+ * it.
+ * <p>
+ * Not thread-safe. Nothing reaches the channel before {@link #flush()}, which callers owe once they are done.
+ */
+public final class ChannelOutput implements Flushable {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    // "-2147483648"
+    private static final int MAX_INT_LENGTH = 11;
+
+    private final WritableByteChannel channel;
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private int position;
+    // End of the last complete line.
+    private int lineEnd;
+
+    public ChannelOutput(WritableByteChannel channel) {
+        this(channel, DEFAULT_CAPACITY);
+    }
+
+    public ChannelOutput(WritableByteChannel channel, int capacity) {
+        if (capacity < MAX_INT_LENGTH + LINE_SEPARATOR.length) {
+            throw new IllegalArgumentException("The output buffer can't be smaller than a number and a line, got " + capacity);
+        }
+        this.channel = channel;
+        this.bytes = new byte[capacity];
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * @return an output to {@link System#out} as it is when called, so a redirected stdout is honoured.
+     */
+    public static ChannelOutput stdout() {
+        return new ChannelOutput(Channels.newChannel(System.out));
+    }
+
+    public ChannelOutput writeInt(int value) throws IOException {
+        ensureCapacity(MAX_INT_LENGTH);
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                return write("-2147483648");
+            }
+            bytes[position++] = '-';
+            value = -value;
+        }
+        int end = position + digits(value);
+        for (int i = end - 1; i >= position; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position = end;
+        return this;
+    }
+
+    public ChannelOutput write(char c) throws IOException {
+        ensureCapacity(1);
+        bytes[position++] = ascii(c);
+        return this;
+    }
+
+    /**
+     * Writes every character of the text, those outside of ASCII as <code>?</code>.
+     */
+    public ChannelOutput write(CharSequence text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; ) {
+            ensureCapacity(1);
+            int end = Math.min(length, i + bytes.length - position);
+            while (i < end) {
+                bytes[position++] = ascii(text.charAt(i++));
+            }
+        }
+        return this;
+    }
+
+    public ChannelOutput newLine() throws IOException {
+        ensureCapacity(LINE_SEPARATOR.length);
+        for (byte b : LINE_SEPARATOR) {
+            bytes[position++] = b;
+        }
+        lineEnd = position;
+        return this;
+    }
+
+    public ChannelOutput writeLine(CharSequence line) throws IOException {
+        return write(line).newLine();
+    }
+
+    /**
+     * @return bytes written since the last flush.
+     */
+    public int size() {
+        return position;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeUpTo(position);
+        position = 0;
+        lineEnd = 0;
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (bytes.length - position >= length) {
+            return;
+        }
+        if (lineEnd > 0) {
+            writeUpTo(lineEnd);
+            System.arraycopy(bytes, lineEnd, bytes, 0, position - lineEnd);
+            position -= lineEnd;
+            lineEnd = 0;
+        }
+        if (bytes.length - position < length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + length));
+            buffer = ByteBuffer.wrap(bytes);
+        }
+    }
+
+    private void writeUpTo(int end) throws IOException {
+        buffer.clear();
+        buffer.limit(end);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte ascii(char c) {
+        return c < 0x80 ? (byte) c : (byte) '?';
+    }
+
+    private static int digits(int value) {
+        int digits = 1;
+        for (int bound = 10; digits < 10 && value >= bound; bound *= 10) {
+            digits++;
+        }
+        return digits;
+    }
+}
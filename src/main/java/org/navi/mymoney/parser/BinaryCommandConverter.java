@@ -0,0 +1,83 @@
+package org.navi.mymoney.parser;
+
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.constants.Command;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts text command files into the binary format of {@link BinaryCommandWriter}.
+ * <p>
+ * Lines are decoded by the {@link MappedCommandReader}. The few it hands back as fallback lines go through the
+ * {@link CommandValidator}: a line it rejects is rejected by the text path for its syntax alone and is kept as a
+ * rejected record; a line it accepts is valid but has no binary form (an exponent, a number beyond a
+ * <code>long</code>, ...) and is kept as text, for the replay to run it through the string based parser.
+ */
+public final class BinaryCommandConverter {
+    private BinaryCommandConverter() {
+    }
+
+    /**
+     * @return number of commands written.
+     * @throws IOException if a file can't be read or written.
+     */
+    public static long convert(Path textInput, Path binaryOutput) throws IOException {
+        CommandValidator syntaxCheck = new CommandValidator(AssetUniverse.current().size());
+        ParsedCommand command = new ParsedCommand();
+        ParsedCommand validated = new ParsedCommand();
+        try (MappedCommandReader reader = new MappedCommandReader(textInput);
+             BinaryCommandWriter writer = new BinaryCommandWriter(binaryOutput)) {
+            while (reader.next(command)) {
+                if (writer.hasBinaryForm(command)) {
+                    writer.write(command);
+                    continue;
+                }
+                String line = command.getCommand() == null ? command.getFallbackLine() : toText(command);
+                if (syntaxCheck.validate(line, command.getLineNumber(), validated).isError()) {
+                    writer.writeRejected(command.getLineNumber());
+                } else if (writer.hasBinaryForm(validated)) {
+                    writer.write(validated);
+                } else {
+                    writer.writeFallback(command.getLineNumber(), line);
+                }
+            }
+            return writer.getWritten();
+        }
+    }
+
+    /**
+     * The text form of a decoded command that doesn't fit a record (more decimals than a scale byte holds).
+     */
+    private static String toText(ParsedCommand command) {
+        String suffix = command.getCommand() == Command.CHANGE ? "%" : "";
+        StringBuilder line = new StringBuilder(command.getCommand().name());
+        for (int i = 0; i < command.getValueCount(); i++) {
+            line.append(' ');
+            if (command.isNegative(i) && command.getUnscaled(i) == 0) {
+                line.append('-');
+            }
+            line.append(command.getAmount(i).toPlainString()).append(suffix);
+        }
+        if (command.getMonth() != null) {
+            line.append(' ').append(command.getMonth().name());
+        }
+        if (command.hasYear()) {
+            line.append(' ').append(command.getYear());
+        }
+        return line.toString();
+    }
+
+    /**
+     * <code>BinaryCommandConverter &lt;text input&gt; &lt;binary output&gt;</code>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Please specify the text input file and the binary output file");
+            return;
+        }
+        long records = convert(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Converted " + records + " commands to " + args[1]);
+    }
+}
@@ -0,0 +1,54 @@
+package org.navi.mymoney.parser;
+
+/**
+ * Layout of the fixed-width binary command files written by {@link BinaryCommandWriter}.
+ * <p>
+ * A file is a {@link #HEADER_SIZE} byte header followed by records of {@link #recordSize(int)} bytes, one per command:
+ * <pre>
+ * header: [int magic][short version][short record size][byte values per record][7 bytes padding]
+ * record: [byte command][byte month][byte flags][byte value count][int year][int source line]
+ *         [byte scale per value, high bit set for a negative sign][padding to 8][long unscaled per value]
+ * </pre>
+ * Every field sits at a fixed offset, so a record is decoded with a handful of absolute reads. A valid line with no
+ * such form (an exponent, a number beyond a <code>long</code>, ...) is a {@link #FALLBACK} record holding the UTF-8
+ * length of the line in its year field, followed by the bytes of the line padded to whole records.
+ */
+final class BinaryCommandFormat {
+    static final int MAGIC = 0x4D4D4342;
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 16;
+
+    // Header offsets.
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_RECORD_SIZE = 6;
+    static final int HEADER_VALUES = 8;
+
+    // Record offsets.
+    static final int COMMAND = 0;
+    static final int MONTH = 1;
+    static final int FLAGS = 2;
+    static final int VALUE_COUNT = 3;
+    static final int YEAR = 4;
+    static final int LINE = 8;
+    static final int SCALES = 12;
+
+    // A line the text parser rejects for its syntax alone, kept so replays report it at the same place.
+    static final byte REJECTED = -1;
+    // A valid line kept as text, replayed through the string based parser.
+    static final byte FALLBACK = -2;
+    static final byte NO_MONTH = -1;
+    static final int FLAG_YEAR = 1;
+    static final int NEGATIVE_SCALE = 0x80;
+    static final int MAX_SCALE = 0x7F;
+
+    private BinaryCommandFormat() {
+    }
+
+    static int valuesOffset(int valuesPerRecord) {
+        return (SCALES + valuesPerRecord + 7) & ~7;
+    }
+
+    static int recordSize(int valuesPerRecord) {
+        return valuesOffset(valuesPerRecord) + Long.BYTES * valuesPerRecord;
+    }
+}
@@ -0,0 +1,142 @@
+package org.navi.mymoney.parser;
+
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.constants.Command;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Month;
+
+import static org.navi.mymoney.parser.BinaryCommandFormat.*;
+
+/**
+ * Replays a file written by {@link BinaryCommandWriter}.
+ * <p>
+ * The file is mapped in windows holding a whole number of records, and every field is read at its fixed offset
+ * straight into a caller supplied {@link ParsedCommand}: no tokenizing, no strings, no per-record objects. A record of
+ * a line that was rejected when converted comes back with a <code>null</code> {@link ParsedCommand#getCommand()} and
+ * no fallback line; a valid line stored as text comes back as its fallback line.
+ */
+public final class BinaryCommandReader implements CommandReader {
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final Command[] COMMANDS = Command.values();
+    private static final Month[] MONTHS = Month.values();
+
+    private final FileChannel channel;
+    private final long size;
+    private final int recordSize;
+    private final int valuesOffset;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+
+    public BinaryCommandReader(Path input) throws IOException {
+        this(input, DEFAULT_WINDOW_SIZE);
+    }
+
+    public BinaryCommandReader(Path input, int windowSize) throws IOException {
+        this.channel = FileChannel.open(input, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getShort(HEADER_VERSION) != VERSION) {
+                throw new IOException(input + " is not a binary command file");
+            }
+            int valuesPerRecord = header.get(HEADER_VALUES);
+            if (valuesPerRecord != AssetUniverse.current().size()) {
+                throw new IOException(input + " has " + valuesPerRecord + " values per record, expected "
+                        + AssetUniverse.current().size());
+            }
+            this.recordSize = header.getShort(HEADER_RECORD_SIZE);
+            this.valuesOffset = valuesOffset(valuesPerRecord);
+            if (recordSize != recordSize(valuesPerRecord) || (size - HEADER_SIZE) % recordSize != 0) {
+                throw new IOException(input + " is truncated or has an unexpected record size");
+            }
+            this.windowSize = Math.max(1, windowSize / recordSize) * recordSize;
+            map(HEADER_SIZE);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes the next record into <code>command</code>.
+     *
+     * @return <code>false</code> once the end of the file is reached.
+     */
+    @Override
+    public boolean next(ParsedCommand command) throws IOException {
+        if (position == window.limit()) {
+            if (windowStart + position >= size) {
+                return false;
+            }
+            map(windowStart + position);
+        }
+        int record = position;
+        position += recordSize;
+        command.reset(Integer.toUnsignedLong(window.getInt(record + LINE)));
+        byte type = window.get(record + COMMAND);
+        if (type == REJECTED) {
+            command.setFallbackLine(null);
+            return true;
+        }
+        if (type == FALLBACK) {
+            command.setFallbackLine(readText(window.getInt(record + YEAR)));
+            return true;
+        }
+        byte month = window.get(record + MONTH);
+        if (month != NO_MONTH) {
+            command.setMonth(MONTHS[month]);
+        }
+        if ((window.get(record + FLAGS) & FLAG_YEAR) != 0) {
+            command.setYear(window.getInt(record + YEAR));
+        }
+        int values = window.get(record + VALUE_COUNT);
+        for (int i = 0; i < values; i++) {
+            int scale = window.get(record + SCALES + i);
+            command.addValue(window.getLong(record + valuesOffset + i * Long.BYTES), scale & MAX_SCALE,
+                    (scale & NEGATIVE_SCALE) != 0);
+        }
+        command.setCommand(COMMANDS[type]);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private String readText(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        for (int copied = 0; copied < length; copied += recordSize) {
+            if (position == window.limit()) {
+                if (windowStart + position >= size) {
+                    throw new IOException("Fallback line is truncated");
+                }
+                map(windowStart + position);
+            }
+            for (int i = 0; i < recordSize && copied + i < length; i++) {
+                bytes[copied + i] = window.get(position + i);
+            }
+            position += recordSize;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        position = 0;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+    }
+}
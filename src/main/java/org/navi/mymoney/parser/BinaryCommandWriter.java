@@ -0,0 +1,146 @@
+package org.navi.mymoney.parser;
+
+import org.navi.mymoney.constants.AssetUniverse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.navi.mymoney.parser.BinaryCommandFormat.*;
+
+/**
+ * Writes commands in the fixed-width format described by {@link BinaryCommandFormat}.
+ */
+public final class BinaryCommandWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final int valuesPerRecord = AssetUniverse.current().size();
+    private final int recordSize = recordSize(valuesPerRecord);
+    private final int valuesOffset = valuesOffset(valuesPerRecord);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE / recordSize * recordSize);
+    private long written;
+
+    public BinaryCommandWriter(Path output) throws IOException {
+        this.channel = FileChannel.open(output,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) recordSize).put((byte) valuesPerRecord);
+        header.clear();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * @return whether <code>command</code> is decoded and fits a record; if not, it goes in as a
+     * {@link #writeFallback(long, String) fallback line}.
+     */
+    public boolean hasBinaryForm(ParsedCommand command) {
+        if (command.getCommand() == null || command.getValueCount() > valuesPerRecord) {
+            return false;
+        }
+        for (int i = 0; i < command.getValueCount(); i++) {
+            if (command.getScale(i) > MAX_SCALE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends a decoded command.
+     *
+     * @throws IllegalArgumentException if the command is a fallback line or doesn't fit the format.
+     */
+    public void write(ParsedCommand command) throws IOException {
+        if (command.getCommand() == null) {
+            throw new IllegalArgumentException("Line " + command.getLineNumber() + " is not decoded: " + command.getFallbackLine());
+        }
+        if (command.getValueCount() > valuesPerRecord) {
+            throw new IllegalArgumentException("Line " + command.getLineNumber() + " has more than " + valuesPerRecord + " values");
+        }
+        int record = startRecord();
+        written++;
+        buffer.put(record + COMMAND, (byte) command.getCommand().ordinal());
+        buffer.put(record + MONTH, command.getMonth() == null ? NO_MONTH : (byte) command.getMonth().ordinal());
+        buffer.put(record + FLAGS, (byte) (command.hasYear() ? FLAG_YEAR : 0));
+        buffer.put(record + VALUE_COUNT, (byte) command.getValueCount());
+        buffer.putInt(record + YEAR, command.hasYear() ? command.getYear() : 0);
+        buffer.putInt(record + LINE, (int) command.getLineNumber());
+        for (int i = 0; i < command.getValueCount(); i++) {
+            if (command.getScale(i) > MAX_SCALE) {
+                throw new IllegalArgumentException("Line " + command.getLineNumber() + " has more than " + MAX_SCALE + " decimals");
+            }
+            buffer.put(record + SCALES + i, (byte) (command.getScale(i) | (command.isNegative(i) ? NEGATIVE_SCALE : 0)));
+            buffer.putLong(record + valuesOffset + i * Long.BYTES, command.getUnscaled(i));
+        }
+    }
+
+    /**
+     * Appends a line the text parser rejects, so the replay can report it.
+     */
+    public void writeRejected(long lineNumber) throws IOException {
+        int record = startRecord();
+        written++;
+        buffer.put(record + COMMAND, REJECTED);
+        buffer.putInt(record + LINE, (int) lineNumber);
+    }
+
+    /**
+     * Appends a valid line as text, for the replay to run it through the string based parser.
+     */
+    public void writeFallback(long lineNumber, String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        int record = startRecord();
+        written++;
+        buffer.put(record + COMMAND, FALLBACK);
+        buffer.putInt(record + YEAR, bytes.length);
+        buffer.putInt(record + LINE, (int) lineNumber);
+        for (int offset = 0; offset < bytes.length; offset += recordSize) {
+            int continuation = startRecord();
+            for (int i = 0; i < recordSize && offset + i < bytes.length; i++) {
+                buffer.put(continuation + i, bytes[offset + i]);
+            }
+        }
+    }
+
+    /**
+     * @return number of commands written, rejected and fallback lines included.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private int startRecord() throws IOException {
+        if (buffer.remaining() < recordSize) {
+            flush();
+        }
+        int record = buffer.position();
+        for (int i = 0; i < recordSize; i++) {
+            buffer.put((byte) 0);
+        }
+        return record;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
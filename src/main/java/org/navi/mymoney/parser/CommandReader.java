@@ -0,0 +1,16 @@
+package org.navi.mymoney.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of the commands of a file run, decoded one at a time into a caller supplied {@link ParsedCommand}.
+ */
+public interface CommandReader extends Closeable {
+    /**
+     * Decodes the next command into <code>command</code>, with the number of its line in the input.
+     *
+     * @return <code>false</code> once the end of the input is reached.
+     */
+    boolean next(ParsedCommand command) throws IOException;
+}
@@ -0,0 +1,332 @@
+package org.navi.mymoney.parser;
+
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.validation.ResultCode;
+
+import java.time.Month;
+import java.time.Year;
+import java.util.Arrays;
+
+/**
+ * Checks a command line against the grammar of the string based parser and decodes it into a {@link ParsedCommand},
+ * telling what is wrong with a line through a {@link ResultCode} instead of an exception.
+ * <p>
+ * A line is accepted exactly when <code>split(" ")</code>, <code>Command.valueOf</code>, <code>new BigDecimal</code>,
+ * <code>Double.parseDouble</code>, <code>Month.valueOf</code> and <code>Integer.parseInt</code> would accept it, with
+ * the same arity rules. Numbers that are valid but can't be held exactly by a {@link ParsedCommand} (exponents, more
+ * digits than a <code>long</code>, <code>NaN</code>, hexadecimal rates, non-ASCII digits, ...) leave the command
+ * undecoded with the line as its {@link ParsedCommand#getFallbackLine() fallback line}, for the string based parser.
+ * <p>
+ * Not thread-safe, the token boundaries are kept between calls.
+ */
+public final class CommandValidator {
+    private static final Command[] COMMANDS = Command.values();
+    private static final Month[] MONTHS = Month.values();
+
+    private static final int INVALID = 0;
+    private static final int DECODED = 1;
+    // Valid, but only the string based parser can decode it.
+    private static final int UNDECODED = 2;
+
+    private final int totalAssetClasses;
+
+    private int[] tokenStarts = new int[ParsedCommand.MAX_VALUES + 3];
+    private int[] tokenEnds = new int[ParsedCommand.MAX_VALUES + 3];
+    private String line;
+    private boolean decoded;
+
+    public CommandValidator(int totalAssetClasses) {
+        this.totalAssetClasses = totalAssetClasses;
+    }
+
+    /**
+     * @param lineNumber 1-based, <code>0</code> if unknown.
+     * @param command    reset and filled. On an error its command is still set if the first token was recognised.
+     * @return {@link ResultCode#OK} if the line is valid: the command is decoded, or <code>null</code> with the line as
+     * fallback line. Otherwise the first problem found, in the order the string based parser would run into it.
+     */
+    public ResultCode validate(String line, long lineNumber, ParsedCommand command) {
+        this.line = line;
+        this.decoded = true;
+        command.reset(lineNumber);
+        ResultCode result = parseLine(command);
+        if (result == ResultCode.OK && !decoded) {
+            command.setFallbackLine(line);
+        }
+        return result;
+    }
+
+    private ResultCode parseLine(ParsedCommand command) {
+        int tokens = tokenize();
+        Command type = tokens == 0 ? null : match(COMMANDS, 0);
+        if (type == null) {
+            return ResultCode.UNKNOWN_COMMAND;
+        }
+        command.setCommand(type);
+        boolean withYear;
+        switch (type) {
+            case ALLOCATE:
+            case SIP:
+                if (tokens != totalAssetClasses + 1) {
+                    return ResultCode.WRONG_ARITY;
+                }
+                return parseNumbers(command, false);
+            case CHANGE:
+                withYear = tokens == totalAssetClasses + 3;
+                if (!withYear && tokens != totalAssetClasses + 2) {
+                    return ResultCode.WRONG_ARITY;
+                }
+                ResultCode rates = parseNumbers(command, true);
+                if (rates != ResultCode.OK) {
+                    return rates;
+                }
+                return parseMonthAndYear(command, totalAssetClasses + 1, withYear);
+            case BALANCE:
+                withYear = tokens == 3;
+                if (!withYear && tokens != 2) {
+                    return ResultCode.WRONG_ARITY;
+                }
+                return parseMonthAndYear(command, 1, withYear);
+            default:
+                // REBALANCE ignores whatever follows it.
+                return ResultCode.OK;
+        }
+    }
+
+    /**
+     * Same tokens as <code>line.split(" ")</code>: empty tokens between spaces count, trailing ones don't.
+     */
+    private int tokenize() {
+        int tokens = 0;
+        int start = 0;
+        int length = line.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || line.charAt(i) == ' ') {
+                if (tokens == tokenStarts.length) {
+                    tokenStarts = Arrays.copyOf(tokenStarts, tokens * 2);
+                    tokenEnds = Arrays.copyOf(tokenEnds, tokens * 2);
+                }
+                tokenStarts[tokens] = start;
+                tokenEnds[tokens] = i;
+                tokens++;
+                start = i + 1;
+            }
+        }
+        while (tokens > 0 && tokenStarts[tokens - 1] == tokenEnds[tokens - 1]) {
+            tokens--;
+        }
+        return tokens;
+    }
+
+    private <T extends Enum<T>> T match(T[] candidates, int token) {
+        int start = tokenStarts[token];
+        int length = tokenEnds[token] - start;
+        for (T candidate : candidates) {
+            String name = candidate.name();
+            if (name.length() == length && line.regionMatches(start, name, 0, length)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private ResultCode parseNumbers(ParsedCommand command, boolean rates) {
+        for (int token = 1; token <= totalAssetClasses; token++) {
+            int number = rates ? parseRate(command, token) : parseAmount(command, token);
+            if (number == INVALID) {
+                return rates ? ResultCode.INVALID_RATE : ResultCode.INVALID_AMOUNT;
+            }
+            decoded &= number == DECODED;
+        }
+        return ResultCode.OK;
+    }
+
+    private ResultCode parseMonthAndYear(ParsedCommand command, int token, boolean withYear) {
+        Month month = match(MONTHS, token);
+        if (month == null) {
+            return ResultCode.INVALID_MONTH;
+        }
+        command.setMonth(month);
+        if (!withYear) {
+            return ResultCode.OK;
+        }
+        return parseYear(command, token + 1);
+    }
+
+    /**
+     * <code>new BigDecimal(token)</code>: <code>[+-]?(digits[.digits?]|.digits)([eE][+-]?digits)?</code>.
+     */
+    private int parseAmount(ParsedCommand command, int token) {
+        return parseDecimal(command, tokenStarts[token], tokenEnds[token], false);
+    }
+
+    /**
+     * <code>Double.parseDouble(token.replace("%", ""))</code>: percent signs dropped wherever they are, surrounding
+     * control characters trimmed, a trailing <code>f</code> or <code>d</code> allowed, and so are <code>NaN</code>,
+     * <code>Infinity</code> and hexadecimal numbers.
+     */
+    private int parseRate(ParsedCommand command, int token) {
+        int start = tokenStarts[token];
+        int end = tokenEnds[token];
+        int percent = line.indexOf('%', start);
+        if (percent < 0 || percent >= end) {
+            return parseDecimal(command, start, end, true);
+        }
+        // Only a trailing percent sign is common, anything else is checked on a copy without them.
+        if (percent == end - 1) {
+            return parseDecimal(command, start, end - 1, true);
+        }
+        String validated = line;
+        line = line.substring(start, end).replace("%", "");
+        try {
+            return parseDecimal(command, 0, line.length(), true);
+        } finally {
+            line = validated;
+        }
+    }
+
+    private int parseDecimal(ParsedCommand command, int start, int end, boolean rate) {
+        if (rate) {
+            while (start < end && line.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && line.charAt(end - 1) <= ' ') {
+                end--;
+            }
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line.charAt(i) == '+' || line.charAt(i) == '-')) {
+            negative = line.charAt(i) == '-';
+            i++;
+        }
+        long unscaled = 0;
+        int scale = -1;
+        int digits = 0;
+        boolean fits = true;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+                if (unscaled > (Long.MAX_VALUE - 9) / 10) {
+                    fits = false;
+                }
+                unscaled = unscaled * 10 + (c - '0');
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0) {
+            scale = Math.max(scale, 0);
+            if (fits && (!rate || ParsedCommand.isExactDouble(unscaled, scale))) {
+                command.addValue(negative ? -unscaled : unscaled, scale, negative);
+                return DECODED;
+            }
+            return UNDECODED;
+        }
+        return isExoticDecimal(start, end, rate) ? UNDECODED : INVALID;
+    }
+
+    /**
+     * @return whether the string based parser could accept the number the fast path above turned down.
+     */
+    private boolean isExoticDecimal(int start, int end, boolean rate) {
+        int i = start;
+        if (i < end && (line.charAt(i) == '+' || line.charAt(i) == '-')) {
+            i++;
+        }
+        if (rate && (line.startsWith("NaN", i) || line.startsWith("Infinity", i))) {
+            return i + (line.charAt(i) == 'N' ? 3 : 8) == end;
+        }
+        // Hexadecimal rates must have a binary exponent: 0x1.8p3
+        boolean hex = rate && i + 1 < end && line.charAt(i) == '0' && (line.charAt(i + 1) == 'x' || line.charAt(i + 1) == 'X');
+        if (hex) {
+            i += 2;
+        }
+        int mantissa = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (isDigit(c, hex, rate)) {
+                mantissa++;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (mantissa == 0) {
+            return false;
+        }
+        char exponentMark = i < end ? Character.toLowerCase(line.charAt(i)) : 0;
+        if (exponentMark == (hex ? 'p' : 'e')) {
+            i++;
+            if (i < end && (line.charAt(i) == '+' || line.charAt(i) == '-')) {
+                i++;
+            }
+            int exponent = 0;
+            while (i < end && isDigit(line.charAt(i), false, rate)) {
+                exponent++;
+                i++;
+            }
+            if (exponent == 0) {
+                return false;
+            }
+        } else if (hex) {
+            return false;
+        }
+        if (rate && i + 1 == end) {
+            char suffix = line.charAt(i);
+            return suffix == 'f' || suffix == 'F' || suffix == 'd' || suffix == 'D';
+        }
+        return i == end;
+    }
+
+    /**
+     * <code>BigDecimal</code> takes any Unicode digit, <code>Double</code> only ASCII ones.
+     */
+    private static boolean isDigit(char c, boolean hex, boolean rate) {
+        if (c >= '0' && c <= '9') {
+            return true;
+        }
+        if (hex) {
+            return c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+        }
+        return !rate && Character.isDigit(c);
+    }
+
+    /**
+     * <code>YearMonth.of(Integer.parseInt(token), month)</code>, which takes any Unicode digit.
+     */
+    private ResultCode parseYear(ParsedCommand command, int token) {
+        int start = tokenStarts[token];
+        int end = tokenEnds[token];
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line.charAt(i) == '+' || line.charAt(i) == '-')) {
+            negative = line.charAt(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            return ResultCode.INVALID_YEAR;
+        }
+        long year = 0;
+        for (; i < end; i++) {
+            int digit = Character.digit(line.charAt(i), 10);
+            if (digit < 0) {
+                return ResultCode.INVALID_YEAR;
+            }
+            year = year * 10 + digit;
+            if (year > Year.MAX_VALUE) {
+                return ResultCode.INVALID_YEAR;
+            }
+        }
+        command.setYear((int) (negative ? -year : year));
+        return ResultCode.OK;
+    }
+}
@@ -0,0 +1,72 @@
+package org.navi.mymoney.parser;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the lines of a text input without decoding them: every non-empty line is handed back as the
+ * {@link ParsedCommand#getFallbackLine() fallback line} of the command, numbered like the lines of the input, so it
+ * goes through the string based validation and parser.
+ */
+public final class LineCommandReader implements CommandReader {
+    private final LineSource lines;
+    private final Closeable input;
+    private long lineNumber;
+
+    /**
+     * Where the lines come from, empty ones included.
+     */
+    @FunctionalInterface
+    public interface LineSource {
+        /**
+         * @return the next line, <code>null</code> at the end of the input.
+         */
+        String readLine() throws IOException;
+    }
+
+    /**
+     * @param lines isn't closed with the reader.
+     */
+    public LineCommandReader(LineSource lines) {
+        this(lines, null);
+    }
+
+    private LineCommandReader(LineSource lines, Closeable input) {
+        this.lines = lines;
+        this.input = input;
+    }
+
+    /**
+     * @return a reader of the UTF-8 lines of <code>input</code>, closing it with the reader.
+     */
+    public static LineCommandReader open(Path input) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+        return new LineCommandReader(reader::readLine, reader);
+    }
+
+    @Override
+    public boolean next(ParsedCommand command) throws IOException {
+        String line;
+        do {
+            line = lines.readLine();
+            if (line == null) {
+                return false;
+            }
+            lineNumber++;
+        } while (line.isEmpty());
+        command.reset(lineNumber);
+        command.setFallbackLine(line);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (input != null) {
+            input.close();
+        }
+    }
+}
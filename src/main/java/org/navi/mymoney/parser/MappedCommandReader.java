@@ -0,0 +1,311 @@
+package org.navi.mymoney.parser;
+
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.constants.Command;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Month;
+
+/**
+ * Reads commands straight out of a memory-mapped input file.
+ * <p>
+ * The file is mapped in windows of at most <code>windowSize</code> bytes; a line crossing the end of a window is
+ * re-read from a new window starting at that line. Commands and months are matched byte by byte, numbers and
+ * percentages are decoded from the digits, and everything lands in a caller supplied {@link ParsedCommand}, so a well
+ * formed line produces no garbage. Anything the fast path is not sure about (extra spaces, exponents, very long
+ * numbers, unknown tokens, ...) is handed back as a {@link ParsedCommand#getFallbackLine() fallback line} so it is
+ * processed, and rejected, exactly like the string based parser would.
+ */
+public final class MappedCommandReader implements CommandReader {
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAX_TOKENS = ParsedCommand.MAX_VALUES + 3;
+    private static final Command[] COMMANDS = Command.values();
+    private static final byte[][] COMMAND_NAMES = names(COMMANDS);
+    private static final Month[] MONTHS = Month.values();
+    private static final byte[][] MONTH_NAMES = names(MONTHS);
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private final int totalAssetClasses = AssetUniverse.current().size();
+
+    private final int[] tokenStarts = new int[MAX_TOKENS];
+    private final int[] tokenEnds = new int[MAX_TOKENS];
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+    private long lineNumber;
+
+    public MappedCommandReader(Path input) throws IOException {
+        this(input, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedCommandReader(Path input, int windowSize) throws IOException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive, got " + windowSize);
+        }
+        this.channel = FileChannel.open(input, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        map(0);
+    }
+
+    /**
+     * Decodes the next non-empty line into <code>command</code>.
+     *
+     * @return <code>false</code> once the end of the file is reached.
+     * @throws IOException if the file can't be mapped or a line is longer than the window.
+     */
+    @Override
+    public boolean next(ParsedCommand command) throws IOException {
+        while (windowStart + position < size) {
+            int limit = window.limit();
+            int lineStart = position;
+            int lineEnd = lineStart;
+            while (lineEnd < limit && !isLineTerminator(window.get(lineEnd))) {
+                lineEnd++;
+            }
+            boolean lastWindow = windowStart + limit >= size;
+            if (lineEnd == limit && !lastWindow) {
+                remapAt(lineStart);
+                continue;
+            }
+            if (lineEnd < limit && window.get(lineEnd) == '\r') {
+                if (lineEnd + 1 == limit && !lastWindow) {
+                    // Can't tell yet whether a '\n' follows, look at it from the next window.
+                    remapAt(lineStart);
+                    continue;
+                }
+                boolean crLf = lineEnd + 1 < limit && window.get(lineEnd + 1) == '\n';
+                position = lineEnd + (crLf ? 2 : 1);
+            } else {
+                position = lineEnd + 1;
+            }
+            lineNumber++;
+            if (lineStart == lineEnd) {
+                continue;
+            }
+            command.reset(lineNumber);
+            parseLine(command, lineStart, lineEnd);
+            return true;
+        }
+        return false;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private void remapAt(int lineStart) throws IOException {
+        if (lineStart == 0) {
+            throw new IOException("Line " + (lineNumber + 1) + " is longer than " + windowSize + " bytes");
+        }
+        map(windowStart + lineStart);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        position = 0;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+    }
+
+    private static boolean isLineTerminator(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    private void parseLine(ParsedCommand command, int lineStart, int lineEnd) {
+        // String#split drops trailing empty tokens, so trailing spaces are not an error.
+        int end = lineEnd;
+        while (end > lineStart && window.get(end - 1) == ' ') {
+            end--;
+        }
+        int tokens = tokenize(lineStart, end);
+        if (tokens <= 0) {
+            fallback(command, lineStart, lineEnd);
+            return;
+        }
+
+        Command parsedCommand = (Command) match(COMMANDS, COMMAND_NAMES, tokenStarts[0], tokenEnds[0]);
+        if (parsedCommand == null) {
+            fallback(command, lineStart, lineEnd);
+            return;
+        }
+        boolean parsed;
+        switch (parsedCommand) {
+            case ALLOCATE:
+            case SIP:
+                parsed = tokens == totalAssetClasses + 1 && parseNumbers(command, 1, totalAssetClasses, false);
+                break;
+            case CHANGE:
+                // The month may be followed by a year.
+                parsed = (tokens == totalAssetClasses + 2 || tokens == totalAssetClasses + 3)
+                        && parseNumbers(command, 1, totalAssetClasses, true)
+                        && parseMonth(command, totalAssetClasses + 1)
+                        && (tokens == totalAssetClasses + 2 || parseYear(command, totalAssetClasses + 2));
+                break;
+            case BALANCE:
+                parsed = (tokens == 2 || tokens == 3) && parseMonth(command, 1) && (tokens == 2 || parseYear(command, 2));
+                break;
+            case REBALANCE:
+                // Arguments of REBALANCE are ignored.
+                parsed = true;
+                break;
+            default:
+                parsed = false;
+        }
+        if (parsed) {
+            command.setCommand(parsedCommand);
+        } else {
+            fallback(command, lineStart, lineEnd);
+        }
+    }
+
+    /**
+     * Splits on single spaces.
+     *
+     * @return number of tokens, <code>-1</code> if there is an empty token or too many of them.
+     */
+    private int tokenize(int start, int end) {
+        int tokens = 0;
+        int tokenStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || window.get(i) == ' ') {
+                if (i == tokenStart || tokens == MAX_TOKENS) {
+                    return -1;
+                }
+                tokenStarts[tokens] = tokenStart;
+                tokenEnds[tokens] = i;
+                tokens++;
+                tokenStart = i + 1;
+            }
+        }
+        return tokens;
+    }
+
+    private boolean parseMonth(ParsedCommand command, int token) {
+        Month month = (Month) match(MONTHS, MONTH_NAMES, tokenStarts[token], tokenEnds[token]);
+        command.setMonth(month);
+        return month != null;
+    }
+
+    /**
+     * Decodes plain, unsigned years of up to 9 digits; anything else is left to the fallback parser.
+     */
+    private boolean parseYear(ParsedCommand command, int token) {
+        int start = tokenStarts[token];
+        int end = tokenEnds[token];
+        if (end - start > 9) {
+            return false;
+        }
+        int year = 0;
+        for (int i = start; i < end; i++) {
+            byte b = window.get(i);
+            if (b < '0' || b > '9') {
+                return false;
+            }
+            year = year * 10 + (b - '0');
+        }
+        command.setYear(year);
+        return true;
+    }
+
+    private boolean parseNumbers(ParsedCommand command, int firstToken, int count, boolean percentage) {
+        for (int token = firstToken; token < firstToken + count; token++) {
+            if (!parseNumber(command, tokenStarts[token], tokenEnds[token], percentage)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes <code>[+-]digits[.digits]</code>, with an optional trailing '%' for percentages.
+     */
+    private boolean parseNumber(ParsedCommand command, int start, int end, boolean percentage) {
+        if (percentage && end > start && window.get(end - 1) == '%') {
+            end--;
+        }
+        int i = start;
+        boolean isNegative = false;
+        if (i < end && (window.get(i) == '-' || window.get(i) == '+')) {
+            isNegative = window.get(i) == '-';
+            i++;
+        }
+        long value = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            byte b = window.get(i);
+            if (b >= '0' && b <= '9') {
+                if (value > (Long.MAX_VALUE - 9) / 10) {
+                    return false;
+                }
+                value = value * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        scale = Math.max(scale, 0);
+        if (percentage && !ParsedCommand.isExactDouble(value, scale)) {
+            return false;
+        }
+        command.addValue(isNegative ? -value : value, scale, isNegative);
+        return true;
+    }
+
+    private Object match(Object[] candidates, byte[][] names, int start, int end) {
+        int length = end - start;
+        for (int c = 0; c < names.length; c++) {
+            byte[] name = names[c];
+            if (name.length != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && window.get(start + i) == name[i]) {
+                i++;
+            }
+            if (i == length) {
+                return candidates[c];
+            }
+        }
+        return null;
+    }
+
+    private void fallback(ParsedCommand command, int lineStart, int lineEnd) {
+        byte[] bytes = new byte[lineEnd - lineStart];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = window.get(lineStart + i);
+        }
+        command.setFallbackLine(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            names[i] = values[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        return names;
+    }
+}
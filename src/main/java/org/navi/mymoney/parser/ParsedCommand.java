@@ -0,0 +1,162 @@
+package org.navi.mymoney.parser;
+
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.constants.Command;
+
+import java.math.BigDecimal;
+import java.time.Month;
+
+/**
+ * Mutable, reusable holder for one decoded command line.
+ * <p>
+ * Numbers are kept exactly as written: an unscaled <code>long</code> and the number of digits after the decimal
+ * point, which is what <code>new BigDecimal(String)</code> would produce for the same token. When the fast path can't
+ * decode a line, {@link #getCommand()} is <code>null</code> and {@link #getFallbackLine()} carries the raw line so it
+ * can be handed to the regular, string based parser.
+ */
+public final class ParsedCommand {
+    public static final int MAX_VALUES = AssetUniverse.MAX_SIZE;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        double power = 1d;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10d;
+        }
+    }
+
+    private final long[] unscaled = new long[MAX_VALUES];
+    private final int[] scales = new int[MAX_VALUES];
+    private final boolean[] negative = new boolean[MAX_VALUES];
+
+    private Command command;
+    private Month month;
+    private int year;
+    private boolean hasYear;
+    private int valueCount;
+    private long lineNumber;
+    private String fallbackLine;
+
+    void reset(long lineNumber) {
+        this.command = null;
+        this.month = null;
+        this.hasYear = false;
+        this.valueCount = 0;
+        this.lineNumber = lineNumber;
+        this.fallbackLine = null;
+    }
+
+    void setCommand(Command command) {
+        this.command = command;
+    }
+
+    void setMonth(Month month) {
+        this.month = month;
+    }
+
+    void setYear(int year) {
+        this.year = year;
+        this.hasYear = true;
+    }
+
+    void setFallbackLine(String fallbackLine) {
+        this.command = null;
+        this.fallbackLine = fallbackLine;
+    }
+
+    void addValue(long unscaledValue, int scale, boolean isNegative) {
+        unscaled[valueCount] = unscaledValue;
+        scales[valueCount] = scale;
+        negative[valueCount] = isNegative;
+        valueCount++;
+    }
+
+    /**
+     * @return the decoded command, <code>null</code> if the line has to go through {@link #getFallbackLine()}.
+     */
+    public Command getCommand() {
+        return command;
+    }
+
+    public Month getMonth() {
+        return month;
+    }
+
+    public boolean hasYear() {
+        return hasYear;
+    }
+
+    /**
+     * @return the year following the month, only meaningful if {@link #hasYear()}.
+     */
+    public int getYear() {
+        return year;
+    }
+
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getFallbackLine() {
+        return fallbackLine;
+    }
+
+    public long getUnscaled(int index) {
+        return unscaled[index];
+    }
+
+    public int getScale(int index) {
+        return scales[index];
+    }
+
+    /**
+     * @return whether the token had a minus sign, the only way to tell <code>-0</code> from <code>0</code>.
+     */
+    public boolean isNegative(int index) {
+        return negative[index];
+    }
+
+    /**
+     * Same value as <code>new BigDecimal(token)</code>.
+     */
+    public BigDecimal getAmount(int index) {
+        return BigDecimal.valueOf(unscaled[index], scales[index]);
+    }
+
+    /**
+     * Same value as <code>Double.parseDouble(token)</code>, the parser only accepts tokens for which the division
+     * below is exact up to the last bit (at most 2^53 and 22 decimals).
+     */
+    public double getRate(int index) {
+        double value = unscaled[index] / POWERS_OF_TEN[scales[index]];
+        return negative[index] && value == 0d ? -0d : value;
+    }
+
+    static boolean isExactDouble(long unscaledValue, int scale) {
+        return Math.abs(unscaledValue) <= (1L << 53) && scale < POWERS_OF_TEN.length;
+    }
+
+    @Override
+    public String toString() {
+        if (command == null) {
+            return fallbackLine;
+        }
+        StringBuilder builder = new StringBuilder(command.name());
+        for (int i = 0; i < valueCount; i++) {
+            builder.append(' ').append(getAmount(i).toPlainString());
+        }
+        if (month != null) {
+            builder.append(' ').append(month.name());
+        }
+        if (hasYear) {
+            builder.append(' ').append(year);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package org.navi.mymoney.persistence;
+
+/**
+ * When the {@link Journal} forces appended records to the disk.
+ * <p>
+ * Records are written to a memory mapping, so they survive a crash of the JVM as soon as they are appended whatever
+ * the policy; forcing only matters for a crash of the machine.
+ */
+public enum FsyncPolicy {
+    // Leave it to the operating system.
+    NEVER,
+    // Group commit: one force every interval covers all the records appended in it.
+    INTERVAL,
+    // Every append returns once its record is on disk; concurrent appenders share a force.
+    ALWAYS
+}
@@ -0,0 +1,314 @@
+package org.navi.mymoney.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of binary records, written through a memory mapping.
+ * <p>
+ * The journal is a sequence of segment files named after the sequence number of their first record. A record is
+ * <code>[int payload length][long sequence][byte type][payload][int CRC32]</code>; on open, the active segment is
+ * scanned up to the first record that is incomplete, corrupt or out of sequence, which is where the next append goes.
+ * {@link #roll()} starts a new segment and {@link #deleteUpTo(long)} drops the segments a snapshot made obsolete, so a
+ * recovery only reads the tail. When the records are forced to disk is decided by the {@link FsyncPolicy}.
+ */
+public final class Journal implements Closeable {
+    private static final int INITIAL_SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    private static final int MAGIC = 0x4D4D4A31;
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int RECORD_OVERHEAD = Integer.BYTES + Long.BYTES + Byte.BYTES + Integer.BYTES;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final CRC32 crc = new CRC32();
+    private final Object forceLock = new Object();
+    private final ScheduledExecutorService flusher;
+
+    // Guarded by this.
+    private final List<Long> segmentFirstSequences = new ArrayList<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long lastSequence;
+
+    // Guarded by forceLock.
+    private long forcedSequence;
+
+    private final Logger logger = LoggerFactory.getLogger(Journal.class);
+
+    private Journal(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .forEach(segmentFirstSequences::add);
+        }
+        if (segmentFirstSequences.isEmpty()) {
+            openSegment(1);
+        } else {
+            recoverActiveSegment();
+        }
+        forcedSequence = lastSequence;
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Opens the journal in <code>directory</code>, creating it if needed.
+     *
+     * @param fsyncIntervalMillis how often records are forced with {@link FsyncPolicy#INTERVAL}.
+     */
+    public static Journal open(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        Files.createDirectories(directory);
+        return new Journal(directory, fsyncPolicy, fsyncIntervalMillis);
+    }
+
+    /**
+     * Appends a record, forcing it to disk first with {@link FsyncPolicy#ALWAYS}.
+     *
+     * @param payload read from its position to its limit.
+     * @return the sequence number of the record.
+     */
+    public long append(byte type, ByteBuffer payload) throws IOException {
+        long sequence;
+        synchronized (this) {
+            sequence = write(type, payload);
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            force(sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * Hands every record after <code>afterSequence</code> to the consumer, in order. The payload is only valid for the
+     * duration of the call.
+     */
+    public synchronized void replay(long afterSequence, RecordConsumer consumer) throws IOException {
+        for (int i = 0; i < segmentFirstSequences.size(); i++) {
+            boolean lastSegment = i == segmentFirstSequences.size() - 1;
+            if (!lastSegment && segmentFirstSequences.get(i + 1) - 1 <= afterSequence) {
+                continue;
+            }
+            try (FileChannel segment = FileChannel.open(segmentPath(segmentFirstSequences.get(i)), StandardOpenOption.READ)) {
+                MappedByteBuffer records = segment.map(FileChannel.MapMode.READ_ONLY, 0, segment.size());
+                scan(records, segmentFirstSequences.get(i), afterSequence, consumer);
+            }
+        }
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Continues in a new segment.
+     */
+    public synchronized void roll() throws IOException {
+        closeSegment();
+        openSegment(lastSequence + 1);
+    }
+
+    /**
+     * Deletes the segments that only hold records up to <code>sequence</code>, the active one is always kept.
+     */
+    public synchronized void deleteUpTo(long sequence) throws IOException {
+        while (segmentFirstSequences.size() > 1 && segmentFirstSequences.get(1) - 1 <= sequence) {
+            Files.deleteIfExists(segmentPath(segmentFirstSequences.remove(0)));
+        }
+    }
+
+    /**
+     * Forces every record appended so far to disk.
+     */
+    public void flush() {
+        try {
+            long sequence;
+            synchronized (this) {
+                sequence = lastSequence;
+            }
+            force(sequence);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to force the journal to disk", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        synchronized (this) {
+            closeSegment();
+        }
+    }
+
+    private long write(byte type, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        if (length > MAX_PAYLOAD) {
+            throw new IOException("Journal record of " + length + " bytes is larger than " + MAX_PAYLOAD);
+        }
+        ensureCapacity(RECORD_OVERHEAD + length);
+        long sequence = lastSequence + 1;
+        int start = buffer.position();
+        buffer.putInt(length).putLong(sequence).put(type).put(payload);
+        buffer.putInt(checksum(buffer, start, buffer.position()));
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * Makes sure every record up to <code>sequence</code> is on disk; a single force covers all the appenders waiting.
+     */
+    private void force(long sequence) throws IOException {
+        synchronized (forceLock) {
+            if (forcedSequence >= sequence) {
+                return;
+            }
+            long target;
+            MappedByteBuffer current;
+            synchronized (this) {
+                target = lastSequence;
+                current = buffer;
+            }
+            if (current == null) {
+                throw new IOException("The journal is closed");
+            }
+            current.force();
+            forcedSequence = target;
+        }
+    }
+
+    private void ensureCapacity(int recordSize) throws IOException {
+        if (buffer == null) {
+            throw new IOException("The journal is closed");
+        }
+        if (buffer.remaining() >= recordSize) {
+            return;
+        }
+        long capacity = buffer.capacity();
+        while (capacity - buffer.position() < recordSize) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            roll();
+            ensureCapacity(recordSize);
+            return;
+        }
+        int position = buffer.position();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buffer.position(position);
+    }
+
+    private void openSegment(long firstSequence) throws IOException {
+        channel = FileChannel.open(segmentPath(firstSequence),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_SEGMENT_SIZE);
+        buffer.putInt(MAGIC);
+        segmentFirstSequences.add(firstSequence);
+        lastSequence = firstSequence - 1;
+    }
+
+    private void recoverActiveSegment() throws IOException {
+        long firstSequence = segmentFirstSequences.get(segmentFirstSequences.size() - 1);
+        channel = FileChannel.open(segmentPath(firstSequence), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_SEGMENT_SIZE));
+        lastSequence = firstSequence - 1;
+        long last = scan(buffer, firstSequence, Long.MAX_VALUE, null);
+        if (last >= firstSequence) {
+            lastSequence = last;
+        }
+        // Wipe whatever a torn append left behind, it must never be mistaken for a record later.
+        int tail = buffer.position();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.position(tail);
+    }
+
+    /**
+     * Reads records from the start of a segment until the first invalid one, leaving the buffer positioned there.
+     *
+     * @return the sequence of the last valid record, <code>firstSequence - 1</code> if there is none.
+     */
+    private long scan(ByteBuffer records, long firstSequence, long afterSequence, RecordConsumer consumer) throws IOException {
+        if (records.limit() < HEADER_SIZE || records.getInt(0) != MAGIC) {
+            throw new IOException("Not a journal segment, starting at sequence " + firstSequence);
+        }
+        records.position(HEADER_SIZE);
+        long expected = firstSequence;
+        while (records.remaining() >= RECORD_OVERHEAD) {
+            int start = records.position();
+            int length = records.getInt(start);
+            if (length < 0 || length > MAX_PAYLOAD || records.remaining() < RECORD_OVERHEAD + length) {
+                break;
+            }
+            long sequence = records.getLong(start + Integer.BYTES);
+            int end = start + RECORD_OVERHEAD - Integer.BYTES + length;
+            if (sequence != expected || records.getInt(end) != checksum(records, start, end)) {
+                break;
+            }
+            if (consumer != null && sequence > afterSequence) {
+                ByteBuffer payload = records.duplicate();
+                payload.position(start + Integer.BYTES + Long.BYTES + Byte.BYTES).limit(end);
+                consumer.accept(sequence, records.get(start + Integer.BYTES + Long.BYTES), payload.slice().asReadOnlyBuffer());
+            }
+            records.position(end + Integer.BYTES);
+            expected++;
+        }
+        return expected - 1;
+    }
+
+    private int checksum(ByteBuffer records, int start, int end) {
+        ByteBuffer view = records.duplicate();
+        view.position(start).limit(end);
+        crc.reset();
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    private void closeSegment() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,358 @@
+package org.navi.mymoney.persistence;
+
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.navi.mymoney.validation.ResultCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.HashSet;
+import java.util.InputMismatchException;
+
+/**
+ * A {@link PortfolioService} whose state survives a restart.
+ * <p>
+ * Every command that changes the state is appended to a {@link Journal}, and forced as the {@link FsyncPolicy} says,
+ * before it is applied: a command whose record can't be written fails with the state left as it was. Commands with
+ * malformed arguments are rejected before they reach the journal; a command the state of the portfolio rejects is
+ * only found out once applied, its record stays and is rejected the same way on replay. Every
+ * <code>snapshotInterval</code> records the whole state goes to the {@link SnapshotStore} and the journal segments it
+ * covers are dropped, so {@link #open} only loads the latest snapshot and replays the records after it. How much of
+ * the tail a crash can lose is decided by the {@link FsyncPolicy}.
+ * <p>
+ * Amounts and rates are journaled as <code>(asset id, value)</code> pairs, the ids of the {@link AssetUniverse} the
+ * journal was written with.
+ */
+public class JournaledPortfolioService implements PortfolioService, Closeable {
+    static final byte ALLOCATE = 1;
+    static final byte SIP = 2;
+    static final byte CHANGE = 3;
+    static final byte CHANGE_YEAR_MONTH = 4;
+    static final byte REBALANCE = 5;
+
+    private final PortfolioServiceImpl delegate;
+    private final DataStub dataStub;
+    private final Portfolio portfolio;
+    private final Journal journal;
+    private final SnapshotStore snapshots;
+    private final int snapshotInterval;
+    private long recordsSinceSnapshot;
+    private ByteBuffer record = ByteBuffer.allocate(256);
+
+    private final Logger logger = LoggerFactory.getLogger(JournaledPortfolioService.class);
+
+    private JournaledPortfolioService(DataStub dataStub, Portfolio portfolio, NumericEngine numericEngine,
+                                      ReBalancePolicy reBalancePolicy, Journal journal, SnapshotStore snapshots,
+                                      int snapshotInterval) {
+        this.delegate = new PortfolioServiceImpl(dataStub, portfolio, numericEngine, reBalancePolicy);
+        this.dataStub = dataStub;
+        this.portfolio = portfolio;
+        this.journal = journal;
+        this.snapshots = snapshots;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public static JournaledPortfolioService open(Path directory, NumericEngine numericEngine, FsyncPolicy fsyncPolicy,
+                                                 long fsyncIntervalMillis, int snapshotInterval) throws IOException {
+        return open(directory, numericEngine, ReBalancePolicy.NONE, fsyncPolicy, fsyncIntervalMillis, snapshotInterval);
+    }
+
+    /**
+     * Restores the state kept in <code>directory</code>, or starts from an empty portfolio if there is none.
+     * <p>
+     * The journal holds the commands, not their re-balances: it has to be reopened with the policy it was written
+     * with for the replay to reach the same state.
+     *
+     * @param fsyncIntervalMillis how often the journal is forced with {@link FsyncPolicy#INTERVAL}.
+     * @param snapshotInterval    number of journal records between two snapshots.
+     * @throws IOException if the stored state can't be read or doesn't replay.
+     */
+    public static JournaledPortfolioService open(Path directory, NumericEngine numericEngine,
+                                                 ReBalancePolicy reBalancePolicy, FsyncPolicy fsyncPolicy,
+                                                 long fsyncIntervalMillis, int snapshotInterval) throws IOException {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("The snapshot interval must be at least 1");
+        }
+        SnapshotStore snapshots = new SnapshotStore(directory);
+        SnapshotStore.Snapshot snapshot = snapshots.loadLatest();
+        Journal journal = Journal.open(directory, fsyncPolicy, fsyncIntervalMillis);
+        long snapshotSequence = snapshot == null ? 0 : snapshot.getSequence();
+        if (journal.getLastSequence() < snapshotSequence) {
+            journal.close();
+            throw new IOException("The journal ends at record " + journal.getLastSequence()
+                    + ", before the snapshot of record " + snapshotSequence);
+        }
+        JournaledPortfolioService service = snapshot == null
+                ? new JournaledPortfolioService(new DataStub(), new Portfolio(new HashSet<>()), numericEngine,
+                reBalancePolicy, journal, snapshots, snapshotInterval)
+                : new JournaledPortfolioService(snapshot.getDataStub(), snapshot.getPortfolio(), numericEngine,
+                reBalancePolicy, journal, snapshots, snapshotInterval);
+        try {
+            journal.replay(snapshotSequence, (sequence, type, payload) -> {
+                service.apply(sequence, type, payload);
+                service.recordsSinceSnapshot++;
+            });
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+        service.logger.debug("Restored the portfolio from snapshot {} and {} journal records",
+                snapshotSequence, service.recordsSinceSnapshot);
+        return service;
+    }
+
+    @Override
+    public AssetUniverse getAssetUniverse() {
+        return delegate.getAssetUniverse();
+    }
+
+    @Override
+    public void allocate(BigDecimal[] allocations) throws IllegalStateException {
+        if (!isComplete(allocations)) {
+            // Rejected by the delegate, which leaves the state as it was.
+            delegate.allocate(allocations);
+        }
+        append(ALLOCATE, writeAmounts(start(), allocations));
+        delegate.allocate(allocations);
+        snapshotIfDue();
+    }
+
+    @Override
+    public void initSip(BigDecimal[] sips) throws IllegalStateException {
+        if (!isComplete(sips)) {
+            delegate.initSip(sips);
+        }
+        append(SIP, writeAmounts(start(), sips));
+        delegate.initSip(sips);
+        snapshotIfDue();
+    }
+
+    @Override
+    public void change(double[] rates, Month month) throws InputMismatchException {
+        if (month == null || !isComplete(rates)) {
+            delegate.change(rates, month);
+        }
+        ByteBuffer payload = start();
+        payload.put((byte) month.ordinal());
+        append(CHANGE, writeRates(payload, rates));
+        delegate.change(rates, month);
+        snapshotIfDue();
+    }
+
+    @Override
+    public void change(double[] rates, YearMonth yearMonth) throws InputMismatchException {
+        if (yearMonth == null || !isComplete(rates)) {
+            delegate.change(rates, yearMonth);
+        }
+        ByteBuffer payload = start();
+        payload.putInt(yearMonth.getYear()).put((byte) yearMonth.getMonthValue());
+        append(CHANGE_YEAR_MONTH, writeRates(payload, rates));
+        delegate.change(rates, yearMonth);
+        snapshotIfDue();
+    }
+
+    @Override
+    public String balance(Month month) {
+        return delegate.balance(month);
+    }
+
+    @Override
+    public String balance(YearMonth yearMonth) {
+        return delegate.balance(yearMonth);
+    }
+
+    @Override
+    public ResultCode validate(ParsedCommand command) {
+        return delegate.validate(command);
+    }
+
+    /**
+     * Journaled whether or not a period is registered yet, replaying a re-balance that couldn't be done changes
+     * nothing.
+     */
+    @Override
+    public String reBalance() {
+        append(REBALANCE, start());
+        String output = delegate.reBalance();
+        snapshotIfDue();
+        return output;
+    }
+
+    /**
+     * Writes a snapshot of the current state and drops the journal segments it makes obsolete.
+     */
+    public void snapshot() throws IOException {
+        snapshots.write(journal.getLastSequence(), dataStub, portfolio);
+        journal.roll();
+        journal.deleteUpTo(snapshots.getOldestRetainedSequence());
+        recordsSinceSnapshot = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    /**
+     * @throws UncheckedIOException if the record can't be written, before anything is applied.
+     */
+    private void append(byte type, ByteBuffer payload) {
+        payload.flip();
+        try {
+            journal.append(type, payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to journal the command", e);
+        }
+        recordsSinceSnapshot++;
+    }
+
+    // The command is applied and journaled by now, a snapshot that fails is tried again after the next record.
+    private void snapshotIfDue() {
+        if (recordsSinceSnapshot < snapshotInterval) {
+            return;
+        }
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to snapshot the portfolio, the journal still holds its state", e);
+        }
+    }
+
+    private void apply(long sequence, byte type, ByteBuffer payload) throws IOException {
+        switch (type) {
+            case ALLOCATE: {
+                BigDecimal[] allocations = readAmounts(payload);
+                replay(sequence, () -> delegate.allocate(allocations));
+                break;
+            }
+            case SIP: {
+                BigDecimal[] sips = readAmounts(payload);
+                replay(sequence, () -> delegate.initSip(sips));
+                break;
+            }
+            case CHANGE: {
+                Month month = Month.values()[payload.get()];
+                double[] rates = readRates(payload);
+                replay(sequence, () -> delegate.change(rates, month));
+                break;
+            }
+            case CHANGE_YEAR_MONTH: {
+                YearMonth yearMonth = YearMonth.of(payload.getInt(), payload.get());
+                double[] rates = readRates(payload);
+                replay(sequence, () -> delegate.change(rates, yearMonth));
+                break;
+            }
+            case REBALANCE:
+                replay(sequence, delegate::reBalance);
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type + " at record " + sequence);
+        }
+    }
+
+    // The state is the one the command was first applied to, so it is accepted or rejected as it was then.
+    private void replay(long sequence, Runnable command) {
+        try {
+            command.run();
+        } catch (IllegalStateException | InputMismatchException e) {
+            logger.debug("Journal record {} was rejected when it was written, skipped", sequence, e);
+        }
+    }
+
+    private boolean isComplete(BigDecimal[] amounts) {
+        if (amounts == null || amounts.length != getAssetUniverse().size()) {
+            return false;
+        }
+        for (BigDecimal amount : amounts) {
+            if (amount == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isComplete(double[] rates) {
+        return rates != null && rates.length == getAssetUniverse().size();
+    }
+
+    private ByteBuffer start() {
+        record.clear();
+        return record;
+    }
+
+    private ByteBuffer ensureRemaining(ByteBuffer payload, int bytes) {
+        if (payload.remaining() >= bytes) {
+            return payload;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(payload.capacity() * 2, payload.position() + bytes));
+        payload.flip();
+        larger.put(payload);
+        record = larger;
+        return larger;
+    }
+
+    // Only called with complete amounts, there is one for every asset.
+    private ByteBuffer writeAmounts(ByteBuffer payload, BigDecimal[] amounts) {
+        payload = ensureRemaining(payload, Byte.BYTES);
+        payload.put((byte) amounts.length);
+        for (int asset = 0; asset < amounts.length; asset++) {
+            byte[] unscaled = amounts[asset].unscaledValue().toByteArray();
+            payload = ensureRemaining(payload, Byte.BYTES + 2 * Integer.BYTES + unscaled.length);
+            payload.put((byte) asset)
+                    .putInt(amounts[asset].scale())
+                    .putInt(unscaled.length)
+                    .put(unscaled);
+        }
+        return payload;
+    }
+
+    private BigDecimal[] readAmounts(ByteBuffer payload) {
+        BigDecimal[] amounts = new BigDecimal[getAssetUniverse().size()];
+        int size = payload.get();
+        for (int i = 0; i < size; i++) {
+            int asset = payload.get();
+            int scale = payload.getInt();
+            byte[] unscaled = new byte[payload.getInt()];
+            payload.get(unscaled);
+            amounts[asset] = new BigDecimal(new BigInteger(unscaled), scale);
+        }
+        return amounts;
+    }
+
+    private ByteBuffer writeRates(ByteBuffer payload, double[] rates) {
+        payload = ensureRemaining(payload, Byte.BYTES + rates.length * (Byte.BYTES + Double.BYTES));
+        payload.put((byte) rates.length);
+        for (int asset = 0; asset < rates.length; asset++) {
+            payload.put((byte) asset).putDouble(rates[asset]);
+        }
+        return payload;
+    }
+
+    private double[] readRates(ByteBuffer payload) {
+        int size = payload.get();
+        if (size != getAssetUniverse().size()) {
+            throw new IllegalStateException("Journaled rates of " + size + " assets, the universe has "
+                    + getAssetUniverse().size());
+        }
+        double[] rates = new double[size];
+        for (int i = 0; i < size; i++) {
+            rates[payload.get()] = payload.getDouble();
+        }
+        return rates;
+    }
+}
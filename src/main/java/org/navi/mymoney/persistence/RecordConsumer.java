@@ -0,0 +1,9 @@
+package org.navi.mymoney.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+@FunctionalInterface
+public interface RecordConsumer {
+    void accept(long sequence, byte type, ByteBuffer payload) throws IOException;
+}
@@ -0,0 +1,202 @@
+package org.navi.mymoney.persistence;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.dao.MarketRates;
+import org.navi.mymoney.dao.MonthlyBalanceIndex;
+import org.navi.mymoney.models.Portfolio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Compact snapshots of the state of one portfolio: holdings, SIP, desired weights, rates and the balance history.
+ * <p>
+ * A snapshot is written to a temporary file, forced and atomically renamed, and carries a CRC32, so a crash leaves
+ * either the previous or the new snapshot. The latest {@link #RETAINED} snapshots are kept, loading falls back to the
+ * older one if the latest is damaged.
+ */
+public final class SnapshotStore {
+    static final int RETAINED = 2;
+
+    private static final int MAGIC = 0x4D4D534E;
+    private static final int VERSION = 4;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    private final Path directory;
+
+    private final Logger logger = LoggerFactory.getLogger(SnapshotStore.class);
+
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Snapshot {
+        // Sequence of the last journal record included in the snapshot.
+        private final long sequence;
+        private final DataStub dataStub;
+        private final Portfolio portfolio;
+    }
+
+    public void write(long sequence, DataStub dataStub, Portfolio portfolio) throws IOException {
+        byte[] bytes = encode(sequence, dataStub, portfolio);
+        Path temporary = directory.resolve(fileName(sequence) + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer content = ByteBuffer.wrap(bytes);
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(fileName(sequence)), StandardCopyOption.ATOMIC_MOVE);
+
+        List<Long> sequences = listSequences();
+        for (int i = 0; i < sequences.size() - RETAINED; i++) {
+            Files.deleteIfExists(directory.resolve(fileName(sequences.get(i))));
+        }
+    }
+
+    /**
+     * @return the snapshot as written to its file, checksum included.
+     */
+    public static byte[] encode(long sequence, DataStub dataStub, Portfolio portfolio) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(sequence);
+        Integer firstYear = dataStub.getFirstYear();
+        output.writeBoolean(firstYear != null);
+        output.writeInt(firstYear == null ? 0 : firstYear);
+        int assets = dataStub.getAssetUniverse().size();
+        output.writeByte(assets);
+        for (int asset = 0; asset < assets; asset++) {
+            output.writeUTF(dataStub.getAssetUniverse().name(asset));
+        }
+        for (int asset = 0; asset < assets; asset++) {
+            dataStub.getAmounts().writeTo(output, dataStub.sipCell(asset));
+            dataStub.getAmounts().writeTo(output, dataStub.desiredWeightCell(asset));
+            portfolio.getAmounts().writeTo(output, portfolio.holdingCell(asset));
+        }
+        MarketRates rates = dataStub.getMonthlyMarketChangeRate();
+        output.writeInt(rates.size());
+        for (int month : rates.months()) {
+            output.writeInt(month);
+            for (int asset = 0; asset < assets; asset++) {
+                output.writeDouble(rates.getRate(month, asset));
+            }
+        }
+        dataStub.getMonthlyBalance().writeTo(output);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        output.writeInt((int) crc.getValue());
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the latest snapshot that can be read, <code>null</code> if there is none.
+     */
+    public Snapshot loadLatest() throws IOException {
+        List<Long> sequences = listSequences();
+        for (int i = sequences.size() - 1; i >= 0; i--) {
+            Path file = directory.resolve(fileName(sequences.get(i)));
+            try {
+                return decode(Files.readAllBytes(file));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Skipping damaged snapshot {}", file, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the sequence of the oldest snapshot kept, the journal has to be kept from there on.
+     */
+    public long getOldestRetainedSequence() throws IOException {
+        List<Long> sequences = listSequences();
+        return sequences.isEmpty() ? 0 : sequences.get(0);
+    }
+
+    /**
+     * @param bytes a snapshot as {@link #encode encoded}.
+     * @throws IOException if it is damaged or of another format or set of asset classes.
+     */
+    public static Snapshot decode(byte[] bytes) throws IOException {
+        if (bytes.length < Integer.BYTES) {
+            throw new EOFException("Snapshot is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Integer.BYTES);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - Integer.BYTES, Integer.BYTES).getInt()) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - Integer.BYTES));
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Unsupported snapshot format");
+        }
+        long sequence = input.readLong();
+        DataStub dataStub = new DataStub();
+        boolean hasFirstYear = input.readBoolean();
+        int firstYear = input.readInt();
+        dataStub.setFirstYear(hasFirstYear ? firstYear : null);
+        Portfolio portfolio = new Portfolio();
+        int assets = dataStub.getAssetUniverse().size();
+        if (input.readUnsignedByte() != assets) {
+            throw new IOException("Snapshot of a different set of asset classes");
+        }
+        for (int asset = 0; asset < assets; asset++) {
+            String name = input.readUTF();
+            if (!name.equals(dataStub.getAssetUniverse().name(asset))) {
+                throw new IOException("Snapshot has " + name + " where the universe has "
+                        + dataStub.getAssetUniverse().name(asset));
+            }
+        }
+        for (int asset = 0; asset < assets; asset++) {
+            dataStub.getAmounts().readFrom(input, dataStub.sipCell(asset));
+            dataStub.getAmounts().readFrom(input, dataStub.desiredWeightCell(asset));
+            portfolio.getAmounts().readFrom(input, portfolio.holdingCell(asset));
+        }
+        int months = input.readInt();
+        for (int i = 0; i < months; i++) {
+            int month = input.readInt();
+            double[] rates = new double[assets];
+            for (int asset = 0; asset < assets; asset++) {
+                rates[asset] = input.readDouble();
+            }
+            dataStub.getMonthlyMarketChangeRate().put(month, rates);
+        }
+        dataStub.setMonthlyBalance(MonthlyBalanceIndex.readFrom(input));
+        if (dataStub.getMonthlyBalance().getTotalAssetClasses() != assets) {
+            throw new IOException("Snapshot of a different set of asset classes");
+        }
+        return new Snapshot(sequence, dataStub, portfolio);
+    }
+
+    private List<Long> listSequences() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String fileName(long sequence) {
+        return String.format("%s%020d%s", PREFIX, sequence, SUFFIX);
+    }
+}
@@ -0,0 +1,29 @@
+package org.navi.mymoney.rebalance;
+
+import lombok.Getter;
+
+/**
+ * Re-balances at the end of every <code>periodMonths</code> months of the timeline: every JUNE and DECEMBER for
+ * <code>6</code>, every DECEMBER for <code>12</code>.
+ */
+public final class CalendarReBalancePolicy implements ReBalancePolicy {
+    @Getter
+    private final int periodMonths;
+
+    public CalendarReBalancePolicy(int periodMonths) {
+        if (periodMonths < 1) {
+            throw new IllegalArgumentException("The re-balance period must be at least one month, got " + periodMonths);
+        }
+        this.periodMonths = periodMonths;
+    }
+
+    @Override
+    public boolean shouldReBalance(int month, PortfolioDrift drift) {
+        return (month + 1) % periodMonths == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CALENDAR:" + periodMonths;
+    }
+}
@@ -0,0 +1,29 @@
+package org.navi.mymoney.rebalance;
+
+import lombok.Getter;
+
+/**
+ * Re-balances at the end of any month where the weight of an asset is more than <code>maxDrift</code> percentage
+ * points away from its desired weight.
+ */
+public final class DriftReBalancePolicy implements ReBalancePolicy {
+    @Getter
+    private final double maxDrift;
+
+    public DriftReBalancePolicy(double maxDrift) {
+        if (!(maxDrift >= 0 && maxDrift <= 100)) {
+            throw new IllegalArgumentException("The drift threshold must be between 0 and 100, got " + maxDrift);
+        }
+        this.maxDrift = maxDrift;
+    }
+
+    @Override
+    public boolean shouldReBalance(int month, PortfolioDrift drift) {
+        return drift.maxDrift() > maxDrift;
+    }
+
+    @Override
+    public String toString() {
+        return "DRIFT:" + maxDrift;
+    }
+}
@@ -0,0 +1,70 @@
+package org.navi.mymoney.rebalance;
+
+/**
+ * How far the month-end balances of a portfolio are from its desired weights, kept up to date one asset at a time as
+ * a month is applied: the total is adjusted by the difference of every updated balance, so reading a weight or the
+ * drift of the whole portfolio never goes back to the holdings.
+ * <p>
+ * Works on the floored balances <code>BALANCE</code> prints, so both numeric engines see the same drift.
+ */
+public final class PortfolioDrift {
+    private static final double HUNDRED = 100d;
+
+    private final double[] desiredWeights;
+    private final long[] balances;
+    private long total;
+
+    /**
+     * @param desiredWeights in percent, by asset id.
+     */
+    public PortfolioDrift(double[] desiredWeights) {
+        this.desiredWeights = desiredWeights.clone();
+        this.balances = new long[desiredWeights.length];
+    }
+
+    public int size() {
+        return balances.length;
+    }
+
+    public void update(int asset, long balance) {
+        total += balance - balances[asset];
+        balances[asset] = balance;
+    }
+
+    public long getBalance(int asset) {
+        return balances[asset];
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the current weight of the asset in percent, <code>0</code> while the portfolio is worth nothing.
+     */
+    public double weight(int asset) {
+        return total == 0 ? 0 : HUNDRED * balances[asset] / total;
+    }
+
+    public double desiredWeight(int asset) {
+        return desiredWeights[asset];
+    }
+
+    /**
+     * @return current minus desired weight of the asset, in percentage points.
+     */
+    public double drift(int asset) {
+        return weight(asset) - desiredWeights[asset];
+    }
+
+    /**
+     * @return the largest drift of any asset, in absolute value.
+     */
+    public double maxDrift() {
+        double max = 0;
+        for (int asset = 0; asset < balances.length; asset++) {
+            max = Math.max(max, Math.abs(drift(asset)));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,49 @@
+package org.navi.mymoney.rebalance;
+
+/**
+ * Decides, at the end of every month computed by a portfolio, whether its holdings go back to the desired weights.
+ * <p>
+ * A policy is asked once per month, after the SIP and market change of the month and before its balance is recorded,
+ * unless a <code>REBALANCE</code> command already re-balanced that month. The months it picks are remembered by the
+ * balance index, so replaying an older month never asks again. Policies must only depend on their arguments: the
+ * same month may be asked again after a <code>REBALANCE</code> recomputes the months after it.
+ */
+public interface ReBalancePolicy {
+    /**
+     * Re-balances only on <code>REBALANCE</code> commands.
+     */
+    ReBalancePolicy NONE = (month, drift) -> false;
+
+    /**
+     * @param month month index, <code>0</code> being the first JANUARY of the timeline.
+     * @param drift month-end balances of the month, before any re-balance.
+     */
+    boolean shouldReBalance(int month, PortfolioDrift drift);
+
+    /**
+     * @param policy <code>NONE</code>, <code>CALENDAR:&lt;months&gt;</code> or <code>DRIFT:&lt;percentage
+     *               points&gt;</code>; blank for {@link #NONE}.
+     */
+    static ReBalancePolicy parse(String policy) {
+        if (policy == null || policy.trim().isEmpty() || "NONE".equals(policy.trim())) {
+            return NONE;
+        }
+        String[] typeAndValue = policy.trim().split(":");
+        if (typeAndValue.length == 2) {
+            try {
+                switch (typeAndValue[0]) {
+                    case "CALENDAR":
+                        return new CalendarReBalancePolicy(Integer.parseInt(typeAndValue[1]));
+                    case "DRIFT":
+                        return new DriftReBalancePolicy(Double.parseDouble(typeAndValue[1]));
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid re-balance policy " + policy, e);
+            }
+        }
+        throw new IllegalArgumentException("Invalid re-balance policy " + policy
+                + ", expected NONE, CALENDAR:<months> or DRIFT:<percentage points>");
+    }
+}
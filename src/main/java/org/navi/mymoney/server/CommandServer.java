@@ -0,0 +1,260 @@
+package org.navi.mymoney.server;
+
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.persistence.SnapshotStore;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.navi.mymoney.validation.ResultCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Serves the command grammar over a local TCP socket, one command per line.
+ * <p>
+ * Every connection is a {@link Session} with its own portfolios, so it behaves like a batch file of its own: lines may
+ * be prefixed with a portfolio id and commands are applied in the order they were sent. Every command gets exactly one
+ * response line, in order: its output, an empty line if it has none, or <code>ERROR &lt;code&gt; &lt;reason&gt;</code>
+ * for an invalid one, the code being the {@link ResultCode} of the line.
+ * <code>QUIT</code> closes the connection once the responses before it are sent.
+ * <p>
+ * <code>CHECKPOINT</code> answers with the state of every portfolio of the session, as space-separated pairs of a
+ * portfolio id and its {@link SnapshotStore#encode snapshot} in Base64, and <code>RESTORE &lt;id&gt; &lt;snapshot&gt;
+ * </code> replaces a portfolio of the session with such a state, answering an empty line. That's how the
+ * {@link org.navi.mymoney.cluster.ShardCoordinator} moves a shard to another server without replaying all of its
+ * commands. Both are only supported by servers of {@link PortfolioServiceImpl}s.
+ * <p>
+ * A single selector thread does all the socket I/O. Complete lines are handed to a worker pool, one batch per session
+ * at a time, and all the responses of a batch go out in a single write, so a client pipelining many commands pays for
+ * one round trip rather than one per command.
+ */
+@Component
+public class CommandServer implements Closeable {
+    public static final String QUIT = "QUIT";
+    public static final String ERROR = "ERROR";
+    public static final String CHECKPOINT = "CHECKPOINT";
+    public static final String RESTORE = "RESTORE";
+    // In bytes, a longer line closes the connection.
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final InetSocketAddress address;
+    private final ExecutorService workers;
+    private final Supplier<PortfolioService> serviceFactory;
+    // Null if the state of the services can't be restored.
+    private final Function<SnapshotStore.Snapshot, PortfolioService> restoredServiceFactory;
+    // Sessions whose responses are waiting for the selector to register write interest.
+    private final Queue<Session> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    private volatile Selector selector;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    private final Logger logger = LoggerFactory.getLogger(CommandServer.class);
+
+    @Autowired
+    public CommandServer(@Value("${mymoney.server.host:127.0.0.1}") String host,
+                         @Value("${mymoney.server.port:7070}") int port,
+                         @Value("${mymoney.server.workers:0}") int workers,
+                         @Value("${mymoney.numeric.engine:BIG_DECIMAL}") NumericEngine numericEngine,
+                         @Value("${mymoney.rebalance.policy:NONE}") String reBalancePolicy) {
+        this(new InetSocketAddress(host, port), workers, numericEngine, ReBalancePolicy.parse(reBalancePolicy));
+    }
+
+    public CommandServer(InetSocketAddress address, int workers, NumericEngine numericEngine,
+                         ReBalancePolicy reBalancePolicy) {
+        this(address, workers, () -> new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()),
+                numericEngine, reBalancePolicy), snapshot -> new PortfolioServiceImpl(snapshot.getDataStub(),
+                snapshot.getPortfolio(), numericEngine, reBalancePolicy));
+    }
+
+    public CommandServer(InetSocketAddress address, int workers, Supplier<PortfolioService> serviceFactory) {
+        this(address, workers, serviceFactory, null);
+    }
+
+    /**
+     * @param restoredServiceFactory the service of a restored portfolio, <code>null</code> if <code>RESTORE</code>
+     *                               isn't supported.
+     */
+    public CommandServer(InetSocketAddress address, int workers, Supplier<PortfolioService> serviceFactory,
+                         Function<SnapshotStore.Snapshot, PortfolioService> restoredServiceFactory) {
+        this.address = address;
+        this.serviceFactory = serviceFactory;
+        this.restoredServiceFactory = restoredServiceFactory;
+        int totalWorkers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.workers = Executors.newFixedThreadPool(totalWorkers, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "command-server-worker-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Binds the socket and starts serving from a background thread.
+     *
+     * @throws IOException if the socket can't be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("The server is already running");
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        Thread thread = new Thread(this::serve, "command-server");
+        thread.start();
+        logger.info("Listening on {}", serverChannel.getLocalAddress());
+    }
+
+    /**
+     * @return the port the server listens on, useful when started on port 0.
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        terminated.await();
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        running = false;
+        Selector currentSelector = selector;
+        if (currentSelector != null) {
+            currentSelector.wakeup();
+        } else {
+            terminated.countDown();
+        }
+        workers.shutdown();
+    }
+
+    void requestWrite(Session session) {
+        pendingWrites.add(session);
+        selector.wakeup();
+    }
+
+    void execute(Runnable batch) {
+        workers.execute(batch);
+    }
+
+    PortfolioService newService() {
+        return serviceFactory.get();
+    }
+
+    /**
+     * @return the state of the service as <code>CHECKPOINT</code> sends it.
+     * @throws IOException if it can't be checkpointed.
+     */
+    byte[] checkpoint(PortfolioService service) throws IOException {
+        if (restoredServiceFactory == null || !(service instanceof PortfolioServiceImpl)) {
+            throw new IOException("Portfolios of " + service.getClass().getSimpleName() + " can't be checkpointed");
+        }
+        PortfolioServiceImpl checkpointed = (PortfolioServiceImpl) service;
+        return SnapshotStore.encode(0, checkpointed.getDataStub(), checkpointed.getPortfolio());
+    }
+
+    /**
+     * @param state as {@link #checkpoint} returned it.
+     * @throws IOException if it is damaged, or restoring isn't supported.
+     */
+    PortfolioService restore(byte[] state) throws IOException {
+        if (restoredServiceFactory == null) {
+            throw new IOException("Portfolios can't be restored");
+        }
+        return restoredServiceFactory.apply(SnapshotStore.decode(state));
+    }
+
+    private void serve() {
+        try {
+            while (running) {
+                selector.select();
+                Session session;
+                while ((session = pendingWrites.poll()) != null) {
+                    session.enableWrites();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            logger.error("The command server stopped", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+            terminated.countDown();
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Session session = (Session) key.attachment();
+            if (key.isWritable()) {
+                session.write();
+            }
+            if (key.isValid() && key.isReadable()) {
+                session.read();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            logger.debug("Closing connection {}", key.channel(), e);
+            key.cancel();
+            closeQuietly(key.channel());
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Session(this, channel, key));
+        }
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close {}", closeable, e);
+        }
+    }
+}
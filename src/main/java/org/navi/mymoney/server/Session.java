@@ -0,0 +1,236 @@
+package org.navi.mymoney.server;
+
+import org.navi.mymoney.Driver;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.navi.mymoney.validation.ResultCode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one connection of the {@link CommandServer}.
+ * <p>
+ * The socket side ({@link #read()}, {@link #write()}, {@link #enableWrites()}) only runs on the selector thread. The
+ * portfolios are only touched by {@link #drain()}, which runs on one worker at a time: a new batch is only submitted
+ * once the previous one is done.
+ */
+final class Session {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    // Stop reading from a client that sends commands faster than it reads the responses.
+    private static final long MAX_PENDING_OUTPUT = 1024 * 1024;
+
+    private final CommandServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean inputClosed;
+    private boolean readPaused;
+
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingOutput = new AtomicLong();
+
+    // Guarded by this.
+    private final List<String> inbox = new ArrayList<>();
+    private boolean processing;
+
+    // Only accessed by the worker running the current batch.
+    private final Map<String, Driver> drivers = new HashMap<>();
+
+    Session(CommandServer server, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+    }
+
+    void read() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            stopReading();
+            closeIfDone();
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        readBuffer.flip();
+        while (readBuffer.hasRemaining() && !inputClosed) {
+            byte b = readBuffer.get();
+            if (b != '\n') {
+                appendToLine(b);
+                continue;
+            }
+            int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+            String command = new String(line, 0, length, StandardCharsets.UTF_8);
+            lineLength = 0;
+            if (CommandServer.QUIT.equals(command)) {
+                stopReading();
+            } else if (!command.isEmpty()) {
+                lines.add(command);
+            }
+        }
+        readBuffer.clear();
+        if (!lines.isEmpty()) {
+            submit(lines);
+        }
+        if (!inputClosed && pendingOutput.get() > MAX_PENDING_OUTPUT) {
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    void write() throws IOException {
+        ByteBuffer head;
+        while ((head = outbound.peek()) != null) {
+            int written = channel.write(head);
+            pendingOutput.addAndGet(-written);
+            if (head.hasRemaining()) {
+                return;
+            }
+            outbound.poll();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (readPaused && !inputClosed) {
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+        closeIfDone();
+    }
+
+    void enableWrites() throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (outbound.isEmpty()) {
+            closeIfDone();
+        } else {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void submit(List<String> lines) {
+        synchronized (this) {
+            inbox.addAll(lines);
+            if (processing) {
+                return;
+            }
+            processing = true;
+        }
+        server.execute(this::drain);
+    }
+
+    /**
+     * Runs every queued command and queues all their responses as a single buffer.
+     */
+    private void drain() {
+        while (true) {
+            List<String> batch;
+            synchronized (this) {
+                if (inbox.isEmpty()) {
+                    processing = false;
+                    break;
+                }
+                batch = new ArrayList<>(inbox);
+                inbox.clear();
+            }
+            StringBuilder responses = new StringBuilder();
+            for (String command : batch) {
+                responses.append(respond(command)).append('\n');
+            }
+            byte[] bytes = responses.toString().getBytes(StandardCharsets.UTF_8);
+            pendingOutput.addAndGet(bytes.length);
+            outbound.add(ByteBuffer.wrap(bytes));
+        }
+        server.requestWrite(this);
+    }
+
+    private String respond(String line) {
+        if (CommandServer.CHECKPOINT.equals(line)) {
+            return checkpoint();
+        } else if (line.startsWith(CommandServer.RESTORE + " ")) {
+            return restore(line);
+        }
+        String[] idAndCommand = PortfolioEngine.splitPortfolioId(line);
+        Driver driver = drivers.get(idAndCommand[0]);
+        CommandMetrics.shared().recordPortfolioLookup(driver == null);
+        if (driver == null) {
+            driver = new Driver(server.newService());
+            drivers.put(idAndCommand[0], driver);
+        }
+        String output = driver.processCommand(idAndCommand[1]);
+        ResultCode result = driver.getLastResult();
+        if (result.isError()) {
+            return error(result);
+        }
+        return output == null ? "" : output;
+    }
+
+    private String checkpoint() {
+        StringBuilder response = new StringBuilder();
+        Base64.Encoder encoder = Base64.getEncoder();
+        try {
+            for (Map.Entry<String, Driver> entry : drivers.entrySet()) {
+                if (response.length() > 0) {
+                    response.append(' ');
+                }
+                response.append(entry.getKey()).append(' ')
+                        .append(encoder.encodeToString(server.checkpoint(entry.getValue().getPortfolioService())));
+            }
+        } catch (IOException e) {
+            return error(ResultCode.FAILED);
+        }
+        return response.toString();
+    }
+
+    private String restore(String line) {
+        int idEnd = line.indexOf(' ', CommandServer.RESTORE.length() + 1);
+        if (idEnd < 0) {
+            return error(ResultCode.WRONG_ARITY);
+        }
+        try {
+            byte[] state = Base64.getDecoder().decode(line.substring(idEnd + 1));
+            drivers.put(line.substring(CommandServer.RESTORE.length() + 1, idEnd), new Driver(server.restore(state)));
+        } catch (IOException | IllegalArgumentException e) {
+            return error(ResultCode.FAILED);
+        }
+        return "";
+    }
+
+    private static String error(ResultCode result) {
+        return CommandServer.ERROR + " " + result + " " + result.getDescription();
+    }
+
+    private void appendToLine(byte b) throws IOException {
+        if (lineLength == CommandServer.MAX_LINE_LENGTH) {
+            throw new IOException("Line longer than " + CommandServer.MAX_LINE_LENGTH + " bytes");
+        }
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, Math.min(CommandServer.MAX_LINE_LENGTH, line.length * 2));
+        }
+        line[lineLength++] = b;
+    }
+
+    private void stopReading() {
+        inputClosed = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    private void closeIfDone() throws IOException {
+        if (!inputClosed || !outbound.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (processing || !inbox.isEmpty()) {
+                return;
+            }
+        }
+        key.cancel();
+        channel.close();
+    }
+}
@@ -0,0 +1,57 @@
+package org.navi.mymoney.services;
+
+import lombok.Getter;
+import java.time.Month;
+import java.time.YearMonth;
+
+/**
+ * The month-end balances of a {@link ConcurrentPortfolioService} as they were at one version of its state.
+ * <p>
+ * Immutable: it answers <code>BALANCE</code> the same way however many commands were applied since, from any thread.
+ */
+public final class BalanceSnapshot {
+    // Number of commands run against the state before this snapshot, rejected ones included.
+    @Getter
+    private final long version;
+    private final Integer firstYear;
+    private final int totalAssetClasses;
+    @Getter
+    private final int computedMonths;
+    // Balances of the assets month after month. Only the first computedMonths months belong to this snapshot,
+    // the array may be shared with later ones, which only append to it.
+    private final int[] balances;
+
+    BalanceSnapshot(long version, Integer firstYear, int totalAssetClasses, int computedMonths, int[] balances) {
+        this.version = version;
+        this.firstYear = firstYear;
+        this.totalAssetClasses = totalAssetClasses;
+        this.computedMonths = computedMonths;
+        this.balances = balances;
+    }
+
+    public String balance(Month month) {
+        return balance(month.ordinal());
+    }
+
+    public String balance(YearMonth yearMonth) {
+        if (firstYear == null) {
+            throw new IllegalStateException("No CHANGE with a year is registered, " + yearMonth + " is unknown");
+        }
+        return balance(PortfolioServiceImpl.monthIndex(yearMonth, firstYear));
+    }
+
+    private String balance(int month) {
+        if (month >= computedMonths) {
+            throw new IllegalStateException("The balance for " + PortfolioServiceImpl.monthName(month, firstYear)
+                    + " can't be computed from the supplied inputs");
+        }
+        StringBuilder output = new StringBuilder();
+        for (int asset = 0; asset < totalAssetClasses; asset++) {
+            if (asset > 0) {
+                output.append(' ');
+            }
+            output.append(balances[month * totalAssetClasses + asset]);
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,177 @@
+package org.navi.mymoney.services;
+
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.dao.MonthlyBalanceIndex;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.validation.ResultCode;
+
+import java.math.BigDecimal;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.InputMismatchException;
+import java.util.function.Supplier;
+
+/**
+ * A {@link PortfolioService} that can be shared between threads.
+ * <p>
+ * The commands that change the state run one at a time on a {@link PortfolioServiceImpl}, and each of them publishes
+ * a new {@link BalanceSnapshot} holding the balance of every computed month. <code>BALANCE</code> is answered from
+ * the latest published snapshot: it takes no lock and never touches the state of the portfolio, so readers don't wait
+ * for writers and always see the state between two whole commands.
+ * <p>
+ * The snapshots keep the balances of all the months, where the wrapped service only keeps the recent ones and
+ * replays the others, so this costs a few bytes per month on top of the portfolio.
+ */
+public class ConcurrentPortfolioService implements PortfolioService {
+    private final PortfolioServiceImpl delegate;
+    private final DataStub dataStub;
+    private final int totalAssetClasses;
+    private final Object writeLock = new Object();
+    // Guarded by writeLock. The balances month after month; appended to in place, and copied before a month the
+    // published snapshot already has gets rewritten.
+    private int[] balances;
+    private boolean published;
+    private volatile BalanceSnapshot snapshot;
+
+    public ConcurrentPortfolioService(NumericEngine numericEngine) {
+        this(numericEngine, ReBalancePolicy.NONE);
+    }
+
+    public ConcurrentPortfolioService(NumericEngine numericEngine, ReBalancePolicy reBalancePolicy) {
+        this(new DataStub(), new Portfolio(new HashSet<>()), numericEngine, reBalancePolicy);
+    }
+
+    public ConcurrentPortfolioService(DataStub dataStub, Portfolio portfolio, NumericEngine numericEngine) {
+        this(dataStub, portfolio, numericEngine, ReBalancePolicy.NONE);
+    }
+
+    /**
+     * @param dataStub  state of a portfolio that is not allocated yet.
+     * @param portfolio holdings of that portfolio.
+     */
+    public ConcurrentPortfolioService(DataStub dataStub, Portfolio portfolio, NumericEngine numericEngine,
+                                      ReBalancePolicy reBalancePolicy) {
+        if (portfolio.isAllocated()) {
+            throw new IllegalArgumentException("The portfolio must be empty, its earlier balances are unknown");
+        }
+        this.dataStub = dataStub;
+        this.delegate = new PortfolioServiceImpl(dataStub, portfolio, numericEngine, reBalancePolicy);
+        this.delegate.setMonthRecordedListener(this::recordBalance);
+        this.totalAssetClasses = delegate.getAssetUniverse().size();
+        this.balances = new int[MonthlyBalanceIndex.MONTHS_PER_YEAR * totalAssetClasses];
+        this.snapshot = new BalanceSnapshot(0, null, totalAssetClasses, 0, balances);
+    }
+
+    /**
+     * Only applies to the months computed from now on, see {@link PortfolioServiceImpl#setReBalancePolicy}.
+     */
+    public void setReBalancePolicy(ReBalancePolicy reBalancePolicy) {
+        synchronized (writeLock) {
+            delegate.setReBalancePolicy(reBalancePolicy);
+        }
+    }
+
+    /**
+     * @return the latest state, to run several reads against the same version.
+     */
+    public BalanceSnapshot snapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public AssetUniverse getAssetUniverse() {
+        return delegate.getAssetUniverse();
+    }
+
+    @Override
+    public void allocate(BigDecimal[] allocations) throws IllegalStateException {
+        write(() -> {
+            delegate.allocate(allocations);
+            return null;
+        });
+    }
+
+    @Override
+    public void initSip(BigDecimal[] sips) throws IllegalStateException {
+        write(() -> {
+            delegate.initSip(sips);
+            return null;
+        });
+    }
+
+    @Override
+    public void change(double[] rates, Month month) throws InputMismatchException {
+        write(() -> {
+            delegate.change(rates, month);
+            return null;
+        });
+    }
+
+    @Override
+    public void change(double[] rates, YearMonth yearMonth) throws InputMismatchException {
+        write(() -> {
+            delegate.change(rates, yearMonth);
+            return null;
+        });
+    }
+
+    @Override
+    public String balance(Month month) {
+        return snapshot.balance(month);
+    }
+
+    @Override
+    public String balance(YearMonth yearMonth) {
+        return snapshot.balance(yearMonth);
+    }
+
+    @Override
+    public String reBalance() {
+        return write(delegate::reBalance);
+    }
+
+    /**
+     * Checks against the state the writers leave, so it waits for a command being written like any other writer.
+     */
+    @Override
+    public ResultCode validate(ParsedCommand command) {
+        synchronized (writeLock) {
+            return delegate.validate(command);
+        }
+    }
+
+    private <T> T write(Supplier<T> command) {
+        synchronized (writeLock) {
+            try {
+                return command.get();
+            } finally {
+                // Rejected commands leave the state as it was, publishing it again is harmless.
+                BalanceSnapshot previous = snapshot;
+                snapshot = new BalanceSnapshot(previous.getVersion() + 1, dataStub.getFirstYear(), totalAssetClasses,
+                        dataStub.getMonthlyBalance().getComputedMonths(), balances);
+                published = true;
+            }
+        }
+    }
+
+    // Called by the delegate, with writeLock held.
+    private void recordBalance(int month) {
+        int offset = month * totalAssetClasses;
+        if (offset + totalAssetClasses > balances.length) {
+            balances = Arrays.copyOf(balances, Math.max(balances.length * 2, offset + totalAssetClasses));
+            published = false;
+        } else if (published && month < snapshot.getComputedMonths()) {
+            balances = balances.clone();
+            published = false;
+        }
+        for (int asset = 0; asset < totalAssetClasses; asset++) {
+            balances[offset + asset] = dataStub.getMonthlyBalance().getBalance(month, asset);
+        }
+    }
+}
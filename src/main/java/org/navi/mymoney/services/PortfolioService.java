@@ -1,22 +1,89 @@
 package org.navi.mymoney.services;
 
 import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.output.ChannelOutput;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.validation.ResultCode;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.Month;
+import java.time.YearMonth;
 import java.util.InputMismatchException;
 import java.util.Map;
 
+/**
+ * The commands of one portfolio. Amounts and rates are indexed by the ids of {@link #getAssetUniverse()}; the
+ * variants taking maps keyed by {@link AssetClass} are there for the default universe.
+ */
 public interface PortfolioService {
-    void allocate(Map<AssetClass, BigDecimal> allocations) throws IllegalStateException;
+    default AssetUniverse getAssetUniverse() {
+        return AssetUniverse.DEFAULT;
+    }
 
-    void initSip(Map<AssetClass, BigDecimal> sips) throws IllegalStateException;
+    void allocate(BigDecimal[] allocations) throws IllegalStateException;
 
-    void change(Map<AssetClass, Double> rates, Month month) throws InputMismatchException;
+    default void allocate(Map<AssetClass, BigDecimal> allocations) throws IllegalStateException {
+        allocate(getAssetUniverse().toArray(allocations));
+    }
+
+    void initSip(BigDecimal[] sips) throws IllegalStateException;
+
+    default void initSip(Map<AssetClass, BigDecimal> sips) throws IllegalStateException {
+        initSip(getAssetUniverse().toArray(sips));
+    }
+
+    /**
+     * Registers the rates of <code>month</code> in the first year of the timeline.
+     */
+    void change(double[] rates, Month month) throws InputMismatchException;
+
+    default void change(Map<AssetClass, Double> rates, Month month) throws InputMismatchException {
+        change(getAssetUniverse().toRates(rates), month);
+    }
+
+    /**
+     * Registers the rates of a month of a multi-year timeline. The first call fixes the calendar year the timeline
+     * starts in, from its JANUARY; months given without a year belong to that first year.
+     */
+    void change(double[] rates, YearMonth yearMonth) throws InputMismatchException;
+
+    default void change(Map<AssetClass, Double> rates, YearMonth yearMonth) throws InputMismatchException {
+        change(getAssetUniverse().toRates(rates), yearMonth);
+    }
 
     String balance(Month month);
 
+    String balance(YearMonth yearMonth);
+
     String reBalance();
 
+    /**
+     * Same as {@link #balance(Month)}, the balances written to <code>output</code> as one line.
+     *
+     * @throws IOException only if <code>output</code> has to be flushed and can't be.
+     */
+    default void balance(Month month, ChannelOutput output) throws IOException {
+        output.writeLine(balance(month));
+    }
+
+    default void balance(YearMonth yearMonth, ChannelOutput output) throws IOException {
+        output.writeLine(balance(yearMonth));
+    }
+
+    default void reBalance(ChannelOutput output) throws IOException {
+        output.writeLine(reBalance());
+    }
+
+    /**
+     * Tells, without throwing, whether the current state would reject a decoded command. {@link ResultCode#OK} is no
+     * promise: the command may still fail for a reason the service doesn't check up front, which is all this default
+     * does.
+     */
+    default ResultCode validate(ParsedCommand command) {
+        return ResultCode.OK;
+    }
+
 //    int getSupportedAssetClass();
 }
@@ -1,154 +1,672 @@
 package org.navi.mymoney.services;
 
 import org.navi.mymoney.constants.Constants;
+import org.navi.mymoney.dao.AmountColumns;
 import org.navi.mymoney.dao.DataStub;
-import org.navi.mymoney.constants.AssetClass;
-import org.navi.mymoney.models.AssetHolding;
+import org.navi.mymoney.dao.MonthlyBalanceIndex;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.metrics.CommandMetrics;
 import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.FixedPoint;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.output.ChannelOutput;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.rebalance.PortfolioDrift;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.validation.ResultCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Month;
+import java.time.YearMonth;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.function.IntConsumer;
 
 @Service
 public class PortfolioServiceImpl implements PortfolioService {
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    private static final int NOT_RE_BALANCED = -1;
+    private static final int OUTSIDE_TIMELINE = -1;
+
     private final DataStub dataStub;
     private final Portfolio portfolio;
+    private final NumericEngine numericEngine;
+    private final AssetUniverse universe;
+    private final int assets;
+
+    // The holdings, SIP and weights are cells of the columnar store, see ColumnarStateStore.
+    private final AmountColumns holdings;
+    private final int firstHoldingCell;
+    private final AmountColumns settings;
+    // Holdings being replayed from a checkpoint, allocated on the first replay.
+    private AmountColumns replayed;
+    private final long[] reBalancedUnscaled;
+    private IntConsumer monthRecordedListener;
+    private ReBalancePolicy reBalancePolicy;
+    // Month-end balances seen by the policy, built on the first month it is asked about.
+    private PortfolioDrift drift;
+    private final CommandMetrics metrics = CommandMetrics.shared();
 
     private final Logger logger = LoggerFactory.getLogger(PortfolioServiceImpl.class);
 
     public PortfolioServiceImpl(DataStub dataStub, Portfolio portfolio) {
+        this(dataStub, portfolio, NumericEngine.BIG_DECIMAL);
+    }
+
+    public PortfolioServiceImpl(DataStub dataStub, Portfolio portfolio, NumericEngine numericEngine) {
+        this(dataStub, portfolio, numericEngine, ReBalancePolicy.NONE);
+    }
+
+    @Autowired
+    public PortfolioServiceImpl(DataStub dataStub, Portfolio portfolio,
+                                @Value("${mymoney.numeric.engine:BIG_DECIMAL}") NumericEngine numericEngine,
+                                @Value("${mymoney.rebalance.policy:NONE}") String reBalancePolicy) {
+        this(dataStub, portfolio, numericEngine, ReBalancePolicy.parse(reBalancePolicy));
+    }
+
+    public PortfolioServiceImpl(DataStub dataStub, Portfolio portfolio, NumericEngine numericEngine,
+                                ReBalancePolicy reBalancePolicy) {
         this.dataStub = dataStub;
         this.portfolio = portfolio;
+        this.numericEngine = numericEngine;
+        this.universe = dataStub.getAssetUniverse();
+        if (!universe.equals(portfolio.getAssetUniverse())) {
+            throw new IllegalArgumentException("The portfolio and its data aren't of the same asset universe");
+        }
+        this.assets = universe.size();
+        this.reBalancedUnscaled = new long[assets];
+        this.holdings = portfolio.getAmounts();
+        this.firstHoldingCell = portfolio.holdingCell(0);
+        this.settings = dataStub.getAmounts();
+        this.reBalancePolicy = Objects.requireNonNull(reBalancePolicy);
+    }
+
+    /**
+     * Forgets what was derived from the state of the portfolio, for a service whose {@link DataStub} and
+     * {@link Portfolio} were moved to another portfolio, see {@link org.navi.mymoney.dao.StateRecord}.
+     */
+    public void stateMoved() {
+        drift = null;
+    }
+
+    public DataStub getDataStub() {
+        return dataStub;
+    }
+
+    public Portfolio getPortfolio() {
+        return portfolio;
+    }
+
+    /**
+     * Only applies to the months computed from now on, the months already computed keep their re-balances.
+     */
+    public void setReBalancePolicy(ReBalancePolicy reBalancePolicy) {
+        this.reBalancePolicy = Objects.requireNonNull(reBalancePolicy);
     }
 
     @Override
-    public void allocate(Map<AssetClass, BigDecimal> allocations) throws IllegalStateException {
-        if (!portfolio.getHoldings().isEmpty()) {
+    public AssetUniverse getAssetUniverse() {
+        return universe;
+    }
+
+    @Override
+    public void allocate(BigDecimal[] allocations) throws IllegalStateException {
+        if (portfolio.isAllocated()) {
             throw new IllegalStateException("The funds are already Allocated Once");
         }
-        if (allocations.size() != AssetClass.values().length) {
+        if (!isComplete(allocations)) {
             throw new IllegalStateException("Please allocate funds to all the asset classes.");
         }
-        allocations.forEach((assetClass, amount) -> portfolio.addHolding(new AssetHolding(assetClass, amount)));
+        for (int asset = 0; asset < assets; asset++) {
+            holdings.set(holdingCell(asset), allocations[asset]);
+        }
 
-        dataStub.desiredWeights = calculateDesiredWeight();
-        logger.debug("Portfolio initialized with initial allocation of {} and desired weights of {}",
-                portfolio.getHoldings(), dataStub.desiredWeights);
+        calculateDesiredWeight();
+        dataStub.getMonthlyBalance().checkpoint(MonthlyBalanceIndex.INITIAL_CHECKPOINT, holdings, firstHoldingCell);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Portfolio initialized with initial allocation of {} and desired weights of {}",
+                    describe(holdings, firstHoldingCell), describe(settings, dataStub.desiredWeightCell(0)));
+        }
+        computeBalances();
     }
 
     @Override
-    public void initSip(Map<AssetClass, BigDecimal> sips) throws IllegalStateException {
+    public void initSip(BigDecimal[] sips) throws IllegalStateException {
         // Since sip always starts from Feb, we disallow entering multiple sips
-        if (!dataStub.initialSip.isEmpty()) {
+        if (dataStub.hasSip()) {
             throw new IllegalStateException("The SIP is already registered once");
         }
-        if (sips.size() != AssetClass.values().length) {
+        if (!isComplete(sips)) {
             throw new IllegalStateException("Please start SIP in all the asset classes.");
         }
-        dataStub.initialSip.putAll(sips);
-        logger.debug("Portfolio initialized with a monthly sip of {}", dataStub.initialSip);
+        dataStub.setInitialSip(sips);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Portfolio initialized with a monthly sip of {}", describe(settings, dataStub.sipCell(0)));
+        }
+        computeBalances();
     }
 
     @Override
-    public void change(Map<AssetClass, Double> assetClassRates, Month month) throws InputMismatchException {
-        if (Objects.nonNull(dataStub.monthlyMarketChangeRate.getOrDefault(month, null))) {
-            throw new InputMismatchException(
-                    "The Rate of Change for month " + month.name() + " is already registered");
+    public void change(double[] rates, Month month) throws InputMismatchException {
+        if (Objects.isNull(month)) {
+            throw new InputMismatchException("One of the supplied parameter is null.");
         }
-        if (Objects.isNull(assetClassRates) || Objects.isNull(month)) {
+        registerChange(rates, month.ordinal());
+    }
+
+    @Override
+    public void change(double[] rates, YearMonth yearMonth) throws InputMismatchException {
+        if (Objects.isNull(yearMonth)) {
             throw new InputMismatchException("One of the supplied parameter is null.");
         }
-        if (assetClassRates.size() != AssetClass.values().length) {
-            throw new InputMismatchException("The input is not in the desired format");
+        Integer firstYear = dataStub.getFirstYear();
+        if (firstYear == null) {
+            dataStub.setFirstYear(yearMonth.getYear());
+        }
+        try {
+            registerChange(rates, monthIndex(yearMonth));
+        } catch (RuntimeException e) {
+            dataStub.setFirstYear(firstYear);
+            throw e;
         }
+    }
 
-        dataStub.monthlyMarketChangeRate.put(month, assetClassRates);
+    /**
+     * @param listener called with every month whose balance gets recorded, while it is still a recent month of
+     *                 {@link DataStub#monthlyBalance}.
+     */
+    void setMonthRecordedListener(IntConsumer listener) {
+        this.monthRecordedListener = listener;
     }
 
     @Override
     public String balance(Month month) {
-        IntStream.range(1, month.getValue() + 1).forEach(monthNum -> {
-            Month currMonth = Month.of(monthNum);
-            Map<AssetClass, Double> monthlyRateChange = dataStub.monthlyMarketChangeRate.get(currMonth);
-            if (!dataStub.monthlyBalance.containsKey(currMonth)) {
-                portfolio.getHoldings().forEach(holding -> {
-                    if (monthNum > 1) {
-                        // After SIP - Starts from FEB.
-                        holding.setAmountInvested(holding.getAmountInvested().add(dataStub.initialSip.get(holding.getAssetClass())));
-                    }
-                    // After market change
-                    BigDecimal currAmount = holding.getAmountInvested();
-                    BigDecimal delta = currAmount.multiply(BigDecimal.valueOf(monthlyRateChange.get(holding.getAssetClass())))
-                            .divide(BigDecimal.valueOf(100), RoundingMode.FLOOR);
-                    holding.setAmountInvested(currAmount.add(delta));
-                });
-                dataStub.monthlyBalance.put(currMonth, portfolio.getHoldings().stream().map(AssetHolding::clone).collect(Collectors.toSet()));
-            }
-        });
+        return balance(month.ordinal());
+    }
+
+    @Override
+    public String balance(YearMonth yearMonth) {
+        return balance(timelineMonth(yearMonth));
+    }
 
-        Map<AssetClass, BigDecimal> holdings = portfolio.getHoldings().stream().collect(Collectors.toMap(AssetHolding::getAssetClass, AssetHolding::getAmountInvested));
-        logger.debug("Balance after {} - {}", month, holdings);
+    @Override
+    public void balance(Month month, ChannelOutput output) throws IOException {
+        balance(month.ordinal(), output);
+    }
 
-        return Arrays.stream(AssetClass.values()).map(assetClass -> {
-            BigDecimal amount = holdings.get(assetClass);
-            return String.valueOf(Double.valueOf(Math.floor(amount.doubleValue())).intValue());
-        }).collect(Collectors.joining(" "));
+    @Override
+    public void balance(YearMonth yearMonth, ChannelOutput output) throws IOException {
+        balance(timelineMonth(yearMonth), output);
     }
 
     @Override
     public String reBalance() {
-        if (dataStub.monthlyMarketChangeRate.size() < 6) {
-            return Constants.CANNOT_REBALANCE;
+        int reBalanceMonth = reBalanceLatestPeriod();
+        return reBalanceMonth == NOT_RE_BALANCED ? Constants.CANNOT_REBALANCE : formatBalance(reBalanceMonth);
+    }
+
+    @Override
+    public void reBalance(ChannelOutput output) throws IOException {
+        int reBalanceMonth = reBalanceLatestPeriod();
+        if (reBalanceMonth == NOT_RE_BALANCED) {
+            output.writeLine(Constants.CANNOT_REBALANCE);
+        } else {
+            writeBalance(reBalanceMonth, output);
         }
+    }
 
-        Month reBalanceMonth;
-        if (dataStub.monthlyMarketChangeRate.size() < 12) {
-            reBalanceMonth = Month.JUNE;
+    /**
+     * Checks the same state as the commands do before they change anything, so a rejected command never gets as far
+     * as an exception.
+     */
+    @Override
+    public ResultCode validate(ParsedCommand command) {
+        MonthlyBalanceIndex index = dataStub.getMonthlyBalance();
+        Integer registeredFirstYear = dataStub.getFirstYear();
+        switch (command.getCommand()) {
+            case ALLOCATE:
+                return portfolio.isAllocated() ? ResultCode.ALREADY_ALLOCATED : ResultCode.OK;
+            case SIP:
+                return dataStub.hasSip() ? ResultCode.SIP_ALREADY_REGISTERED : ResultCode.OK;
+            case CHANGE: {
+                // The first CHANGE with a year starts the timeline, so its month is always on it.
+                int firstYear = registeredFirstYear != null ? registeredFirstYear : command.getYear();
+                int month = command.hasYear()
+                        ? timelineIndex(command.getYear(), command.getMonth(), firstYear)
+                        : command.getMonth().ordinal();
+                if (month == OUTSIDE_TIMELINE || !dataStub.getMonthlyMarketChangeRate().canHold(month)) {
+                    return ResultCode.OUTSIDE_TIMELINE;
+                }
+                return dataStub.getMonthlyMarketChangeRate().containsKey(month)
+                        ? ResultCode.CHANGE_ALREADY_REGISTERED : ResultCode.OK;
+            }
+            case BALANCE: {
+                int month = command.getMonth().ordinal();
+                if (command.hasYear()) {
+                    if (registeredFirstYear == null) {
+                        return ResultCode.NO_YEAR_REGISTERED;
+                    }
+                    month = timelineIndex(command.getYear(), command.getMonth(), registeredFirstYear);
+                    if (month == OUTSIDE_TIMELINE) {
+                        return ResultCode.OUTSIDE_TIMELINE;
+                    }
+                }
+                return index.isComputed(month) ? ResultCode.OK : ResultCode.BALANCE_NOT_COMPUTED;
+            }
+            case REBALANCE: {
+                int reBalanceMonth = latestReBalanceMonth();
+                return reBalanceMonth == NOT_RE_BALANCED || index.isComputed(reBalanceMonth)
+                        ? ResultCode.OK : ResultCode.BALANCE_NOT_COMPUTED;
+            }
+            default:
+                return ResultCode.OK;
+        }
+    }
 
-            IntStream.range(Month.JUNE.getValue(), Month.DECEMBER.getValue() + 1)
-                    .forEach(monthNum -> dataStub.monthlyBalance.remove(Month.of(monthNum)));
+    /**
+     * Re-balances the latest re-balance point covered by the registered months and recomputes the months after it.
+     *
+     * @return the re-balanced month, still a recent month of the index: at most <code>REBALANCE_PERIOD - 1</code>
+     * months are computed after it. {@link #NOT_RE_BALANCED} if less than a period is registered.
+     */
+    private int reBalanceLatestPeriod() {
+        int reBalanceMonth = latestReBalanceMonth();
+        if (reBalanceMonth == NOT_RE_BALANCED) {
+            return NOT_RE_BALANCED;
+        }
+        MonthlyBalanceIndex index = dataStub.getMonthlyBalance();
+        if (!index.isComputed(reBalanceMonth)) {
+            throw new IllegalStateException("The balance for " + monthName(reBalanceMonth) + " can't be computed from the supplied inputs");
+        }
+
+        // Re-balance from the holdings as they were before any earlier re-balance of that month, then recompute only
+        // the months after it.
+        AmountColumns reBalanced = replay(reBalanceMonth - 1);
+        applyMonth(reBalanced, 0, reBalanceMonth, false);
+        reBalanceHoldings(reBalanced, 0);
+        index.invalidateFrom(reBalanceMonth);
+        index.markReBalanced(reBalanceMonth);
+        holdings.copy(reBalanced, 0, firstHoldingCell, assets);
+        recordMonth(reBalanceMonth);
+        if (logger.isDebugEnabled()) {
+            logger.debug("After re-balance in {} - {}", monthName(reBalanceMonth), describe(holdings, firstHoldingCell));
+        }
+
+        computeBalances();
+        return reBalanceMonth;
+    }
 
-            Map<AssetClass, BigDecimal> assetAmount = dataStub.monthlyBalance.get(Month.MAY).stream().collect(
-                    Collectors.toMap(AssetHolding::getAssetClass, AssetHolding::getAmountInvested));
-            portfolio.getHoldings().forEach(holding -> holding.setAmountInvested(assetAmount.get(holding.getAssetClass())));
+    /**
+     * @return the latest re-balance point covered by the registered months: JUNE, DECEMBER, the JUNE after, ...
+     * {@link #NOT_RE_BALANCED} if less than a period is registered.
+     */
+    private int latestReBalanceMonth() {
+        int registeredMonths = dataStub.getMonthlyMarketChangeRate().size();
+        if (registeredMonths < MonthlyBalanceIndex.REBALANCE_PERIOD) {
+            return NOT_RE_BALANCED;
+        }
+        return registeredMonths / MonthlyBalanceIndex.REBALANCE_PERIOD * MonthlyBalanceIndex.REBALANCE_PERIOD - 1;
+    }
 
+    private void registerChange(double[] rates, int month) throws InputMismatchException {
+        if (dataStub.getMonthlyMarketChangeRate().containsKey(month)) {
+            throw new InputMismatchException(
+                    "The Rate of Change for month " + monthName(month) + " is already registered");
+        }
+        if (Objects.isNull(rates)) {
+            throw new InputMismatchException("One of the supplied parameter is null.");
+        }
+        if (rates.length != assets) {
+            throw new InputMismatchException("The input is not in the desired format");
+        }
+        if (!dataStub.getMonthlyMarketChangeRate().canHold(month)) {
+            throw new InputMismatchException(monthName(month) + " is past the timeline the state store holds");
+        }
+
+        dataStub.getMonthlyMarketChangeRate().put(month, rates);
+        computeBalances();
+    }
+
+    private int timelineMonth(YearMonth yearMonth) {
+        if (dataStub.getFirstYear() == null) {
+            throw new IllegalStateException("No CHANGE with a year is registered, " + yearMonth + " is unknown");
+        }
+        return monthIndex(yearMonth);
+    }
+
+    private String balance(int month) {
+        return isRecentBalance(month) ? formatBalance(month) : formatBalance(replay(month));
+    }
+
+    private void balance(int month, ChannelOutput output) throws IOException {
+        if (isRecentBalance(month)) {
+            writeBalance(month, output);
         } else {
-            reBalanceMonth = Month.DECEMBER;
+            writeBalance(replay(month), output);
+        }
+    }
+
+    /**
+     * @return whether the balance of the month is read from the index, otherwise it has to be replayed.
+     * @throws IllegalStateException if the month isn't computed.
+     */
+    private boolean isRecentBalance(int month) {
+        MonthlyBalanceIndex index = dataStub.getMonthlyBalance();
+        if (!index.isComputed(month)) {
+            throw new IllegalStateException("The balance for " + monthName(month) + " can't be computed from the supplied inputs");
+        }
+        if (index.isRecent(month)) {
+            metrics.recordRecentBalance();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the holdings forward through every month that can be computed with the inputs received so far, recording
+     * the month-end balances in {@link DataStub#monthlyBalance}.
+     */
+    private void computeBalances() {
+        MonthlyBalanceIndex index = dataStub.getMonthlyBalance();
+        if (!portfolio.isAllocated()) {
+            return;
         }
+        while (true) {
+            int month = index.getComputedMonths();
+            // SIP starts from the second month.
+            boolean withSip = month > 0;
+            if (!dataStub.getMonthlyMarketChangeRate().containsKey(month) || (withSip && !dataStub.hasSip())) {
+                return;
+            }
+            applyMonth(holdings, firstHoldingCell, month, true);
+            closeMonth(month);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Balance after {} - {}", monthName(month), describe(holdings, firstHoldingCell));
+            }
+        }
+    }
+
+    /**
+     * Recomputes the holdings at the end of a computed month from the closest checkpoint before it.
+     *
+     * @return columns holding the amounts from cell <code>0</code>, overwritten by the next replay.
+     */
+    private AmountColumns replay(int month) {
+        if (replayed == null) {
+            replayed = new AmountColumns(assets);
+        }
+        int checkpointMonth = dataStub.getMonthlyBalance().floorCheckpoint(month, replayed, 0);
+        for (int m = checkpointMonth + 1; m <= month; m++) {
+            applyMonth(replayed, 0, m, true);
+        }
+        metrics.recordReplay(month - checkpointMonth);
+        return replayed;
+    }
+
+    private void applyMonth(AmountColumns amounts, int firstCell, int month, boolean withReBalance) {
+        boolean withSip = month > 0;
+        for (int asset = 0; asset < assets; asset++) {
+            applyChange(amounts, firstCell + asset, asset, withSip, dataStub.getMonthlyMarketChangeRate().getRate(month, asset));
+        }
+        if (withReBalance && dataStub.getMonthlyBalance().isReBalanced(month)) {
+            reBalanceHoldings(amounts, firstCell);
+        }
+    }
+
+    private void applyChange(AmountColumns amounts, int cell, int asset, boolean withSip, double rate) {
+        if (numericEngine == NumericEngine.FIXED_POINT && applyScaledChange(amounts, cell, asset, withSip, rate)) {
+            return;
+        }
+        BigDecimal currAmount = amounts.get(cell);
+        if (withSip) {
+            currAmount = currAmount.add(settings.get(dataStub.sipCell(asset)));
+        }
+        // After market change
+        BigDecimal delta = currAmount.multiply(BigDecimal.valueOf(rate)).divide(HUNDRED, RoundingMode.FLOOR);
+        amounts.set(cell, currAmount.add(delta));
+    }
+
+    private void reBalanceHoldings(AmountColumns amounts, int firstCell) {
+        if (numericEngine == NumericEngine.FIXED_POINT && reBalanceScaled(amounts, firstCell)) {
+            return;
+        }
+        BigDecimal totalValue = BigDecimal.ZERO;
+        for (int asset = 0; asset < assets; asset++) {
+            totalValue = totalValue.add(amounts.get(firstCell + asset));
+        }
+        for (int asset = 0; asset < assets; asset++) {
+            BigDecimal weight = settings.get(dataStub.desiredWeightCell(asset));
+            amounts.set(firstCell + asset, totalValue.multiply(weight).divide(HUNDRED, RoundingMode.FLOOR));
+        }
+    }
 
-        this.balance(reBalanceMonth);
-        BigDecimal totalValue = portfolio.getTotalInvestment();
-        portfolio.getHoldings().forEach(holding -> {
-            BigDecimal weight = dataStub.desiredWeights.get(holding.getAssetClass());
-            holding.setAmountInvested(totalValue.multiply(weight).divide(BigDecimal.valueOf(100), RoundingMode.FLOOR));
-        });
+    /**
+     * Applies the SIP and the market change of a month with {@link FixedPoint} arithmetic.
+     *
+     * @return <code>false</code> if the amount has to go through the <code>BigDecimal</code> path instead, it is
+     * left untouched in that case.
+     */
+    private boolean applyScaledChange(AmountColumns amounts, int cell, int asset, boolean withSip, double rate) {
+        int sipCell = dataStub.sipCell(asset);
+        long basisPoints = FixedPoint.basisPoints(rate);
+        if (!amounts.isScaled(cell) || basisPoints == FixedPoint.NOT_REPRESENTABLE || (withSip && !settings.isScaled(sipCell))) {
+            return false;
+        }
+        try {
+            long amount = amounts.getUnscaled(cell);
+            int scale = amounts.getScale(cell);
+            if (withSip) {
+                amount = FixedPoint.add(amount, scale, settings.getUnscaled(sipCell), settings.getScale(sipCell));
+                scale = Math.max(scale, settings.getScale(sipCell));
+            }
+            long delta = FixedPoint.percentOf(amount, FixedPoint.rateUnscaled(basisPoints));
+            int changedScale = scale + FixedPoint.rateScale(basisPoints);
+            amounts.setScaled(cell, Math.addExact(FixedPoint.rescale(amount, scale, changedScale), delta), changedScale);
+            return true;
+        } catch (ArithmeticException e) {
+            // Outgrew a long: the BigDecimal path takes over, and keeps it in the overflow column while it doesn't fit.
+            return false;
+        }
+    }
 
-        Map<AssetClass, BigDecimal> holdings = portfolio.getHoldings().stream().collect(
-                Collectors.toMap(AssetHolding::getAssetClass, AssetHolding::getAmountInvested));
-        logger.debug("After re-balance in {} - {}", reBalanceMonth, holdings);
+    /**
+     * Re-balances the holdings with {@link FixedPoint} arithmetic.
+     *
+     * @return <code>false</code> if the <code>BigDecimal</code> path has to be used instead, holdings are left
+     * untouched in that case.
+     */
+    private boolean reBalanceScaled(AmountColumns amounts, int firstCell) {
+        long total = 0;
+        int totalScale = 0;
+        for (int asset = 0; asset < assets; asset++) {
+            if (!amounts.isScaled(firstCell + asset) || !settings.isScaled(dataStub.desiredWeightCell(asset))) {
+                return false;
+            }
+        }
+        try {
+            for (int asset = 0; asset < assets; asset++) {
+                total = FixedPoint.add(total, totalScale, amounts.getUnscaled(firstCell + asset), amounts.getScale(firstCell + asset));
+                totalScale = Math.max(totalScale, amounts.getScale(firstCell + asset));
+            }
+            for (int asset = 0; asset < assets; asset++) {
+                reBalancedUnscaled[asset] = FixedPoint.percentOf(total, settings.getUnscaled(dataStub.desiredWeightCell(asset)));
+            }
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        for (int asset = 0; asset < assets; asset++) {
+            amounts.setScaled(firstCell + asset, reBalancedUnscaled[asset],
+                    totalScale + settings.getScale(dataStub.desiredWeightCell(asset)));
+        }
+        return true;
+    }
 
-        return Arrays.stream(AssetClass.values()).map(assetClass -> {
-            BigDecimal amount = holdings.get(assetClass);
-            return String.valueOf(Double.valueOf(Math.floor(amount.doubleValue())).intValue());
-        }).collect(Collectors.joining(" "));
+    /**
+     * Records a month the holdings were just moved through, after asking the policy whether to re-balance it. Only the
+     * balances of the month are looked at, the months before it are never replayed.
+     */
+    private void closeMonth(int month) {
+        MonthlyBalanceIndex index = dataStub.getMonthlyBalance();
+        if (reBalancePolicy != ReBalancePolicy.NONE && !index.isReBalanced(month)) {
+            PortfolioDrift monthEnd = drift();
+            for (int asset = 0; asset < assets; asset++) {
+                monthEnd.update(asset, floorBalance(holdings, holdingCell(asset)));
+            }
+            if (reBalancePolicy.shouldReBalance(month, monthEnd)) {
+                reBalanceHoldings(holdings, firstHoldingCell);
+                index.markPolicyReBalanced(month);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("{} re-balanced {} at a drift of {}", reBalancePolicy, monthName(month), monthEnd.maxDrift());
+                }
+            }
+        }
+        recordMonth(month);
+    }
+
+    private PortfolioDrift drift() {
+        if (drift == null) {
+            double[] desiredWeights = new double[assets];
+            for (int asset = 0; asset < assets; asset++) {
+                desiredWeights[asset] = settings.get(dataStub.desiredWeightCell(asset)).doubleValue();
+            }
+            drift = new PortfolioDrift(desiredWeights);
+        }
+        return drift;
+    }
+
+    private void recordMonth(int month) {
+        MonthlyBalanceIndex index = dataStub.getMonthlyBalance();
+        for (int asset = 0; asset < assets; asset++) {
+            index.setBalance(month, asset, floorBalance(holdings, holdingCell(asset)));
+        }
+        index.markComputed(month);
+        index.checkpoint(month, holdings, firstHoldingCell);
+        if (monthRecordedListener != null) {
+            monthRecordedListener.accept(month);
+        }
+    }
+
+    private static int floorBalance(AmountColumns amounts, int cell) {
+        return amounts.isScaled(cell)
+                ? FixedPoint.floorToInt(amounts.getUnscaled(cell), amounts.getScale(cell))
+                : Double.valueOf(Math.floor(amounts.get(cell).doubleValue())).intValue();
+    }
+
+    private String formatBalance(int month) {
+        MonthlyBalanceIndex index = dataStub.getMonthlyBalance();
+        StringBuilder output = new StringBuilder();
+        for (int asset = 0; asset < assets; asset++) {
+            if (asset > 0) {
+                output.append(' ');
+            }
+            output.append(index.getBalance(month, asset));
+        }
+        return output.toString();
+    }
+
+    private String formatBalance(AmountColumns amounts) {
+        StringBuilder output = new StringBuilder();
+        for (int asset = 0; asset < assets; asset++) {
+            if (asset > 0) {
+                output.append(' ');
+            }
+            output.append(floorBalance(amounts, asset));
+        }
+        return output.toString();
+    }
+
+    private void writeBalance(int month, ChannelOutput output) throws IOException {
+        MonthlyBalanceIndex index = dataStub.getMonthlyBalance();
+        for (int asset = 0; asset < assets; asset++) {
+            if (asset > 0) {
+                output.write(' ');
+            }
+            output.writeInt(index.getBalance(month, asset));
+        }
+        output.newLine();
+    }
+
+    private void writeBalance(AmountColumns amounts, ChannelOutput output) throws IOException {
+        for (int asset = 0; asset < assets; asset++) {
+            if (asset > 0) {
+                output.write(' ');
+            }
+            output.writeInt(floorBalance(amounts, asset));
+        }
+        output.newLine();
+    }
+
+    private int monthIndex(YearMonth yearMonth) {
+        return monthIndex(yearMonth, dataStub.getFirstYear());
+    }
+
+    static int monthIndex(YearMonth yearMonth, int firstYear) {
+        int month = timelineIndex(yearMonth.getYear(), yearMonth.getMonth(), firstYear);
+        if (month == OUTSIDE_TIMELINE) {
+            throw new InputMismatchException(yearMonth + " is outside of the timeline starting in " + firstYear);
+        }
+        return month;
+    }
+
+    /**
+     * @return {@link #OUTSIDE_TIMELINE} if the month is before the timeline or too far after its start.
+     */
+    private static int timelineIndex(int year, Month calendarMonth, int firstYear) {
+        long month = (year - (long) firstYear) * MonthlyBalanceIndex.MONTHS_PER_YEAR + calendarMonth.ordinal();
+        return month < 0 || month > Integer.MAX_VALUE ? OUTSIDE_TIMELINE : (int) month;
+    }
+
+    private String monthName(int month) {
+        return monthName(month, dataStub.getFirstYear());
+    }
+
+    static String monthName(int month, Integer firstYear) {
+        Month calendarMonth = Month.of(month % MonthlyBalanceIndex.MONTHS_PER_YEAR + 1);
+        if (firstYear != null) {
+            return YearMonth.of(firstYear + month / MonthlyBalanceIndex.MONTHS_PER_YEAR, calendarMonth).toString();
+        }
+        return month < MonthlyBalanceIndex.MONTHS_PER_YEAR
+                ? calendarMonth.name()
+                : calendarMonth.name() + " of year " + (month / MonthlyBalanceIndex.MONTHS_PER_YEAR + 1);
+    }
+
+    private int holdingCell(int asset) {
+        return firstHoldingCell + asset;
+    }
+
+    private boolean isComplete(BigDecimal[] amounts) {
+        if (amounts.length != assets) {
+            return false;
+        }
+        for (BigDecimal amount : amounts) {
+            if (amount == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The amounts of consecutive cells by asset name, for logs.
+    private String describe(AmountColumns amounts, int firstCell) {
+        StringJoiner description = new StringJoiner(", ", "{", "}");
+        for (int asset = 0; asset < assets; asset++) {
+            description.add(universe.name(asset) + "=" + amounts.get(firstCell + asset));
+        }
+        return description.toString();
     }
 
-    private Map<AssetClass, BigDecimal> calculateDesiredWeight() {
-        if (portfolio.getHoldings().isEmpty()) {
-            throw new IllegalStateException("No holdings found in portfolio.");
+    private void calculateDesiredWeight() {
+        BigDecimal totalInvestment = portfolio.getTotalInvestment();
+        for (int asset = 0; asset < assets; asset++) {
+            BigDecimal weight = holdings.get(holdingCell(asset)).multiply(BigDecimal.valueOf(100L))
+                    .divide(totalInvestment, RoundingMode.FLOOR);
+            settings.set(dataStub.desiredWeightCell(asset), weight);
         }
-        return portfolio.getHoldings().stream()
-                .collect(Collectors.toMap(
-                        AssetHolding::getAssetClass,
-                        e -> e.getAmountInvested().multiply(BigDecimal.valueOf(100L))
-                                .divide(portfolio.getTotalInvestment(), RoundingMode.FLOOR)
-                ));
     }
 }
@@ -0,0 +1,178 @@
+package org.navi.mymoney.simulation;
+
+import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.dao.ColumnarStateStore;
+import org.navi.mymoney.dao.MonthlyBalanceIndex;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Projects a portfolio over many random rate paths.
+ * <p>
+ * Every scenario runs its own {@link PortfolioServiceImpl}, fed with one <code>CHANGE</code> per month drawn from the
+ * {@link RateDistribution rate distributions}, so SIPs, market changes and re-balances follow exactly the rules of
+ * regular commands. Scenarios are split over a fork-join pool along a tree that only depends on the number of
+ * scenarios; every node of that tree owns a {@link SplittableRandom} split from its parent's, so the result for a seed
+ * is the same whatever the parallelism. Tasks share nothing but the output arrays, and each one only writes the slots
+ * of its own scenarios.
+ * <p>
+ * Specs are keyed by {@link AssetClass}, so scenarios always run in {@link AssetUniverse#DEFAULT}, whose ids are the
+ * ordinals of the asset classes.
+ */
+@Component
+public class MonteCarloSimulator implements AutoCloseable {
+    private static final AssetClass[] ASSET_CLASSES = AssetClass.values();
+    private static final int SCENARIOS_PER_TASK = 64;
+    private static final YearMonth START = YearMonth.of(1, Month.JANUARY);
+
+    private final ForkJoinPool pool;
+
+    @Autowired
+    public MonteCarloSimulator(@Value("${mymoney.simulation.workers:0}") int workers) {
+        this(new ForkJoinPool(workers > 0 ? workers : Runtime.getRuntime().availableProcessors()));
+    }
+
+    public MonteCarloSimulator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public SimulationResult simulate(SimulationSpec spec) {
+        validate(spec);
+        // [asset class ordinal][scenario]
+        int[][] finalBalances = new int[ASSET_CLASSES.length][spec.getScenarios()];
+        long[] finalTotals = new long[spec.getScenarios()];
+        pool.invoke(new ScenarioTask(spec, 0, spec.getScenarios(), new SplittableRandom(spec.getSeed()),
+                finalBalances, finalTotals));
+
+        double[] percentiles = spec.getPercentiles().clone();
+        int[][] balances = new int[percentiles.length][ASSET_CLASSES.length];
+        long[] totals = new long[percentiles.length];
+        for (int asset = 0; asset < ASSET_CLASSES.length; asset++) {
+            Arrays.parallelSort(finalBalances[asset]);
+        }
+        Arrays.parallelSort(finalTotals);
+        for (int p = 0; p < percentiles.length; p++) {
+            int rank = rank(percentiles[p], spec.getScenarios());
+            for (int asset = 0; asset < ASSET_CLASSES.length; asset++) {
+                balances[p][asset] = finalBalances[asset][rank];
+            }
+            totals[p] = finalTotals[rank];
+        }
+        return new SimulationResult(spec.getScenarios(), percentiles, balances, totals);
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Runs one scenario from start to end.
+     *
+     * @return the balance of the last month, in AssetClass order.
+     */
+    static int[] runScenario(SimulationSpec spec, SplittableRandom random) {
+        ColumnarStateStore store = ColumnarStateStore.single(AssetUniverse.DEFAULT);
+        PortfolioService service =
+                new PortfolioServiceImpl(store.newDataStub(0), store.newPortfolio(0), NumericEngine.FIXED_POINT);
+        service.allocate(spec.getAllocation());
+        service.initSip(spec.getSip());
+        for (int month = 0; month < spec.getMonths(); month++) {
+            double[] rates = new double[ASSET_CLASSES.length];
+            for (AssetClass assetClass : ASSET_CLASSES) {
+                rates[assetClass.ordinal()] = spec.getRates().get(assetClass).sample(random);
+            }
+            service.change(rates, START.plusMonths(month));
+            if (spec.isReBalance() && (month + 1) % MonthlyBalanceIndex.REBALANCE_PERIOD == 0) {
+                service.reBalance();
+            }
+        }
+        return parseBalance(service.balance(START.plusMonths(spec.getMonths() - 1L)));
+    }
+
+    private static int[] parseBalance(String balance) {
+        int[] balances = new int[ASSET_CLASSES.length];
+        int start = 0;
+        for (int asset = 0; asset < balances.length; asset++) {
+            int end = balance.indexOf(' ', start);
+            balances[asset] = Integer.parseInt(balance.substring(start, end < 0 ? balance.length() : end));
+            start = end + 1;
+        }
+        return balances;
+    }
+
+    // Nearest-rank percentile.
+    private static int rank(double percentile, int scenarios) {
+        int rank = (int) Math.ceil(percentile / 100d * scenarios);
+        return Math.min(scenarios - 1, Math.max(0, rank - 1));
+    }
+
+    private static void validate(SimulationSpec spec) {
+        if (spec.getScenarios() < 1 || spec.getMonths() < 1) {
+            throw new IllegalArgumentException("A simulation needs at least one scenario of at least one month");
+        }
+        for (AssetClass assetClass : ASSET_CLASSES) {
+            if (!spec.getAllocation().containsKey(assetClass) || !spec.getSip().containsKey(assetClass)
+                    || !spec.getRates().containsKey(assetClass)) {
+                throw new IllegalArgumentException("Please supply the allocation, SIP and rates of " + assetClass);
+            }
+        }
+        for (double percentile : spec.getPercentiles()) {
+            if (!(percentile >= 0 && percentile <= 100)) {
+                throw new IllegalArgumentException("Invalid percentile " + percentile);
+            }
+        }
+    }
+
+    private static final class ScenarioTask extends RecursiveAction {
+        private final SimulationSpec spec;
+        private final int from;
+        private final int to;
+        private final SplittableRandom random;
+        private final int[][] finalBalances;
+        private final long[] finalTotals;
+
+        private ScenarioTask(SimulationSpec spec, int from, int to, SplittableRandom random,
+                             int[][] finalBalances, long[] finalTotals) {
+            this.spec = spec;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+            this.finalBalances = finalBalances;
+            this.finalTotals = finalTotals;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SCENARIOS_PER_TASK) {
+                for (int scenario = from; scenario < to; scenario++) {
+                    int[] balance = runScenario(spec, random);
+                    long total = 0;
+                    for (int asset = 0; asset < balance.length; asset++) {
+                        finalBalances[asset][scenario] = balance[asset];
+                        total += balance[asset];
+                    }
+                    finalTotals[scenario] = total;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            SplittableRandom upperRandom = random.split();
+            invokeAll(new ScenarioTask(spec, from, middle, random, finalBalances, finalTotals),
+                    new ScenarioTask(spec, middle, to, upperRandom, finalBalances, finalTotals));
+        }
+    }
+}
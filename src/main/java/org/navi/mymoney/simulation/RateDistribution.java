@@ -0,0 +1,55 @@
+package org.navi.mymoney.simulation;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.SplittableRandom;
+
+/**
+ * Normal distribution of the monthly rate of change of an asset class, in percent.
+ * <p>
+ * Samples are rounded to whole basis points like the rates of a <code>CHANGE</code> command (<code>4.37%</code>), and
+ * never go below <code>-100%</code>.
+ */
+@Getter
+@ToString
+public final class RateDistribution {
+    private static final double MIN_RATE = -100d;
+
+    private final double mean;
+    private final double standardDeviation;
+
+    private RateDistribution(double mean, double standardDeviation) {
+        if (!(standardDeviation >= 0) || Double.isInfinite(standardDeviation) || Double.isNaN(mean) || Double.isInfinite(mean)) {
+            throw new IllegalArgumentException("Invalid rate distribution, mean " + mean + " standard deviation " + standardDeviation);
+        }
+        this.mean = mean;
+        this.standardDeviation = standardDeviation;
+    }
+
+    public static RateDistribution normal(double mean, double standardDeviation) {
+        return new RateDistribution(mean, standardDeviation);
+    }
+
+    public static RateDistribution fixed(double rate) {
+        return new RateDistribution(rate, 0d);
+    }
+
+    public double sample(SplittableRandom random) {
+        double rate = standardDeviation == 0d ? mean : mean + standardDeviation * nextGaussian(random);
+        return Math.max(MIN_RATE, Math.round(rate * 100d) / 100d);
+    }
+
+    // Marsaglia's polar method, SplittableRandom has no nextGaussian() before Java 17.
+    private static double nextGaussian(SplittableRandom random) {
+        double u;
+        double v;
+        double s;
+        do {
+            u = 2 * random.nextDouble() - 1;
+            v = 2 * random.nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        return u * Math.sqrt(-2 * Math.log(s) / s);
+    }
+}
@@ -0,0 +1,49 @@
+package org.navi.mymoney.simulation;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.navi.mymoney.constants.AssetClass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Percentile bands of the final balance of a simulation. Every asset class and the total are ranked on their own, so
+ * the values of one percentile don't necessarily come from the same scenario.
+ */
+@Getter
+@AllArgsConstructor
+public class SimulationResult {
+    private final int scenarios;
+    private final double[] percentiles;
+    // [percentile][asset class ordinal]
+    private final int[][] balances;
+    private final long[] totals;
+
+    public int getBalance(int percentile, AssetClass assetClass) {
+        return balances[percentile][assetClass.ordinal()];
+    }
+
+    public long getTotal(int percentile) {
+        return totals[percentile];
+    }
+
+    /**
+     * @return one line per percentile: <code>P50 &lt;balances in AssetClass order&gt; &lt;total&gt;</code>.
+     */
+    public List<String> format() {
+        List<String> lines = new ArrayList<>(percentiles.length);
+        for (int p = 0; p < percentiles.length; p++) {
+            StringBuilder line = new StringBuilder("P").append(formatPercentile(percentiles[p]));
+            for (int balance : balances[p]) {
+                line.append(' ').append(balance);
+            }
+            lines.add(line.append(' ').append(totals[p]).toString());
+        }
+        return lines;
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+}
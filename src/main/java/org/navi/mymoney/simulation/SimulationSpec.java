@@ -0,0 +1,33 @@
+package org.navi.mymoney.simulation;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+import org.navi.mymoney.constants.AssetClass;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * What {@link MonteCarloSimulator} runs: the <code>ALLOCATE</code>/<code>SIP</code> setup, the distribution of the
+ * monthly rates of every asset class and the size of the simulation.
+ */
+@Getter
+@Builder
+@ToString
+public class SimulationSpec {
+    @NonNull
+    private final Map<AssetClass, BigDecimal> allocation;
+    @NonNull
+    private final Map<AssetClass, BigDecimal> sip;
+    @NonNull
+    private final Map<AssetClass, RateDistribution> rates;
+    private final int months;
+    private final int scenarios;
+    // Issue a REBALANCE after every re-balance period, like a user doing it each JUNE and DECEMBER.
+    private final boolean reBalance;
+    private final long seed;
+    @Builder.Default
+    private final double[] percentiles = {5, 25, 50, 75, 95};
+}
@@ -0,0 +1,37 @@
+package org.navi.mymoney.validation;
+
+import org.slf4j.Logger;
+
+/**
+ * What a file run does with an invalid line, set by <code>mymoney.validation.policy</code>.
+ */
+public enum ErrorPolicy {
+    // Log and count the line, then go on with the next one.
+    SKIP,
+    // Stop at the first invalid line: the outputs so far are written, then the run fails with an InvalidInputException.
+    FAIL_FAST;
+
+    /**
+     * @return whether a run with the errors of <code>report</code> so far has to stop before its next line.
+     */
+    public boolean stops(ErrorReport report) {
+        return this == FAIL_FAST && report.hasErrors();
+    }
+
+    /**
+     * Ends a file run, once its outputs are written: the summary of its invalid lines, if any, is logged at WARN.
+     *
+     * @throws InvalidInputException if there are invalid lines and the policy is {@link #FAIL_FAST}.
+     */
+    public void complete(ErrorReport report, Logger logger) throws InvalidInputException {
+        if (!report.hasErrors()) {
+            return;
+        }
+        if (logger.isWarnEnabled()) {
+            report.summary().forEach(line -> logger.warn("{}", line));
+        }
+        if (this == FAIL_FAST) {
+            throw new InvalidInputException(report);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.navi.mymoney.validation;
+
+import java.util.*;
+
+/**
+ * The invalid lines of one input file: how many of each {@link ResultCode}, and the line number and code of the first
+ * {@link #MAX_ENTRIES} of them. Recording an error only bumps a counter and, while there is room, fills two arrays.
+ * <p>
+ * Not thread-safe, a report belongs to the run of its file.
+ */
+public final class ErrorReport {
+    public static final int MAX_ENTRIES = 100;
+
+    private static final ResultCode[] CODES = ResultCode.values();
+
+    private final String source;
+    private final long[] counts = new long[CODES.length];
+    private final long[] lineNumbers = new long[MAX_ENTRIES];
+    private final ResultCode[] codes = new ResultCode[MAX_ENTRIES];
+    private int entries;
+    private long lines;
+    private long errors;
+
+    /**
+     * @param source the file, only used to describe the report.
+     */
+    public ErrorReport(String source) {
+        this.source = source;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Counts a line run, valid or not.
+     */
+    public void countLine() {
+        lines++;
+    }
+
+    /**
+     * @param lineNumber 1-based, <code>0</code> if unknown.
+     */
+    public void record(long lineNumber, ResultCode code) {
+        counts[code.ordinal()]++;
+        errors++;
+        if (entries < MAX_ENTRIES) {
+            lineNumbers[entries] = lineNumber;
+            codes[entries] = code;
+            entries++;
+        }
+    }
+
+    public boolean hasErrors() {
+        return errors > 0;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getCount(ResultCode code) {
+        return counts[code.ordinal()];
+    }
+
+    /**
+     * @return the codes seen, in declaration order, with their counts.
+     */
+    public Map<ResultCode, Long> getCountsByCode() {
+        Map<ResultCode, Long> countsByCode = new EnumMap<>(ResultCode.class);
+        for (ResultCode code : CODES) {
+            if (counts[code.ordinal()] > 0) {
+                countsByCode.put(code, counts[code.ordinal()]);
+            }
+        }
+        return countsByCode;
+    }
+
+    /**
+     * @return how many lines are kept with their code, at most {@link #MAX_ENTRIES}.
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getLineNumber(int entry) {
+        checkEntry(entry);
+        return lineNumbers[entry];
+    }
+
+    public ResultCode getCode(int entry) {
+        checkEntry(entry);
+        return codes[entry];
+    }
+
+    /**
+     * @return the first invalid line, <code>null</code> if there is none.
+     */
+    public String firstError() {
+        return entries == 0 ? null : describe(0);
+    }
+
+    /**
+     * @return the counts, then one line per invalid line kept.
+     */
+    public List<String> summary() {
+        List<String> summary = new ArrayList<>();
+        StringBuilder header = new StringBuilder()
+                .append(source).append(": ").append(errors).append(" invalid line(s) out of ").append(lines);
+        getCountsByCode().forEach((code, count) -> header.append(", ").append(code).append('=').append(count));
+        summary.add(header.toString());
+        for (int entry = 0; entry < entries; entry++) {
+            summary.add(describe(entry));
+        }
+        if (errors > entries) {
+            summary.add("... " + (errors - entries) + " more");
+        }
+        return summary;
+    }
+
+    private String describe(int entry) {
+        return source + " line " + lineNumbers[entry] + ": " + codes[entry] + " (" + codes[entry].getDescription() + ")";
+    }
+
+    private void checkEntry(int entry) {
+        if (entry < 0 || entry >= entries) {
+            throw new IndexOutOfBoundsException("Entry " + entry + " of " + entries);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return summary().get(0);
+    }
+}
@@ -0,0 +1,24 @@
+package org.navi.mymoney.validation;
+
+import java.io.IOException;
+
+/**
+ * Thrown once per file by a {@link ErrorPolicy#FAIL_FAST} run, at the first invalid line.
+ */
+public class InvalidInputException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient ErrorReport report;
+
+    public InvalidInputException(ErrorReport report) {
+        super(report.firstError());
+        this.report = report;
+    }
+
+    /**
+     * @return the report of the file up to the invalid line.
+     */
+    public ErrorReport getReport() {
+        return report;
+    }
+}
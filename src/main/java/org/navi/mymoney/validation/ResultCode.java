@@ -0,0 +1,44 @@
+package org.navi.mymoney.validation;
+
+/**
+ * Outcome of validating a command, returned instead of throwing so that a file full of bad lines costs no exception
+ * per line. Everything but {@link #OK} is an error, counted under its name by the metrics and the {@link ErrorReport}.
+ */
+public enum ResultCode {
+    OK("valid"),
+
+    // The line itself.
+    UNKNOWN_COMMAND("unknown command"),
+    WRONG_ARITY("wrong number of values"),
+    INVALID_AMOUNT("amount is not a number"),
+    INVALID_RATE("rate is not a number"),
+    INVALID_MONTH("unknown month"),
+    INVALID_YEAR("year is not a valid year"),
+    // BINARY input: the line was rejected when the text file was converted.
+    REJECTED_RECORD("rejected when converted"),
+
+    // The state of the portfolio.
+    ALREADY_ALLOCATED("funds already allocated"),
+    SIP_ALREADY_REGISTERED("SIP already registered"),
+    CHANGE_ALREADY_REGISTERED("rate of change already registered for the month"),
+    NO_YEAR_REGISTERED("no CHANGE with a year registered"),
+    OUTSIDE_TIMELINE("month outside of the timeline"),
+    BALANCE_NOT_COMPUTED("balance can't be computed from the supplied inputs"),
+
+    // The command was valid as far as validation can tell and still failed.
+    FAILED("command failed");
+
+    private final String description;
+
+    ResultCode(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public boolean isError() {
+        return this != OK;
+    }
+}
@@ -0,0 +1,244 @@
+package org.navi.mymoney.workload;
+
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.dao.MonthlyBalanceIndex;
+import org.navi.mymoney.simulation.RateDistribution;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Month;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Writes large, seeded command streams for load and regression testing.
+ * <p>
+ * Every portfolio gets its <code>ALLOCATE</code> and <code>SIP</code> first, then <code>CHANGE</code>s month after
+ * month of a timeline starting in JANUARY {@link #FIRST_YEAR}, each one with its year, up to
+ * {@link WorkloadSpec#getMaxMonths() maxMonths}, interleaved with <code>BALANCE</code>s and <code>REBALANCE</code>s as
+ * weighted by the {@link WorkloadMix}. Balances mostly ask for one of the recent months and sometimes for an older one,
+ * which has to be replayed. Lines of different portfolios are interleaved at random. A malformed line is any of the
+ * errors the validation reports (an unknown command, a missing value, a bad number or month, a second
+ * <code>ALLOCATE</code>, a balance that can't be computed yet) and leaves the state of its portfolio as it was, so
+ * every other line stays valid.
+ * <p>
+ * The lines follow the current {@link AssetUniverse}, one amount or rate per asset.
+ */
+public final class WorkloadGenerator {
+    public static final int FIRST_YEAR = 2000;
+
+    private static final Month[] MONTHS = Month.values();
+    private static final RateDistribution RATES = RateDistribution.normal(0.5d, 4d);
+    // Share of the balances asking for one of the recent months.
+    private static final int RECENT_BALANCE_PERCENT = 80;
+    private static final int MALFORMED_KINDS = 6;
+
+    private final WorkloadSpec spec;
+    private final SplittableRandom random;
+    private final int assets = AssetUniverse.current().size();
+    private final boolean[] allocated;
+    private final boolean[] withSip;
+    private final int[] months;
+    private final StringBuilder line = new StringBuilder(128);
+    private final long[] commandCounts = new long[Command.values().length];
+    private long malformedLines;
+
+    public WorkloadGenerator(WorkloadSpec spec) {
+        validate(spec);
+        this.spec = spec;
+        this.random = new SplittableRandom(spec.getSeed());
+        int portfolios = Math.max(1, spec.getPortfolios());
+        this.allocated = new boolean[portfolios];
+        this.withSip = new boolean[portfolios];
+        this.months = new int[portfolios];
+    }
+
+    /**
+     * Writes the whole stream to a new file.
+     *
+     * @return the generator, for its counts.
+     */
+    public static WorkloadGenerator write(WorkloadSpec spec, Path output) throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator(spec);
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8), 1 << 20)) {
+            generator.generate(writer);
+        }
+        return generator;
+    }
+
+    /**
+     * Writes the stream to <code>output</code>, one command per line. The output is not flushed.
+     *
+     * @return number of lines written.
+     */
+    public long generate(Writer output) throws IOException {
+        for (long i = 0; i < spec.getLines(); i++) {
+            line.setLength(0);
+            int portfolio = random.nextInt(allocated.length);
+            if (spec.getPortfolios() > 0) {
+                line.append('P').append(portfolio).append(' ');
+            }
+            if (spec.getMalformedRatio() > 0 && random.nextDouble() < spec.getMalformedRatio()) {
+                appendMalformed(portfolio);
+                malformedLines++;
+            } else {
+                commandCounts[appendCommand(portfolio).ordinal()]++;
+            }
+            output.append(line).append('\n');
+        }
+        return spec.getLines();
+    }
+
+    /**
+     * @return valid lines written so far, by command.
+     */
+    public Map<Command, Long> getCommandCounts() {
+        Map<Command, Long> counts = new EnumMap<>(Command.class);
+        for (Command command : Command.values()) {
+            counts.put(command, commandCounts[command.ordinal()]);
+        }
+        return counts;
+    }
+
+    public long getMalformedLines() {
+        return malformedLines;
+    }
+
+    private Command appendCommand(int portfolio) {
+        if (!allocated[portfolio]) {
+            allocated[portfolio] = true;
+            return appendAmounts(Command.ALLOCATE, 1000, 10_000);
+        }
+        if (!withSip[portfolio]) {
+            withSip[portfolio] = true;
+            return appendAmounts(Command.SIP, 100, 2000);
+        }
+        WorkloadMix mix = spec.getMix();
+        int draw = random.nextInt(mix.getTotalWeight());
+        if (months[portfolio] == 0 || draw < mix.getChangeWeight() && months[portfolio] < spec.getMaxMonths()) {
+            line.append(Command.CHANGE);
+            for (int asset = 0; asset < assets; asset++) {
+                line.append(' ');
+                appendRate(RATES.sample(random));
+            }
+            appendMonth(months[portfolio]++);
+            return Command.CHANGE;
+        }
+        if (draw < mix.getChangeWeight() + mix.getBalanceWeight()) {
+            // The CHANGEs past the end of the timeline too.
+            line.append(Command.BALANCE);
+            appendMonth(balanceMonth(months[portfolio]));
+            return Command.BALANCE;
+        }
+        line.append(Command.REBALANCE);
+        return Command.REBALANCE;
+    }
+
+    private void appendMalformed(int portfolio) {
+        int month = months[portfolio];
+        switch (random.nextInt(MALFORMED_KINDS)) {
+            case 0:
+                line.append("BALANSE");
+                appendMonth(month);
+                break;
+            case 1:
+                // One rate short.
+                line.append(Command.CHANGE);
+                for (int asset = 1; asset < assets; asset++) {
+                    line.append(" 1.00%");
+                }
+                appendMonth(month);
+                break;
+            case 2:
+                line.append(Command.SIP).append(" 1O00");
+                for (int asset = 1; asset < assets; asset++) {
+                    line.append(" 100");
+                }
+                break;
+            case 3:
+                line.append(Command.BALANCE).append(' ').append(MONTHS[month % MONTHS.length].name().toLowerCase());
+                break;
+            case 4:
+                if (allocated[portfolio]) {
+                    appendAmounts(Command.ALLOCATE, 1000, 10_000);
+                    break;
+                }
+                // Not allocated yet, a second ALLOCATE would be valid.
+            default:
+                // Months are only computed once their CHANGE is in.
+                line.append(Command.BALANCE);
+                appendMonth(month + 1 + random.nextInt(MonthlyBalanceIndex.MONTHS_PER_YEAR));
+        }
+    }
+
+    private Command appendAmounts(Command command, int min, int max) {
+        line.append(command);
+        for (int asset = 0; asset < assets; asset++) {
+            line.append(' ').append(random.nextInt(min / 100, max / 100 + 1) * 100);
+        }
+        return command;
+    }
+
+    /**
+     * Appends a rate rounded to basis points as written in a <code>CHANGE</code>: <code>-4.07%</code>.
+     */
+    private void appendRate(double rate) {
+        long basisPoints = Math.round(rate * 100d);
+        if (basisPoints < 0) {
+            line.append('-');
+            basisPoints = -basisPoints;
+        }
+        long fraction = basisPoints % 100;
+        line.append(basisPoints / 100).append('.').append(fraction < 10 ? "0" : "").append(fraction).append('%');
+    }
+
+    private void appendMonth(int month) {
+        line.append(' ').append(MONTHS[month % MonthlyBalanceIndex.MONTHS_PER_YEAR])
+                .append(' ').append(FIRST_YEAR + month / MonthlyBalanceIndex.MONTHS_PER_YEAR);
+    }
+
+    private int balanceMonth(int registeredMonths) {
+        int recent = Math.min(registeredMonths, MonthlyBalanceIndex.RECENT_MONTHS);
+        if (recent == registeredMonths || random.nextInt(100) < RECENT_BALANCE_PERCENT) {
+            return registeredMonths - 1 - random.nextInt(recent);
+        }
+        return random.nextInt(registeredMonths - recent);
+    }
+
+    private static void validate(WorkloadSpec spec) {
+        if (spec.getLines() < 0 || spec.getPortfolios() < 0 || !(spec.getMalformedRatio() >= 0)
+                || spec.getMalformedRatio() > 1 || spec.getMix() == null
+                || spec.getMaxMonths() < 1) {
+            throw new IllegalArgumentException("Invalid workload " + spec);
+        }
+    }
+
+    /**
+     * <code>WorkloadGenerator &lt;output&gt; &lt;lines&gt; [portfolios] [malformed ratio] [BATCH|READ_HEAVY|WRITE_HEAVY]
+     * [seed]</code>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 6) {
+            System.out.println("Please specify the output file and the number of lines, "
+                    + "optionally followed by the portfolios, the malformed ratio, the mix and the seed");
+            return;
+        }
+        WorkloadSpec spec = WorkloadSpec.builder()
+                .lines(Long.parseLong(args[1]))
+                .portfolios(args.length > 2 ? Integer.parseInt(args[2]) : 0)
+                .malformedRatio(args.length > 3 ? Double.parseDouble(args[3]) : 0d)
+                .mix(args.length > 4 ? WorkloadMix.valueOf(args[4]) : WorkloadMix.BATCH)
+                .seed(args.length > 5 ? Long.parseLong(args[5]) : 0L)
+                .build();
+        WorkloadGenerator generator = write(spec, Paths.get(args[0]));
+        System.out.println("Wrote " + spec.getLines() + " lines to " + args[0] + ": " + generator.getCommandCounts()
+                + ", " + generator.getMalformedLines() + " malformed");
+    }
+}
@@ -0,0 +1,40 @@
+package org.navi.mymoney.workload;
+
+/**
+ * Relative weights of the commands a set-up portfolio receives, once its <code>ALLOCATE</code> and <code>SIP</code>
+ * are in.
+ */
+public enum WorkloadMix {
+    // A month of market data followed by a few reads, the shape of the sample input.
+    BATCH(60, 35, 5),
+    // Mostly balances, as when the portfolios are queried far more often than the market moves.
+    READ_HEAVY(15, 80, 5),
+    // Mostly market data, as when the history of the portfolios is being loaded.
+    WRITE_HEAVY(90, 8, 2);
+
+    private final int changeWeight;
+    private final int balanceWeight;
+    private final int reBalanceWeight;
+
+    WorkloadMix(int changeWeight, int balanceWeight, int reBalanceWeight) {
+        this.changeWeight = changeWeight;
+        this.balanceWeight = balanceWeight;
+        this.reBalanceWeight = reBalanceWeight;
+    }
+
+    public int getChangeWeight() {
+        return changeWeight;
+    }
+
+    public int getBalanceWeight() {
+        return balanceWeight;
+    }
+
+    public int getReBalanceWeight() {
+        return reBalanceWeight;
+    }
+
+    int getTotalWeight() {
+        return changeWeight + balanceWeight + reBalanceWeight;
+    }
+}
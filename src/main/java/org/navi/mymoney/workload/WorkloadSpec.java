@@ -0,0 +1,28 @@
+package org.navi.mymoney.workload;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * What {@link WorkloadGenerator} writes: the number of lines, how many portfolios they are spread over, the mix of
+ * commands, how long a timeline gets and the share of malformed lines. The same spec and seed always give the same
+ * file.
+ */
+@Getter
+@Builder
+@ToString
+public class WorkloadSpec {
+    private final long lines;
+    // 0 for a single portfolio whose lines carry no portfolio id, as in the input of the single portfolio modes.
+    private final int portfolios;
+    // Share of the lines that are invalid, for their syntax or for the state of their portfolio.
+    private final double malformedRatio;
+    @Builder.Default
+    private final WorkloadMix mix = WorkloadMix.BATCH;
+    // Months a portfolio's timeline stops at, its CHANGEs then turn into BALANCEs. Keeps long streams on a few
+    // portfolios from compounding balances over thousands of years.
+    @Builder.Default
+    private final int maxMonths = 600;
+    private final long seed;
+}
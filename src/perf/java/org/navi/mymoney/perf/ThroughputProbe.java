@@ -0,0 +1,120 @@
+package org.navi.mymoney.perf;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.navi.mymoney.FastLauncher;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link FastLauncher} on an input file in the JVM of a single measurement, and writes what the run cost once
+ * the launcher exits: commands a second, peak resident set size and GC pauses.
+ * <p>
+ * <code>ThroughputProbe &lt;result file&gt; &lt;lines&gt; &lt;input file&gt;</code>, the batch mode and the other
+ * settings are the system properties read by the launcher.
+ */
+public final class ThroughputProbe {
+    static final String COMMANDS_PER_SECOND = "commandsPerSecond";
+    static final String PEAK_RSS_MB = "peakRssMb";
+    static final String GC_PAUSE_MAX_MS = "gcPauseMaxMs";
+    static final String GC_PAUSE_TOTAL_MS = "gcPauseTotalMs";
+    static final String GC_PAUSES = "gcPauses";
+    static final String ELAPSED_MS = "elapsedMs";
+
+    // GC notifications are sent from a JMX thread, the last ones may still be on their way at exit.
+    private static final long LATE_NOTIFICATION_MILLIS = 100;
+
+    private static final AtomicLong pauses = new AtomicLong();
+    private static final AtomicLong pauseTotalMillis = new AtomicLong();
+    private static final AtomicLong pauseMaxMillis = new AtomicLong();
+
+    private ThroughputProbe() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 3) {
+            System.err.println("Please specify the result file, the number of lines and the input file");
+            System.exit(1);
+        }
+        Path resultFile = Paths.get(args[0]);
+        long lines = Long.parseLong(args[1]);
+        listenToGcPauses();
+        long start = System.nanoTime();
+        // The launcher ends with System.exit(), the results are written on the way out.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> writeResults(resultFile, lines, System.nanoTime() - start)));
+        FastLauncher.main(new String[]{args[2]});
+    }
+
+    private static void listenToGcPauses() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            // The cycles of concurrent collectors don't stop the application, their pauses are reported separately.
+            if (collector.getName().contains("Concurrent") || !(collector instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                long millis = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+                        .getGcInfo().getDuration();
+                pauses.incrementAndGet();
+                pauseTotalMillis.addAndGet(millis);
+                pauseMaxMillis.accumulateAndGet(millis, Math::max);
+            }, null, null);
+        }
+    }
+
+    private static void writeResults(Path resultFile, long lines, long elapsedNanos) {
+        try {
+            Thread.sleep(LATE_NOTIFICATION_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Properties results = new Properties();
+        results.setProperty(ELAPSED_MS, String.valueOf(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+        results.setProperty(COMMANDS_PER_SECOND, String.valueOf(lines * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos)));
+        results.setProperty(PEAK_RSS_MB, String.valueOf(peakRssMb()));
+        results.setProperty(GC_PAUSES, String.valueOf(pauses.get()));
+        results.setProperty(GC_PAUSE_TOTAL_MS, String.valueOf(pauseTotalMillis.get()));
+        results.setProperty(GC_PAUSE_MAX_MS, String.valueOf(pauseMaxMillis.get()));
+        try (OutputStream output = Files.newOutputStream(resultFile)) {
+            results.store(output, null);
+        } catch (IOException e) {
+            System.err.println("Can't write the results to " + resultFile + ": " + e);
+        }
+    }
+
+    /**
+     * @return the high water mark of the resident set, <code>-1</code> where <code>/proc</code> isn't available.
+     */
+    private static long peakRssMb() {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status)) {
+            return -1;
+        }
+        try {
+            List<String> lines = Files.readAllLines(status, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                // VmHWM:    123456 kB
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim()) / 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
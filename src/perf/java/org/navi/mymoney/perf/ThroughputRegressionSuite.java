@@ -0,0 +1,240 @@
+package org.navi.mymoney.perf;
+
+import org.navi.mymoney.workload.WorkloadGenerator;
+import org.navi.mymoney.workload.WorkloadMix;
+import org.navi.mymoney.workload.WorkloadSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * End-to-end throughput suite of the <code>perf</code> profile: generates command files of every size of
+ * <code>perf.lines</code>, runs {@link org.navi.mymoney.FastLauncher} on them in a fresh JVM through
+ * {@link ThroughputProbe}, and compares commands a second, peak RSS and GC pauses to the baselines.
+ * <p>
+ * A run regresses if its throughput is more than <code>perf.tolerance</code> below its baseline, or its peak RSS or
+ * GC pauses more than that above it (pauses are allowed {@link #PAUSE_FLOOR_MS} more, a few milliseconds being
+ * noise). Every size is run <code>perf.runs</code> times and the best of every metric kept. Sizes without a baseline
+ * are only recorded, <code>perf.record=true</code> writes the results as the new baselines.
+ * <p>
+ * <code>ThroughputRegressionSuite &lt;baselines file&gt; &lt;work directory&gt;</code>
+ */
+public final class ThroughputRegressionSuite {
+    private static final long PAUSE_FLOOR_MS = 10;
+    private static final long SEED = 20221204L;
+    private static final double MALFORMED_RATIO = 0.01;
+
+    private static final List<Workload> WORKLOADS = Arrays.asList(
+            // Single portfolio, the allocation-free parser over the mapped file.
+            new Workload("mapped", 0, WorkloadMix.BATCH, "MAPPED"),
+            // Portfolio-prefixed commands, the file read in chunks and the portfolios sharded.
+            new Workload("parallel", 1000, WorkloadMix.READ_HEAVY, "PARALLEL"));
+
+    private static final String[] HIGHER_IS_BETTER = {ThroughputProbe.COMMANDS_PER_SECOND};
+    private static final String[] LOWER_IS_BETTER = {ThroughputProbe.PEAK_RSS_MB, ThroughputProbe.GC_PAUSE_MAX_MS,
+            ThroughputProbe.GC_PAUSE_TOTAL_MS};
+
+    private ThroughputRegressionSuite() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            System.err.println("Please specify the baselines file and the work directory");
+            System.exit(1);
+        }
+        Path baselinesFile = Paths.get(args[0]);
+        Path workDirectory = Files.createDirectories(Paths.get(args[1]));
+        double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.25"));
+        int runs = Integer.parseInt(System.getProperty("perf.runs", "3"));
+        boolean record = Boolean.parseBoolean(System.getProperty("perf.record", "false"));
+        List<String> jvmArgs = split(System.getProperty("perf.jvmArgs", "-Xmx2g"), " ");
+
+        Properties baselines = load(baselinesFile);
+        Map<String, Long> results = new TreeMap<>();
+        List<String> regressions = new ArrayList<>();
+        for (String size : split(System.getProperty("perf.lines", "100000,1000000"), ",")) {
+            long lines = Long.parseLong(size);
+            for (Workload workload : WORKLOADS) {
+                Path input = workload.generate(workDirectory, lines);
+                Map<String, Long> best = null;
+                for (int run = 0; run < runs; run++) {
+                    best = keepBest(best, probe(workload, input, lines, jvmArgs, workDirectory));
+                }
+                String prefix = workload.name + "." + lines + ".";
+                best.forEach((metric, value) -> results.put(prefix + metric, value));
+                System.out.println(workload.name + " " + lines + " lines: " + best);
+                regressions.addAll(compare(prefix, best, baselines, tolerance));
+            }
+        }
+
+        Path resultsFile = workDirectory.resolve("throughput-results.properties");
+        store(toProperties(results), resultsFile, "Best of " + runs + " run(s)");
+        System.out.println("Results written to " + resultsFile);
+        if (record) {
+            results.forEach((key, value) -> {
+                if (isCompared(key)) {
+                    baselines.setProperty(key, String.valueOf(value));
+                }
+            });
+            store(baselines, baselinesFile, "<workload>.<lines>.<metric>, recorded with -Dperf.record=true");
+            System.out.println("Baselines written to " + baselinesFile);
+            return;
+        }
+        if (!regressions.isEmpty()) {
+            regressions.forEach(System.err::println);
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Long> probe(Workload workload, Path input, long lines, List<String> jvmArgs,
+                                           Path workDirectory) throws IOException, InterruptedException {
+        Path resultFile = workDirectory.resolve(workload.name + "-" + lines + ".properties");
+        Files.deleteIfExists(resultFile);
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dlogback.configurationFile=logback-fast.xml");
+        command.add("-Dmymoney.batch.mode=" + workload.batchMode);
+        command.add("-Dmymoney.numeric.engine=FIXED_POINT");
+        command.add("-Dmymoney.metrics.jmx=false");
+        command.add(ThroughputProbe.class.getName());
+        command.add(resultFile.toString());
+        command.add(String.valueOf(lines));
+        command.add(input.toString());
+        // The outputs and the logs go to stdout, only the time it takes to write them is of interest.
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.to(nullFile()))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0 || !Files.exists(resultFile)) {
+            throw new IOException(workload.name + " run on " + input + " failed with exit code " + exitCode);
+        }
+        Properties result = load(resultFile);
+        Map<String, Long> metrics = new TreeMap<>();
+        for (String metric : result.stringPropertyNames()) {
+            metrics.put(metric, Long.parseLong(result.getProperty(metric)));
+        }
+        return metrics;
+    }
+
+    private static Map<String, Long> keepBest(Map<String, Long> best, Map<String, Long> run) {
+        if (best == null) {
+            return run;
+        }
+        run.forEach((metric, value) -> best.merge(metric, value,
+                ThroughputProbe.COMMANDS_PER_SECOND.equals(metric) ? Math::max : Math::min));
+        return best;
+    }
+
+    private static List<String> compare(String prefix, Map<String, Long> result, Properties baselines, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (String metric : HIGHER_IS_BETTER) {
+            String baseline = baselines.getProperty(prefix + metric);
+            if (baseline != null && result.get(metric) < Long.parseLong(baseline) * (1 - tolerance)) {
+                regressions.add("Regression of " + prefix + metric + ": " + result.get(metric) + ", baseline " + baseline);
+            }
+        }
+        for (String metric : LOWER_IS_BETTER) {
+            String baseline = baselines.getProperty(prefix + metric);
+            // -1 when the platform can't tell.
+            if (baseline == null || result.get(metric) < 0) {
+                continue;
+            }
+            long base = Long.parseLong(baseline);
+            double allowed = base * (1 + tolerance);
+            if (!metric.equals(ThroughputProbe.PEAK_RSS_MB)) {
+                allowed = Math.max(allowed, base + PAUSE_FLOOR_MS);
+            }
+            if (result.get(metric) > allowed) {
+                regressions.add("Regression of " + prefix + metric + ": " + result.get(metric) + ", baseline " + baseline);
+            }
+        }
+        return regressions;
+    }
+
+    private static boolean isCompared(String key) {
+        String metric = key.substring(key.lastIndexOf('.') + 1);
+        return Arrays.asList(HIGHER_IS_BETTER).contains(metric) || Arrays.asList(LOWER_IS_BETTER).contains(metric);
+    }
+
+    private static File nullFile() {
+        return new File(System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
+    }
+
+    private static List<String> split(String value, String separator) {
+        List<String> parts = new ArrayList<>();
+        for (String part : value.split(separator)) {
+            if (!part.trim().isEmpty()) {
+                parts.add(part.trim());
+            }
+        }
+        return parts;
+    }
+
+    private static Properties toProperties(Map<String, Long> values) {
+        Properties properties = new Properties();
+        values.forEach((key, value) -> properties.setProperty(key, String.valueOf(value)));
+        return properties;
+    }
+
+    private static Properties load(Path file) throws IOException {
+        Properties properties = new Properties();
+        if (Files.exists(file)) {
+            try (InputStream input = Files.newInputStream(file)) {
+                properties.load(input);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Writes the keys sorted, so recorded baselines diff well.
+     */
+    private static void store(Properties properties, Path file, String comment) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# " + comment);
+        new TreeMap<>(properties).forEach((key, value) -> lines.add(key + "=" + value));
+        Files.write(file, lines);
+    }
+
+    private static final class Workload {
+        private final String name;
+        private final int portfolios;
+        private final WorkloadMix mix;
+        private final String batchMode;
+
+        private Workload(String name, int portfolios, WorkloadMix mix, String batchMode) {
+            this.name = name;
+            this.portfolios = portfolios;
+            this.mix = mix;
+            this.batchMode = batchMode;
+        }
+
+        /**
+         * Generates the input file, unless a previous run left it in the work directory.
+         */
+        private Path generate(Path workDirectory, long lines) throws IOException {
+            Path input = workDirectory.resolve(name + "-" + lines + "-" + SEED + ".txt");
+            if (!Files.exists(input)) {
+                Path partial = workDirectory.resolve(input.getFileName() + ".partial");
+                WorkloadGenerator.write(WorkloadSpec.builder().lines(lines).portfolios(portfolios)
+                        .malformedRatio(MALFORMED_RATIO).mix(mix).seed(SEED).build(), partial);
+                Files.move(partial, input);
+            }
+            return input;
+        }
+    }
+}
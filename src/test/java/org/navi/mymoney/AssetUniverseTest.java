@@ -0,0 +1,122 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.dao.ColumnarStateStore;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Month;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssetUniverseTest {
+    private static final int ASSETS = 20;
+    private static final AssetUniverse UNIVERSE = AssetUniverse.of(
+            IntStream.range(0, ASSETS).mapToObj(i -> "FUND_" + i).toArray(String[]::new));
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        AssetUniverse.configure(AssetUniverse.DEFAULT);
+    }
+
+    @Test
+    void testParse() {
+        assertSame(AssetUniverse.DEFAULT, AssetUniverse.parse(" "));
+        assertEquals("EQUITY,DEBT,GOLD", AssetUniverse.DEFAULT.toString());
+        AssetUniverse universe = AssetUniverse.parse("NIFTY, GILT ,GOLD");
+        assertEquals(3, universe.size());
+        assertEquals(1, universe.id("GILT"));
+        assertEquals(-1, universe.id("DEBT"));
+        assertThrows(IllegalArgumentException.class, () -> AssetUniverse.parse("NIFTY,NIFTY"));
+        assertThrows(IllegalArgumentException.class, () -> AssetUniverse.parse("NIFTY,,GOLD"));
+        assertThrows(IllegalArgumentException.class, () -> AssetUniverse.of(
+                IntStream.range(0, AssetUniverse.MAX_SIZE + 1).mapToObj(i -> "FUND_" + i).toArray(String[]::new)));
+    }
+
+    // The sample input with 17 more assets holding nothing: the first three answer like the default universe.
+    @Test
+    void testLargeUniverseAnswersLikeTheDefaultOne() throws IOException {
+        List<String> expected = Files.readAllLines(Paths.get("src/test/resources/output.txt")).stream()
+                .map(line -> line.trim() + zeros(" 0"))
+                .collect(Collectors.toList());
+        List<String> input = widen(Files.readAllLines(Paths.get("src/test/resources/input.txt")));
+        for (NumericEngine numericEngine : NumericEngine.values()) {
+            Driver driver = new Driver(newService(numericEngine));
+            List<String> outputs = input.stream().map(driver::processCommand).filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+            assertEquals(expected, outputs, numericEngine.name());
+        }
+    }
+
+    @Test
+    void testConfiguredUniverseIsUsedByTheMappedReader() throws IOException {
+        AssetUniverse.configure(UNIVERSE);
+        Path file = tempDir.resolve("input.txt");
+        Files.write(file, widen(Files.readAllLines(Paths.get("src/test/resources/input.txt"))), StandardCharsets.UTF_8);
+        StringWriter output = new StringWriter();
+        new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(),
+                NumericEngine.FIXED_POINT)).executeCommandsFromMappedFile(file.toString(), output);
+        assertEquals(3, output.toString().split(System.lineSeparator()).length);
+        assertTrue(output.toString().startsWith("10593 7897 2272" + zeros(" 0")));
+    }
+
+    @Test
+    void testRejectsCommandsOfAnotherArity() {
+        PortfolioService service = newService(NumericEngine.BIG_DECIMAL);
+        Driver driver = new Driver(service);
+        assertThrows(InputMismatchException.class, () -> driver.processCommandOrThrow("ALLOCATE 6000 3000 1000"));
+        // Maps of asset classes don't cover the universe.
+        Map<AssetClass, BigDecimal> allocations = new EnumMap<>(AssetClass.class);
+        for (AssetClass assetClass : AssetClass.values()) {
+            allocations.put(assetClass, BigDecimal.TEN);
+        }
+        assertThrows(IllegalStateException.class, () -> service.allocate(allocations));
+        assertThrows(InputMismatchException.class, () -> service.change(new double[3], Month.JANUARY));
+        assertNull(driver.processCommand("CHANGE 4.00% 10.00% 2.00% JANUARY"));
+    }
+
+    private static PortfolioService newService(NumericEngine numericEngine) {
+        ColumnarStateStore store = ColumnarStateStore.single(UNIVERSE);
+        return new PortfolioServiceImpl(store.newDataStub(0), store.newPortfolio(0), numericEngine);
+    }
+
+    // Appends a zero amount or rate for every asset past the third one.
+    private static List<String> widen(List<String> lines) {
+        List<String> widened = new ArrayList<>();
+        for (String line : lines) {
+            String[] tokens = line.trim().split(" ");
+            if (tokens[0].equals("ALLOCATE") || tokens[0].equals("SIP")) {
+                widened.add(line.trim() + zeros(" 0"));
+            } else if (tokens[0].equals("CHANGE")) {
+                widened.add(String.join(" ", Arrays.copyOfRange(tokens, 0, 4)) + zeros(" 0.00%") + " " + tokens[4]);
+            } else {
+                widened.add(line.trim());
+            }
+        }
+        return widened;
+    }
+
+    private static String zeros(String zero) {
+        return String.join("", Collections.nCopies(ASSETS - 3, zero));
+    }
+}
@@ -0,0 +1,152 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.parser.BinaryCommandConverter;
+import org.navi.mymoney.parser.BinaryCommandReader;
+import org.navi.mymoney.parser.MappedCommandReader;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryCommandReaderTest {
+    private static final String MIXED_INPUT = String.join("\n",
+            "ALLOCATE 6000 3000.50 1000",
+            "ALLOCATE 1 2 3",
+            "SIP 2000 1000 500",
+            "CHANGE 4.00% -10.5% -0.00% JANUARY 2030",
+            "CHANGE 4.00% 10.00% MARCH",
+            "HELLO",
+            "CHANGE -10.00% 40.00% 0.00% FEBRUARY 2030",
+            "BALANCE FEBRUARY 2030",
+            "BALANCE MARCH 2030",
+            "BALANCE  MAY",
+            "REBALANCE",
+            "BALANCE JANUARY");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRoundTripDecodesTheSameCommands() throws IOException {
+        Path text = write(MIXED_INPUT);
+        Path binary = convert(text);
+
+        List<String> expected = new ArrayList<>();
+        ParsedCommand command = new ParsedCommand();
+        try (MappedCommandReader reader = new MappedCommandReader(text)) {
+            while (reader.next(command)) {
+                expected.add(command.getCommand() == null ? "REJECTED " + command.getLineNumber() : command.toString());
+            }
+        }
+        List<String> decoded = new ArrayList<>();
+        // A window of two records, so the file is read across several mappings.
+        try (BinaryCommandReader reader = new BinaryCommandReader(binary, 80)) {
+            while (reader.next(command)) {
+                decoded.add(command.getCommand() == null ? "REJECTED " + command.getLineNumber() : command.toString());
+                if (decoded.size() == 4) {
+                    assertEquals(Double.doubleToRawLongBits(-0d), Double.doubleToRawLongBits(command.getRate(2)));
+                }
+            }
+        }
+        assertEquals(expected, decoded);
+        assertEquals("REJECTED 5", decoded.get(4));
+    }
+
+    @Test
+    void testBinaryExecutionMatchesText() throws IOException {
+        for (String input : Arrays.asList(
+                new String(Files.readAllBytes(Paths.get("src/test/resources/input.txt")), StandardCharsets.UTF_8),
+                MIXED_INPUT)) {
+            Path text = write(input);
+            Path binary = convert(text);
+            List<String> expected = newDriver().executeCommandsFromFile(text.toString()).stream()
+                    .filter(line -> line != null).collect(Collectors.toList());
+
+            StringWriter output = new StringWriter();
+            long written = newDriver().executeCommandsFromBinaryFile(binary.toString(), output);
+            assertEquals(expected.size(), written);
+            assertEquals(expected, Arrays.stream(output.toString().split("\\R"))
+                    .filter(line -> !line.isEmpty()).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void testValidLinesWithoutBinaryFormReplayAsText() throws IOException {
+        String input = String.join("\n",
+                "ALLOCATE 1e3 3000 1000",
+                "SIP 2000 1000 500",
+                "CHANGE 1e1% 2% 3% JANUARY",
+                "CHANGE 4.00% 10.00% 99999999999999999999% FEBRUARY",
+                "CHANGE 1.25% 1% 1% MARCH",
+                "BALANCE MARCH",
+                "REBALANCE");
+        Path text = write(input);
+        Path binary = tempDir.resolve("fallback.bin");
+        assertEquals(7, BinaryCommandConverter.convert(text, binary));
+
+        List<String> fallbackLines = new ArrayList<>();
+        ParsedCommand command = new ParsedCommand();
+        // A window of one record, so a fallback line spans several mappings.
+        try (BinaryCommandReader reader = new BinaryCommandReader(binary, 1)) {
+            while (reader.next(command)) {
+                if (command.getCommand() == null) {
+                    fallbackLines.add(command.getLineNumber() + " " + command.getFallbackLine());
+                }
+            }
+        }
+        assertEquals(Arrays.asList("1 ALLOCATE 1e3 3000 1000", "3 CHANGE 1e1% 2% 3% JANUARY",
+                "4 CHANGE 4.00% 10.00% 99999999999999999999% FEBRUARY"), fallbackLines.subList(0, 3));
+
+        List<String> expected = newDriver().executeCommandsFromFile(text.toString()).stream()
+                .filter(line -> line != null).collect(Collectors.toList());
+        StringWriter output = new StringWriter();
+        newDriver().executeCommandsFromBinaryFile(binary.toString(), output);
+        assertEquals(expected, Arrays.stream(output.toString().split("\\R"))
+                .filter(line -> !line.isEmpty()).collect(Collectors.toList()));
+        assertEquals(2, expected.size());
+    }
+
+    @Test
+    void testInvalidFiles() throws IOException {
+        Path binary = convert(write(MIXED_INPUT));
+        byte[] bytes = Files.readAllBytes(binary);
+        Files.write(binary, Arrays.copyOf(bytes, bytes.length - 1), StandardOpenOption.TRUNCATE_EXISTING);
+        assertThrows(IOException.class, () -> new BinaryCommandReader(binary));
+        // A text file is not a binary command file.
+        Path text = write(MIXED_INPUT);
+        assertThrows(IOException.class, () -> newDriver().executeCommandsFromBinaryFile(text.toString(), new StringWriter()));
+    }
+
+    private static Driver newDriver() {
+        return new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>())));
+    }
+
+    private Path convert(Path text) throws IOException {
+        Path binary = tempDir.resolve(text.getFileName() + ".bin");
+        BinaryCommandConverter.convert(text, binary);
+        return binary;
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = tempDir.resolve("input-" + System.nanoTime() + ".txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
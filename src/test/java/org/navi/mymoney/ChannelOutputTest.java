@@ -0,0 +1,164 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.output.ChannelOutput;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the bytes of {@link ChannelOutput}, and that executing a file into it prints the same lines as the
+ * <code>Writer</code> path.
+ */
+class ChannelOutputTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEncodesLikeStrings() throws IOException {
+        List<Integer> values = new ArrayList<>(Arrays.asList(0, -1, 9, 10, -10, 99, 100, 999_999_999, 1_000_000_000,
+                Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1));
+        Random random = new Random(20221203L);
+        for (int i = 0; i < 1000; i++) {
+            values.add(random.nextInt() >> random.nextInt(32));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // Small enough for numbers and lines to straddle flushes.
+        ChannelOutput output = new ChannelOutput(Channels.newChannel(bytes), 16);
+        StringBuilder expected = new StringBuilder();
+        for (int value : values) {
+            output.writeInt(value).write(' ').writeLine("EQUITY é");
+            expected.append(value).append(' ').append("EQUITY ?").append(System.lineSeparator());
+        }
+        output.flush();
+        assertEquals(expected.toString(), new String(bytes.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void testWritesToChannelWhenFull() throws IOException {
+        int[] writes = new int[1];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WritableByteChannel sink = Channels.newChannel(bytes);
+        WritableByteChannel channel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                writes[0]++;
+                return sink.write(source);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ChannelOutput output = new ChannelOutput(channel, 1024);
+        for (int i = 0; i < 100; i++) {
+            output.writeInt(23622).write(' ').writeInt(11811).write(' ').writeInt(3937).newLine();
+        }
+        assertTrue(writes[0] <= 2, "Writes: " + writes[0]);
+        output.flush();
+        assertTrue(writes[0] <= 3, "Writes: " + writes[0]);
+        assertEquals(0, output.size());
+        assertEquals(100 * ("23622 11811 3937".length() + System.lineSeparator().length()), bytes.size());
+        assertThrows(IllegalArgumentException.class, () -> new ChannelOutput(channel, 8));
+    }
+
+    @Test
+    void testOnlyWholeLinesAreWrittenWhenFull() throws IOException {
+        List<String> writes = new ArrayList<>();
+        WritableByteChannel channel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) {
+                int length = source.remaining();
+                byte[] written = new byte[length];
+                source.get(written);
+                writes.add(new String(written, StandardCharsets.US_ASCII));
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ChannelOutput output = new ChannelOutput(channel);
+        StringBuilder expected = new StringBuilder();
+        // The line of 1049311 crosses the end of the buffer, then a line longer than the buffer.
+        int lines = ChannelOutput.DEFAULT_CAPACITY / 24 + 1;
+        for (int i = 0; i < lines; i++) {
+            output.writeInt(1049311).write(' ').writeInt(503393).write(' ').writeInt(1082733).newLine();
+            expected.append("1049311 503393 1082733").append(System.lineSeparator());
+        }
+        char[] longLine = new char[ChannelOutput.DEFAULT_CAPACITY + 100];
+        Arrays.fill(longLine, 'X');
+        output.writeLine(new String(longLine)).writeLine("CANNOT_REBALANCE");
+        expected.append(longLine).append(System.lineSeparator()).append("CANNOT_REBALANCE").append(System.lineSeparator());
+        output.flush();
+
+        assertTrue(writes.size() >= 2, "Writes: " + writes.size());
+        for (String write : writes) {
+            assertTrue(write.endsWith(System.lineSeparator()), "Partial line written: " + write.substring(
+                    Math.max(0, write.length() - 30)));
+        }
+        assertEquals(expected.toString(), String.join("", writes));
+    }
+
+    @Test
+    void testChannelExecutionMatchesWriter() throws IOException {
+        List<String> lines = new ArrayList<>(Arrays.asList("ALLOCATE 6000 3000 1000", "SIP 2000 1000 500", "REBALANCE"));
+        YearMonth start = YearMonth.of(2031, Month.JANUARY);
+        Random random = new Random(20310101L);
+        for (int month = 0; month < 30; month++) {
+            YearMonth yearMonth = start.plusMonths(month);
+            lines.add(String.format(Locale.ROOT, "CHANGE %.2f%% %.2f%% %.2f%% %s %d", (random.nextInt(81) - 30) / 2d,
+                    (random.nextInt(81) - 30) / 2d, (random.nextInt(81) - 30) / 2d, yearMonth.getMonth(), yearMonth.getYear()));
+            if (month % 7 == 3) {
+                lines.add("REBALANCE");
+            }
+        }
+        // Recent and replayed months, a month without a year, and one that can't be computed.
+        lines.addAll(Arrays.asList("BALANCE MAY 2033", "BALANCE JANUARY 2031", "BALANCE MARCH", "BALANCE JULY 2040",
+                "BALANCE FEBRUARY 2032"));
+        Path input = tempDir.resolve("input.txt");
+        Files.write(input, lines, StandardCharsets.UTF_8);
+
+        for (NumericEngine numericEngine : NumericEngine.values()) {
+            StringWriter expected = new StringWriter();
+            long expectedWritten = newDriver(numericEngine).executeCommandsFromMappedFile(input.toString(), expected);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            long written = newDriver(numericEngine).executeCommandsFromMappedFile(input.toString(),
+                    new ChannelOutput(Channels.newChannel(bytes)));
+            assertEquals(expectedWritten, written, numericEngine.name());
+            assertEquals(expected.toString(), new String(bytes.toByteArray(), StandardCharsets.US_ASCII), numericEngine.name());
+        }
+    }
+
+    private static Driver newDriver(NumericEngine numericEngine) {
+        return new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), numericEngine));
+    }
+}
@@ -0,0 +1,69 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.workload.WorkloadGenerator;
+import org.navi.mymoney.workload.WorkloadMix;
+import org.navi.mymoney.workload.WorkloadSpec;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the CLUSTER mode from the Spring Boot jar, whose workers have to load their classes from the jar too. Run by
+ * <code>mvn verify</code>, which passes the path of the jar as <code>mymoney.jar</code>.
+ */
+class ClusterJarIT {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testClusterModeOfPackagedJar() throws IOException, InterruptedException {
+        Path jar = Paths.get(Objects.requireNonNull(System.getProperty("mymoney.jar"), "mymoney.jar isn't set"));
+        Path input = tempDir.resolve("portfolios.txt");
+        WorkloadGenerator.write(WorkloadSpec.builder().lines(5_000).portfolios(50).mix(WorkloadMix.READ_HEAVY)
+                .seed(7).build(), input);
+        StringWriter expected = new StringWriter();
+        try (PortfolioEngine engine = new PortfolioEngine(2, NumericEngine.FIXED_POINT)) {
+            engine.executeCommandsFromFile(input.toString(), expected);
+        }
+
+        Path stdout = tempDir.resolve("stdout.txt");
+        Path stderr = tempDir.resolve("stderr.txt");
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dmymoney.batch.mode=CLUSTER",
+                "-Dmymoney.cluster.workers=2",
+                "-Dmymoney.cluster.batch-lines=500",
+                "-Dmymoney.cluster.timeout-ms=30000",
+                "-Dmymoney.cluster.jvm-args=-Xmx256m",
+                "-Dmymoney.numeric.engine=" + NumericEngine.FIXED_POINT,
+                "-Dmymoney.metrics.jmx=false",
+                "-jar", jar.toString(), input.toString())
+                .redirectOutput(stdout.toFile())
+                .redirectError(stderr.toFile())
+                .start();
+        assertTrue(process.waitFor(2, TimeUnit.MINUTES), "The jar didn't finish in time");
+        String logs = new String(Files.readAllBytes(stderr), StandardCharsets.UTF_8);
+        assertEquals(0, process.exitValue(), logs);
+
+        // The logs go to stderr, stdout only has the outputs.
+        List<String> outputs = new ArrayList<>(Files.readAllLines(stdout, StandardCharsets.UTF_8));
+        assertEquals("Switching to BATCH-PROCESSING Mode", outputs.remove(0));
+        assertEquals(Arrays.asList(expected.toString().split("\n")), outputs);
+        // The shards ran on the workers started from the jar, none was reassigned.
+        assertFalse(logs.contains("Reassigning shard"), logs);
+    }
+}
@@ -0,0 +1,143 @@
+package org.navi.mymoney;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.jupiter.api.Test;
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.navi.mymoney.metrics.LatencyHistogram;
+import org.navi.mymoney.metrics.SampledErrorLog;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.time.Month;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandMetricsTest {
+
+    @Test
+    void testPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(13);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Spread over several orders of magnitude, like latencies.
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9, 100}) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(actual >= expected && actual <= expected + expected / 32, percentile + ": " + actual + " vs " + expected);
+        }
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    void testDriverCountsCommandsAndErrors() {
+        CommandMetrics metrics = new CommandMetrics();
+        Driver driver = new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>())), metrics);
+        driver.processCommand("ALLOCATE 6000 3000 1000");
+        driver.processCommand("ALLOCATE 6000 3000 1000");
+        driver.processCommand("SIP 2000 1000 500");
+        driver.processCommand("CHANGE 4.00% 10.00% 2.00% JANUARY");
+        driver.processCommand("BALANCE JANUARY");
+        driver.processCommand("BALANCE MARCH");
+        driver.processCommand("HELLO");
+
+        assertEquals(2, metrics.getLatency(Command.ALLOCATE).getCount());
+        assertEquals(2, metrics.getLatency(Command.BALANCE).getCount());
+        assertEquals(0, metrics.getLatency(Command.REBALANCE).getCount());
+        assertEquals(1, metrics.getErrors(Command.ALLOCATE));
+        assertEquals(1, metrics.getErrors(Command.BALANCE));
+
+        Map<String, Long> errorsByCause = metrics.getErrorsByCause();
+        // Rejected by validation, counted under their result code rather than an exception.
+        assertEquals(1L, errorsByCause.get("ALREADY_ALLOCATED"));
+        assertEquals(1L, errorsByCause.get("BALANCE_NOT_COMPUTED"));
+        assertEquals(1L, errorsByCause.get("UNKNOWN_COMMAND"));
+        assertTrue(metrics.summary().get(0).startsWith("ALLOCATE  count=2 errors=1"), metrics.summary().get(0));
+    }
+
+    @Test
+    void testBalanceCacheStatistics() {
+        CommandMetrics metrics = CommandMetrics.shared();
+        Driver driver = new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>())));
+        driver.processCommand("ALLOCATE 6000 3000 1000");
+        driver.processCommand("SIP 2000 1000 500");
+        for (int month = 0; month < 36; month++) {
+            driver.processCommand("CHANGE 1.00% 1.00% 1.00% " + Month.of(month % 12 + 1) + " " + (2030 + month / 12));
+        }
+        long recent = metrics.getRecentBalanceHits();
+        long replays = metrics.getCheckpointReplays();
+        long replayedMonths = metrics.getReplayedMonths();
+        driver.processCommand("BALANCE DECEMBER 2032");
+        driver.processCommand("BALANCE MARCH 2030");
+
+        assertEquals(recent + 1, metrics.getRecentBalanceHits());
+        assertEquals(replays + 1, metrics.getCheckpointReplays());
+        // MARCH is replayed from the checkpoint taken right after the allocation.
+        assertEquals(replayedMonths + 3, metrics.getReplayedMonths());
+    }
+
+    @Test
+    void testExposedOverJmx() throws Exception {
+        CommandMetrics.registerMBean();
+        CommandMetrics.registerMBean();
+        new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()))).processCommand("REBALANCE");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(CommandMetrics.OBJECT_NAME);
+        TabularData counts = (TabularData) server.getAttribute(name, "CommandCounts");
+        assertEquals(CommandMetrics.shared().getLatency(Command.REBALANCE).getCount(),
+                counts.get(new Object[]{"REBALANCE"}).get("value"));
+        assertNotNull(server.getAttribute(name, "LatencyNanos"));
+        assertEquals(CommandMetrics.shared().getRecentBalanceHits(), server.getAttribute(name, "RecentBalanceHits"));
+    }
+
+    @Test
+    void testErrorLogRateLimitedAndSampledPerCause() throws InterruptedException {
+        Logger logger = (Logger) LoggerFactory.getLogger("org.navi.mymoney.SampledErrorLogTest");
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        SampledErrorLog errorLog = new SampledErrorLog(3, 5);
+
+        for (int i = 0; i < 20; i++) {
+            errorLog.error(logger, "BALANCE MAY", new IllegalStateException("Not computed"));
+        }
+        assertTrue(errorLog.error(logger, "BAD", new IllegalArgumentException("Unknown command")));
+        assertEquals(4, appender.list.size());
+        assertNotNull(appender.list.get(0).getThrowableProxy());
+        assertNull(appender.list.get(1).getThrowableProxy());
+        assertEquals("Error Occurred while processing BALANCE MAY Not computed", appender.list.get(2).getFormattedMessage());
+        assertNotNull(appender.list.get(3).getThrowableProxy());
+
+        Thread.sleep(1100);
+        // Occurrences 21 to 25 of the cause: 3 logged, the 25th with its stack trace.
+        for (int i = 0; i < 5; i++) {
+            errorLog.error(logger, "BALANCE MAY", new IllegalStateException("Not computed"));
+        }
+        assertEquals(7, appender.list.size());
+        assertEquals("Error Occurred while processing BALANCE MAY Not computed (17 similar errors not logged)",
+                appender.list.get(4).getFormattedMessage());
+        assertNull(appender.list.get(4).getThrowableProxy());
+        assertNull(appender.list.get(6).getThrowableProxy());
+        logger.detachAppender(appender);
+    }
+}
@@ -0,0 +1,126 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.server.CommandServer;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandServerTest {
+    private static final String INPUT_FILE = "src/test/resources/input.txt";
+    private static final String OUTPUT_FILE = "src/test/resources/output.txt";
+
+    private CommandServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new CommandServer(new InetSocketAddress("127.0.0.1", 0), 2,
+                () -> new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>())));
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        server.close();
+        server.awaitTermination();
+    }
+
+    @Test
+    void testPipelinedFile() throws IOException {
+        List<String> input = readLines(INPUT_FILE);
+        List<String> responses = send(input);
+        assertEquals(input.size(), responses.size());
+        assertEquals(expectedOutput(), responses.stream().filter(line -> !line.isEmpty()).collect(Collectors.toList()));
+    }
+
+    @Test
+    void testErrorsAndPortfolios() throws IOException {
+        List<String> responses = send(Arrays.asList(
+                "BALANCE JANUARY",
+                "UNKNOWN 1 2 3",
+                "A ALLOCATE 6000 3000 1000",
+                "B ALLOCATE 100 100 100",
+                "A CHANGE 4.00% 10.00% 2.00% JANUARY",
+                "B CHANGE 0.00% 0.00% 0.00% JANUARY",
+                "A BALANCE JANUARY",
+                "B BALANCE JANUARY"));
+        assertTrue(responses.get(0).startsWith("ERROR "), responses.get(0));
+        assertTrue(responses.get(1).startsWith("ERROR "), responses.get(1));
+        assertEquals(Arrays.asList("", "", "", "", "6240 3300 1020", "100 100 100"), responses.subList(2, 8));
+    }
+
+    @Test
+    void testSessionsAreIsolated() throws IOException {
+        assertEquals(Collections.singletonList(""), send(Collections.singletonList("ALLOCATE 6000 3000 1000")));
+        // A new connection starts without any allocation.
+        assertEquals(Arrays.asList("", ""), send(Arrays.asList("ALLOCATE 100 100 100", "CHANGE 0.00% 0.00% 0.00% JANUARY")));
+    }
+
+    @Test
+    void testConcurrentClients() throws Exception {
+        List<String> input = readLines(INPUT_FILE);
+        List<String> expected = expectedOutput();
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(clients.submit(() -> send(input)));
+            }
+            for (Future<List<String>> result : results) {
+                assertEquals(expected, result.get(30, TimeUnit.SECONDS).stream()
+                        .filter(line -> !line.isEmpty()).collect(Collectors.toList()));
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends every command in one go followed by QUIT, and reads responses until the server closes the connection.
+     */
+    private List<String> send(List<String> commands) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(30_000);
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            for (String command : commands) {
+                writer.write(command);
+                writer.write('\n');
+            }
+            writer.write("QUIT\n");
+            writer.flush();
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> responses = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                responses.add(line);
+            }
+            return responses;
+        }
+    }
+
+    private static List<String> expectedOutput() throws IOException {
+        return readLines(OUTPUT_FILE).stream().map(String::trim).collect(Collectors.toList());
+    }
+
+    private static List<String> readLines(String fileName) throws IOException {
+        try (Stream<String> lines = Files.lines(Paths.get(fileName))) {
+            return lines.filter(line -> !line.isEmpty()).collect(Collectors.toList());
+        }
+    }
+}
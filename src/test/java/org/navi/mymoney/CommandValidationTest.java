@@ -0,0 +1,279 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.constants.BatchMode;
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.dao.OffHeapStateStore;
+import org.navi.mymoney.dao.StateStorage;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.parser.CommandValidator;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.navi.mymoney.validation.ErrorPolicy;
+import org.navi.mymoney.validation.ErrorReport;
+import org.navi.mymoney.validation.InvalidInputException;
+import org.navi.mymoney.validation.ResultCode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the validation stage accepts exactly the lines the string based parser accepts, decoding them to the
+ * same values, and the error report and policies of the file runs.
+ */
+class CommandValidationTest {
+    // The modes reading text files in this JVM, BINARY and CLUSTER have tests of their own.
+    private static final BatchMode[] MODES = {BatchMode.SEQUENTIAL, BatchMode.STREAMING, BatchMode.MAPPED,
+            BatchMode.ENGINE, BatchMode.PARALLEL};
+    private static final String[] TOKENS = {"ALLOCATE", "SIP", "CHANGE", "BALANCE", "REBALANCE", "HELLO", "allocate",
+            "JANUARY", "MARCH", "DECEMBER", "March", "2031", "-5", "+2031", "1000000000", "2147483648", "",
+            "6000", "-0", "0.50", ".5", "5.", ".", "+7", "1e3", "1E-2", "12345678901234567890", "abc", "1,000",
+            "4.00%", "-2.5%", "%3%", "%", "NaN", "-Infinity", "1f", "2.5d", "0x1p3", "0x10", "0X.8P-1d", "1e", "+-1", "٣", "٢٠٣١", "1é"};
+
+    // Accepts every command, so only the syntax of a line can make it fail.
+    private static final PortfolioService IGNORE_COMMANDS = new PortfolioService() {
+        @Override
+        public void allocate(BigDecimal[] allocations) {
+        }
+
+        @Override
+        public void initSip(BigDecimal[] sips) {
+        }
+
+        @Override
+        public void change(double[] rates, Month month) {
+        }
+
+        @Override
+        public void change(double[] rates, YearMonth yearMonth) {
+        }
+
+        @Override
+        public String balance(Month month) {
+            return null;
+        }
+
+        @Override
+        public String balance(YearMonth yearMonth) {
+            return null;
+        }
+
+        @Override
+        public String reBalance() {
+            return null;
+        }
+    };
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testValidatorMatchesStringParser() {
+        Driver syntaxCheck = new Driver(IGNORE_COMMANDS, new CommandMetrics());
+        CommandValidator validator = new CommandValidator(3);
+        ParsedCommand command = new ParsedCommand();
+        Random random = new Random(20221204L);
+        List<String> lines = new ArrayList<>(Arrays.asList("ALLOCATE 6000 3000 1000", "CHANGE 4.00% 10.00% 2.00% MAY 2031",
+                "BALANCE MARCH 2031 ", "REBALANCE whatever", " BALANCE MARCH", "BALANCE  MARCH", "   ", "BALANCE MARCH -999999999",
+                "BALANCE MARCH 1000000000", "CHANGE 4%% 1e2% 0x10 JUNE", "SIP 1\t 2 3"));
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder line = new StringBuilder(TOKENS[random.nextInt(5)]);
+            int tokens = random.nextInt(6);
+            for (int j = 0; j < tokens; j++) {
+                line.append(' ').append(TOKENS[random.nextInt(TOKENS.length)]);
+            }
+            lines.add(line.toString());
+        }
+        for (String line : lines) {
+            boolean accepted;
+            try {
+                syntaxCheck.processCommandOrThrow(line);
+                accepted = true;
+            } catch (RuntimeException e) {
+                accepted = false;
+            }
+            ResultCode result = validator.validate(line, 1, command);
+            assertEquals(accepted, result == ResultCode.OK, line + ": " + result);
+            if (result == ResultCode.OK && command.getCommand() != null) {
+                assertDecodedLike(line, command);
+            }
+        }
+    }
+
+    @Test
+    void testServiceValidation() {
+        PortfolioService service = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()));
+        CommandValidator validator = new CommandValidator(3);
+        ParsedCommand command = new ParsedCommand();
+        Driver driver = new Driver(service, new CommandMetrics());
+        driver.processCommand("ALLOCATE 6000 3000 1000");
+        driver.processCommand("CHANGE 4.00% 10.00% 2.00% JANUARY 2031");
+
+        Map<String, ResultCode> expected = new LinkedHashMap<>();
+        expected.put("ALLOCATE 1 2 3", ResultCode.ALREADY_ALLOCATED);
+        expected.put("SIP 1 2 3", ResultCode.OK);
+        expected.put("CHANGE 1% 2% 3% JANUARY", ResultCode.CHANGE_ALREADY_REGISTERED);
+        expected.put("CHANGE 1% 2% 3% JANUARY 2031", ResultCode.CHANGE_ALREADY_REGISTERED);
+        expected.put("CHANGE 1% 2% 3% JANUARY 2030", ResultCode.OUTSIDE_TIMELINE);
+        expected.put("CHANGE 1% 2% 3% JANUARY 2032", ResultCode.OK);
+        expected.put("BALANCE JANUARY 2031", ResultCode.OK);
+        expected.put("BALANCE FEBRUARY", ResultCode.BALANCE_NOT_COMPUTED);
+        expected.put("BALANCE DECEMBER 1", ResultCode.OUTSIDE_TIMELINE);
+        expected.put("REBALANCE", ResultCode.OK);
+        expected.forEach((line, result) -> {
+            assertEquals(ResultCode.OK, validator.validate(line, 0, command), line);
+            assertEquals(result, service.validate(command), line);
+        });
+
+        PortfolioService noYear = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()));
+        validator.validate("BALANCE JANUARY 2031", 0, command);
+        assertEquals(ResultCode.NO_YEAR_REGISTERED, noYear.validate(command));
+    }
+
+    @Test
+    void testErrorReportAndPolicies() throws IOException {
+        Path input = tempDir.resolve("input.txt");
+        Files.write(input, Arrays.asList("ALLOCATE 6000 3000 1000", "SIP 2000 1000 500", "", "HELLO",
+                "CHANGE 4.00% 10.00% 2.00% JANUARY", "CHANGE 4.00% 10.00% JANUARY", "CHANGE -10.00% 40.00% 0.00% FEBRUARY",
+                "BALANCE MARCH", "BALANCE FEBRUARY", "ALLOCATE 1 2 3", "BALANCE JANUARY"), StandardCharsets.UTF_8);
+        List<String> expectedOutputs = Arrays.asList("7416 6020 1520", "6240 3300 1020");
+
+        for (BatchMode mode : MODES) {
+            ErrorReport[] reports = new ErrorReport[1];
+            assertEquals(expectedOutputs, run(mode, ErrorPolicy.SKIP, input, reports), mode.name());
+            ErrorReport report = reports[0];
+            assertEquals(10, report.getLines());
+            assertEquals(4, report.getErrors());
+            assertEquals(1, report.getCount(ResultCode.UNKNOWN_COMMAND));
+            assertEquals(1, report.getCount(ResultCode.WRONG_ARITY));
+            assertEquals(1, report.getCount(ResultCode.BALANCE_NOT_COMPUTED));
+            assertEquals(1, report.getCount(ResultCode.ALREADY_ALLOCATED));
+            assertEquals(4, report.getEntries());
+            long[] lineNumbers = new long[report.getEntries()];
+            for (int i = 0; i < lineNumbers.length; i++) {
+                lineNumbers[i] = report.getLineNumber(i);
+            }
+            assertArrayEquals(new long[]{4, 6, 8, 10}, lineNumbers);
+            assertEquals(ResultCode.BALANCE_NOT_COMPUTED, report.getCode(2));
+            assertTrue(report.summary().get(0).endsWith("4 invalid line(s) out of 10, UNKNOWN_COMMAND=1, WRONG_ARITY=1, "
+                    + "ALREADY_ALLOCATED=1, BALANCE_NOT_COMPUTED=1"), report.summary().get(0));
+
+            InvalidInputException e = assertThrows(InvalidInputException.class,
+                    () -> run(mode, ErrorPolicy.FAIL_FAST, input, reports), mode.name());
+            assertEquals(1, e.getReport().getErrors());
+            assertEquals(3, e.getReport().getLines());
+            assertTrue(e.getMessage().endsWith("line 4: UNKNOWN_COMMAND (unknown command)"), e.getMessage());
+        }
+    }
+
+    @Test
+    void testFailFastWritesTheOutputsBeforeTheInvalidLine() throws IOException {
+        Path input = tempDir.resolve("fail-fast.txt");
+        Files.write(input, Arrays.asList("P1 ALLOCATE 6000 3000 1000", "P2 ALLOCATE 100 100 100",
+                "P1 CHANGE 4.00% 10.00% 2.00% JANUARY", "P2 CHANGE 0.00% 0.00% 0.00% JANUARY", "P1 BALANCE JANUARY",
+                "P2 BALANCE JANUARY", "P2 BALANCE MARCH", "P1 BALANCE JANUARY"), StandardCharsets.UTF_8);
+        for (BatchMode mode : new BatchMode[]{BatchMode.ENGINE, BatchMode.PARALLEL}) {
+            StringWriter output = new StringWriter();
+            try (PortfolioEngine engine = newEngine(ErrorPolicy.FAIL_FAST)) {
+                InvalidInputException e = assertThrows(InvalidInputException.class, () -> {
+                    if (mode == BatchMode.ENGINE) {
+                        engine.executeCommandsFromFile(input.toString(), output);
+                    } else {
+                        engine.executeCommandsFromFileInParallel(input.toString(), output, 16);
+                    }
+                }, mode.name());
+                assertTrue(e.getMessage().endsWith("line 7: BALANCE_NOT_COMPUTED (balance can't be computed from the "
+                        + "supplied inputs)"), e.getMessage());
+                assertSame(e.getReport(), engine.getErrorReport());
+            }
+            assertEquals(Arrays.asList("6240 3300 1020", "100 100 100"),
+                    Arrays.asList(output.toString().split(System.lineSeparator())), mode.name());
+        }
+    }
+
+    private static Driver newDriver(ErrorPolicy errorPolicy) {
+        return new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>())), new CommandMetrics(),
+                errorPolicy);
+    }
+
+    private static PortfolioEngine newEngine(ErrorPolicy errorPolicy) {
+        return new PortfolioEngine(2, NumericEngine.BIG_DECIMAL, ReBalancePolicy.NONE, StateStorage.HEAP, null,
+                OffHeapStateStore.DEFAULT_TIMELINE_MONTHS, errorPolicy);
+    }
+
+    /**
+     * @param reports gets the report of the run, even if it fails.
+     */
+    private static List<String> run(BatchMode mode, ErrorPolicy errorPolicy, Path input, ErrorReport[] reports)
+            throws IOException {
+        if (mode == BatchMode.ENGINE || mode == BatchMode.PARALLEL) {
+            StringWriter output = new StringWriter();
+            try (PortfolioEngine engine = newEngine(errorPolicy)) {
+                try {
+                    if (mode == BatchMode.ENGINE) {
+                        engine.executeCommandsFromFile(input.toString(), output);
+                    } else {
+                        engine.executeCommandsFromFileInParallel(input.toString(), output, 16);
+                    }
+                } finally {
+                    reports[0] = engine.getErrorReport();
+                }
+            }
+            return Arrays.asList(output.toString().split(System.lineSeparator()));
+        }
+        Driver driver = newDriver(errorPolicy);
+        try {
+            if (mode == BatchMode.SEQUENTIAL) {
+                List<String> outputs = new ArrayList<>(driver.executeCommandsFromFile(input.toString()));
+                outputs.removeIf(Objects::isNull);
+                return outputs;
+            }
+            StringWriter output = new StringWriter();
+            if (mode == BatchMode.STREAMING) {
+                driver.streamCommandsFromFile(input.toString(), output);
+            } else {
+                driver.executeCommandsFromMappedFile(input.toString(), output);
+            }
+            return Arrays.asList(output.toString().split(System.lineSeparator()));
+        } finally {
+            reports[0] = driver.getErrorReport();
+        }
+    }
+
+    private static void assertDecodedLike(String line, ParsedCommand command) {
+        String[] tokens = line.split(" ");
+        assertEquals(Command.valueOf(tokens[0]), command.getCommand(), line);
+        for (int i = 0; i < command.getValueCount(); i++) {
+            if (command.getCommand() == Command.CHANGE) {
+                double expected = Double.parseDouble(tokens[i + 1].replace("%", ""));
+                assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(command.getRate(i)), line);
+            } else {
+                assertEquals(new BigDecimal(tokens[i + 1]), command.getAmount(i), line);
+            }
+        }
+        int monthToken = command.getCommand() == Command.CHANGE ? 4 : 1;
+        if (command.getCommand() == Command.CHANGE || command.getCommand() == Command.BALANCE) {
+            assertEquals(Month.valueOf(tokens[monthToken]), command.getMonth(), line);
+            assertEquals(tokens.length == monthToken + 2, command.hasYear(), line);
+            if (command.hasYear()) {
+                assertEquals(Integer.parseInt(tokens[monthToken + 1]), command.getYear(), line);
+            }
+        }
+    }
+}
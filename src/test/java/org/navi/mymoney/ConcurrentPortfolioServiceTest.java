@@ -0,0 +1,209 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.parser.CommandValidator;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.services.BalanceSnapshot;
+import org.navi.mymoney.services.ConcurrentPortfolioService;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.navi.mymoney.validation.ResultCode;
+
+import java.math.BigDecimal;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentPortfolioServiceTest {
+    private static final YearMonth START = YearMonth.of(2024, Month.JANUARY);
+    private static final int MONTHS = 48;
+    private static final int READERS = 8;
+
+    @Test
+    void testAnswersLikeThePlainService() {
+        for (NumericEngine numericEngine : NumericEngine.values()) {
+            PortfolioService reference = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), numericEngine);
+            ConcurrentPortfolioService service = new ConcurrentPortfolioService(numericEngine);
+            for (Function<PortfolioService, String> command : commands()) {
+                assertEquals(output(() -> command.apply(reference)), output(() -> command.apply(service)));
+                for (int month = 0; month <= MONTHS; month++) {
+                    YearMonth yearMonth = START.plusMonths(month);
+                    assertEquals(output(() -> reference.balance(yearMonth)), output(() -> service.balance(yearMonth)),
+                            numericEngine + " " + yearMonth);
+                }
+                assertEquals(output(() -> reference.balance(Month.MARCH)), output(() -> service.balance(Month.MARCH)));
+            }
+        }
+    }
+
+    @Test
+    void testFollowsPolicyAndValidationOfThePlainService() {
+        List<String> lines = Arrays.asList("ALLOCATE 6000 3000 1000", "SIP 2000 1000 500",
+                "CHANGE 4.00% 10.00% 2.00% MARCH 2024", "CHANGE 4.00% 10.00% 2.00% JANUARY 2023", "BALANCE MARCH 2024",
+                "BALANCE DECEMBER 2026", "REBALANCE");
+        for (String policy : new String[]{"CALENDAR:3", "DRIFT:5"}) {
+            ReBalancePolicy reBalancePolicy = ReBalancePolicy.parse(policy);
+            PortfolioService reference = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()),
+                    NumericEngine.FIXED_POINT, reBalancePolicy);
+            PortfolioService unbalanced = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()),
+                    NumericEngine.FIXED_POINT);
+            ConcurrentPortfolioService service = new ConcurrentPortfolioService(NumericEngine.FIXED_POINT, reBalancePolicy);
+            for (Function<PortfolioService, String> command : commands()) {
+                for (String line : lines) {
+                    assertEquals(validate(reference, line), validate(service, line), policy + " " + line);
+                }
+                output(() -> command.apply(unbalanced));
+                assertEquals(output(() -> command.apply(reference)), output(() -> command.apply(service)), policy);
+            }
+            boolean reBalanced = false;
+            for (int month = 0; month <= MONTHS; month++) {
+                YearMonth yearMonth = START.plusMonths(month);
+                assertEquals(output(() -> reference.balance(yearMonth)), output(() -> service.balance(yearMonth)),
+                        policy + " " + yearMonth);
+                reBalanced |= !output(() -> unbalanced.balance(yearMonth)).equals(output(() -> service.balance(yearMonth)));
+            }
+            assertTrue(reBalanced, policy + " never re-balanced");
+        }
+    }
+
+    @Test
+    void testReadersSeeWholeCommandsWhileWritersRun() throws Exception {
+        // What every version of the state answers, from a single-threaded service.
+        List<Function<PortfolioService, String>> commands = commands();
+        PortfolioService reference = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()));
+        List<String[]> expected = new ArrayList<>();
+        expected.add(outputs(reference::balance));
+        for (Function<PortfolioService, String> command : commands) {
+            output(() -> command.apply(reference));
+            expected.add(outputs(reference::balance));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            ConcurrentPortfolioService service = new ConcurrentPortfolioService(NumericEngine.BIG_DECIMAL);
+            ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Long>> readers = new ArrayList<>();
+            try {
+                for (int reader = 0; reader < READERS; reader++) {
+                    int seed = reader;
+                    readers.add(executor.submit(() -> {
+                        Random random = new Random(seed);
+                        long lastVersion = 0;
+                        long reads = 0;
+                        start.await();
+                        while (lastVersion < commands.size()) {
+                            BalanceSnapshot snapshot = service.snapshot();
+                            assertTrue(snapshot.getVersion() >= lastVersion, "Versions go back");
+                            lastVersion = snapshot.getVersion();
+                            int month = random.nextInt(MONTHS + 1);
+                            assertEquals(expected.get((int) lastVersion)[month],
+                                    output(() -> snapshot.balance(START.plusMonths(month))),
+                                    "Version " + lastVersion + ", month " + month);
+                            reads++;
+                        }
+                        return reads;
+                    }));
+                }
+                Future<?> writer = executor.submit(() -> {
+                    start.await();
+                    for (Function<PortfolioService, String> command : commands) {
+                        output(() -> command.apply(service));
+                        Thread.yield();
+                    }
+                    return null;
+                });
+                start.countDown();
+                writer.get(30, TimeUnit.SECONDS);
+                for (Future<Long> reader : readers) {
+                    assertTrue(reader.get(30, TimeUnit.SECONDS) > 0);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            assertArrayEquals(expected.get(commands.size()), outputs(service::balance));
+        }
+    }
+
+    // An allocation, a SIP, the months in a shuffled order with re-balances and rejected commands in between.
+    private static List<Function<PortfolioService, String>> commands() {
+        Random random = new Random(7);
+        List<Function<PortfolioService, String>> commands = new ArrayList<>();
+        commands.add(service -> {
+            service.allocate(amounts(6000, 3000, 1000));
+            return null;
+        });
+        List<Integer> months = new ArrayList<>();
+        for (int month = 0; month < MONTHS; month++) {
+            months.add(month);
+        }
+        // Mostly in order, some months a little late.
+        for (int i = 0; i + 1 < months.size(); i += 1 + random.nextInt(4)) {
+            Collections.swap(months, i, i + 1);
+        }
+        for (int i = 0; i < months.size(); i++) {
+            YearMonth yearMonth = START.plusMonths(months.get(i));
+            Map<AssetClass, Double> rates = new EnumMap<>(AssetClass.class);
+            for (AssetClass assetClass : AssetClass.values()) {
+                rates.put(assetClass, (random.nextInt(4001) - 1500) / 100d);
+            }
+            Function<PortfolioService, String> change = service -> {
+                service.change(rates, yearMonth);
+                return null;
+            };
+            commands.add(change);
+            if (i == 3) {
+                commands.add(service -> {
+                    service.initSip(amounts(2000, 1000, 500));
+                    return null;
+                });
+            }
+            if (i % 7 == 6) {
+                commands.add(PortfolioService::reBalance);
+                // Already registered, rejected.
+                commands.add(change);
+            }
+        }
+        return commands;
+    }
+
+    private static ResultCode validate(PortfolioService service, String line) {
+        ParsedCommand command = new ParsedCommand();
+        assertEquals(ResultCode.OK, new CommandValidator(AssetClass.values().length).validate(line, 0, command));
+        return service.validate(command);
+    }
+
+    private static String[] outputs(Function<YearMonth, String> balance) {
+        String[] outputs = new String[MONTHS + 1];
+        for (int month = 0; month <= MONTHS; month++) {
+            YearMonth yearMonth = START.plusMonths(month);
+            outputs[month] = output(() -> balance.apply(yearMonth));
+        }
+        return outputs;
+    }
+
+    private static String output(Supplier<String> command) {
+        try {
+            return command.get();
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private static Map<AssetClass, BigDecimal> amounts(long... values) {
+        Map<AssetClass, BigDecimal> amounts = new EnumMap<>(AssetClass.class);
+        for (AssetClass assetClass : AssetClass.values()) {
+            amounts.put(assetClass, BigDecimal.valueOf(values[assetClass.ordinal()]));
+        }
+        return amounts;
+    }
+}
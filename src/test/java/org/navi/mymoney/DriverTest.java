@@ -10,6 +10,7 @@ import org.navi.mymoney.services.PortfolioService;
 import org.navi.mymoney.services.PortfolioServiceImpl;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashSet;
@@ -61,4 +62,37 @@ public class DriverTest {
         }
     }
 
+    @Test
+    void testCommandsWithYears() {
+        assertNull(driver.processCommand("ALLOCATE 6000 3000 1000"));
+        assertNull(driver.processCommand("SIP 2000 1000 500"));
+        assertNull(driver.processCommand("CHANGE 4.00% 10.00% 2.00% JANUARY 2030"));
+        assertNull(driver.processCommand("CHANGE 0.00% 0.00% 0.00% FEBRUARY 2030"));
+        assertEquals("6240 3300 1020", driver.processCommand("BALANCE JANUARY 2030"));
+        assertEquals("8240 4300 1520", driver.processCommand("BALANCE FEBRUARY 2030"));
+        assertNull(driver.processCommand("BALANCE FEBRUARY 2030 2031"));
+    }
+
+    @Test
+    void testStreamingInvalidFile() {
+        assertThrows(
+                IOException.class,
+                () -> driver.streamCommandsFromFile("invalidInputFile", new StringWriter()),
+                "Expected streaming to throw Exception, but it didn't.");
+    }
+
+    @Test
+    void testStreamingCommands() throws IOException {
+        String inputFile = "src/test/resources/input.txt";
+        String outputFile = "src/test/resources/output.txt";
+        StringWriter output = new StringWriter();
+        long written = driver.streamCommandsFromFile(inputFile, output);
+        try (Stream<String> lines = Files.lines(Paths.get(outputFile))) {
+            List<String> expected = lines.map(String::trim).collect(Collectors.toList());
+            assertEquals(expected.size(), written);
+            assertEquals(String.join(";", expected),
+                    Stream.of(output.toString().split("\\R")).map(String::trim).collect(Collectors.joining(";")));
+        }
+    }
+
 }
@@ -0,0 +1,64 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the same input file through {@link FastLauncher} and {@link GeekTrust}, each in its own JVM, and checks the
+ * hand-wired components print what the Spring context does.
+ */
+class FastLauncherTest {
+    private static final Path INPUT = Paths.get("src/test/resources/input.txt");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testDefaultPropertiesMatchGeekTrust() throws IOException, InterruptedException {
+        List<String> outputs = run(FastLauncher.class);
+        assertEquals(run(GeekTrust.class), outputs);
+        assertEquals(Files.readAllLines(Paths.get("src/test/resources/output.txt"), StandardCharsets.UTF_8),
+                outputs.subList(1, outputs.size()));
+    }
+
+    @Test
+    void testOverriddenPropertiesMatchGeekTrust() throws IOException, InterruptedException {
+        String[] properties = {
+                "-Dmymoney.batch.mode=MAPPED",
+                "-Dmymoney.numeric.engine=FIXED_POINT",
+                "-Dmymoney.rebalance.policy=DRIFT:5"};
+        assertEquals(run(GeekTrust.class, properties), run(FastLauncher.class, properties));
+    }
+
+    private List<String> run(Class<?> mainClass, String... properties) throws IOException, InterruptedException {
+        Path stdout = tempDir.resolve(mainClass.getSimpleName() + "-" + System.nanoTime() + ".out");
+        Path stderr = tempDir.resolve(mainClass.getSimpleName() + "-" + System.nanoTime() + ".err");
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dmymoney.metrics.jmx=false");
+        command.addAll(Arrays.asList(properties));
+        command.add(mainClass.getName());
+        command.add(INPUT.toString());
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(stdout.toFile())
+                .redirectError(stderr.toFile())
+                .start();
+        assertTrue(process.waitFor(2, TimeUnit.MINUTES), mainClass.getSimpleName() + " didn't finish in time");
+        assertEquals(0, process.exitValue(), new String(Files.readAllBytes(stderr), StandardCharsets.UTF_8));
+        return Files.readAllLines(stdout, StandardCharsets.UTF_8);
+    }
+}
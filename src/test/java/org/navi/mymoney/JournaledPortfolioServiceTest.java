@@ -0,0 +1,223 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.persistence.FsyncPolicy;
+import org.navi.mymoney.persistence.JournaledPortfolioService;
+import org.navi.mymoney.persistence.SnapshotStore;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Restarts journaled portfolios at every point of a command stream and checks they answer like one that never stopped.
+ */
+class JournaledPortfolioServiceTest {
+    private static final YearMonth START = YearMonth.of(2030, Month.JANUARY);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRecoveryMatchesUninterruptedRun() throws IOException {
+        List<String> commands = commands(36);
+        for (NumericEngine numericEngine : NumericEngine.values()) {
+            List<String> expected = run(new Driver(
+                    new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), numericEngine)), commands);
+            Path engineDirectory = directory.resolve(numericEngine.name());
+
+            List<String> actual = new ArrayList<>();
+            for (int from = 0; from < commands.size(); from += 7) {
+                try (JournaledPortfolioService service = open(engineDirectory, numericEngine, 5)) {
+                    actual.addAll(run(new Driver(service), commands.subList(from, Math.min(commands.size(), from + 7))));
+                }
+            }
+            assertEquals(expected, actual, numericEngine.name());
+        }
+    }
+
+    @Test
+    void testSnapshotsBoundTheReplay() throws IOException {
+        List<String> commands = commands(60);
+        try (JournaledPortfolioService service = open(directory, NumericEngine.BIG_DECIMAL, 10)) {
+            run(new Driver(service), commands);
+        }
+        assertTrue(files("snapshot-").size() <= 2, "Snapshots: " + files("snapshot-"));
+        assertTrue(files("journal-").size() <= 3, "Journal segments: " + files("journal-"));
+
+        List<String> expected = run(new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()))),
+                commands);
+        try (JournaledPortfolioService service = open(directory, NumericEngine.BIG_DECIMAL, 10)) {
+            assertEquals(expected.get(expected.size() - 1), service.balance(START.plusMonths(59)));
+        }
+    }
+
+    @Test
+    void testTornTailIsDropped() throws IOException {
+        List<String> commands = commands(12);
+        try (JournaledPortfolioService service = open(directory, NumericEngine.BIG_DECIMAL, 1000)) {
+            run(new Driver(service), commands);
+            service.change(rates(99), START.plusMonths(12));
+        }
+        // Damage the checksum of the last record, as if the process died in the middle of writing it.
+        Path segment = files("journal-").get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+            channel.read(content, 0);
+            int last = content.capacity() - 1;
+            while (content.get(last) == 0) {
+                last--;
+            }
+            content.put(last, (byte) (content.get(last) ^ 0xFF));
+            content.position(last).limit(last + 1);
+            channel.write(content, last);
+        }
+
+        PortfolioServiceImpl reference = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()));
+        run(new Driver(reference), commands);
+        try (JournaledPortfolioService service = open(directory, NumericEngine.BIG_DECIMAL, 1000)) {
+            assertEquals(reference.balance(START.plusMonths(11)), service.balance(START.plusMonths(11)));
+            assertThrows(IllegalStateException.class, () -> service.balance(START.plusMonths(12)));
+            service.change(rates(7), START.plusMonths(12));
+        }
+        reference.change(rates(7), START.plusMonths(12));
+        try (JournaledPortfolioService service = open(directory, NumericEngine.BIG_DECIMAL, 1000)) {
+            assertEquals(reference.balance(START.plusMonths(12)), service.balance(START.plusMonths(12)));
+        }
+    }
+
+    @Test
+    void testRejectedCommandsAreNotJournaled() throws IOException {
+        try (JournaledPortfolioService service = open(directory, NumericEngine.BIG_DECIMAL, 1000)) {
+            Driver driver = new Driver(service);
+            run(driver, commands(3));
+            assertNull(driver.processCommand("ALLOCATE 1 2 3"));
+            assertNull(driver.processCommand("SIP 1 2 3"));
+        }
+        try (JournaledPortfolioService service = open(directory, NumericEngine.BIG_DECIMAL, 1000)) {
+            assertEquals(run(new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()))),
+                    commands(3)).get(2), service.balance(START.plusMonths(2)));
+        }
+    }
+
+    @Test
+    void testFailedAppendLeavesStateUnchanged() throws IOException {
+        PortfolioServiceImpl reference = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()));
+        run(new Driver(reference), commands(6));
+        JournaledPortfolioService service = open(directory, NumericEngine.BIG_DECIMAL, 1000);
+        run(new Driver(service), commands(6));
+        // Rejected once journaled, and again on replay.
+        assertThrows(InputMismatchException.class, () -> service.change(rates(7), START.plusMonths(5)));
+        // The journal can't take records any more.
+        service.close();
+        assertThrows(UncheckedIOException.class, () -> service.change(rates(7), START.plusMonths(6)));
+        assertThrows(IllegalStateException.class, () -> service.balance(START.plusMonths(6)));
+        assertThrows(UncheckedIOException.class, () -> service.allocate(new BigDecimal[]{BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE}));
+        assertEquals(reference.balance(START.plusMonths(5)), service.balance(START.plusMonths(5)));
+
+        try (JournaledPortfolioService reopened = open(directory, NumericEngine.BIG_DECIMAL, 1000)) {
+            assertEquals(reference.balance(START.plusMonths(5)), reopened.balance(START.plusMonths(5)));
+            reopened.change(rates(7), START.plusMonths(6));
+            reference.change(rates(7), START.plusMonths(6));
+            assertEquals(reference.balance(START.plusMonths(6)), reopened.balance(START.plusMonths(6)));
+        }
+    }
+
+    @Test
+    void testOpenedFromThePropertiesWithTheirPolicy() throws IOException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("mymoney.journal.dir", directory.toString());
+        properties.put("mymoney.journal.fsync", "NEVER");
+        properties.put("mymoney.rebalance.policy", "DRIFT:5");
+        List<String> commands = commands(24);
+        List<String> expected = run(new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()),
+                NumericEngine.BIG_DECIMAL, ReBalancePolicy.parse("DRIFT:5"))), commands);
+        assertNotEquals(run(new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()))),
+                commands), expected);
+
+        List<String> actual = new ArrayList<>();
+        for (int from = 0; from < commands.size(); from += 20) {
+            try (JournaledPortfolioService service = GeekTrust.openJournal(properties::get)) {
+                actual.addAll(run(new Driver(service), commands.subList(from, Math.min(commands.size(), from + 20))));
+            }
+        }
+        assertEquals(expected, actual);
+        assertNull(GeekTrust.openJournal(name -> null));
+    }
+
+    @Test
+    void testSnapshotOfAnotherAssetOrderIsRejected() throws IOException {
+        PortfolioServiceImpl service = new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()));
+        run(new Driver(service), commands(3));
+        byte[] snapshot = SnapshotStore.encode(3, service.getDataStub(), service.getPortfolio());
+        assertEquals(3, SnapshotStore.decode(snapshot).getSequence());
+
+        AssetUniverse.configure(AssetUniverse.of("GOLD", "DEBT", "EQUITY"));
+        try {
+            assertThrows(IOException.class, () -> SnapshotStore.decode(snapshot));
+        } finally {
+            AssetUniverse.configure(AssetUniverse.DEFAULT);
+        }
+    }
+
+    private JournaledPortfolioService open(Path path, NumericEngine numericEngine, int snapshotInterval) throws IOException {
+        return JournaledPortfolioService.open(path, numericEngine, FsyncPolicy.NEVER, 0, snapshotInterval);
+    }
+
+    private static List<String> run(Driver driver, List<String> commands) {
+        return commands.stream().map(driver::processCommand).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> commands(int months) {
+        Random random = new Random(42);
+        List<String> commands = new ArrayList<>();
+        commands.add("ALLOCATE 6000 3000 1000");
+        commands.add("SIP 2000 1000 500");
+        for (int month = 0; month < months; month++) {
+            YearMonth yearMonth = START.plusMonths(month);
+            commands.add(String.format(Locale.ROOT, "CHANGE %.2f%% %.2f%% %.2f%% %s %d", random.nextInt(2000) / 100d - 5,
+                    random.nextInt(1000) / 100d - 3, random.nextInt(600) / 100d - 2, yearMonth.getMonth(), yearMonth.getYear()));
+            commands.add("BALANCE " + yearMonth.getMonth() + " " + yearMonth.getYear());
+            if (month % 10 == 9) {
+                commands.add("REBALANCE");
+            }
+        }
+        return commands;
+    }
+
+    private static Map<AssetClass, Double> rates(int seed) {
+        Random random = new Random(seed);
+        Map<AssetClass, Double> rates = new EnumMap<>(AssetClass.class);
+        for (AssetClass assetClass : AssetClass.values()) {
+            rates.put(assetClass, random.nextInt(1000) / 100d);
+        }
+        return rates;
+    }
+}
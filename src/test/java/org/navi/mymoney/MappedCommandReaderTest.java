@@ -0,0 +1,143 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.parser.MappedCommandReader;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedCommandReaderTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testDecodesCommands() throws IOException {
+        Path input = write("ALLOCATE 6000 3000.50 -1000\nCHANGE 4.00% -10.5% 0% MARCH\nBALANCE MAY  \nREBALANCE\n");
+        ParsedCommand command = new ParsedCommand();
+        try (MappedCommandReader reader = new MappedCommandReader(input)) {
+            assertTrue(reader.next(command));
+            assertEquals(Command.ALLOCATE, command.getCommand());
+            assertEquals(new BigDecimal("6000"), command.getAmount(0));
+            assertEquals(new BigDecimal("3000.50"), command.getAmount(1));
+            assertEquals(new BigDecimal("-1000"), command.getAmount(2));
+
+            assertTrue(reader.next(command));
+            assertEquals(Command.CHANGE, command.getCommand());
+            assertEquals(Month.MARCH, command.getMonth());
+            assertEquals(Double.parseDouble("4.00"), command.getRate(0));
+            assertEquals(Double.parseDouble("-10.5"), command.getRate(1));
+            assertEquals(Double.parseDouble("0"), command.getRate(2));
+
+            assertTrue(reader.next(command));
+            assertEquals(Command.BALANCE, command.getCommand());
+            assertEquals(Month.MAY, command.getMonth());
+
+            assertTrue(reader.next(command));
+            assertEquals(Command.REBALANCE, command.getCommand());
+            assertEquals(4, command.getLineNumber());
+
+            assertFalse(reader.next(command));
+        }
+    }
+
+    @Test
+    void testDecodesYears() throws IOException {
+        Path input = write("CHANGE 4.00% 10.00% 2.00% JANUARY 2031\nBALANCE MARCH 2032\nBALANCE MARCH -2032\nBALANCE MARCH\n");
+        ParsedCommand command = new ParsedCommand();
+        try (MappedCommandReader reader = new MappedCommandReader(input)) {
+            assertTrue(reader.next(command));
+            assertEquals(Command.CHANGE, command.getCommand());
+            assertEquals(Month.JANUARY, command.getMonth());
+            assertTrue(command.hasYear());
+            assertEquals(2031, command.getYear());
+
+            assertTrue(reader.next(command));
+            assertEquals(Command.BALANCE, command.getCommand());
+            assertEquals(Month.MARCH, command.getMonth());
+            assertEquals(2032, command.getYear());
+
+            assertTrue(reader.next(command));
+            assertNull(command.getCommand());
+            assertEquals("BALANCE MARCH -2032", command.getFallbackLine());
+
+            assertTrue(reader.next(command));
+            assertEquals(Command.BALANCE, command.getCommand());
+            assertFalse(command.hasYear());
+        }
+    }
+
+    @Test
+    void testUnsupportedSyntaxFallsBack() throws IOException {
+        Path input = write("ALLOCATE 1e3 3000 1000\nBALANCE  MAY\nCHANGE 4% 1% 2% Smarch\nHELLO\n");
+        ParsedCommand command = new ParsedCommand();
+        List<String> fallbacks = new ArrayList<>();
+        try (MappedCommandReader reader = new MappedCommandReader(input)) {
+            while (reader.next(command)) {
+                assertNull(command.getCommand());
+                fallbacks.add(command.getFallbackLine());
+            }
+        }
+        assertEquals(4, fallbacks.size());
+        assertEquals("BALANCE  MAY", fallbacks.get(1));
+    }
+
+    @Test
+    void testLinesAcrossWindows() throws IOException {
+        String content = String.join("\r\n", Files.readAllLines(Paths.get("src/test/resources/input.txt")));
+        Path input = write(content);
+        List<String> decoded = new ArrayList<>();
+        ParsedCommand command = new ParsedCommand();
+        try (MappedCommandReader reader = new MappedCommandReader(input, 40)) {
+            while (reader.next(command)) {
+                decoded.add(command.toString());
+            }
+        }
+        assertEquals(11, decoded.size());
+        assertEquals("ALLOCATE 6000 3000 1000", decoded.get(0));
+        assertEquals("CHANGE 12.50 12.50 12.50 MARCH", decoded.get(4));
+        assertEquals("REBALANCE", decoded.get(10));
+    }
+
+    @Test
+    void testMappedExecutionMatchesDriver() throws IOException {
+        Driver driver = new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>())));
+        StringWriter output = new StringWriter();
+        long written = driver.executeCommandsFromMappedFile("src/test/resources/input.txt", output);
+
+        List<String> expected = Files.readAllLines(Paths.get("src/test/resources/output.txt")).stream()
+                .map(String::trim).filter(line -> !line.isEmpty()).collect(Collectors.toList());
+        assertEquals(expected.size(), written);
+        assertEquals(expected, Arrays.asList(output.toString().split("\\R")));
+    }
+
+    @Test
+    void testMappedInvalidFile() {
+        Driver driver = new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>())));
+        assertThrows(IOException.class, () -> driver.executeCommandsFromMappedFile("invalidInputFile", new StringWriter()));
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = tempDir.resolve("input-" + System.nanoTime() + ".txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,119 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.navi.mymoney.simulation.MonteCarloSimulator;
+import org.navi.mymoney.simulation.RateDistribution;
+import org.navi.mymoney.simulation.SimulationResult;
+import org.navi.mymoney.simulation.SimulationSpec;
+
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MonteCarloSimulatorTest {
+
+    @Test
+    void testSameSeedSameResultWhateverTheParallelism() {
+        SimulationSpec spec = spec(RateDistribution.normal(1, 4), RateDistribution.normal(0.5, 1),
+                RateDistribution.normal(0.8, 2.5), 1000, 24, true);
+        SimulationResult sequential;
+        try (MonteCarloSimulator simulator = new MonteCarloSimulator(new ForkJoinPool(1))) {
+            sequential = simulator.simulate(spec);
+        }
+        try (MonteCarloSimulator simulator = new MonteCarloSimulator(new ForkJoinPool(4))) {
+            SimulationResult parallel = simulator.simulate(spec);
+            assertEquals(sequential.format(), parallel.format());
+        }
+    }
+
+    @Test
+    void testPercentilesAreOrdered() {
+        SimulationSpec spec = spec(RateDistribution.normal(1, 4), RateDistribution.normal(0.5, 1),
+                RateDistribution.normal(0.8, 2.5), 500, 12, false);
+        try (MonteCarloSimulator simulator = new MonteCarloSimulator(new ForkJoinPool(2))) {
+            SimulationResult result = simulator.simulate(spec);
+            assertEquals(500, result.getScenarios());
+            for (int p = 1; p < result.getPercentiles().length; p++) {
+                assertTrue(result.getTotal(p - 1) <= result.getTotal(p));
+                for (AssetClass assetClass : AssetClass.values()) {
+                    assertTrue(result.getBalance(p - 1, assetClass) <= result.getBalance(p, assetClass));
+                }
+            }
+            assertTrue(result.getTotal(0) < result.getTotal(result.getPercentiles().length - 1));
+        }
+    }
+
+    @Test
+    void testFixedRatesFollowTheCommandRules() {
+        // Same rates every month as CHANGE 4.00% 10.00% 2.00% ..., re-balanced in JUNE.
+        Driver driver = new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>())));
+        driver.processCommand("ALLOCATE 6000 3000 1000");
+        driver.processCommand("SIP 2000 1000 500");
+        String[] months = {"JANUARY", "FEBRUARY", "MARCH", "APRIL", "MAY", "JUNE", "JULY", "AUGUST"};
+        for (int month = 0; month < months.length; month++) {
+            driver.processCommand("CHANGE 4.00% 10.00% 2.00% " + months[month]);
+            if (month == 5) {
+                driver.processCommand("REBALANCE");
+            }
+        }
+        String expected = driver.processCommand("BALANCE AUGUST");
+
+        SimulationSpec spec = spec(RateDistribution.fixed(4), RateDistribution.fixed(10), RateDistribution.fixed(2),
+                100, months.length, true);
+        try (MonteCarloSimulator simulator = new MonteCarloSimulator(new ForkJoinPool(2))) {
+            SimulationResult result = simulator.simulate(spec);
+            String[] balances = expected.split(" ");
+            long total = 0;
+            for (AssetClass assetClass : AssetClass.values()) {
+                int balance = Integer.parseInt(balances[assetClass.ordinal()]);
+                total += balance;
+                for (int p = 0; p < result.getPercentiles().length; p++) {
+                    assertEquals(balance, result.getBalance(p, assetClass));
+                }
+            }
+            assertEquals("P50 " + expected + " " + total, result.format().get(2));
+        }
+    }
+
+    @Test
+    void testInvalidSpec() {
+        try (MonteCarloSimulator simulator = new MonteCarloSimulator(new ForkJoinPool(1))) {
+            assertThrows(IllegalArgumentException.class, () -> simulator.simulate(
+                    spec(RateDistribution.fixed(1), RateDistribution.fixed(1), RateDistribution.fixed(1), 0, 12, false)));
+            assertThrows(IllegalArgumentException.class, () -> RateDistribution.normal(1, -1));
+        }
+    }
+
+    private static SimulationSpec spec(RateDistribution equity, RateDistribution debt, RateDistribution gold,
+                                       int scenarios, int months, boolean reBalance) {
+        Map<AssetClass, RateDistribution> rates = new EnumMap<>(AssetClass.class);
+        rates.put(AssetClass.EQUITY, equity);
+        rates.put(AssetClass.DEBT, debt);
+        rates.put(AssetClass.GOLD, gold);
+        return SimulationSpec.builder()
+                .allocation(amounts(6000, 3000, 1000))
+                .sip(amounts(2000, 1000, 500))
+                .rates(rates)
+                .scenarios(scenarios)
+                .months(months)
+                .reBalance(reBalance)
+                .seed(42L)
+                .build();
+    }
+
+    private static Map<AssetClass, BigDecimal> amounts(long equity, long debt, long gold) {
+        Map<AssetClass, BigDecimal> amounts = new EnumMap<>(AssetClass.class);
+        amounts.put(AssetClass.EQUITY, BigDecimal.valueOf(equity));
+        amounts.put(AssetClass.DEBT, BigDecimal.valueOf(debt));
+        amounts.put(AssetClass.GOLD, BigDecimal.valueOf(gold));
+        return amounts;
+    }
+}
@@ -0,0 +1,116 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.constants.Constants;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.dao.MonthlyBalanceIndex;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.math.BigDecimal;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks balances of long timelines, served from checkpoints and replays, against services that only ever saw the
+ * months up to the one queried.
+ */
+class MultiYearTimelineTest {
+    private static final YearMonth START = YearMonth.of(2031, Month.JANUARY);
+    private static final int YEARS = 30;
+    private static final int MONTHS = YEARS * MonthlyBalanceIndex.MONTHS_PER_YEAR;
+
+    private final List<Map<AssetClass, Double>> rates = randomRates(new Random(20310101L), MONTHS);
+
+    @Test
+    void testPastBalancesMatchReplayFromInception() {
+        for (NumericEngine numericEngine : NumericEngine.values()) {
+            DataStub dataStub = new DataStub();
+            PortfolioService service = newService(dataStub, numericEngine, MONTHS);
+            assertTrue(dataStub.getMonthlyBalance().getCheckpointCount() < 2 * Math.sqrt(MONTHS),
+                    "Checkpoints: " + dataStub.getMonthlyBalance().getCheckpointCount());
+
+            for (int month = 0; month < MONTHS; month++) {
+                YearMonth yearMonth = START.plusMonths(month);
+                String expected = newService(new DataStub(), numericEngine, month + 1).balance(yearMonth);
+                assertEquals(expected, service.balance(yearMonth), numericEngine + " " + yearMonth);
+            }
+        }
+    }
+
+    @Test
+    void testReBalanceAtLatestPeriod() {
+        int months = 2 * MonthlyBalanceIndex.MONTHS_PER_YEAR + 8;
+        PortfolioService service = newService(new DataStub(), NumericEngine.BIG_DECIMAL, months);
+        // 32 months registered, the latest re-balance point is the JUNE of the third year.
+        PortfolioService reference = newService(new DataStub(), NumericEngine.BIG_DECIMAL, 30);
+        String expected = reference.reBalance();
+        assertEquals(expected, service.reBalance());
+        assertEquals(expected, service.balance(YearMonth.of(2033, Month.JUNE)));
+        assertEquals(expected, service.reBalance());
+
+        for (int month = 30; month < months; month++) {
+            YearMonth yearMonth = START.plusMonths(month);
+            reference.change(rates.get(month), yearMonth);
+            assertEquals(reference.balance(yearMonth), service.balance(yearMonth));
+        }
+        // Months before the re-balance are untouched.
+        assertEquals(newService(new DataStub(), NumericEngine.BIG_DECIMAL, 3).balance(Month.MARCH),
+                service.balance(YearMonth.of(2031, Month.MARCH)));
+    }
+
+    @Test
+    void testMonthsWithoutYearBelongToTheFirstYear() {
+        PortfolioService service = newService(new DataStub(), NumericEngine.BIG_DECIMAL, 0);
+        service.change(rates.get(0), Month.JANUARY);
+        service.change(rates.get(1), START.plusMonths(1));
+        assertEquals(service.balance(Month.FEBRUARY), service.balance(YearMonth.of(2031, Month.FEBRUARY)));
+        assertThrows(InputMismatchException.class, () -> service.change(rates.get(1), Month.FEBRUARY));
+        assertThrows(InputMismatchException.class, () -> service.change(rates.get(2), YearMonth.of(2030, Month.MARCH)));
+        assertThrows(IllegalStateException.class, () -> service.balance(YearMonth.of(2031, Month.MARCH)));
+        assertEquals(Constants.CANNOT_REBALANCE, service.reBalance());
+    }
+
+    @Test
+    void testBalanceWithYearNeedsAYearToStartFrom() {
+        PortfolioService service = newService(new DataStub(), NumericEngine.BIG_DECIMAL, 0);
+        service.change(rates.get(0), Month.JANUARY);
+        assertThrows(IllegalStateException.class, () -> service.balance(START));
+    }
+
+    private PortfolioService newService(DataStub dataStub, NumericEngine numericEngine, int months) {
+        PortfolioService service = new PortfolioServiceImpl(dataStub, new Portfolio(new HashSet<>()), numericEngine);
+        service.allocate(amounts(6000, 3000, 1000));
+        service.initSip(amounts(2000, 1000, 500));
+        for (int month = 0; month < months; month++) {
+            service.change(rates.get(month), START.plusMonths(month));
+        }
+        return service;
+    }
+
+    private static Map<AssetClass, BigDecimal> amounts(long equity, long debt, long gold) {
+        Map<AssetClass, BigDecimal> amounts = new EnumMap<>(AssetClass.class);
+        amounts.put(AssetClass.EQUITY, BigDecimal.valueOf(equity));
+        amounts.put(AssetClass.DEBT, BigDecimal.valueOf(debt));
+        amounts.put(AssetClass.GOLD, BigDecimal.valueOf(gold));
+        return amounts;
+    }
+
+    private static List<Map<AssetClass, Double>> randomRates(Random random, int months) {
+        List<Map<AssetClass, Double>> rates = new ArrayList<>(months);
+        for (int month = 0; month < months; month++) {
+            Map<AssetClass, Double> monthRates = new EnumMap<>(AssetClass.class);
+            for (AssetClass assetClass : AssetClass.values()) {
+                monthRates.put(assetClass, (random.nextInt(1501) - 500) / 100d);
+            }
+            rates.add(monthRates);
+        }
+        return rates;
+    }
+}
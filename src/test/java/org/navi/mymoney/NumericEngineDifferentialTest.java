@@ -0,0 +1,142 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.navi.mymoney.constants.AssetClass;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.FixedPoint;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.math.BigDecimal;
+import java.time.Month;
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the same randomized command sequences through both numeric engines and expects identical outputs.
+ */
+class NumericEngineDifferentialTest {
+    private static final long SEED = 20221105L;
+    private static final int SCENARIOS = 3000;
+
+    @Test
+    void testBasisPointsMatchBigDecimal() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 100_000; i++) {
+            long basisPoints = random.nextInt(2_000_001) - 1_000_000;
+            double rate = basisPoints / 100d;
+            BigDecimal expected = BigDecimal.valueOf(rate);
+            assertEquals(basisPoints, FixedPoint.basisPoints(rate));
+            assertEquals(expected.scale(), FixedPoint.rateScale(basisPoints));
+            assertEquals(expected.unscaledValue().longValueExact(), FixedPoint.rateUnscaled(basisPoints));
+        }
+        assertEquals(FixedPoint.NOT_REPRESENTABLE, FixedPoint.basisPoints(4.125));
+        assertEquals(FixedPoint.NOT_REPRESENTABLE, FixedPoint.basisPoints(Double.NaN));
+    }
+
+    @Test
+    void testFloorToIntMatchesBigDecimal() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 100_000; i++) {
+            long unscaled = random.nextLong() >> random.nextInt(64);
+            int scale = random.nextInt(25);
+            BigDecimal amount = BigDecimal.valueOf(unscaled, scale);
+            assertEquals(Double.valueOf(Math.floor(amount.doubleValue())).intValue(),
+                    FixedPoint.floorToInt(unscaled, scale), amount::toPlainString);
+        }
+    }
+
+    @Test
+    void testEnginesProduceIdenticalOutputs() {
+        Random random = new Random(SEED);
+        for (int scenario = 0; scenario < SCENARIOS; scenario++) {
+            List<Function<PortfolioService, String>> commands = randomScenario(random);
+            List<String> expected = run(commands, NumericEngine.BIG_DECIMAL);
+            List<String> actual = run(commands, NumericEngine.FIXED_POINT);
+            assertEquals(expected, actual, "Scenario " + scenario);
+        }
+    }
+
+    private static List<String> run(List<Function<PortfolioService, String>> commands, NumericEngine numericEngine) {
+        PortfolioService service =
+                new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), numericEngine);
+        List<String> outputs = new ArrayList<>();
+        for (Function<PortfolioService, String> command : commands) {
+            try {
+                outputs.add(command.apply(service));
+            } catch (RuntimeException e) {
+                outputs.add(e.getClass().getSimpleName());
+            }
+        }
+        return outputs;
+    }
+
+    private static List<Function<PortfolioService, String>> randomScenario(Random random) {
+        List<Function<PortfolioService, String>> commands = new ArrayList<>();
+        Map<AssetClass, BigDecimal> allocation = randomAmounts(random, 100_000);
+        Map<AssetClass, BigDecimal> sip = randomAmounts(random, 10_000);
+        commands.add(service -> {
+            service.allocate(allocation);
+            return null;
+        });
+        commands.add(service -> {
+            service.initSip(sip);
+            return null;
+        });
+
+        int months = 1 + random.nextInt(12);
+        for (int m = 1; m <= months; m++) {
+            Month month = Month.of(m);
+            Map<AssetClass, Double> rates = new EnumMap<>(AssetClass.class);
+            for (AssetClass assetClass : AssetClass.values()) {
+                rates.put(assetClass, randomRate(random));
+            }
+            commands.add(service -> {
+                service.change(rates, month);
+                return null;
+            });
+            if (random.nextInt(3) == 0) {
+                Month query = Month.of(1 + random.nextInt(m));
+                commands.add(service -> service.balance(query));
+            }
+        }
+        commands.add(service -> service.balance(Month.of(months)));
+        commands.add(PortfolioService::reBalance);
+        if (random.nextBoolean()) {
+            commands.add(service -> service.balance(Month.of(months)));
+            commands.add(PortfolioService::reBalance);
+        }
+        return commands;
+    }
+
+    private static Map<AssetClass, BigDecimal> randomAmounts(Random random, int bound) {
+        Map<AssetClass, BigDecimal> amounts = new EnumMap<>(AssetClass.class);
+        for (AssetClass assetClass : AssetClass.values()) {
+            long unscaled = 1 + random.nextInt(bound);
+            int scale = random.nextInt(4) == 0 ? random.nextInt(3) : 0;
+            amounts.put(assetClass, BigDecimal.valueOf(unscaled * (scale == 0 ? 1 : 10L * scale + 3), scale));
+        }
+        return amounts;
+    }
+
+    private static double randomRate(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                // Whole percentages, "4.00%"
+                return random.nextInt(61) - 20;
+            case 1:
+                // One decimal, "12.50%"
+                return (random.nextInt(601) - 200) / 10d;
+            case 2:
+                // Basis points, "4.37%"
+                return (random.nextInt(6001) - 2000) / 100d;
+            default:
+                // Not a whole number of basis points, always goes through BigDecimal.
+                return (random.nextInt(60001) - 20000) / 1000d;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.constants.AssetUniverse;
+import org.navi.mymoney.dao.OffHeapStateStore;
+import org.navi.mymoney.dao.StateRecord;
+import org.navi.mymoney.dao.StateStorage;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.parser.CommandValidator;
+import org.navi.mymoney.parser.ParsedCommand;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.navi.mymoney.validation.ResultCode;
+import org.navi.mymoney.workload.WorkloadGenerator;
+import org.navi.mymoney.workload.WorkloadMix;
+import org.navi.mymoney.workload.WorkloadSpec;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapStateStoreTest {
+    private static final int TIMELINE_MONTHS = 24;
+    private static final double[] RATES = {4, 10, 2};
+
+    @TempDir
+    static Path tempDir;
+
+    private static List<String> lines;
+
+    @BeforeAll
+    static void generateInput() throws IOException {
+        Path input = tempDir.resolve("portfolios.txt");
+        WorkloadGenerator.write(WorkloadSpec.builder().lines(20_000).portfolios(300).malformedRatio(0.01)
+                .mix(WorkloadMix.BATCH).maxMonths(TIMELINE_MONTHS).seed(25).build(), input);
+        lines = Files.readAllLines(input);
+    }
+
+    @Test
+    void testOutputsMatchHeap() {
+        for (NumericEngine numericEngine : NumericEngine.values()) {
+            for (String policy : new String[]{"NONE", "CALENDAR:3"}) {
+                ReBalancePolicy reBalancePolicy = ReBalancePolicy.parse(policy);
+                List<String> expected;
+                try (PortfolioEngine engine = new PortfolioEngine(3, numericEngine, reBalancePolicy)) {
+                    expected = engine.executeCommands(lines);
+                }
+                try (PortfolioEngine engine = new PortfolioEngine(3, numericEngine, reBalancePolicy,
+                        StateStorage.OFF_HEAP, null, TIMELINE_MONTHS)) {
+                    assertEquals(expected, engine.executeCommands(lines), numericEngine + " " + policy);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testPortfoliosAreReopenedFromFiles() throws IOException {
+        Path stateFile = tempDir.resolve("state");
+        List<String> expected;
+        try (PortfolioEngine engine = new PortfolioEngine(2, NumericEngine.BIG_DECIMAL)) {
+            expected = engine.executeCommands(lines);
+        }
+        int half = lines.size() / 2;
+        try (PortfolioEngine engine = newFileEngine(stateFile, 2)) {
+            assertEquals(expected.subList(0, half), engine.executeCommands(lines.subList(0, half)));
+        }
+        try (PortfolioEngine engine = newFileEngine(stateFile, 2)) {
+            assertEquals(expected.subList(half, lines.size()), engine.executeCommands(lines.subList(half, lines.size())));
+            // Portfolios would land on other shards.
+            assertThrows(IllegalStateException.class, () -> newFileEngine(stateFile, 3));
+            assertThrows(IllegalStateException.class, () -> newFileEngine(stateFile, 1));
+        }
+
+        // The streaming path of the engine, over the same files.
+        StringWriter output = new StringWriter();
+        Path rebalance = tempDir.resolve("rebalance.txt");
+        Files.write(rebalance, lines.stream().map(line -> PortfolioEngine.splitPortfolioId(line)[0] + " REBALANCE")
+                .distinct().collect(Collectors.toList()));
+        try (PortfolioEngine engine = newFileEngine(stateFile, 2)) {
+            engine.executeCommandsFromFileInParallel(rebalance.toString(), output);
+        }
+        try (PortfolioEngine heap = new PortfolioEngine(2, NumericEngine.BIG_DECIMAL)) {
+            heap.executeCommands(lines);
+            StringWriter heapOutput = new StringWriter();
+            heap.executeCommandsFromFileInParallel(rebalance.toString(), heapOutput);
+            assertEquals(heapOutput.toString(), output.toString());
+        }
+    }
+
+    @Test
+    void testStoreReopensWithIdsAndOverflowingAmounts() throws IOException {
+        Path file = tempDir.resolve("ids");
+        BigDecimal overflowing = new BigDecimal("123456789012345678901234567890.123456789");
+        try (OffHeapStateStore store = OffHeapStateStore.open(file, AssetUniverse.DEFAULT, TIMELINE_MONTHS)) {
+            StateRecord record = new StateRecord(store);
+            for (int i = 0; i < 5000; i++) {
+                int slot = store.addPortfolio("P" + i);
+                record.moveTo(slot);
+                record.getPortfolio().getAmounts().set(record.getPortfolio().holdingCell(0),
+                        i % 2 == 0 ? overflowing.add(BigDecimal.valueOf(i)) : BigDecimal.valueOf(i));
+            }
+            assertThrows(IllegalArgumentException.class, () -> store.addPortfolio("P42"));
+            assertThrows(IllegalArgumentException.class,
+                    () -> store.addPortfolio(new String(new char[StateRecord.MAX_ID_BYTES + 1]).replace('\0', 'P')));
+        }
+        assertThrows(IllegalStateException.class, () -> OffHeapStateStore.open(file, AssetUniverse.parse("EQUITY,DEBT"),
+                TIMELINE_MONTHS));
+        assertThrows(IllegalStateException.class, () -> OffHeapStateStore.open(file, AssetUniverse.DEFAULT, 36));
+        // 64 names of 100 bytes don't fit the 4KB header.
+        String[] longNames = new String[AssetUniverse.MAX_SIZE];
+        for (int i = 0; i < longNames.length; i++) {
+            longNames[i] = new String(new char[100 - 2]).replace('\0', 'A') + String.format("%02d", i);
+        }
+        Path tooWide = tempDir.resolve("wide");
+        assertThrows(IllegalArgumentException.class,
+                () -> OffHeapStateStore.open(tooWide, AssetUniverse.of(longNames), TIMELINE_MONTHS));
+        assertThrows(IllegalArgumentException.class,
+                () -> OffHeapStateStore.allocate(AssetUniverse.of(longNames), TIMELINE_MONTHS));
+
+        try (OffHeapStateStore store = OffHeapStateStore.open(file, AssetUniverse.DEFAULT, TIMELINE_MONTHS)) {
+            assertEquals(5000, store.size());
+            assertEquals(-1, store.slotOf("P5000"));
+            StateRecord record = new StateRecord(store);
+            for (int i = 0; i < 5000; i++) {
+                record.moveTo(store.slotOf("P" + i));
+                assertEquals("P" + i, record.getPortfolioId());
+                assertEquals(i % 2 == 0 ? overflowing.add(BigDecimal.valueOf(i)) : BigDecimal.valueOf(i),
+                        record.getPortfolio().getAmounts().get(record.getPortfolio().holdingCell(0)));
+            }
+        }
+    }
+
+    @Test
+    void testChangesPastTimelineAreRejected() {
+        OffHeapStateStore store = OffHeapStateStore.allocate(AssetUniverse.DEFAULT, TIMELINE_MONTHS);
+        StateRecord record = new StateRecord(store);
+        PortfolioServiceImpl service = new PortfolioServiceImpl(record.getDataStub(), record.getPortfolio());
+        record.moveTo(store.addPortfolio("P1"));
+        service.allocate(new BigDecimal[]{BigDecimal.valueOf(6000), BigDecimal.valueOf(3000), BigDecimal.valueOf(1000)});
+        service.change(RATES, YearMonth.of(2000, Month.JANUARY));
+
+        assertEquals(ResultCode.OUTSIDE_TIMELINE, validate(service, "CHANGE 4.00% 10.00% 2.00% JANUARY 2002"));
+        assertThrows(InputMismatchException.class, () -> service.change(RATES, YearMonth.of(2002, Month.JANUARY)));
+        assertEquals(ResultCode.OK, validate(service, "CHANGE 4.00% 10.00% 2.00% DECEMBER 2001"));
+
+        // A portfolio that never registered a year starts its own timeline.
+        record.moveTo(store.addPortfolio("P2"));
+        service.stateMoved();
+        assertNull(record.getDataStub().getFirstYear());
+        assertEquals(ResultCode.OK, validate(service, "CHANGE 4.00% 10.00% 2.00% JANUARY 2002"));
+
+        record.moveTo(store.slotOf("P1"));
+        service.stateMoved();
+        assertEquals(Integer.valueOf(2000), record.getDataStub().getFirstYear());
+        assertEquals("6240 3300 1020", service.balance(YearMonth.of(2000, Month.JANUARY)));
+    }
+
+    private static ResultCode validate(PortfolioServiceImpl service, String line) {
+        ParsedCommand command = new ParsedCommand();
+        assertEquals(ResultCode.OK, new CommandValidator(AssetUniverse.DEFAULT.size()).validate(line, 0, command));
+        return service.validate(command);
+    }
+
+    private static PortfolioEngine newFileEngine(Path stateFile, int workers) {
+        return new PortfolioEngine(workers, NumericEngine.BIG_DECIMAL, ReBalancePolicy.NONE, StateStorage.OFF_HEAP,
+                stateFile, TIMELINE_MONTHS);
+    }
+}
@@ -0,0 +1,172 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.navi.mymoney.batch.FileChunks;
+import org.navi.mymoney.constants.Constants;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.numeric.NumericEngine;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PortfolioEngineTest {
+    private static final String INPUT_FILE = "src/test/resources/input.txt";
+    private static final String OUTPUT_FILE = "src/test/resources/output.txt";
+
+    private PortfolioEngine engine;
+
+    @BeforeEach
+    public void setUp() {
+        engine = new PortfolioEngine(4, NumericEngine.BIG_DECIMAL);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    void testSplitPortfolioId() {
+        assertArrayEquals(new String[]{Constants.DEFAULT_PORTFOLIO_ID, "BALANCE MARCH"},
+                PortfolioEngine.splitPortfolioId("BALANCE MARCH"));
+        assertArrayEquals(new String[]{Constants.DEFAULT_PORTFOLIO_ID, "REBALANCE"},
+                PortfolioEngine.splitPortfolioId("REBALANCE"));
+        assertArrayEquals(new String[]{"P42", "BALANCE MARCH"},
+                PortfolioEngine.splitPortfolioId("P42 BALANCE MARCH"));
+    }
+
+    @Test
+    void testDefaultPortfolioMatchesDriver() throws IOException {
+        StringWriter output = new StringWriter();
+        assertEquals(expectedOutput().size(), engine.executeCommandsFromFile(INPUT_FILE, output));
+        assertEquals(expectedOutput(), Arrays.asList(output.toString().split(System.lineSeparator())));
+    }
+
+    @Test
+    void testFileOfManyPortfoliosKeepsEveryState() throws IOException {
+        // More portfolios than a shard keeps drivers for, each allocated long before its balance is asked.
+        int totalPortfolios = 3000;
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < totalPortfolios; i++) {
+            lines.add("P" + i + " ALLOCATE " + (i + 1) + " 100 100");
+            lines.add("P" + i + " CHANGE 0.00% 0.00% 0.00% JANUARY");
+        }
+        for (int i = 0; i < totalPortfolios; i++) {
+            lines.add("P" + i + " BALANCE JANUARY");
+        }
+        Path file = Files.createTempFile("my-money-engine", ".txt");
+        try (PortfolioEngine singleShard = new PortfolioEngine(1, NumericEngine.BIG_DECIMAL)) {
+            Files.write(file, lines);
+            StringWriter output = new StringWriter();
+            assertEquals(totalPortfolios, singleShard.executeCommandsFromFile(file.toString(), output));
+            String[] balances = output.toString().split(System.lineSeparator());
+            for (int i = 0; i < totalPortfolios; i++) {
+                assertEquals((i + 1) + " 100 100", balances[i]);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testFileMissing() {
+        assertThrows(IOException.class, () -> engine.executeCommandsFromFile("no-such-file.txt", new StringWriter()));
+    }
+
+    @Test
+    void testInterleavedPortfolios() throws IOException {
+        List<String> inputLines = readLines(INPUT_FILE);
+        int totalPortfolios = 16;
+        List<String> lines = new ArrayList<>();
+        inputLines.forEach(line -> {
+            for (int i = 0; i < totalPortfolios; i++) {
+                lines.add("P" + i + " " + line);
+            }
+        });
+
+        List<String> output = engine.executeCommands(lines);
+        assertEquals(lines.size(), output.size());
+
+        List<String> expected = new ArrayList<>();
+        expectedOutput().forEach(line -> {
+            for (int i = 0; i < totalPortfolios; i++) {
+                expected.add(line);
+            }
+        });
+        assertEquals(expected, output.stream().filter(Objects::nonNull).collect(Collectors.toList()));
+    }
+
+    @Test
+    void testPortfoliosAreIsolated() {
+        assertNull(engine.submit("A ALLOCATE 6000 3000 1000").join());
+        assertNull(engine.submit("B ALLOCATE 100 100 100").join());
+        assertNull(engine.submit("A CHANGE 4.00% 10.00% 2.00% JANUARY").join());
+        assertNull(engine.submit("B CHANGE 0.00% 0.00% 0.00% JANUARY").join());
+        assertEquals("6240 3300 1020", engine.submit("A BALANCE JANUARY").join());
+        assertEquals("100 100 100", engine.submit("B BALANCE JANUARY").join());
+    }
+
+    @Test
+    void testParallelFileMatchesSequentialOrder() throws IOException {
+        List<String> inputLines = readLines(INPUT_FILE);
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(17);
+        int[] next = new int[40];
+        // Portfolios progress at their own pace, so their commands are spread over many chunks.
+        while (lines.size() < next.length * inputLines.size()) {
+            int portfolio = random.nextInt(next.length);
+            if (next[portfolio] < inputLines.size()) {
+                lines.add("P" + portfolio + " " + inputLines.get(next[portfolio]++));
+            }
+        }
+        List<String> expected = engine.executeCommands(lines).stream().filter(Objects::nonNull).collect(Collectors.toList());
+
+        Path file = Files.createTempFile("my-money-parallel", ".txt");
+        try {
+            // CRLF and blank lines are skipped like Files.lines does.
+            Files.write(file, String.join("\r\n\n", lines).getBytes(StandardCharsets.UTF_8));
+            for (int chunkBytes : new int[]{1, 64, 1000, FileChunks.DEFAULT_CHUNK_BYTES}) {
+                try (PortfolioEngine parallel = new PortfolioEngine(3, NumericEngine.BIG_DECIMAL)) {
+                    StringWriter output = new StringWriter();
+                    assertEquals(expected.size(), parallel.executeCommandsFromFileInParallel(file.toString(), output, chunkBytes));
+                    assertEquals(expected, Arrays.asList(output.toString().split(System.lineSeparator())), "Chunks of " + chunkBytes);
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testParallelFileOfDefaultPortfolioMatchesDriver() throws IOException {
+        StringWriter output = new StringWriter();
+        engine.executeCommandsFromFileInParallel(INPUT_FILE, output, 16);
+        assertEquals(expectedOutput(), Arrays.asList(output.toString().split(System.lineSeparator())));
+    }
+
+    @Test
+    void testParallelFileMissing() {
+        assertThrows(IOException.class, () -> engine.executeCommandsFromFileInParallel("no-such-file.txt", new StringWriter()));
+    }
+
+    private static List<String> expectedOutput() throws IOException {
+        return readLines(OUTPUT_FILE).stream().map(String::trim).collect(Collectors.toList());
+    }
+
+    private static List<String> readLines(String fileName) throws IOException {
+        try (Stream<String> lines = Files.lines(Paths.get(fileName))) {
+            return lines.filter(line -> !line.isEmpty()).collect(Collectors.toList());
+        }
+    }
+}
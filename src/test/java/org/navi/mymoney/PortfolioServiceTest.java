@@ -66,7 +66,7 @@ class PortfolioServiceTest {
 
         portfolioService.allocate(dummyAllocation);
         assertEquals(
-                BigDecimal.valueOf(100.0), dataStub.desiredWeights.values().stream().reduce(BigDecimal::add).orElse(BigDecimal.ZERO));
+                BigDecimal.valueOf(100.0), dataStub.getDesiredWeights().values().stream().reduce(BigDecimal::add).orElse(BigDecimal.ZERO));
     }
 
     @Test
@@ -118,7 +118,7 @@ class PortfolioServiceTest {
     void testChangeWithNullValues() throws InputMismatchException {
         assertThrows(
                 InputMismatchException.class,
-                () -> portfolioService.change(null, JANUARY),
+                () -> portfolioService.change((Map<AssetClass, Double>) null, JANUARY),
                 "change() should have thrown an exception.");
     }
 
@@ -138,7 +138,7 @@ class PortfolioServiceTest {
         rates.put(AssetClass.DEBT, 5d);
         rates.put(AssetClass.GOLD, 7d);
         portfolioService.change(rates, MARCH);
-        assertEquals(rates.size(), dataStub.monthlyMarketChangeRate.get(MARCH).size());
+        assertEquals(rates.size(), dataStub.getMonthlyMarketChangeRate().get(MARCH.ordinal()).length);
     }
 
     @Test
@@ -167,6 +167,36 @@ class PortfolioServiceTest {
         assertEquals("23622 11811 3937", portfolioService.reBalance());
     }
 
+    @Test
+    void testBalanceOfEarlierMonth() {
+        initializePortfolio();
+        assertEquals("17628 11652 3830", portfolioService.balance(MAY));
+        assertEquals("10593 7897 2272", portfolioService.balance(MARCH));
+    }
+
+    @Test
+    void testBalanceBeforeChangeIsRegistered() {
+        initializePortfolio();
+        assertThrows(IllegalStateException.class,
+                () -> portfolioService.balance(JULY),
+                "balance() should have thrown an exception.");
+    }
+
+    @Test
+    void testReBalanceRecomputesLaterMonths() {
+        initializePortfolio();
+        portfolioService.change(new HashMap<AssetClass, Double>() {{
+            put(AssetClass.EQUITY, 0d);
+            put(AssetClass.DEBT, 0d);
+            put(AssetClass.GOLD, 0d);
+        }}, JULY);
+        assertEquals("23591 14665 4614", portfolioService.balance(JULY));
+        assertEquals("23622 11811 3937", portfolioService.reBalance());
+        assertEquals("23622 11811 3937", portfolioService.reBalance());
+        assertEquals("23622 11811 3937", portfolioService.balance(JUNE));
+        assertEquals("25622 12811 4437", portfolioService.balance(JULY));
+    }
+
     @Test
     void testReBalanceWithInsufficientData() {
         portfolioService.allocate(dummyAllocation);
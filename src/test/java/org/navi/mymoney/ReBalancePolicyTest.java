@@ -0,0 +1,161 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.navi.mymoney.dao.ColumnarStateStore;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.rebalance.CalendarReBalancePolicy;
+import org.navi.mymoney.rebalance.DriftReBalancePolicy;
+import org.navi.mymoney.rebalance.PortfolioDrift;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.services.PortfolioService;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+
+import java.math.BigDecimal;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the re-balance policies against explicit <code>REBALANCE</code> commands, across numeric engines and with
+ * portfolios sharing a {@link ColumnarStateStore}.
+ */
+class ReBalancePolicyTest {
+    private static final YearMonth START = YearMonth.of(2040, Month.JANUARY);
+    private static final int MONTHS = 30;
+    private static final int PORTFOLIOS = 40;
+
+    @Test
+    void testCalendarPolicyMatchesReBalanceCommand() {
+        PortfolioService policy = newService(NumericEngine.BIG_DECIMAL, new CalendarReBalancePolicy(6));
+        policy.allocate(amounts(6000, 3000, 1000));
+        policy.initSip(amounts(2000, 1000, 500));
+        double[][] sample = {{4, 10, 2}, {-10, 40, 0}, {12.5, 12.5, 12.5}, {8, -3, 7}, {13, 21, 10.5}, {10, 8, -5}};
+        for (int month = 0; month < sample.length; month++) {
+            policy.change(sample[month], Month.of(month + 1));
+        }
+        assertEquals("23622 11811 3937", policy.balance(Month.JUNE));
+        assertEquals("23622 11811 3937", policy.reBalance());
+
+        Random random = new Random(20400101L);
+        PortfolioService command = newService(NumericEngine.BIG_DECIMAL, ReBalancePolicy.NONE);
+        PortfolioService calendar = newService(NumericEngine.FIXED_POINT, new CalendarReBalancePolicy(6));
+        for (PortfolioService service : Arrays.asList(command, calendar)) {
+            service.allocate(amounts(6000, 3000, 1000));
+            service.initSip(amounts(2000, 1000, 500));
+        }
+        for (int month = 0; month < MONTHS; month++) {
+            double[] rates = randomRates(random);
+            command.change(rates, START.plusMonths(month));
+            calendar.change(rates, START.plusMonths(month));
+            if (month % 6 == 5) {
+                command.reBalance();
+            }
+            assertEquals(command.balance(START.plusMonths(month)), calendar.balance(START.plusMonths(month)), "Month " + month);
+        }
+        for (int month = 0; month < MONTHS; month++) {
+            assertEquals(command.balance(START.plusMonths(month)), calendar.balance(START.plusMonths(month)), "Month " + month);
+        }
+    }
+
+    @Test
+    void testDriftPolicyMatchesAcrossEnginesAndStores() {
+        ReBalancePolicy policy = ReBalancePolicy.parse("DRIFT:5");
+        Random random = new Random(20400102L);
+        ColumnarStateStore store = new ColumnarStateStore();
+        List<PortfolioService> columnar = new ArrayList<>();
+        List<PortfolioService> references = new ArrayList<>();
+        List<PortfolioService> unbalanced = new ArrayList<>();
+        for (int i = 0; i < PORTFOLIOS; i++) {
+            int slot = store.addPortfolio();
+            columnar.add(new PortfolioServiceImpl(store.newDataStub(slot), store.newPortfolio(slot),
+                    NumericEngine.FIXED_POINT, policy));
+            references.add(newService(NumericEngine.BIG_DECIMAL, policy));
+            unbalanced.add(newService(NumericEngine.BIG_DECIMAL, ReBalancePolicy.NONE));
+            BigDecimal[] allocation = amounts(1 + random.nextInt(100_000), 1 + random.nextInt(100_000), 1 + random.nextInt(100_000));
+            BigDecimal[] sip = amounts(random.nextInt(5000), random.nextInt(5000), random.nextInt(5000));
+            for (PortfolioService service : Arrays.asList(columnar.get(i), references.get(i), unbalanced.get(i))) {
+                service.allocate(allocation);
+                service.initSip(sip);
+            }
+        }
+
+        // Balances of every month while they are recent, to compare with the replays at the end.
+        List<List<String>> recent = new ArrayList<>();
+        for (int month = 0; month < MONTHS; month++) {
+            double[] rates = randomRates(random);
+            List<String> balances = new ArrayList<>();
+            for (int i = 0; i < PORTFOLIOS; i++) {
+                columnar.get(i).change(rates, START.plusMonths(month));
+                references.get(i).change(rates, START.plusMonths(month));
+                unbalanced.get(i).change(rates, START.plusMonths(month));
+                balances.add(columnar.get(i).balance(START.plusMonths(month)));
+                assertEquals(references.get(i).balance(START.plusMonths(month)), balances.get(i),
+                        "Portfolio " + i + ", month " + month);
+            }
+            recent.add(balances);
+        }
+
+        boolean reBalanced = false;
+        for (int month = 0; month < MONTHS; month++) {
+            for (int i = 0; i < PORTFOLIOS; i++) {
+                String balance = columnar.get(i).balance(START.plusMonths(month));
+                assertEquals(recent.get(month).get(i), balance, "Portfolio " + i + ", month " + month);
+                reBalanced |= !balance.equals(unbalanced.get(i).balance(START.plusMonths(month)));
+            }
+        }
+        assertTrue(reBalanced, "The policy never re-balanced");
+    }
+
+    @Test
+    void testPortfolioDrift() {
+        PortfolioDrift drift = new PortfolioDrift(new double[]{60, 30, 10});
+        drift.update(0, 600);
+        drift.update(1, 300);
+        drift.update(2, 100);
+        assertEquals(1000, drift.getTotal());
+        assertEquals(0, drift.maxDrift(), 1e-9);
+        drift.update(1, 500);
+        assertEquals(1200, drift.getTotal());
+        assertEquals(50, drift.weight(0), 1e-9);
+        assertEquals(-10, drift.drift(0), 1e-9);
+        assertEquals(100 * 500 / 1200d - 30, drift.maxDrift(), 1e-9);
+        assertTrue(new DriftReBalancePolicy(10).shouldReBalance(0, drift));
+        assertFalse(new DriftReBalancePolicy(12).shouldReBalance(0, drift));
+    }
+
+    @Test
+    void testParse() {
+        assertSame(ReBalancePolicy.NONE, ReBalancePolicy.parse(" "));
+        assertSame(ReBalancePolicy.NONE, ReBalancePolicy.parse("NONE"));
+        assertEquals(12, ((CalendarReBalancePolicy) ReBalancePolicy.parse("CALENDAR:12")).getPeriodMonths());
+        assertEquals(2.5, ((DriftReBalancePolicy) ReBalancePolicy.parse("DRIFT:2.5")).getMaxDrift());
+        for (String invalid : Arrays.asList("CALENDAR", "CALENDAR:0", "CALENDAR:x", "DRIFT:-1", "DRIFT:101", "WEEKLY:1")) {
+            assertThrows(IllegalArgumentException.class, () -> ReBalancePolicy.parse(invalid), invalid);
+        }
+    }
+
+    private static PortfolioService newService(NumericEngine numericEngine, ReBalancePolicy policy) {
+        return new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()), numericEngine, policy);
+    }
+
+    private static BigDecimal[] amounts(long... values) {
+        BigDecimal[] amounts = new BigDecimal[values.length];
+        for (int i = 0; i < values.length; i++) {
+            amounts[i] = BigDecimal.valueOf(values[i]);
+        }
+        return amounts;
+    }
+
+    private static double[] randomRates(Random random) {
+        double[] rates = new double[3];
+        for (int asset = 0; asset < rates.length; asset++) {
+            // Half percents, like the sample input.
+            rates[asset] = (random.nextInt(81) - 30) / 2d;
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,163 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.cluster.ShardCoordinator;
+import org.navi.mymoney.cluster.WorkerProcess;
+import org.navi.mymoney.dao.OffHeapStateStore;
+import org.navi.mymoney.dao.StateStorage;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.rebalance.ReBalancePolicy;
+import org.navi.mymoney.validation.ErrorPolicy;
+import org.navi.mymoney.validation.ErrorReport;
+import org.navi.mymoney.validation.InvalidInputException;
+import org.navi.mymoney.workload.WorkloadGenerator;
+import org.navi.mymoney.workload.WorkloadMix;
+import org.navi.mymoney.workload.WorkloadSpec;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the coordinator with worker JVMs started on this machine, and checks its outputs against the engine's.
+ */
+class ShardCoordinatorTest {
+    private static final List<String> WORKER_JVM_ARGS = Arrays.asList("-Xmx256m", "-XX:TieredStopAtLevel=1");
+
+    @TempDir
+    static Path tempDir;
+
+    private static Path input;
+    private static String expected;
+    private static ErrorReport expectedReport;
+
+    @BeforeAll
+    static void generateInput() throws IOException {
+        input = tempDir.resolve("portfolios.txt");
+        WorkloadGenerator.write(WorkloadSpec.builder().lines(10_000).portfolios(100).malformedRatio(0.02)
+                .mix(WorkloadMix.READ_HEAVY).seed(24).build(), input);
+        StringWriter output = new StringWriter();
+        try (PortfolioEngine engine = new PortfolioEngine(2, NumericEngine.FIXED_POINT)) {
+            engine.executeCommandsFromFileInParallel(input.toString(), output);
+            expectedReport = engine.getErrorReport();
+        }
+        expected = output.toString();
+        assertTrue(expectedReport.hasErrors());
+    }
+
+    @Test
+    void testOutputsMatchEngine() throws IOException {
+        try (ShardCoordinator coordinator = newCoordinator(2)) {
+            StringWriter output = new StringWriter();
+            coordinator.executeCommandsFromFile(input.toString(), output);
+            assertEquals(expected, output.toString());
+            assertEquals(expectedReport.summary(), coordinator.getErrorReport().summary());
+            assertEquals(2 * ShardCoordinator.SHARDS_PER_WORKER, coordinator.getShardCount());
+
+            // A second file starts from no portfolio, on the same workers.
+            StringWriter again = new StringWriter();
+            coordinator.executeCommandsFromFile(input.toString(), again);
+            assertEquals(expected, again.toString());
+            assertEquals(2, coordinator.getWorkers().size());
+            assertEquals(0, coordinator.getReassignments());
+        }
+    }
+
+    @Test
+    void testShardsOfDeadWorkerAreReplayed() throws IOException {
+        try (ShardCoordinator coordinator = newCoordinator(3)) {
+            StringWriter output = new StringWriter();
+            // Kills a worker once the outputs of the first batch are out, while it holds the state of its shards.
+            BufferedWriter killingWriter = new BufferedWriter(output) {
+                @Override
+                public void newLine() throws IOException {
+                    WorkerProcess worker = coordinator.getWorkers().get(0);
+                    if (worker.isAlive()) {
+                        worker.kill();
+                    }
+                    super.newLine();
+                }
+            };
+            coordinator.executeCommandsFromFile(input.toString(), killingWriter);
+            assertEquals(expected, output.toString());
+            assertFalse(coordinator.getWorkers().get(0).isAlive());
+            assertTrue(coordinator.getWorkers().get(1).isAlive() && coordinator.getWorkers().get(2).isAlive());
+            assertEquals(ShardCoordinator.SHARDS_PER_WORKER, coordinator.getReassignments());
+        }
+    }
+
+    @Test
+    void testShardsOfWorkerKilledMidFileAreRestoredFromTheirCheckpoint() throws IOException {
+        long outputs = expected.split("\n").length;
+        try (ShardCoordinator coordinator = newCoordinator(3)) {
+            StringWriter output = new StringWriter();
+            // Kills a worker once half of the outputs are out, well after its shards were checkpointed.
+            BufferedWriter killingWriter = new BufferedWriter(output) {
+                private long written;
+
+                @Override
+                public void newLine() throws IOException {
+                    WorkerProcess worker = coordinator.getWorkers().get(0);
+                    if (++written >= outputs / 2 && worker.isAlive()) {
+                        worker.kill();
+                    }
+                    super.newLine();
+                }
+            };
+            coordinator.executeCommandsFromFile(input.toString(), killingWriter);
+            assertEquals(expected, output.toString());
+            assertEquals(expectedReport.summary(), coordinator.getErrorReport().summary());
+            assertFalse(coordinator.getWorkers().get(0).isAlive());
+            assertEquals(ShardCoordinator.SHARDS_PER_WORKER, coordinator.getReassignments());
+            // The checkpoint of each portfolio and the lines since, at most a third of CHECKPOINT_BATCHES batches.
+            long maxReplayed = 100 + ShardCoordinator.CHECKPOINT_BATCHES * 1000 / 3;
+            assertTrue(coordinator.getReplayedLines() > 0 && coordinator.getReplayedLines() < maxReplayed,
+                    coordinator.getReplayedLines() + " lines replayed");
+        }
+    }
+
+    @Test
+    void testShardsRunInTheCoordinatorWhenNoWorkerStarts() throws IOException {
+        try (ShardCoordinator coordinator = new ShardCoordinator(1, 1000, 30_000,
+                Collections.singletonList("-XX:+NoSuchOption"),
+                ShardCoordinator.workerProperties(NumericEngine.FIXED_POINT.name(), "NONE"))) {
+            StringWriter output = new StringWriter();
+            coordinator.executeCommandsFromFile(input.toString(), output);
+            assertEquals(expected, output.toString());
+            assertTrue(coordinator.getWorkers().stream().noneMatch(WorkerProcess::isAlive));
+        }
+    }
+
+    @Test
+    void testFailFastStopsAtTheSameLineAsTheEngine() throws IOException {
+        StringWriter expectedOutput = new StringWriter();
+        String expectedError;
+        try (PortfolioEngine engine = new PortfolioEngine(2, NumericEngine.FIXED_POINT, ReBalancePolicy.NONE,
+                StateStorage.HEAP, null, OffHeapStateStore.DEFAULT_TIMELINE_MONTHS, ErrorPolicy.FAIL_FAST)) {
+            expectedError = assertThrows(InvalidInputException.class,
+                    () -> engine.executeCommandsFromFile(input.toString(), expectedOutput)).getMessage();
+        }
+        try (ShardCoordinator coordinator = new ShardCoordinator(1, 1000, 30_000, WORKER_JVM_ARGS,
+                ShardCoordinator.workerProperties(NumericEngine.FIXED_POINT.name(), "NONE"), ErrorPolicy.FAIL_FAST)) {
+            StringWriter output = new StringWriter();
+            InvalidInputException e = assertThrows(InvalidInputException.class,
+                    () -> coordinator.executeCommandsFromFile(input.toString(), output));
+            assertEquals(expectedError, e.getMessage());
+            assertEquals(expectedOutput.toString(), output.toString());
+        }
+    }
+
+    private static ShardCoordinator newCoordinator(int workers) {
+        return new ShardCoordinator(workers, 1000, 30_000, WORKER_JVM_ARGS,
+                ShardCoordinator.workerProperties(NumericEngine.FIXED_POINT.name(), "NONE"));
+    }
+}
@@ -0,0 +1,90 @@
+package org.navi.mymoney;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.navi.mymoney.constants.Command;
+import org.navi.mymoney.dao.DataStub;
+import org.navi.mymoney.engine.PortfolioEngine;
+import org.navi.mymoney.metrics.CommandMetrics;
+import org.navi.mymoney.models.Portfolio;
+import org.navi.mymoney.numeric.NumericEngine;
+import org.navi.mymoney.services.PortfolioServiceImpl;
+import org.navi.mymoney.validation.ErrorPolicy;
+import org.navi.mymoney.validation.ErrorReport;
+import org.navi.mymoney.workload.WorkloadGenerator;
+import org.navi.mymoney.workload.WorkloadMix;
+import org.navi.mymoney.workload.WorkloadSpec;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkloadGeneratorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSameSeedSameStream() throws IOException {
+        WorkloadSpec spec = WorkloadSpec.builder().lines(5000).portfolios(50).malformedRatio(0.1).seed(42).build();
+        StringWriter first = new StringWriter();
+        StringWriter second = new StringWriter();
+        assertEquals(5000, new WorkloadGenerator(spec).generate(first));
+        new WorkloadGenerator(spec).generate(second);
+        assertEquals(first.toString(), second.toString());
+
+        StringWriter other = new StringWriter();
+        new WorkloadGenerator(WorkloadSpec.builder().lines(5000).portfolios(50).malformedRatio(0.1).seed(43).build())
+                .generate(other);
+        assertNotEquals(first.toString(), other.toString());
+    }
+
+    @Test
+    void testOnlyMalformedLinesAreRejected() throws IOException {
+        for (WorkloadMix mix : WorkloadMix.values()) {
+            for (double malformedRatio : new double[]{0, 0.05, 0.5}) {
+                Path input = tempDir.resolve(mix + "-" + malformedRatio + ".txt");
+                WorkloadGenerator generator = WorkloadGenerator.write(WorkloadSpec.builder().lines(10_000)
+                        .malformedRatio(malformedRatio).mix(mix).seed(7).build(), input);
+                Driver driver = new Driver(new PortfolioServiceImpl(new DataStub(), new Portfolio(new HashSet<>()),
+                        NumericEngine.FIXED_POINT),
+                        new CommandMetrics(), ErrorPolicy.SKIP);
+                StringWriter output = new StringWriter();
+                driver.executeCommandsFromMappedFile(input.toString(), output);
+
+                ErrorReport report = driver.getErrorReport();
+                assertEquals(10_000, report.getLines());
+                assertEquals(generator.getMalformedLines(), report.getErrors(), mix + " " + malformedRatio);
+                Map<Command, Long> counts = generator.getCommandCounts();
+                assertEquals(1, counts.get(Command.ALLOCATE));
+                assertEquals(1, counts.get(Command.SIP));
+                long outputs = counts.get(Command.BALANCE) + counts.get(Command.REBALANCE);
+                assertEquals(outputs, output.toString().split(System.lineSeparator()).length);
+            }
+        }
+    }
+
+    @Test
+    void testPortfoliosRunInParallelLikeInSequence() throws IOException {
+        Path input = tempDir.resolve("portfolios.txt");
+        WorkloadGenerator.write(WorkloadSpec.builder().lines(10_000).portfolios(100).malformedRatio(0.02)
+                .mix(WorkloadMix.READ_HEAVY).seed(11).build(), input);
+        try (PortfolioEngine engine = new PortfolioEngine(3, NumericEngine.FIXED_POINT)) {
+            StringWriter sequential = new StringWriter();
+            engine.executeCommandsFromFile(input.toString(), sequential);
+            List<String> expected = Arrays.asList(sequential.toString().split(System.lineSeparator()));
+            assertFalse(expected.isEmpty());
+            StringWriter output = new StringWriter();
+            try (PortfolioEngine parallel = new PortfolioEngine(3, NumericEngine.FIXED_POINT)) {
+                assertEquals(expected.size(), parallel.executeCommandsFromFileInParallel(input.toString(), output, 64 * 1024));
+            }
+            assertEquals(expected, Arrays.asList(output.toString().split(System.lineSeparator())));
+        }
+    }
+}